@@ -0,0 +1,149 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.common.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker for the requests to one host.
+ * <p>
+ * The circuit is closed while requests succeed. Once the given number of
+ * requests in a row have failed, it opens, and requests are refused without
+ * being sent until the open time has passed. Then it is half open: one
+ * request is let through as a probe, and the circuit closes if it succeeds,
+ * or opens again if it fails. All methods are thread-safe.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openedAt;
+
+    private boolean probing;
+
+    private long refused;
+
+    /**
+     * Creates a closed circuit breaker.
+     *
+     * @param name the name of the host, for logging
+     * @param failureThreshold the number of failures in a row that open the
+     *        circuit, or 0 for it never to open
+     * @param openMillis how long the circuit stays open before a probe is let
+     *        through
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Tells whether a request may be sent, which it may if the circuit is
+     * closed, or if it is the probe of a half-open circuit. A caller that is
+     * allowed must report the outcome of its request.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN
+                && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        refused++;
+        return false;
+    }
+
+    /**
+     * Reports a request that succeeded.
+     */
+    public synchronized void success() {
+        if (state != State.CLOSED) {
+            logger.info("Closing circuit to " + name
+                    + "; probe request succeeded");
+        }
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    /**
+     * Reports a request that failed.
+     */
+    public synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN
+                || (state == State.CLOSED && failureThreshold > 0
+                        && failures >= failureThreshold)) {
+            logger.warn("Opening circuit to " + name + " for " + openMillis
+                    + "ms after " + failures + " failed requests in a row");
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            probing = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the number of requests that have failed in a row.
+     */
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Gets the number of requests that were refused while the circuit was
+     * open.
+     */
+    public synchronized long getRefused() {
+        return refused;
+    }
+
+    /**
+     * Gets how long, in milliseconds, until a probe request will be let
+     * through, or 0 if one may be now.
+     */
+    public synchronized long getRetryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openMillis
+                - (System.currentTimeMillis() - openedAt));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + " circuit " + state + " (" + failures + " failures, "
+                + refused + " refused)";
+    }
+}
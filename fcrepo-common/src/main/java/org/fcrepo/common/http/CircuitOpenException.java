@@ -0,0 +1,23 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.common.http;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request was not sent because the circuit to its host is
+ * open, after too many requests to it failed.
+ *
+ * @version $Id$
+ */
+public class CircuitOpenException
+        extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,136 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.common.http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Connection settings of the web client for one route, a host and port,
+ * which override those of the {@link WebClientConfiguration}. A negative
+ * value leaves the general setting in effect. Routes are named "host:port",
+ * with the host in lower case; {@link #getRoute(String)} gives the route of
+ * a URL.
+ *
+ * @version $Id$
+ */
+public class RouteConfiguration {
+
+    /** Maximum http connections to the route */
+    private int max_conn = -1;
+
+    /** Seconds to wait before a connection is established. */
+    private int timeout_secs = -1;
+
+    /** Seconds to wait while waiting for data over the socket (SO_TIMEOUT). */
+    private int sock_timeout_secs = -1;
+
+    /** Failed requests in a row after which the route's circuit opens. */
+    private int circuit_breaker_failures = -1;
+
+    public RouteConfiguration() {
+        super();
+    }
+
+    /**
+     * @param max_conn Maximum number of http connections to the route
+     * @param timeout_secs Seconds to wait before a connection is established
+     * @param sock_timeout_secs Seconds to wait while waiting for data over the socket (SO_TIMEOUT)
+     */
+    public RouteConfiguration(int max_conn,
+                              int timeout_secs,
+                              int sock_timeout_secs) {
+        this.max_conn = max_conn;
+        this.timeout_secs = timeout_secs;
+        this.sock_timeout_secs = sock_timeout_secs;
+    }
+
+    /**
+     * Gets the route of a URL: its host, in lower case, and its port, or the
+     * default port of its protocol.
+     *
+     * @return the route, as "host:port", or null if the URL is malformed.
+     */
+    public static String getRoute(String url) {
+        try {
+            URL u = new URL(url);
+            int port = u.getPort() == -1 ? u.getDefaultPort() : u.getPort();
+            return u.getHost().toLowerCase() + ":" + port;
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks that a route given in configuration is "host:port", and puts
+     * its host in lower case, so that it matches {@link #getRoute(String)}.
+     *
+     * @throws IllegalArgumentException
+     *         if the route isn't a host and port.
+     */
+    public static String normalize(String route) {
+        int sep = route.lastIndexOf(':');
+        if (sep < 1) {
+            throw new IllegalArgumentException("Route '" + route
+                    + "' is not host:port");
+        }
+        try {
+            int port = Integer.parseInt(route.substring(sep + 1));
+            if (port < 1 || port > 65535) {
+                throw new NumberFormatException();
+            }
+            return route.substring(0, sep).toLowerCase() + ":" + port;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Route '" + route
+                    + "' has a bad port");
+        }
+    }
+
+    /**
+     * Gets the host of a normalized route.
+     */
+    public static String getHost(String route) {
+        return route.substring(0, route.lastIndexOf(':'));
+    }
+
+    /**
+     * Gets the port of a normalized route.
+     */
+    public static int getPort(String route) {
+        return Integer.parseInt(route.substring(route.lastIndexOf(':') + 1));
+    }
+
+    public int getMaxConn() {
+        return max_conn;
+    }
+
+    public void setMaxConn(int max_conn) {
+        this.max_conn = max_conn;
+    }
+
+    public int getTimeoutSecs() {
+        return timeout_secs;
+    }
+
+    public void setTimeoutSecs(int timeout_secs) {
+        this.timeout_secs = timeout_secs;
+    }
+
+    public int getSockTimeoutSecs() {
+        return sock_timeout_secs;
+    }
+
+    public void setSockTimeoutSecs(int sock_timeout_secs) {
+        this.sock_timeout_secs = sock_timeout_secs;
+    }
+
+    public int getCircuitBreakerFailures() {
+        return circuit_breaker_failures;
+    }
+
+    public void setCircuitBreakerFailures(int circuit_breaker_failures) {
+        this.circuit_breaker_failures = circuit_breaker_failures;
+    }
+}
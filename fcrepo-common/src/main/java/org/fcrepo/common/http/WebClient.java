@@ -8,29 +8,43 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A general-purpose, connection-pooling HTTP Client. All methods are
- * thread-safe. Provides option for client to handle HTTP redirects
+ * thread-safe. Provides option for client to handle HTTP redirects.
+ * Routes (hosts and ports) may be given their own connection limits and
+ * timeouts, and if so configured, requests to a host are refused for a while
+ * once too many of them in a row have failed, so that a slow or broken host
+ * does not hold on to the connections and threads of the others.
  *
  * @author Chris Wilper, Scott Prater
  * @version $Id$
@@ -49,6 +63,18 @@ public class WebClient {
      */
     private final ProxyConfiguration proxy;
 
+    /**
+     * The circuit breakers of the routes requested so far, keyed by
+     * "host:port".
+     */
+    private final ConcurrentMap<String, CircuitBreaker> breakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * The direct routes requested so far, keyed by "host:port".
+     */
+    private final ConcurrentMap<String, HttpRoute> routes =
+            new ConcurrentHashMap<String, HttpRoute>();
 
     public WebClient() {
         wconfig = new WebClientConfiguration();
@@ -83,6 +109,8 @@ public class WebClient {
         logger.debug("Socket Connection timeout is " + wconfig.getSockTimeoutSecs());
         logger.debug("Follow redirects? " + wconfig.getFollowRedirects());
         logger.debug("Max number of redirects to follow is " + wconfig.getMaxRedirects());
+        logger.debug("Circuit breaker failures is " + wconfig.getCircuitBreakerFailures());
+        logger.debug("Circuit breaker open seconds is " + wconfig.getCircuitBreakerOpenSecs());
 
         PoolingClientConnectionManager cManager = new PoolingClientConnectionManager();
         cManager.setDefaultMaxPerRoute(wconfig.getMaxConnPerHost());
@@ -93,6 +121,21 @@ public class WebClient {
         cManager.getSchemeRegistry().register(
                 new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
 
+        for (Map.Entry<String, RouteConfiguration> route : wconfig.getRoutes()
+                .entrySet()) {
+            int max = route.getValue().getMaxConn();
+            if (max < 0) {
+                continue;
+            }
+            String host = RouteConfiguration.getHost(route.getKey());
+            int port = RouteConfiguration.getPort(route.getKey());
+            logger.debug("Max connections to " + route.getKey() + " is " + max);
+            cManager.setMaxPerRoute(new HttpRoute(new HttpHost(host, port, "http")),
+                                    max);
+            cManager.setMaxPerRoute(new HttpRoute(new HttpHost(host, port, "https")),
+                                    max);
+        }
+
         return cManager;
     }
     
@@ -100,6 +143,34 @@ public class WebClient {
         cManager.shutdown();
     }
 
+    /**
+     * Gets the state of the connection pool of each route requested so far:
+     * the number of connections leased and available, the number of requests
+     * waiting for one and the maximum, followed by the state of the route's
+     * circuit breaker, if any. Requests made through a proxy share the pool
+     * of the proxy's route, so aren't counted here.
+     *
+     * @return a description of the state of each route, keyed by "host:port"
+     */
+    public Map<String, String> getRouteStatistics() {
+        Map<String, String> stats = new TreeMap<String, String>();
+        for (Map.Entry<String, HttpRoute> route : routes.entrySet()) {
+            PoolStats pool = cManager.getStats(route.getValue());
+            StringBuilder stat = new StringBuilder();
+            stat.append("leased=").append(pool.getLeased());
+            stat.append(", pending=").append(pool.getPending());
+            stat.append(", available=").append(pool.getAvailable());
+            stat.append(", max=").append(pool.getMax());
+            CircuitBreaker breaker = breakers.get(route.getKey());
+            if (breaker != null) {
+                stat.append(", circuit=").append(breaker.getState());
+                stat.append(", refused=").append(breaker.getRefused());
+            }
+            stats.put(route.getKey(), stat.toString());
+        }
+        return stats;
+    }
+
     public HttpClient getHttpClient(String hostOrUrl) throws IOException, ConnectTimeoutException {
         return getHttpClient(hostOrUrl, null);
     }
@@ -161,6 +232,41 @@ public class WebClient {
         return get(url, failIfNotOK, creds);
     }
 
+    /**
+     * Get an HTTP resource with the given connection and socket timeouts
+     * rather than the configured ones. A negative timeout leaves the
+     * configured one in effect.
+     */
+    public HttpInputStream get(String url,
+                               boolean failIfNotOK,
+                               String user,
+                               String pass,
+                               int timeoutSecs,
+                               int sockTimeoutSecs) throws IOException {
+        return get(url, failIfNotOK, user, pass, timeoutSecs, sockTimeoutSecs,
+                   null);
+    }
+
+    /**
+     * Get an HTTP resource with the given timeouts and additional request
+     * headers, such as those of a conditional request. The headers are sent
+     * again with each redirect that is followed, so that the validators of a
+     * conditional request reach the resource it is redirected to.
+     */
+    public HttpInputStream get(String url,
+                               boolean failIfNotOK,
+                               String user,
+                               String pass,
+                               int timeoutSecs,
+                               int sockTimeoutSecs,
+                               Header[] headers) throws IOException {
+        UsernamePasswordCredentials creds = null;
+        if (user != null && !user.equals("") && pass != null && !pass.equals(""))
+            creds = new UsernamePasswordCredentials(user, pass);
+        return get(url, failIfNotOK, creds, timeoutSecs, sockTimeoutSecs,
+                   headers);
+    }
+
     /**
      * Get an HTTP resource with the response as an InputStream, given a URL. If
      * FOLLOW_REDIRECTS is true, up to MAX_REDIRECTS redirects will be followed.
@@ -183,72 +289,199 @@ public class WebClient {
                                boolean failIfNotOK,
                                UsernamePasswordCredentials creds)
             throws IOException {
+        return get(url, failIfNotOK, creds, -1, -1, null);
+    }
 
-        HttpClient client;
-        HttpGet getMethod = new HttpGet(url);
+    private HttpInputStream get(String url,
+                                boolean failIfNotOK,
+                                UsernamePasswordCredentials creds,
+                                int timeoutSecs,
+                                int sockTimeoutSecs,
+                                Header[] headers)
+            throws IOException {
 
-        if (wconfig.getUserAgent() != null) {
-            getMethod.setHeader(HttpHeaders.USER_AGENT, wconfig.getUserAgent());
+        HttpInputStream in =
+                send(url, creds, timeoutSecs, sockTimeoutSecs, headers);
+        // followed here rather than by HttpClient, so that the redirect
+        // settings apply, and a conditional request keeps its validators
+        int count = 0;
+        while (wconfig.getFollowRedirects() && isRedirect(in.getStatusCode())
+                && count < wconfig.getMaxRedirects()) {
+            Header location = in.getResponseHeader(HttpHeaders.LOCATION);
+            if (location == null) {
+                in.close();
+                throw new IOException("Redirect HTTP response provided no location header.");
+            }
+            url = resolve(url, location.getValue());
+            in.close();
+            in = send(url, null, timeoutSecs, sockTimeoutSecs, headers);
+            count++;
         }
-        if (creds != null && creds.getUserName() != null
-                && creds.getUserName().length() > 0) {
-            client = getHttpClient(url, creds);
-        } else {
-            client = getHttpClient(url);
+        int status = in.getStatusCode();
+        if (failIfNotOK && status != 200) {
+            try {
+                if (wconfig.getFollowRedirects() && isRedirect(status)) {
+                    throw new IOException("Too many redirects");
+                }
+                throw new IOException("Request failed ["
+                        + in.getStatusCode() + " " + in.getStatusText()
+                        + "]");
+            } finally {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    logger.error("Can't close InputStream: "
+                            + e.getMessage());
+                }
+            }
         }
+        return in;
+    }
 
-        HttpInputStream in = new HttpInputStream(client, getMethod);
-        int status = in.getStatusCode();
-        if (failIfNotOK) {
-            if (status != 200) {
-                //if (followRedirects && in.getStatusCode() == 302){
-                if (wconfig.getFollowRedirects() && 300 <= status && status <= 399) {
-                    int count = 1;
-                    while (300 <= status && status <= 399
-                            && count <= wconfig.getMaxRedirects()) {
-                        if (in.getResponseHeader(HttpHeaders.LOCATION) == null) {
-                            throw new IOException("Redirect HTTP response provided no location header.");
-                        }
-                        url = in.getResponseHeader(HttpHeaders.LOCATION).getValue();
-                        in.close();
-                        getMethod = new HttpGet(url);
-                        if (wconfig.getUserAgent() != null) {
-                            getMethod
-                                    .setHeader(HttpHeaders.USER_AGENT, wconfig.getUserAgent());
-                        }
-                        in = new HttpInputStream(client, getMethod);
-                        status = in.getStatusCode();
-                        count++;
-                    }
-                    if (300 <= status && status <= 399) {
-                        in.close();
-                        throw new IOException("Too many redirects");
-                    } else if (status != 200) {
-                        in.close();
-                        throw new IOException("Request failed ["
-                                + in.getStatusCode() + " " + in.getStatusText()
-                                + "]");
-                    }
-                    // redirect was successful!
+    /**
+     * Sends one GET request, without following redirects, through the
+     * circuit breaker of its route. Once the breaker has let the request
+     * through, its outcome is reported however the request ends, since a
+     * half-open circuit lets nothing else through until its probe reports.
+     */
+    private HttpInputStream send(String url,
+                                 UsernamePasswordCredentials creds,
+                                 int timeoutSecs,
+                                 int sockTimeoutSecs,
+                                 Header[] headers) throws IOException {
+        String route = getRoute(url);
+        RouteConfiguration routeConfig =
+                route == null ? null : wconfig.getRoute(route);
+        if (routeConfig != null) {
+            if (timeoutSecs < 0) {
+                timeoutSecs = routeConfig.getTimeoutSecs();
+            }
+            if (sockTimeoutSecs < 0) {
+                sockTimeoutSecs = routeConfig.getSockTimeoutSecs();
+            }
+        }
+        CircuitBreaker breaker = getCircuitBreaker(route, routeConfig);
+        if (breaker != null && !breaker.allowRequest()) {
+            throw new CircuitOpenException("Request to " + url
+                    + " not sent; too many requests to " + route
+                    + " have failed, retry in "
+                    + (breaker.getRetryAfterMillis() / 1000 + 1) + "s");
+        }
+
+        HttpInputStream in = null;
+        try {
+            HttpClient client;
+            HttpGet getMethod =
+                    newGet(url, timeoutSecs, sockTimeoutSecs, headers);
+            if (creds != null && creds.getUserName() != null
+                    && creds.getUserName().length() > 0) {
+                client = getHttpClient(url, creds);
+            } else {
+                client = getHttpClient(url);
+            }
+            in = new HttpInputStream(client, getMethod);
+        } finally {
+            if (breaker != null) {
+                if (in == null || in.getStatusCode() >= 500) {
+                    breaker.failure();
                 } else {
-                    try {
-                        throw new IOException("Request failed ["
-                                + in.getStatusCode() + " " + in.getStatusText()
-                                + "]");
-                    } finally {
-                        try {
-                            in.close();
-                        } catch (Exception e) {
-                            logger.error("Can't close InputStream: "
-                                    + e.getMessage());
-                        }
-                    }
+                    breaker.success();
                 }
             }
         }
         return in;
     }
 
+    private static boolean isRedirect(int status) {
+        return status == 301 || status == 302 || status == 303
+                || status == 307 || status == 308;
+    }
+
+    /**
+     * Resolves the location of a redirect, which may be relative, against
+     * the URL that was redirected.
+     */
+    private static String resolve(String url, String location)
+            throws IOException {
+        try {
+            return new URI(url).resolve(location).toString();
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad redirect location: " + location);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad redirect location: " + location);
+        }
+    }
+
+    /**
+     * Gets the route of the given URL, recording the direct route to it for
+     * the statistics, or null if the URL is malformed.
+     */
+    private String getRoute(String url) {
+        String route = RouteConfiguration.getRoute(url);
+        if (route != null && !routes.containsKey(route)) {
+            routes.putIfAbsent(route, new HttpRoute(new HttpHost(
+                    RouteConfiguration.getHost(route),
+                    RouteConfiguration.getPort(route),
+                    url.substring(0, url.indexOf(':')).toLowerCase())));
+        }
+        return route;
+    }
+
+    /**
+     * Gets the circuit breaker of the given route, or null if circuit
+     * breakers are disabled for it.
+     */
+    private CircuitBreaker getCircuitBreaker(String route,
+                                             RouteConfiguration routeConfig) {
+        if (route == null) {
+            return null;
+        }
+        int failures = wconfig.getCircuitBreakerFailures();
+        if (routeConfig != null && routeConfig.getCircuitBreakerFailures() >= 0) {
+            failures = routeConfig.getCircuitBreakerFailures();
+        }
+        if (failures <= 0) {
+            return null;
+        }
+        CircuitBreaker breaker = breakers.get(route);
+        if (breaker == null) {
+            breakers.putIfAbsent(route, new CircuitBreaker(route, failures,
+                    wconfig.getCircuitBreakerOpenSecs() * 1000L));
+            breaker = breakers.get(route);
+        }
+        return breaker;
+    }
+
+    /**
+     * Creates a GET request with the configured User-Agent, the given
+     * headers, if any, and, if they aren't negative, the given timeouts, which
+     * override the client's.
+     */
+    private HttpGet newGet(String url,
+                           int timeoutSecs,
+                           int sockTimeoutSecs,
+                           Header[] headers) {
+        HttpGet getMethod = new HttpGet(url);
+        HttpClientParams.setRedirecting(getMethod.getParams(), false);
+        if (wconfig.getUserAgent() != null) {
+            getMethod.setHeader(HttpHeaders.USER_AGENT, wconfig.getUserAgent());
+        }
+        if (headers != null) {
+            for (Header header : headers) {
+                getMethod.setHeader(header);
+            }
+        }
+        if (timeoutSecs >= 0) {
+            getMethod.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT,
+                                                  timeoutSecs * 1000);
+        }
+        if (sockTimeoutSecs >= 0) {
+            getMethod.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT,
+                                                  sockTimeoutSecs * 1000);
+        }
+        return getMethod;
+    }
+
     public String getResponseAsString(String url, boolean failIfNotOK)
             throws IOException {
         return getResponseAsString(url, failIfNotOK, null);
@@ -4,6 +4,10 @@
  */
 package org.fcrepo.common.http;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Configuration for the http connection settings of the web client.
  *
@@ -38,6 +42,26 @@ public class WebClientConfiguration {
      */
     private String user_agent = null;
 
+    /**
+     * Settings for particular routes, keyed by "host:port", which override
+     * the general ones.
+     */
+    private final Map<String, RouteConfiguration> routes =
+            new HashMap<String, RouteConfiguration>();
+
+    /**
+     * Number of failed requests in a row to a host after which requests to it
+     * are refused for a while. Default is 0, which indicates that requests
+     * are never refused.
+     */
+    private int circuit_breaker_failures = 0;
+
+    /**
+     * Seconds for which requests to a host are refused before one is let
+     * through to see if it has recovered.
+     */
+    private int circuit_breaker_open_secs = 30;
+
     /**
      * Default constructor.
      */
@@ -177,4 +201,64 @@ public class WebClientConfiguration {
         this.user_agent = user_agent;
     }
 
+    /**
+     * Gets the settings for the given route, if any.
+     * @param route the host and port, as "host:port"
+     * @return the settings of the route, or null if it has none.
+     */
+    public RouteConfiguration getRoute(String route) {
+        return this.routes.get(route);
+    }
+
+    /**
+     * Gets the settings of all the routes that have them.
+     * @return the settings, keyed by "host:port".
+     */
+    public Map<String, RouteConfiguration> getRoutes() {
+        return Collections.unmodifiableMap(this.routes);
+    }
+
+    /**
+     * Sets the settings for the given route, which override the general ones.
+     * @param route the host and port, as "host:port"
+     * @throws IllegalArgumentException if the route isn't "host:port".
+     */
+    public void setRoute(String route, RouteConfiguration config) {
+        this.routes.put(RouteConfiguration.normalize(route), config);
+    }
+
+    /**
+     * Gets the number of failed requests in a row to a host after which
+     * requests to it are refused for a while.
+     * @return the number of failures, or 0 if requests are never refused.
+     */
+    public int getCircuitBreakerFailures() {
+        return this.circuit_breaker_failures;
+    }
+
+    /**
+     * Sets the number of failed requests in a row to a host after which
+     * requests to it are refused for a while, or 0 for never.
+     */
+    public void setCircuitBreakerFailures(int circuit_breaker_failures) {
+        this.circuit_breaker_failures = circuit_breaker_failures;
+    }
+
+    /**
+     * Gets the number of seconds for which requests to a failing host are
+     * refused before one is let through.
+     * @return the number of seconds requests are refused.
+     */
+    public int getCircuitBreakerOpenSecs() {
+        return this.circuit_breaker_open_secs;
+    }
+
+    /**
+     * Sets the number of seconds for which requests to a failing host are
+     * refused before one is let through.
+     */
+    public void setCircuitBreakerOpenSecs(int circuit_breaker_open_secs) {
+        this.circuit_breaker_open_secs = circuit_breaker_open_secs;
+    }
+
 }
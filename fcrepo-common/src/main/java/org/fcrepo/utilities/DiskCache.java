@@ -0,0 +1,385 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded store of content in files, keyed by strings, with a value of the
+ * caller's describing each entry.
+ * <p>
+ * The least recently used entries are deleted once the total size of their
+ * files exceeds the limit. An entry that has been opened can still be read to
+ * the end if it is deleted meanwhile, except on Windows, where opening it
+ * then fails. The index of the files is only kept in memory, so the files
+ * left in the directory by an earlier store are deleted when a store is
+ * created. Files are named after the store's prefix, and only files named
+ * that way are deleted, so the directory may hold other files too. All
+ * methods are thread-safe.
+ * </p>
+ *
+ * @param <V>
+ *        the type of the values describing the entries
+ */
+public class DiskCache<V> {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(DiskCache.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final String SUFFIX = ".cache";
+
+    private final File dir;
+
+    private final String prefix;
+
+    private final long maxBytes;
+
+    private final long maxEntryBytes;
+
+    /** Least recently used first. */
+    private final Map<String, Entry<V>> entries =
+            new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long fileCount;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Creates an empty store, deleting the files an earlier store with the
+     * same prefix left in its directory.
+     *
+     * @param dir
+     *        the directory of the files, which is created if necessary
+     * @param prefix
+     *        the start of the names of the files, which must be a letter
+     *        followed by letters and digits
+     * @param maxBytes
+     *        the total size of the entries to keep
+     * @param maxEntryBytes
+     *        the size of the largest entry to keep
+     * @throws IOException
+     *         if the directory can't be created.
+     */
+    public DiskCache(File dir, String prefix, long maxBytes, long maxEntryBytes)
+            throws IOException {
+        if (!prefix.matches("[A-Za-z][A-Za-z0-9]*")) {
+            throw new IllegalArgumentException("Bad file name prefix: "
+                    + prefix);
+        }
+        this.dir = dir;
+        this.prefix = prefix;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + dir);
+        }
+        Pattern names =
+                Pattern.compile(prefix + "[0-9]+" + Pattern.quote(SUFFIX));
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (names.matcher(file.getName()).matches() && file.isFile()
+                        && !file.delete()) {
+                    logger.warn("Unable to delete old cache file " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a key for the given string: the hex SHA-1 digest of its UTF-8
+     * encoding.
+     */
+    public static String getKey(String string) {
+        try {
+            byte[] digest =
+                    MessageDigest.getInstance("SHA-1").digest(string
+                            .getBytes("UTF-8"));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets an entry, counting a miss if there is none.
+     *
+     * @return the entry, or null if there is none.
+     */
+    public synchronized Entry<V> get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        }
+        return entry;
+    }
+
+    /**
+     * Opens the content of an entry, counting a hit if it can be read.
+     *
+     * @return the content, or null if it can no longer be read, in which
+     *         case the entry is removed.
+     */
+    public InputStream open(String key, Entry<V> entry) {
+        try {
+            InputStream in = new FileInputStream(entry.file);
+            synchronized (this) {
+                hits++;
+            }
+            return in;
+        } catch (IOException e) {
+            logger.warn("Unable to read cache file " + entry.file, e);
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    remove(key);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the value of an entry, unless the entry has been replaced or
+     * removed meanwhile.
+     *
+     * @return the entry with the new value.
+     */
+    public synchronized Entry<V> setValue(String key, Entry<V> entry, V value) {
+        Entry<V> updated = new Entry<V>(entry.file, entry.size, value);
+        if (entries.get(key) == entry) {
+            entries.put(key, updated);
+        }
+        return updated;
+    }
+
+    /**
+     * Creates a file in the store's directory, to which content can be
+     * written before it is added with {@link #put(String, File, Object)}.
+     */
+    public synchronized File newFile() {
+        return new File(dir, prefix + (fileCount++) + SUFFIX);
+    }
+
+    /**
+     * Adds an entry whose content has been written to a file, removing the
+     * least recently used entries if the store is then too large. A file
+     * larger than the largest entry is deleted instead.
+     *
+     * @param key
+     *        the key of the entry
+     * @param file
+     *        a file from {@link #newFile()}, holding the content
+     * @param value
+     *        the value describing the entry
+     * @return the entry, or null if it is too large to keep.
+     */
+    public synchronized Entry<V> put(String key, File file, V value) {
+        long size = file.length();
+        if (size > maxEntryBytes) {
+            file.delete();
+            return null;
+        }
+        Entry<V> entry = new Entry<V>(file, size, value);
+        remove(key);
+        entries.put(key, entry);
+        bytes += size;
+        Iterator<Entry<V>> iter = entries.values().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            Entry<V> eldest = iter.next();
+            iter.remove();
+            delete(eldest);
+            evictions++;
+        }
+        return entry;
+    }
+
+    /**
+     * Reads content into a new entry, unless it is larger than the largest
+     * entry to keep.
+     *
+     * @param key
+     *        the key of the entry
+     * @param in
+     *        the content, which is closed once it has all been read
+     * @param value
+     *        the value describing the entry
+     * @return the content to read instead of the given stream: that of the
+     *         new entry, or if it was too large, what was read of it
+     *         followed by the rest.
+     */
+    public Content put(String key, InputStream in, V value) throws IOException {
+        File file = newFile();
+        OutputStream out = new FileOutputStream(file);
+        long size = 0;
+        boolean complete = false;
+        try {
+            byte[] buf = new byte[4096];
+            int len;
+            while (size <= maxEntryBytes && (len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+                size += len;
+            }
+            complete = size <= maxEntryBytes;
+        } catch (IOException e) {
+            out.close();
+            file.delete();
+            in.close();
+            throw e;
+        } finally {
+            out.close();
+            if (complete) {
+                in.close();
+            }
+        }
+        InputStream head = new FileInputStream(file);
+        if (!complete) {
+            logger.debug("Not caching content larger than {} bytes",
+                         maxEntryBytes);
+            file.delete();
+            return new Content(new SequenceInputStream(head, in), -1);
+        }
+        // opened before it is added, so it can't be evicted first
+        put(key, file, value);
+        return new Content(head, size);
+    }
+
+    /**
+     * Removes an entry, if there is one.
+     */
+    public synchronized void remove(String key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+
+    private void delete(Entry<V> entry) {
+        bytes -= entry.size;
+        if (!entry.file.delete()) {
+            logger.debug("Unable to delete cache file {}", entry.file);
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total size of the entries.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * An entry of the store.
+     */
+    public static class Entry<V> {
+
+        private final File file;
+
+        private final long size;
+
+        private final V value;
+
+        Entry(File file, long size, V value) {
+            this.file = file;
+            this.size = size;
+            this.value = value;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public V getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Content read by {@link DiskCache#put(String, InputStream, Object)}.
+     */
+    public static class Content {
+
+        private final InputStream stream;
+
+        private final long size;
+
+        Content(InputStream stream, long size) {
+            this.stream = stream;
+            this.size = size;
+        }
+
+        public InputStream getStream() {
+            return stream;
+        }
+
+        /**
+         * Tells whether the content was kept.
+         */
+        public boolean isCached() {
+            return size >= 0;
+        }
+
+        /**
+         * Gets the size of the content, or -1 if it wasn't kept, and so
+         * wasn't all read.
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+}
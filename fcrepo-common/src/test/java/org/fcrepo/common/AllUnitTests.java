@@ -9,7 +9,11 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {org.fcrepo.common.TestPID.class} )
+@Suite.SuiteClasses( {org.fcrepo.common.TestPID.class,
+                       org.fcrepo.common.http.TestCircuitBreaker.class,
+                       org.fcrepo.common.http.TestRouteConfiguration.class,
+                       org.fcrepo.common.http.TestWebClient.class,
+                       org.fcrepo.utilities.TestDiskCache.class} )
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -18,6 +22,10 @@ public class AllUnitTests {
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
         suite.addTest(org.fcrepo.common.TestPID.suite());
         suite.addTest(org.fcrepo.common.TestDateUtility.suite());
+        suite.addTest(org.fcrepo.common.http.TestCircuitBreaker.suite());
+        suite.addTest(org.fcrepo.common.http.TestRouteConfiguration.suite());
+        suite.addTest(org.fcrepo.common.http.TestWebClient.suite());
+        suite.addTest(org.fcrepo.utilities.TestDiskCache.suite());
         return suite;
     }
 }
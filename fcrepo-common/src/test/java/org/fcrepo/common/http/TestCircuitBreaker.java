@@ -0,0 +1,61 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.common.http;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCircuitBreaker {
+
+    @Test
+    public void testOpensAfterFailuresInARow() {
+        CircuitBreaker breaker = new CircuitBreaker("test:80", 2, 60000);
+        breaker.failure();
+        breaker.success();
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRefused());
+        assertTrue(breaker.getRetryAfterMillis() > 0);
+    }
+
+    @Test
+    public void testHalfOpenProbe() {
+        CircuitBreaker breaker = new CircuitBreaker("test:80", 1, 0);
+        breaker.failure();
+        // one probe at a time once the open time has passed
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        breaker.failure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testNeverOpensWithoutThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("test:80", 0, 60000);
+        for (int i = 0; i < 100; i++) {
+            breaker.failure();
+        }
+        assertTrue(breaker.allowRequest());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestCircuitBreaker.class);
+    }
+}
@@ -0,0 +1,49 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.common.http;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestRouteConfiguration {
+
+    @Test
+    public void testGetRoute() {
+        assertEquals("images.example.org:80", RouteConfiguration
+                .getRoute("http://Images.Example.org/scale?w=100"));
+        assertEquals("localhost:8443", RouteConfiguration
+                .getRoute("https://localhost:8443/fedora"));
+        assertEquals("localhost:443", RouteConfiguration
+                .getRoute("https://localhost/fedora"));
+        assertNull(RouteConfiguration.getRoute("not a url"));
+    }
+
+    @Test
+    public void testNormalize() {
+        String route = RouteConfiguration.normalize("Images.Example.org:80");
+        assertEquals("images.example.org:80", route);
+        assertEquals("images.example.org", RouteConfiguration.getHost(route));
+        assertEquals(80, RouteConfiguration.getPort(route));
+
+        String[] bad = {"localhost", ":80", "localhost:", "localhost:http",
+                "localhost:0"};
+        for (String b : bad) {
+            try {
+                RouteConfiguration.normalize(b);
+                fail("Accepted bad route " + b);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestRouteConfiguration.class);
+    }
+}
@@ -0,0 +1,193 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.common.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestWebClient {
+
+    private HttpServer server;
+
+    private String base;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // an origin that has moved, and honours If-None-Match
+        server.createContext("/old", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", base + "/new");
+                send(exchange, 302, null);
+            }
+        });
+        server.createContext("/new", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                if ("\"v1\"".equals(exchange.getRequestHeaders()
+                        .getFirst("If-None-Match"))) {
+                    send(exchange, 304, null);
+                } else {
+                    send(exchange, 200, "content");
+                }
+            }
+        });
+        server.createContext("/moved", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", "new");
+                send(exchange, 301, null);
+            }
+        });
+        server.createContext("/loop", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", "/loop");
+                send(exchange, 302, null);
+            }
+        });
+        server.createContext("/fail", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, 500, null);
+            }
+        });
+        // the same server by another name is another route
+        server.createContext("/elsewhere", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location",
+                        base.replace("localhost", "127.0.0.1") + "/fail");
+                send(exchange, 302, null);
+            }
+        });
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConditionalRequestFollowsRedirects() throws IOException {
+        WebClient client = new WebClient();
+        HttpInputStream in = client.get(base + "/old", true);
+        assertEquals(200, in.getStatusCode());
+        in.close();
+
+        Header[] validators =
+                new Header[] {new BasicHeader("If-None-Match", "\"v1\"")};
+        in = client.get(base + "/old", false, null, null, -1, -1, validators);
+        assertEquals(304, in.getStatusCode());
+        in.close();
+    }
+
+    @Test
+    public void testRelativeRedirect() throws IOException {
+        WebClient client = new WebClient();
+        HttpInputStream in = client.get(base + "/moved", false);
+        assertEquals(200, in.getStatusCode());
+        in.close();
+    }
+
+    @Test
+    public void testTooManyRedirects() throws IOException {
+        WebClient client = new WebClient();
+        HttpInputStream in = client.get(base + "/loop", false);
+        assertEquals(302, in.getStatusCode());
+        in.close();
+        try {
+            client.get(base + "/loop", true).close();
+            fail("Expected too many redirects");
+        } catch (IOException e) {
+            assertEquals("Too many redirects", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testProbeThatThrowsIsReported() throws IOException {
+        WebClient client = new WebClient(breakerConfig(0));
+        client.get(base + "/fail", false).close();
+        // the circuit is open, and half open again at once; the probe fails
+        // before it is sent
+        try {
+            client.get(base + "/bad uri", false);
+            fail("Expected a bad URI");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        HttpInputStream in = client.get(base + "/new", false);
+        assertEquals(200, in.getStatusCode());
+        in.close();
+    }
+
+    @Test
+    public void testRedirectIsReportedToItsRoute() throws IOException {
+        WebClient client = new WebClient(breakerConfig(30));
+        HttpInputStream in = client.get(base + "/elsewhere", false);
+        assertEquals(500, in.getStatusCode());
+        in.close();
+        try {
+            client.get(base.replace("localhost", "127.0.0.1") + "/new", false);
+            fail("Expected the circuit to the redirect target to be open");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        // the route that redirected is fine
+        in = client.get(base + "/new", false);
+        assertEquals(200, in.getStatusCode());
+        in.close();
+    }
+
+    /**
+     * A configuration whose circuits open after one failure.
+     */
+    private static WebClientConfiguration breakerConfig(int openSecs) {
+        WebClientConfiguration config = new WebClientConfiguration();
+        config.setCircuitBreakerFailures(1);
+        config.setCircuitBreakerOpenSecs(openSecs);
+        return config;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body)
+            throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+        exchange.close();
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestWebClient.class);
+    }
+}
@@ -0,0 +1,126 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDiskCache {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("diskCache", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testPutAndOpen() throws IOException {
+        DiskCache<String> cache = new DiskCache<String>(dir, "test", 100, 100);
+        assertNull(cache.get("a"));
+        DiskCache.Content content = cache.put("a", stream("hello"), "text");
+        assertTrue(content.isCached());
+        assertEquals(5, content.getSize());
+        assertEquals("hello", read(content.getStream()));
+
+        DiskCache.Entry<String> entry = cache.get("a");
+        assertEquals("text", entry.getValue());
+        assertEquals("hello", read(cache.open("a", entry)));
+        entry = cache.setValue("a", entry, "other");
+        assertEquals("other", cache.get("a").getValue());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        DiskCache<String> cache = new DiskCache<String>(dir, "test", 10, 10);
+        read(cache.put("a", stream("aaaa"), null).getStream());
+        read(cache.put("b", stream("bbbb"), null).getStream());
+        assertNotNull(cache.get("a"));
+        read(cache.put("c", stream("cccc"), null).getStream());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(8, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+
+        // too large to keep, but still read whole
+        DiskCache.Content content =
+                cache.put("d", stream("dddddddddddd"), null);
+        assertFalse(content.isCached());
+        assertEquals("dddddddddddd", read(content.getStream()));
+        assertNull(cache.get("d"));
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void testOnlyOwnFilesDeleted() throws IOException {
+        DiskCache<String> cache = new DiskCache<String>(dir, "test", 100, 100);
+        read(cache.put("a", stream("aaaa"), null).getStream());
+        File other = new File(dir, "other1.cache");
+        other.createNewFile();
+        new DiskCache<String>(dir, "another", 100, 100);
+        assertEquals(2, dir.listFiles().length);
+
+        new DiskCache<String>(dir, "test", 100, 100);
+        assertEquals(1, dir.listFiles().length);
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals("aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d",
+                     DiskCache.getKey("hello"));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toString();
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestDiskCache.class);
+    }
+}
@@ -160,6 +160,11 @@ public class RELSRelationshipResolver extends RelationshipResolverBase
             return parentPIDs;
         }
 
+        Set<String> graphParents = getParentsFromGraph(pid, false);
+        if (graphParents != null) {
+            return graphParents;
+        }
+
         if (childRelationships != null) {
             logger.warn("Parent-child relationships have been specified, but the specified relationship resolver is not able to resolve these");
         }
@@ -335,6 +335,11 @@ public class RIRelationshipResolver
             return parentPIDs;
         }
 
+        Set<String> graphParents = getParentsFromGraph(pid, true);
+        if (graphParents != null) {
+            return graphParents;
+        }
+
         // build query using query language in following preferences
         // tuple itql
         // tuple sparql
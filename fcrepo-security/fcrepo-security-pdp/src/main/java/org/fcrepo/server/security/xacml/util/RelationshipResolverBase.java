@@ -1,13 +1,19 @@
 package org.fcrepo.server.security.xacml.util;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.fcrepo.common.Constants;
 import org.fcrepo.common.MalformedPIDException;
 import org.fcrepo.common.PID;
+import org.fcrepo.server.Server;
+import org.fcrepo.server.storage.DOManager;
+import org.fcrepo.server.storage.RelationshipGraph;
 import org.fcrepo.server.security.xacml.pdp.MelcoePDPException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +39,10 @@ public abstract class RelationshipResolverBase
     // relationships to child object
     protected final List<String> childRelationships;
 
+    // the DOManager's relationship graph, once it has been looked up
+    private volatile boolean graphLookedUp = false;
+    private RelationshipGraph relationshipGraph;
+
 
     /**
      * Constructor that takes a map of parent-child predicates (relationships).
@@ -108,4 +118,64 @@ public abstract class RelationshipResolverBase
         return resURI;
     }
 
+    /**
+     * Gets the parents of an object from the DOManager's in-memory
+     * relationship graph, if it is loaded and indexes all of the relationships
+     * needed.
+     *
+     * @param pid the object, as a PID or URI
+     * @param withChildRelationships whether objects related to this one by a
+     *        child relationship are also parents
+     * @return the PIDs of the parents, or null if they must be found another
+     *         way
+     */
+    protected Set<String> getParentsFromGraph(String pid,
+                                              boolean withChildRelationships) {
+        RelationshipGraph graph = getRelationshipGraph();
+        String uri = getFedoraResourceURI(pid);
+        if (graph == null || uri == null
+                || uri.indexOf('/', Constants.FEDORA.uri.length()) >= 0) {
+            return null;
+        }
+        List<String> related = new ArrayList<String>();
+        for (String rel : parentRelationships) {
+            List<String> objects = graph.getObjects(uri, rel);
+            if (objects == null) {
+                return null;
+            }
+            related.addAll(objects);
+        }
+        if (withChildRelationships && childRelationships != null) {
+            for (String rel : childRelationships) {
+                List<String> subjects = graph.getSubjects(rel, uri);
+                if (subjects == null) {
+                    return null;
+                }
+                related.addAll(subjects);
+            }
+        }
+        Set<String> parents = new HashSet<String>();
+        for (String parent : related) {
+            parents.add(parent.substring(Constants.FEDORA.uri.length()));
+        }
+        logger.debug("Found parents of {} in the relationship graph: {}", pid, parents);
+        return parents;
+    }
+
+    private RelationshipGraph getRelationshipGraph() {
+        if (!graphLookedUp) {
+            try {
+                Server server = Server.getInstance(new File(Constants.FEDORA_HOME), false);
+                DOManager manager = (DOManager) server.getModule("org.fcrepo.server.storage.DOManager");
+                if (manager != null) {
+                    relationshipGraph = manager.getRelationshipGraph();
+                }
+                graphLookedUp = true;
+            } catch (Exception e) {
+                logger.debug("Relationship graph not available yet: {}", e.getMessage());
+            }
+        }
+        return relationshipGraph;
+    }
+
 }
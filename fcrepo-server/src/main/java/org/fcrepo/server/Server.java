@@ -33,6 +33,7 @@ import org.fcrepo.common.Constants;
 import org.fcrepo.common.FaultException;
 import org.fcrepo.common.MalformedPIDException;
 import org.fcrepo.common.PID;
+import org.fcrepo.common.http.RouteConfiguration;
 import org.fcrepo.common.http.WebClientConfiguration;
 import org.fcrepo.server.config.DatastoreConfiguration;
 import org.fcrepo.server.config.ModuleConfiguration;
@@ -1586,6 +1587,40 @@ public abstract class Server
 
         if (getParameter("httpClientUserAgent") != null)
             m_webClientConfig.setUserAgent(getParameter("httpClientUserAgent"));
+
+        if (getParameter("httpClientCircuitBreakerFailures") != null)
+            m_webClientConfig.setCircuitBreakerFailures(Integer.parseInt(getParameter("httpClientCircuitBreakerFailures")));
+
+        if (getParameter("httpClientCircuitBreakerOpenSecs") != null)
+            m_webClientConfig.setCircuitBreakerOpenSecs(Integer.parseInt(getParameter("httpClientCircuitBreakerOpenSecs")));
+
+        // settings of particular routes, given as parameters suffixed .HOST:PORT
+        Iterator<String> names = parameterNames();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (name.startsWith("httpClientMaxConnectionsPerHost."))
+                getRouteConfig(name).setMaxConn(Integer.parseInt(getParameter(name)));
+            else if (name.startsWith("httpClientTimeoutSecs."))
+                getRouteConfig(name).setTimeoutSecs(Integer.parseInt(getParameter(name)));
+            else if (name.startsWith("httpClientSocketTimeoutSecs."))
+                getRouteConfig(name).setSockTimeoutSecs(Integer.parseInt(getParameter(name)));
+            else if (name.startsWith("httpClientCircuitBreakerFailures."))
+                getRouteConfig(name).setCircuitBreakerFailures(Integer.parseInt(getParameter(name)));
+        }
+    }
+
+    /**
+     * Gets the web client settings of the route given by the suffix of a
+     * parameter name, creating them if need be.
+     */
+    private RouteConfiguration getRouteConfig(String paramName) {
+        String route = RouteConfiguration.normalize(paramName.substring(paramName.indexOf('.') + 1));
+        RouteConfiguration routeConfig = m_webClientConfig.getRoute(route);
+        if (routeConfig == null) {
+            routeConfig = new RouteConfiguration();
+            m_webClientConfig.setRoute(route, routeConfig);
+        }
+        return routeConfig;
     }
 
     /**
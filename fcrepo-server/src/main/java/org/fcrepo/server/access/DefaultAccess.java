@@ -5,6 +5,8 @@
 package org.fcrepo.server.access;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
@@ -25,9 +27,12 @@ import java.util.regex.Pattern;
 
 import org.fcrepo.common.Constants;
 import org.fcrepo.common.Models;
+import org.fcrepo.common.http.RouteConfiguration;
 import org.fcrepo.server.Context;
 import org.fcrepo.server.Module;
 import org.fcrepo.server.Server;
+import org.fcrepo.server.access.dissemination.BackendServiceLimiter;
+import org.fcrepo.server.access.dissemination.DisseminationCache;
 import org.fcrepo.server.access.dissemination.DisseminationService;
 import org.fcrepo.server.errors.DatastreamNotFoundException;
 import org.fcrepo.server.errors.DisseminationException;
@@ -92,6 +97,11 @@ public class DefaultAccess
 
     private Authorization m_authorizationModule;
 
+    /** The cache of cacheable methods' results, or null if there is none. */
+    private DisseminationCache m_disseminationCache;
+
+    private BackendServiceLimiter m_backendLimiter;
+
     /**
      * <p>
      * Creates and initializes the Access Module. When the server is starting
@@ -132,6 +142,67 @@ public class DefaultAccess
             throw new ModuleInitializationException("doMediateDatastreams parameter must be specified.",
                                                     getRole());
         }
+
+        long cacheBytes = getLong("disseminationCacheBytes", 0);
+        if (cacheBytes > 0) {
+            long maxEntryBytes =
+                    getLong("disseminationCacheMaxEntryBytes", 10485760);
+            String dir = getParameter("disseminationCacheDir");
+            if (dir == null || dir.length() == 0) {
+                dir = "work/disseminationCache";
+            }
+            File cacheDir = new File(dir);
+            if (!cacheDir.isAbsolute()) {
+                cacheDir = new File(getServer().getHomeDir(), dir);
+            }
+            try {
+                m_disseminationCache =
+                        new DisseminationCache(cacheDir, cacheBytes,
+                                               maxEntryBytes);
+            } catch (IOException e) {
+                throw new ModuleInitializationException(e.getMessage(),
+                                                        getRole(),
+                                                        e);
+            }
+            logger.info("Caching up to {} bytes of disseminations in {}",
+                        cacheBytes, cacheDir);
+        }
+
+        // by default a backend may have as many calls in progress as the
+        // web client has connections for it; more would only wait for one
+        int maxCalls = (int) getLong("backendMaxCalls", -1);
+        if (maxCalls < 0) {
+            maxCalls = getServer().getWebClientConfig().getMaxConnPerHost();
+        }
+        BackendServiceLimiter.Limits defaults =
+                new BackendServiceLimiter.Limits(
+                        maxCalls,
+                        (int) getLong("backendTimeoutSecs", -1),
+                        (int) getLong("backendSockTimeoutSecs", -1));
+        m_backendLimiter =
+                new BackendServiceLimiter(defaults,
+                                          getLong("backendCallWaitMillis",
+                                                  1000));
+        // particular backends are configured once, as web client routes
+        for (Map.Entry<String, RouteConfiguration> route : getServer()
+                .getWebClientConfig().getRoutes().entrySet()) {
+            m_backendLimiter.setLimits(route.getKey(), defaults
+                    .withOverrides(route.getValue()));
+        }
+    }
+
+    private long getLong(String name, long defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException(name
+                    + " parameter must be an integer", getRole());
+        }
     }
 
     @Override
@@ -450,8 +521,33 @@ public class DefaultAccess
                                             methodName,
                                             asOfDateTime);
 
+        // Serve the results of cacheable methods from the cache
+        String cacheKey = null;
+        Date lastModified = null;
+        if (m_disseminationCache != null
+                && isCacheable(deploymentReader, methodName, asOfDateTime)
+                && DisseminationCache.isCacheable(dissBindInfo)) {
+            lastModified = reader.getLastModDate();
+            cacheKey =
+                    DisseminationCache.getKey(PID,
+                                              lastModified,
+                                              sDefPID,
+                                              authzAux_sDepPID,
+                                              deploymentReader.getLastModDate(),
+                                              methodName,
+                                              h_userParms,
+                                              dissBindInfo);
+            dissemination = m_disseminationCache.get(cacheKey);
+            if (dissemination != null) {
+                logger.debug("Serving cached dissemination {} of {}",
+                             methodName, PID);
+                return dissemination;
+            }
+        }
+
         // Assemble and execute the dissemination request from the binding info.
-        DisseminationService dissService = new DisseminationService(getServer());
+        DisseminationService dissService =
+                new DisseminationService(getServer(), m_backendLimiter);
         dissemination =
                 dissService.assembleDissemination(context,
                                                   PID,
@@ -460,6 +556,19 @@ public class DefaultAccess
                                                   authzAux_sDepPID,
                                                   deploymentReader,
                                                   methodName);
+        if (cacheKey != null
+                && !dissemination.MIMEType
+                        .equalsIgnoreCase("application/fedora-redirect")) {
+            try {
+                dissemination =
+                        m_disseminationCache.put(cacheKey,
+                                                 lastModified,
+                                                 dissemination);
+            } catch (IOException e) {
+                throw new GeneralException("Error caching dissemination "
+                        + methodName + " of " + PID, e);
+            }
+        }
 
         stopTime = new Date().getTime();
         interval = stopTime - startTime;
@@ -472,6 +581,21 @@ public class DefaultAccess
         return dissemination;
     }
 
+    /**
+     * Tells whether the method map of a deployment marks a method cacheable.
+     */
+    private boolean isCacheable(ServiceDeploymentReader deploymentReader,
+                                String methodName,
+                                Date asOfDateTime) throws ServerException {
+        for (MethodDef method : deploymentReader
+                .getServiceMethods(asOfDateTime)) {
+            if (method.methodName.equals(methodName)) {
+                return method.cacheable;
+            }
+        }
+        return false;
+    }
+
     private DisseminationBindingInfo[] getDisseminationBindingInfo(Context context,
                                                                    DOReader dObj,
                                                                    ServiceDeploymentReader bmReader,
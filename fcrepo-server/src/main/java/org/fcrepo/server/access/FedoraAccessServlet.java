@@ -34,6 +34,7 @@ import org.fcrepo.common.Constants;
 import org.fcrepo.server.Context;
 import org.fcrepo.server.ReadOnlyContext;
 import org.fcrepo.server.Server;
+import org.fcrepo.server.errors.BackendUnavailableException;
 import org.fcrepo.server.errors.DatastreamNotFoundException;
 import org.fcrepo.server.errors.DisseminationException;
 import org.fcrepo.server.errors.GeneralException;
@@ -47,6 +48,7 @@ import org.fcrepo.server.errors.authorization.AuthzException;
 import org.fcrepo.server.errors.servletExceptionExtensions.InternalError500Exception;
 import org.fcrepo.server.errors.servletExceptionExtensions.NotFound404Exception;
 import org.fcrepo.server.errors.servletExceptionExtensions.RootException;
+import org.fcrepo.server.errors.servletExceptionExtensions.Unavailable503Exception;
 import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.Property;
 import org.fcrepo.server.utilities.StreamUtility;
@@ -475,6 +477,11 @@ public class FedoraAccessServlet
                     + " (actionLabel=" + actionLabel + ")", e);
             throw new NotFound404Exception("", e, request, actionLabel, e
                     .getMessage(), new String[0]);
+        } catch (BackendUnavailableException e) {
+            logger.warn("Backend service busy for request: " + requestURI
+                    + " (actionLabel=" + actionLabel + "): " + e.getMessage());
+            throw new Unavailable503Exception("", e, request, actionLabel, e
+                    .getMessage(), new String[0]);
         } catch (DisseminationException e) {
             logger.error("Dissemination failed: " + requestURI
                     + " (actionLabel=" + actionLabel + ")", e);
@@ -4,17 +4,20 @@
  */
 package org.fcrepo.server.access;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.FilterOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -25,8 +28,11 @@ import org.fcrepo.common.Constants;
 import org.fcrepo.server.Context;
 import org.fcrepo.server.ReadOnlyContext;
 import org.fcrepo.server.errors.authorization.AuthzException;
+import org.fcrepo.server.errors.servletExceptionExtensions.BadRequest400Exception;
 import org.fcrepo.server.errors.servletExceptionExtensions.InternalError500Exception;
 import org.fcrepo.server.errors.servletExceptionExtensions.RootException;
+import org.fcrepo.server.resourceIndex.QueryPage;
+import org.fcrepo.server.resourceIndex.QueryResultCache;
 import org.fcrepo.server.resourceIndex.ResourceIndex;
 import org.fcrepo.server.security.Authorization;
 import org.slf4j.Logger;
@@ -35,6 +41,7 @@ import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
 import org.trippi.TriplestoreReader;
 import org.trippi.TriplestoreWriter;
+import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
 import org.trippi.server.TrippiServer;
 import org.trippi.server.http.Styler;
@@ -56,6 +63,12 @@ extends SpringAccessServlet {
 
     private static final String ACTION_LABEL = "Resource Index Search";
 
+    /** The response header giving the cursor of the next page. */
+    public static final String CURSOR_HEADER = "X-RISearch-Cursor";
+
+    /** How often a streamed response is flushed to the client. */
+    private static final long STREAM_FLUSH_MILLIS = 1000;
+
     private Authorization m_authorization;
 
     private ResourceIndex m_writer;
@@ -204,6 +217,8 @@ extends SpringAccessServlet {
                             request);
             m_authorization.enforceRIFindObjects(context);
             doSearch(server, request, response);
+        } catch (BadRequest400Exception e) {
+            throw e;
         } catch (AuthzException e) {
             logger.error("Authorization failed for request: "
                     + request.getRequestURI() + " (actionLabel=" + ACTION_LABEL
@@ -241,6 +256,10 @@ extends SpringAccessServlet {
         String stream = request.getParameter("stream");
         boolean streamImmediately = (stream != null) && (stream.toLowerCase().startsWith("t") || stream.toLowerCase().equals("on"));
         String flush = request.getParameter("flush");
+        if (request.getParameter("cacheStats") != null) {
+            doCacheStats(response);
+            return;
+        }
         if (type == null && template == null && lang == null && query == null && limit == null && distinct == null && format == null) {
             if (flush == null || flush.equals("")) flush = "false";
             boolean doFlush = flush.toLowerCase().startsWith("t");
@@ -254,7 +273,54 @@ extends SpringAccessServlet {
                     request.getRequestURL().toString(),
                     request.getContextPath());
         } else {
-            doFind(server, type, template, lang, query, limit, distinct, format, dumbTypes, streamImmediately, flush, response);
+            QueryPage page = getPage(request, QueryResultCache.getKey(type, template, lang, query, limit, distinct, format, dumbTypes));
+            doFind(server, type, template, lang, query, limit, distinct, format, dumbTypes, streamImmediately, flush, page, response);
+        }
+    }
+
+    /**
+     * Gets the page of results asked for by the pageSize, cursor and timeout
+     * parameters, within the configured time budget.
+     *
+     * @return the page, or null if the whole result is asked for and there is
+     *         no time budget.
+     */
+    private QueryPage getPage(HttpServletRequest request, String key)
+            throws BadRequest400Exception {
+        String pageSize = request.getParameter("pageSize");
+        String cursor = request.getParameter("cursor");
+        String timeout = request.getParameter("timeout");
+        long budget = m_writer.getQueryTimeout();
+        try {
+            int size = 0;
+            if (pageSize != null && pageSize.length() > 0) {
+                size = Integer.parseInt(pageSize);
+                if (size < 0) {
+                    throw new IllegalArgumentException("pageSize must not be negative");
+                }
+            }
+            int offset = 0;
+            if (cursor != null && cursor.length() > 0) {
+                offset = QueryPage.parseCursor(cursor, key);
+            }
+            if (timeout != null && timeout.length() > 0) {
+                long requested = Integer.parseInt(timeout) * 1000L;
+                if (requested <= 0) {
+                    throw new IllegalArgumentException("timeout must be positive");
+                }
+                if (budget == 0 || requested < budget) {
+                    budget = requested;
+                }
+            }
+            if (size == 0 && offset == 0 && budget == 0) {
+                return null;
+            }
+            return new QueryPage(offset, size, budget);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest400Exception(request,
+                    ACTION_LABEL,
+                    e.getMessage(),
+                    new String[0]);
         }
     }
 
@@ -322,6 +388,32 @@ extends SpringAccessServlet {
         }
     }
 
+    private void doCacheStats(HttpServletResponse response)
+            throws Exception {
+        QueryResultCache cache = m_writer.getResultCache();
+        response.setContentType("text/xml; charset=UTF-8");
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                response.getOutputStream(), "UTF-8"));
+        try {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            if (cache == null) {
+                out.println("<result-cache enabled=\"false\"/>");
+            } else {
+                out.println("<result-cache enabled=\"true\""
+                        + " results=\"" + cache.getEntryCount() + "\""
+                        + " bytes=\"" + cache.getBytes() + "\""
+                        + " maxBytes=\"" + cache.getMaxBytes() + "\""
+                        + " hits=\"" + cache.getHits() + "\""
+                        + " misses=\"" + cache.getMisses() + "\""
+                        + " hitRatio=\"" + cache.getHitRatio() + "\""
+                        + " savedMillis=\"" + cache.getSavedMillis() + "\""
+                        + " epoch=\"" + cache.getEpoch() + "\"/>");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
     public void doFind(TrippiServer server,
             String type,
             String template,
@@ -333,19 +425,64 @@ extends SpringAccessServlet {
             String dumbTypes,
             boolean streamImmediately,
             String flush,
+            QueryPage page,
             HttpServletResponse response) throws Exception {
         OutputStream out = null;
         File tempFile = null;
+        QueryResultCache cache = m_writer.getResultCache();
+        String key = null;
+        long epoch = 0;
+        boolean paged = page != null && page.isPaged();
+        if (paged) {
+            // paged results are not cached
+        } else if (cache != null) {
+            if (TrippiServer.getBoolean(flush, false)) {
+                // flush first, so the query's own flush doesn't invalidate
+                // its result
+                server.getWriter().flushBuffer();
+            }
+            key = QueryResultCache.getKey(type, template, lang, query, limit, distinct, format, dumbTypes);
+            QueryResultCache.Result cached = cache.get(key);
+            if (cached != null) {
+                response.setContentType(cached.getMediaType() + "; charset=UTF-8");
+                out = response.getOutputStream();
+                try {
+                    cached.writeTo(out);
+                } finally {
+                    out.close();
+                }
+                return;
+            }
+            epoch = cache.getEpoch();
+            if (m_writer.getBufferSize() > 0) {
+                // pending updates may become visible during the query
+                key = null;
+            }
+        }
+        long started = System.currentTimeMillis();
+        ResultCapture capture = null;
+        String mediaType;
         try {
             if (streamImmediately) {
-                String mediaType =
+                mediaType =
                         TrippiServer.getResponseMediaType(format,
                                 !(type != null && type.equals("triples")),
                                 TrippiServer.getBoolean(dumbTypes, false));
                 try {
                     response.setContentType(mediaType + "; charset=UTF-8");
-                    out = response.getOutputStream();
-                    server.find(type, template, lang, query, limit, distinct, format, dumbTypes, flush, out);
+                    if (paged) {
+                        // sent before the page is read, so it is given
+                        // whenever the page could be full
+                        String cursor = page.getNextCursor(QueryResultCache.getKey(type, template, lang, query, limit, distinct, format, dumbTypes));
+                        if (cursor != null) {
+                            response.setHeader(CURSOR_HEADER, cursor);
+                        }
+                    }
+                    out = new PeriodicFlushStream(response.getOutputStream(), STREAM_FLUSH_MILLIS);
+                    if (key != null) {
+                        capture = new ResultCapture(out, cache.getMaxResultBytes());
+                    }
+                    find(server, type, template, lang, query, limit, distinct, format, dumbTypes, flush, page, capture == null ? out : capture);
                 } catch (Exception e) {
                     e.printStackTrace();
                     throw new ServletException("Error querying", e);
@@ -353,13 +490,26 @@ extends SpringAccessServlet {
             } else {
                 tempFile = File.createTempFile("trippi", "result");
                 FileOutputStream tempOut = new FileOutputStream(tempFile);
-                String mediaType = server.find(type, template, lang, query, limit, distinct, format, dumbTypes, flush, tempOut);
-                tempOut.close();
+                if (key != null) {
+                    capture = new ResultCapture(tempOut, cache.getMaxResultBytes());
+                }
+                try {
+                    mediaType = find(server, type, template, lang, query, limit, distinct, format, dumbTypes, flush, page, capture == null ? tempOut : capture);
+                } finally {
+                    tempOut.close();
+                }
                 response.setContentType(mediaType + "; charset=UTF-8");
+                if (paged && page.hasMore()) {
+                    response.setHeader(CURSOR_HEADER, page.getCursor(QueryResultCache.getKey(type, template, lang, query, limit, distinct, format, dumbTypes)));
+                }
                 out = response.getOutputStream();
                 FileInputStream results = new FileInputStream(tempFile);
                 sendStream(results, out);
             }
+            if (capture != null && capture.isComplete()) {
+                cache.put(key, epoch, mediaType, capture.toByteArray(),
+                        System.currentTimeMillis() - started);
+            }
         } finally {
             // make sure the response stream is closed and the tempfile is deld
             if (out != null) try { out.close(); } catch (Exception e) { }
@@ -367,6 +517,98 @@ extends SpringAccessServlet {
         }
     }
 
+    /**
+     * Runs a query, writing its results to the given stream.
+     *
+     * @param page
+     *        the page of results to write, or null for all of them, without
+     *        a time budget
+     * @return the media type of the results
+     */
+    private String find(TrippiServer server,
+            String type,
+            String template,
+            String lang,
+            String query,
+            String limit,
+            String distinct,
+            String format,
+            String dumbTypes,
+            String flush,
+            QueryPage page,
+            OutputStream out) throws Exception {
+        boolean tuples = !"triples".equals(type);
+        RDFFormat rdfFormat = getFormat(format, tuples);
+        if (page == null || rdfFormat == null || type == null) {
+            if (page != null && page.isPaged()) {
+                throw new TrippiException("Results can't be paged in format " + format);
+            }
+            // e.g. counts, which trippi serializes itself
+            return server.find(type, template, lang, query, limit, distinct, format, dumbTypes, flush, out);
+        }
+        if (TrippiServer.getBoolean(flush, false)) {
+            server.getWriter().flushBuffer();
+        }
+        int queryLimit = 0;
+        if (limit != null && limit.length() > 0) {
+            queryLimit = Math.max(0, Integer.parseInt(limit));
+        }
+        final int pageLimit = page.getLimit(queryLimit);
+        final boolean forceDistinct = TrippiServer.getBoolean(distinct, false);
+        final TriplestoreReader reader = server.getReader();
+        final String queryLang = lang;
+        final String queryText = query;
+        if (tuples) {
+            TupleIterator iter = page.findTuples(new Callable<TupleIterator>() {
+
+                public TupleIterator call() throws TrippiException {
+                    return reader.findTuples(queryLang, queryText, pageLimit, forceDistinct);
+                }
+            });
+            try {
+                iter.toStream(out, rdfFormat, TrippiServer.getBoolean(dumbTypes, false));
+            } finally {
+                iter.close();
+            }
+        } else {
+            final String queryTemplate = template;
+            TripleIterator iter = page.findTriples(new Callable<TripleIterator>() {
+
+                public TripleIterator call() throws TrippiException {
+                    if (queryTemplate != null && queryTemplate.length() > 0) {
+                        return reader.findTriples(queryLang, queryText, queryTemplate, pageLimit, forceDistinct);
+                    }
+                    return reader.findTriples(queryLang, queryText, pageLimit, forceDistinct);
+                }
+            });
+            try {
+                iter.toStream(out, rdfFormat);
+            } finally {
+                iter.close();
+            }
+        }
+        return rdfFormat.getMediaType();
+    }
+
+    /**
+     * Gets the output format of the given name, as trippi would.
+     *
+     * @return the format, or null if it isn't one that the results can be
+     *         serialized to directly.
+     */
+    private static RDFFormat getFormat(String name, boolean tuples) {
+        if (name == null || name.length() == 0) {
+            return tuples ? RDFFormat.SPARQL : RDFFormat.RDF_XML;
+        }
+        RDFFormat[] formats = tuples ? TupleIterator.OUTPUT_FORMATS : TripleIterator.OUTPUT_FORMATS;
+        for (RDFFormat format : formats) {
+            if (format.getName().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
     private void sendStream(InputStream in, OutputStream out) throws IOException {
         try {
             byte[] buf = new byte[4096];
@@ -383,6 +625,90 @@ extends SpringAccessServlet {
         }
     }
 
+    /**
+     * Passes a query result through, keeping a copy of it unless it grows
+     * larger than the given size.
+     */
+    private static class ResultCapture extends FilterOutputStream {
+
+        private final long m_maxBytes;
+
+        private ByteArrayOutputStream m_copy = new ByteArrayOutputStream();
+
+        public ResultCapture(OutputStream out, long maxBytes) {
+            super(out);
+            m_maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            copy(b, off, len);
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (m_copy != null) {
+                if (m_copy.size() + len > m_maxBytes) {
+                    m_copy = null;
+                } else {
+                    m_copy.write(b, off, len);
+                }
+            }
+        }
+
+        /** Tells whether the whole result was copied. */
+        public boolean isComplete() {
+            return m_copy != null;
+        }
+
+        public byte[] toByteArray() {
+            return m_copy.toByteArray();
+        }
+    }
+
+    /**
+     * Flushes a streamed response whenever it is written to, at most once in
+     * a given interval, so the client receives the results as they are
+     * found.
+     */
+    private static class PeriodicFlushStream extends FilterOutputStream {
+
+        private final long m_interval;
+
+        private long m_lastFlush = System.currentTimeMillis();
+
+        public PeriodicFlushStream(OutputStream out, long interval) {
+            super(out);
+            m_interval = interval;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            flushIfDue();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            flushIfDue();
+        }
+
+        private void flushIfDue() throws IOException {
+            long now = System.currentTimeMillis();
+            if (now - m_lastFlush >= m_interval) {
+                out.flush();
+                m_lastFlush = now;
+            }
+        }
+    }
+
     /** Exactly the same behavior as doGet. */
     @Override
     public void doPost(HttpServletRequest request, HttpServletResponse response)
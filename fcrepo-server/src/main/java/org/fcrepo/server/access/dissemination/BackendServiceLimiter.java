@@ -0,0 +1,302 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.access.dissemination;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.common.http.RouteConfiguration;
+import org.fcrepo.server.errors.BackendUnavailableException;
+import org.fcrepo.server.storage.ContentManagerParams;
+import org.fcrepo.server.storage.types.MIMETypedStream;
+
+
+/**
+ * Limits the calls in progress to each backend service, and sets their
+ * timeouts, so that a slow backend can't tie up every request thread of the
+ * server.
+ * <p>
+ * A backend is identified by the route of its URLs, as given by
+ * {@link RouteConfiguration#getRoute(String)}. A call holds one
+ * of its backend's permits from before the request is sent until the
+ * response has been read and closed, since the request thread is busy for
+ * all of that time. A call that can't get a permit within the wait time
+ * fails with a {@link BackendUnavailableException}, rather than queuing
+ * behind the calls in progress.
+ * </p>
+ * <p>
+ * Limits and timeouts have defaults, which may be overridden for each
+ * backend, usually by the settings of its route in the web client
+ * configuration.
+ * </p>
+ */
+public class BackendServiceLimiter {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(BackendServiceLimiter.class);
+
+    private final Limits m_defaults;
+
+    private final long m_waitMillis;
+
+    private final Map<String, Limits> m_overrides =
+            new HashMap<String, Limits>();
+
+    private final ConcurrentMap<String, Backend> m_backends =
+            new ConcurrentHashMap<String, Backend>();
+
+    /**
+     * Creates a limiter.
+     *
+     * @param defaults
+     *        the limits of backends without their own
+     * @param waitMillis
+     *        how long a call may wait for a permit
+     */
+    public BackendServiceLimiter(Limits defaults, long waitMillis) {
+        m_defaults = defaults;
+        m_waitMillis = waitMillis;
+    }
+
+    /**
+     * Sets the limits of a backend. This must be done before any calls are
+     * made.
+     *
+     * @param backend
+     *        the host and port of the backend, such as "localhost:8080"
+     * @throws IllegalArgumentException
+     *         if the backend isn't "host:port".
+     */
+    public void setLimits(String backend, Limits limits) {
+        m_overrides.put(RouteConfiguration.normalize(backend), limits);
+    }
+
+    /**
+     * Makes a call to a backend service within its limits.
+     *
+     * @param params
+     *        the parameters of the call, which are given the backend's
+     *        timeouts
+     * @param call
+     *        makes the call
+     * @return the response, which releases the permit when closed.
+     * @throws BackendUnavailableException
+     *         if no permit could be had within the wait time.
+     */
+    public MIMETypedStream call(ContentManagerParams params, Call call)
+            throws Exception {
+        String name = RouteConfiguration.getRoute(params.getUrl());
+        if (name == null) {
+            return call.call(params);
+        }
+        Backend backend = getBackendState(name);
+        Limits limits = backend.limits;
+        params.setTimeouts(limits.timeoutSecs, limits.sockTimeoutSecs);
+        if (backend.permits == null) {
+            return call.call(params);
+        }
+        if (!backend.permits.tryAcquire(m_waitMillis, TimeUnit.MILLISECONDS)) {
+            backend.rejected.incrementAndGet();
+            logger.warn("Backend {} has {} calls in progress; rejecting call "
+                    + "to {}", new Object[] {name, limits.maxCalls,
+                    params.getUrl()});
+            throw new BackendUnavailableException("The backend service at "
+                    + name + " is busy; try again later");
+        }
+        Permit permit = new Permit(backend.permits);
+        MIMETypedStream response;
+        try {
+            response = call.call(params);
+        } catch (Exception e) {
+            permit.release();
+            throw e;
+        }
+        if (response == null || response.getStream() == null) {
+            permit.release();
+            return response;
+        }
+        response.setStream(new PermitInputStream(response.getStream(), permit));
+        return response;
+    }
+
+    private Backend getBackendState(String name) {
+        Backend backend = m_backends.get(name);
+        if (backend == null) {
+            Limits limits = m_overrides.get(name);
+            backend = new Backend(limits == null ? m_defaults : limits);
+            Backend existing = m_backends.putIfAbsent(name, backend);
+            if (existing != null) {
+                backend = existing;
+            }
+        }
+        return backend;
+    }
+
+    /**
+     * Gets the number of calls to a backend in progress.
+     */
+    public int getCallsInProgress(String backend) {
+        Backend state = m_backends.get(backend.toLowerCase());
+        if (state == null || state.permits == null) {
+            return 0;
+        }
+        return state.limits.maxCalls - state.permits.availablePermits();
+    }
+
+    /**
+     * Gets the number of calls to a backend that were rejected.
+     */
+    public long getRejectedCalls(String backend) {
+        Backend state = m_backends.get(backend.toLowerCase());
+        return state == null ? 0 : state.rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("Backend service calls:");
+        for (Map.Entry<String, Backend> entry : m_backends.entrySet()) {
+            out.append(' ').append(entry.getKey()).append(" (")
+                    .append(getCallsInProgress(entry.getKey()))
+                    .append(" in progress, ")
+                    .append(entry.getValue().rejected.get())
+                    .append(" rejected)");
+        }
+        return out.toString();
+    }
+
+    /**
+     * A call to a backend service.
+     */
+    public interface Call {
+
+        MIMETypedStream call(ContentManagerParams params) throws Exception;
+    }
+
+    /**
+     * The limits of a backend.
+     */
+    public static class Limits {
+
+        /** The most calls in progress, or 0 for no limit. */
+        public final int maxCalls;
+
+        /** The connection timeout, or -1 for the web client's. */
+        public final int timeoutSecs;
+
+        /** The socket timeout, or -1 for the web client's. */
+        public final int sockTimeoutSecs;
+
+        public Limits(int maxCalls, int timeoutSecs, int sockTimeoutSecs) {
+            this.maxCalls = maxCalls;
+            this.timeoutSecs = timeoutSecs;
+            this.sockTimeoutSecs = sockTimeoutSecs;
+        }
+
+        /**
+         * Gets these limits overridden by the web client settings of a
+         * route. A backend call holds a pooled connection until its
+         * response is closed, so the route's connection limit is also its
+         * limit of calls in progress: calls beyond it are rejected rather
+         * than left waiting for a connection.
+         */
+        public Limits withOverrides(RouteConfiguration route) {
+            return new Limits(route.getMaxConn() < 0 ? maxCalls : route
+                    .getMaxConn(), route.getTimeoutSecs() < 0 ? timeoutSecs
+                    : route.getTimeoutSecs(),
+                              route.getSockTimeoutSecs() < 0 ? sockTimeoutSecs
+                                      : route.getSockTimeoutSecs());
+        }
+    }
+
+    private static class Backend {
+
+        final Limits limits;
+
+        final Semaphore permits;
+
+        final AtomicLong rejected = new AtomicLong();
+
+        Backend(Limits limits) {
+            this.limits = limits;
+            permits = limits.maxCalls > 0 ? new Semaphore(limits.maxCalls) : null;
+        }
+    }
+
+    /**
+     * A permit to call a backend, which can only be released once.
+     */
+    private static class Permit {
+
+        private final Semaphore m_permits;
+
+        private final AtomicBoolean m_released = new AtomicBoolean();
+
+        Permit(Semaphore permits) {
+            m_permits = permits;
+        }
+
+        void release() {
+            if (m_released.compareAndSet(false, true)) {
+                m_permits.release();
+            }
+        }
+    }
+
+    /**
+     * A response stream that releases its permit when it is closed or has
+     * been read to the end.
+     */
+    private static class PermitInputStream
+            extends FilterInputStream {
+
+        private final Permit m_permit;
+
+        PermitInputStream(InputStream in, Permit permit) {
+            super(in);
+            m_permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                m_permit.release();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                m_permit.release();
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                m_permit.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.access.dissemination;
+
+import java.security.SecureRandom;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.server.storage.types.DatastreamMediation;
+
+
+/**
+ * The registry of mediated datastream locations, which maps the temporary IDs
+ * given to services to the datastreams they may retrieve.
+ * <p>
+ * IDs are random, so they can't be guessed from one another, and registering
+ * and resolving them takes constant time. Registrations expire after the
+ * time to live. Rather than scanning every registration for expired ones,
+ * the IDs are kept in buckets by the time they were registered, each a tenth
+ * of the time to live; whenever a registration is made, the buckets that
+ * have wholly expired are removed, with their registrations.
+ * </p>
+ */
+public class DatastreamMediationRegistry {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(DatastreamMediationRegistry.class);
+
+    private static final int BUCKETS = 10;
+
+    private static final int ID_BYTES = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SecureRandom m_random = new SecureRandom();
+
+    private final ConcurrentMap<String, DatastreamMediation> m_registry =
+            new ConcurrentHashMap<String, DatastreamMediation>(1000);
+
+    /** The buckets of IDs, oldest first. */
+    private final Queue<Bucket> m_buckets = new ConcurrentLinkedQueue<Bucket>();
+
+    private volatile Bucket m_current;
+
+    private volatile long m_timeToLive;
+
+    /**
+     * Creates a registry.
+     *
+     * @param timeToLive
+     *        how long, in milliseconds, a registration lasts
+     */
+    public DatastreamMediationRegistry(long timeToLive) {
+        m_timeToLive = timeToLive;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        m_timeToLive = timeToLive;
+    }
+
+    public long getTimeToLive() {
+        return m_timeToLive;
+    }
+
+    /**
+     * Registers a datastream location under a new ID, which is also set as
+     * its mediatedDatastreamID, and sets its registration time.
+     *
+     * @return the ID, which contains only lowercase letters and digits.
+     */
+    public String register(DatastreamMediation dm) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        dm.registeredTime = now;
+        String id;
+        do {
+            id = newId();
+            dm.mediatedDatastreamID = id;
+        } while (m_registry.putIfAbsent(id, dm) != null);
+        getBucket(now).ids.add(id);
+        return id;
+    }
+
+    /**
+     * Gets a registered datastream location.
+     *
+     * @return the registration, or null if there is none or it has expired.
+     */
+    public DatastreamMediation get(String id) {
+        DatastreamMediation dm = m_registry.get(id);
+        if (dm != null
+                && System.currentTimeMillis() - dm.registeredTime > m_timeToLive) {
+            m_registry.remove(id);
+            return null;
+        }
+        return dm;
+    }
+
+    /**
+     * Removes a registration, once it has been used.
+     */
+    public void remove(String id) {
+        m_registry.remove(id);
+    }
+
+    /**
+     * Gets the number of registrations, including any that have expired but
+     * not yet been removed.
+     */
+    public int size() {
+        return m_registry.size();
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[ID_BYTES];
+        m_random.nextBytes(bytes);
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Gets the bucket for IDs registered at the given time, starting a new
+     * one if the current one is over.
+     */
+    private Bucket getBucket(long now) {
+        Bucket bucket = m_current;
+        if (bucket == null || now >= bucket.end) {
+            synchronized (m_buckets) {
+                bucket = m_current;
+                if (bucket == null || now >= bucket.end) {
+                    bucket =
+                            new Bucket(now + Math.max(1, m_timeToLive
+                                    / BUCKETS));
+                    m_buckets.add(bucket);
+                    m_current = bucket;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Removes the buckets, and the registrations in them, whose IDs have all
+     * expired.
+     */
+    private void expire(long now) {
+        Bucket oldest = m_buckets.peek();
+        while (oldest != null && now - oldest.end > m_timeToLive) {
+            if (m_buckets.remove(oldest)) {
+                for (String id : oldest.ids) {
+                    m_registry.remove(id);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Removed expired datastream mediation "
+                            + "bucket of " + oldest.ids.size() + " IDs");
+                }
+            }
+            oldest = m_buckets.peek();
+        }
+    }
+
+    /**
+     * The IDs registered before a given time, and after those of the bucket
+     * before.
+     */
+    private static class Bucket {
+
+        final long end;
+
+        final Queue<String> ids = new ConcurrentLinkedQueue<String>();
+
+        Bucket(long end) {
+            this.end = end;
+        }
+    }
+
+}
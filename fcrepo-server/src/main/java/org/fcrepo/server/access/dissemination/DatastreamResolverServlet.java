@@ -9,9 +9,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 
-import java.sql.Timestamp;
-
-import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -51,8 +48,8 @@ import org.slf4j.LoggerFactory;
  * This servlet acts as a proxy to resolve the physical location of datastreams.
  *
  * <p>It requires a single parameter named <code>id</code> that denotes the
- * temporary id of the requested datastresm. This id is in the form of a
- * DateTime stamp. The servlet will perform an in-memory hashtable lookup
+ * temporary id of the requested datastresm. This id is a random string
+ * given by {@link DatastreamMediationRegistry}. The servlet will perform an in-memory hashtable lookup
  * using the temporary id to obtain the actual physical location of the
  * datastream and then return the contents of the datastream as a MIME-typed
  * stream. This servlet is invoked primarily by external mechanisms needing to
@@ -155,16 +152,13 @@ public class DatastreamResolverServlet
         String user = null;
         String pass = null;
         MIMETypedStream mimeTypedStream = null;
-        DisseminationService ds = null;
-        Timestamp keyTimestamp = null;
-        Timestamp currentTimestamp = null;
         PrintWriter out = null;
         ServletOutputStream outStream = null;
         String requestURI =
                 request.getRequestURL().toString() + "?"
                         + request.getQueryString();
 
-        id = request.getParameter("id").replaceAll("T", " ");
+        id = request.getParameter("id");
         logger.debug("Datastream tempID=" + id);
 
         logger.debug("DRS doGet()");
@@ -184,19 +178,13 @@ public class DatastreamResolverServlet
                                    message);
                 return;
             }
-            id = id.replaceAll("T", " ").replaceAll("/", "").trim();
+            id = id.replaceAll("/", "").trim();
 
-            // Get in-memory hashtable of mappings from Fedora server.
-            ds = new DisseminationService(m_server);
+            // Get in-memory registry of mappings from Fedora server.
             DatastreamMediation dm = DisseminationService.dsRegistry.get(id);
             if (dm == null) {
-                StringBuffer entries = new StringBuffer();
-                Iterator eIter = DisseminationService.dsRegistry.keySet().iterator();
-                while (eIter.hasNext()) {
-                    entries.append("'" + (String) eIter.next() + "' ");
-                }
                 throw new IOException("Cannot find datastream in temp registry by key: "
-                        + id + "\n" + "Reg entries: " + entries.toString());
+                        + id + " (it may have expired or already been used)");
             }
             dsPhysicalLocation = dm.dsLocation;
             dsControlGroupType = dm.dsControlGroupType;
@@ -283,8 +271,6 @@ public class DatastreamResolverServlet
                     }
                 }
             }
-            keyTimestamp = Timestamp.valueOf(ds.extractTimestamp(id));
-            currentTimestamp = new Timestamp(new Date().getTime());
             logger.debug("dsPhysicalLocation=" + dsPhysicalLocation
                     + "dsControlGroupType=" + dsControlGroupType);
 
@@ -293,7 +279,7 @@ public class DatastreamResolverServlet
             // The expiration limit can be adjusted using the Fedora config
             // parameter
             // named "datastreamMediationLimit" which is in milliseconds.
-            long diff = currentTimestamp.getTime() - keyTimestamp.getTime();
+            long diff = System.currentTimeMillis() - dm.registeredTime;
             logger.debug("Timestamp diff for mechanism's reponse: " + diff
                     + " ms.");
             if (diff > datastreamMediationLimit) {
@@ -535,7 +521,9 @@ public class DatastreamResolverServlet
             if (outStream != null) {
                 outStream.close();
             }
-            DisseminationService.dsRegistry.remove(id);
+            if (id != null) {
+                DisseminationService.dsRegistry.remove(id);
+            }
         }
     }
 
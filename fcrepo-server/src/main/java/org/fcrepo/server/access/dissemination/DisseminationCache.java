@@ -0,0 +1,231 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.access.dissemination;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.fcrepo.server.storage.types.DisseminationBindingInfo;
+import org.fcrepo.server.storage.types.MIMETypedStream;
+import org.fcrepo.server.storage.types.Property;
+import org.fcrepo.utilities.DiskCache;
+
+
+/**
+ * A disk-backed cache of the results of service deployment methods that have
+ * been marked cacheable in their method map.
+ * <p>
+ * A result is keyed by everything it is derived from: the object and when it
+ * was last modified, the service definition, the deployment and when it was
+ * last modified, the method, the parameters, and the versions of the input
+ * datastreams. Any change to the object or its deployment therefore gives
+ * its disseminations new keys, and the stale results are left to be evicted.
+ * Results are kept in a {@link DiskCache}, which deletes the least recently
+ * used once their total size exceeds the limit, and deletes the results
+ * left in the directory by an earlier cache when it is created.
+ * </p>
+ * <p>
+ * Cacheable disseminations are given ETag and Last-Modified headers, so
+ * clients can make conditional requests.
+ * </p>
+ */
+public class DisseminationCache {
+
+    private final DiskCache<Result> m_cache;
+
+    /**
+     * Creates a cache, deleting any results left in its directory.
+     *
+     * @param dir
+     *        the directory in which to keep the results
+     * @param maxBytes
+     *        the total size of the results to keep
+     * @param maxEntryBytes
+     *        the size of the largest result to keep
+     * @throws IOException
+     *         if the directory can't be created.
+     */
+    public DisseminationCache(File dir, long maxBytes, long maxEntryBytes)
+            throws IOException {
+        m_cache = new DiskCache<Result>(dir, "diss", maxBytes, maxEntryBytes);
+    }
+
+    /**
+     * Tells whether a dissemination's results can be cached, which they can't
+     * be if any of its inputs are external or redirected datastreams, since
+     * their content may change without the object changing.
+     */
+    public static boolean isCacheable(DisseminationBindingInfo[] inputs) {
+        for (DisseminationBindingInfo input : inputs) {
+            if ("E".equalsIgnoreCase(input.dsControlGroupType)
+                    || "R".equalsIgnoreCase(input.dsControlGroupType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the key of a dissemination, a digest of everything its result is
+     * derived from.
+     */
+    public static String getKey(String pid,
+                                Date lastModified,
+                                String sDefPID,
+                                String deploymentPID,
+                                Date deploymentLastModified,
+                                String methodName,
+                                Map<String, String> parms,
+                                DisseminationBindingInfo[] inputs) {
+        StringBuilder key = new StringBuilder();
+        key.append(pid).append('\n').append(lastModified.getTime());
+        key.append('\n').append(sDefPID).append('\n').append(deploymentPID);
+        key.append('\n').append(deploymentLastModified.getTime());
+        key.append('\n').append(methodName);
+        for (Map.Entry<String, String> parm : new TreeMap<String, String>(parms)
+                .entrySet()) {
+            key.append('\n').append(parm.getKey()).append('=')
+                    .append(parm.getValue());
+        }
+        for (DisseminationBindingInfo input : inputs) {
+            key.append('\n').append(input.DSBindKey).append('=')
+                    .append(input.dsID).append('/').append(input.dsVersionID);
+            if (input.dsCreateDT != null) {
+                key.append('/').append(input.dsCreateDT.getTime());
+            }
+        }
+        return DiskCache.getKey(key.toString());
+    }
+
+    /**
+     * Gets a cached result.
+     *
+     * @return the result, with validator headers, or null if it isn't cached.
+     */
+    public MIMETypedStream get(String key) {
+        DiskCache.Entry<Result> entry = m_cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        InputStream in = m_cache.open(key, entry);
+        if (in == null) {
+            return null;
+        }
+        return new MIMETypedStream(entry.getValue().mimeType,
+                                   in,
+                                   entry.getValue().header,
+                                   entry.getSize());
+    }
+
+    /**
+     * Adds a result to the cache, unless it's too large, and gives it
+     * validator headers.
+     *
+     * @param key
+     *        the key of the dissemination
+     * @param lastModified
+     *        when the object was last modified
+     * @param dissemination
+     *        the result, which will have been read
+     * @return the result to send instead, with validator headers.
+     */
+    public MIMETypedStream put(String key,
+                               Date lastModified,
+                               MIMETypedStream dissemination)
+            throws IOException {
+        Property[] header = addValidators(dissemination.header, key,
+                                          lastModified);
+        DiskCache.Content content =
+                m_cache.put(key,
+                            dissemination.getStream(),
+                            new Result(dissemination.MIMEType, header));
+        return new MIMETypedStream(dissemination.MIMEType,
+                                   content.getStream(),
+                                   header,
+                                   content.isCached() ? content.getSize()
+                                           : dissemination.getSize());
+    }
+
+    /**
+     * Gets the given headers, without any of their own validators, and with
+     * an ETag of the key and the Last-Modified date.
+     */
+    private static Property[] addValidators(Property[] header,
+                                            String key,
+                                            Date lastModified) {
+        List<Property> headers = new ArrayList<Property>();
+        if (header != null) {
+            for (Property property : header) {
+                if (property.name != null
+                        && !property.name.equalsIgnoreCase("ETag")
+                        && !property.name.equalsIgnoreCase("Last-Modified")
+                        && !property.name.equalsIgnoreCase("Transfer-Encoding")) {
+                    headers.add(property);
+                }
+            }
+        }
+        SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                     Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        headers.add(new Property("ETag", "\"" + key + "\""));
+        headers.add(new Property("Last-Modified", format.format(lastModified)));
+        return headers.toArray(new Property[headers.size()]);
+    }
+
+    public int getEntryCount() {
+        return m_cache.getEntryCount();
+    }
+
+    /**
+     * Gets the total size of the cached results.
+     */
+    public long getBytes() {
+        return m_cache.getBytes();
+    }
+
+    public long getHits() {
+        return m_cache.getHits();
+    }
+
+    public long getMisses() {
+        return m_cache.getMisses();
+    }
+
+    @Override
+    public String toString() {
+        return "Dissemination cache: " + m_cache.getEntryCount()
+                + " results, " + m_cache.getBytes() + " of "
+                + m_cache.getMaxBytes() + " bytes, " + m_cache.getHits()
+                + " hits, " + m_cache.getMisses() + " misses";
+    }
+
+    /**
+     * The type and headers of a cached result.
+     */
+    private static class Result {
+
+        final String mimeType;
+
+        final Property[] header;
+
+        Result(String mimeType, Property[] header) {
+            this.mimeType = mimeType;
+            this.header = header;
+        }
+    }
+
+}
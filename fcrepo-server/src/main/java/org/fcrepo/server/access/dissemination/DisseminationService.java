@@ -8,15 +8,16 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.sql.Timestamp;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.fcrepo.common.http.CircuitOpenException;
 import org.fcrepo.server.Context;
 import org.fcrepo.server.Server;
+import org.fcrepo.server.errors.BackendUnavailableException;
 import org.fcrepo.server.errors.DisseminationBindingInfoNotFoundException;
 import org.fcrepo.server.errors.DisseminationException;
 import org.fcrepo.server.errors.GeneralException;
@@ -60,12 +61,6 @@ public class DisseminationService {
 	/** The expiration limit in minutes for removing entries from the database. */
 	private static int datastreamExpirationLimit = 0;
 
-	/**
-	 * An incremental counter used to insure uniqueness of tempIDs used for
-	 * datastream mediation.
-	 */
-	private static int counter = 0;
-
 	/** Datastream Mediation control flag. */
 	private boolean m_doDatastreamMediation;
 	private boolean m_useNewUrlEncodingTest;
@@ -90,9 +85,11 @@ public class DisseminationService {
 
 	private final Authorization m_authorization;
 
-	/** The hashtable containing information required for datastream mediation. */
-	protected static Hashtable<String, DatastreamMediation> dsRegistry = new Hashtable<String, DatastreamMediation>(
-			1000);
+	private final BackendServiceLimiter m_backendLimiter;
+
+	/** The registry of information required for datastream mediation. */
+	protected static final DatastreamMediationRegistry dsRegistry = new DatastreamMediationRegistry(
+			300 * 1000L);
 
 	/**
 	 * <p>
@@ -105,6 +102,16 @@ public class DisseminationService {
 	 * </p>
 	 */
 	public DisseminationService(Server server) {
+		this(server, null);
+	}
+
+	/**
+	 * Constructs an instance of DisseminationService that makes its calls to
+	 * backend services within the limits of the given limiter, if any.
+	 */
+	public DisseminationService(Server server,
+			BackendServiceLimiter backendLimiter) {
+		m_backendLimiter = backendLimiter;
 		m_fedoraServerHost = server.getParameter("fedoraServerHost");
 		m_fedoraServerPort = server.getParameter("fedoraServerPort");
 		m_fedoraAppServerContext = server
@@ -123,6 +130,7 @@ public class DisseminationService {
 			logger.info("datastreamExpirationLimit="
 					+ datastreamExpirationLimit);
 		}
+		dsRegistry.setTimeToLive(datastreamExpirationLimit * 1000L);
 		String dsMediation = server
 				.getModule("org.fcrepo.server.access.Access").getParameter(
 						"doMediateDatastreams");
@@ -734,7 +742,7 @@ public class DisseminationService {
 							beServiceCallPassword);
 					params.setBypassBackend(true);
 					params.setContext(context);
-					dissemination = m_ecm.getExternalContent(params);
+					dissemination = callBackend(params);
 				}
 
 			} else if (protocolType.equalsIgnoreCase("soap")) {
@@ -766,6 +774,39 @@ public class DisseminationService {
 		return dissemination;
 	}
 
+	/**
+	 * Calls a backend service within the limits of the backend limiter, if
+	 * there is one.
+	 */
+	private MIMETypedStream callBackend(ContentManagerParams params)
+			throws ServerException {
+		try {
+			if (m_backendLimiter == null) {
+				return m_ecm.getExternalContent(params);
+			}
+			return m_backendLimiter.call(params,
+					new BackendServiceLimiter.Call() {
+
+						public MIMETypedStream call(ContentManagerParams p)
+								throws Exception {
+							return m_ecm.getExternalContent(p);
+						}
+					});
+		} catch (Exception e) {
+			// the http client refused to call a backend that keeps failing
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof CircuitOpenException) {
+					throw new BackendUnavailableException(t.getMessage());
+				}
+			}
+			if (e instanceof ServerException) {
+				throw (ServerException) e;
+			}
+			throw new GeneralException("Error calling backend service at "
+					+ params.getUrl(), e);
+		}
+	}
+
 	/**
 	 * <p>
 	 * Datastream locations are considered privileged information by the Fedora
@@ -780,24 +821,10 @@ public class DisseminationService {
 	 * <p>
 	 * </p>
 	 * <p>
-	 * The format of the tempID is derived from <code>java.sql.Timestamp</code>
-	 * with an arbitrary counter appended to the end to insure uniqueness. The
-	 * syntax is of the form:
-	 * <ul>
-	 * <p>
-	 * YYYY-MM-DD HH:mm:ss.mmm:dddddd where
+	 * The tempID is a random string of lowercase hexadecimal digits, so that
+	 * it can't be guessed, and expires after the number of seconds given by
+	 * the Fedora config parameter named "datastreamExpirationLimit".
 	 * </p>
-	 * <ul>
-	 * <li>YYYY - year (1900-8099)</li>
-	 * <li>MM - month (01-12)</li>
-	 * <li>DD - day (01-31)</li>
-	 * <li>hh - hours (0-23)</li>
-	 * <li>mm - minutes (0-59)</li>
-	 * <li>ss - seconds (0-59)</li>
-	 * <li>mmm - milliseconds (0-999)</li>
-	 * <li>dddddd - incremental counter (0-999999)</li>
-	 * </ul>
-	 * </ul>
 	 * 
 	 * @param dsLocation
 	 *            The physical location of the datastream.
@@ -813,36 +840,12 @@ public class DisseminationService {
 			String methodName) throws ServerException {
 
 		String tempID = null;
-		Timestamp timeStamp = null;
-		if (counter > 999999) {
-			counter = 0;
-		}
-		long currentTime = new Timestamp(new Date().getTime()).getTime();
-		long expireLimit = currentTime - (long) datastreamExpirationLimit
-				* 1000;
 
 		try {
 
-			// Remove any datastream registrations that have expired.
-			// The expiration limit can be adjusted using the Fedora config
-			// parameter
-			// named "datastreamExpirationLimit" which is in seconds.
-			for (Enumeration<String> e = dsRegistry.keys(); e.hasMoreElements();) {
-				String key = e.nextElement();
-				timeStamp = Timestamp.valueOf(extractTimestamp(key));
-				if (expireLimit > timeStamp.getTime()) {
-					dsRegistry.remove(key);
-					logger.debug("DatastreamMediationKey removed from Hash: "
-							+ key);
-				}
-			}
-
 			// Register datastream.
 			if (tempID == null) {
-				timeStamp = new Timestamp(new Date().getTime());
-				tempID = timeStamp.toString() + ":" + counter++;
 				DatastreamMediation dm = new DatastreamMediation();
-				dm.mediatedDatastreamID = tempID;
 				dm.dsLocation = dsLocation;
 				dm.dsControlGroupType = dsControlGroupType;
 				dm.methodName = methodName;
@@ -919,7 +922,8 @@ public class DisseminationService {
 				dm.callBasicAuth = beServiceCallBasicAuth;
 				dm.callbackSSL = beServiceCallbackSSL;
 				dm.callSSL = beServiceCallSSL;
-				dsRegistry.put(tempID, dm);
+				// Expired registrations are removed as new ones are made.
+				tempID = dsRegistry.register(dm);
 				logger.debug("DatastreammediationKey added to Hash: " + tempID);
 			}
 
@@ -931,28 +935,7 @@ public class DisseminationService {
 					+ th.getMessage() + "\" .");
 		}
 
-		// Replace the blank between date and time with the character "T".
-		return tempID.replaceAll(" ", "T");
-	}
-
-	/**
-	 * <p>
-	 * The tempID that is used for datastream mediation consists of a <code>
-	 * Timestamp</code> plus a counter appended to the end to insure uniqueness.
-	 * This method is a utility method used to extract the Timestamp portion
-	 * from the tempID by stripping off the arbitrary counter at the end of the
-	 * string.
-	 * </p>
-	 * 
-	 * @param tempID
-	 *            The tempID to be extracted.
-	 * @return The extracted Timestamp value as a string.
-	 */
-	public String extractTimestamp(String tempID) {
-		StringBuffer sb = new StringBuffer();
-		sb.append(tempID);
-		sb.replace(tempID.lastIndexOf(":"), tempID.length(), "");
-		return sb.toString();
+		return tempID;
 	}
 
 	/**
@@ -0,0 +1,27 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.errors;
+
+/**
+ * Signals that a dissemination's backend service already has as many calls
+ * in progress as it is allowed, so the dissemination can't be made now.
+ */
+public class BackendUnavailableException
+        extends DisseminationException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a BackendUnavailableException.
+     *
+     * @param message
+     *        An informative message explaining what happened and (possibly) how
+     *        to fix it.
+     */
+    public BackendUnavailableException(String message) {
+        super(message);
+    }
+
+}
@@ -19,7 +19,7 @@ import org.fcrepo.server.storage.DOReader;
  * @author Aaron Birkland
  */
 public class ContentModelTripleGenerator_3_0
-        implements TripleGenerator {
+        implements DatastreamTripleGenerator {
 
     /**
      * {@inheritDoc}
@@ -30,4 +30,19 @@ public class ContentModelTripleGenerator_3_0
         return new HashSet<Triple>();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader) {
+        return new HashSet<Triple>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID) {
+        return new HashSet<Triple>();
+    }
+
 }
@@ -0,0 +1,56 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.storage.DOReader;
+
+
+/**
+ * A TripleGenerator that can also generate an object's triples in parts: the
+ * triples of the object's properties, and those of each of its datastreams.
+ * <p>
+ * Each triple of {@link #getTriplesForObject(DOReader)} must be in exactly one
+ * part, so that when some datastreams change, only their parts and the object
+ * properties need to be generated again. The parts of RELS-EXT and RELS-INT
+ * hold the object's relationships, including any it has only implicitly
+ * because RELS-EXT is absent.
+ * </p>
+ */
+public interface DatastreamTripleGenerator
+        extends TripleGenerator {
+
+    /**
+     * Get the triples implied by the properties of the given object, such as
+     * its state and label, rather than by any of its datastreams.
+     *
+     * @param reader
+     *        Current object from which to determine triples
+     * @return Set of triples implied by the object's properties.
+     * @throws ResourceIndexException
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader)
+            throws ResourceIndexException;
+
+    /**
+     * Get the triples implied by the current version of a datastream of the
+     * given object.
+     *
+     * @param reader
+     *        Current object from which to determine triples
+     * @param datastreamID
+     *        the ID of the datastream, which the object need not have
+     * @return Set of triples implied by the datastream, or by its absence.
+     * @throws ResourceIndexException
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException;
+
+}
@@ -38,7 +38,11 @@ import org.fcrepo.server.utilities.DCFields;
  */
 public class FedoraObjectTripleGenerator_3_0
         extends TripleGeneratorBase
-        implements Constants, TripleGenerator {
+        implements Constants, DatastreamTripleGenerator {
+
+    private static final String RELS_EXT = "RELS-EXT";
+
+    private static final String RELS_INT = "RELS-INT";
 
     /**
      * {@inheritDoc}
@@ -53,6 +57,62 @@ public class FedoraObjectTripleGenerator_3_0
         return set;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader)
+            throws ResourceIndexException {
+
+        Set<Triple> set = new HashSet<Triple>();
+
+        try {
+            addCoreObjectTriples(reader, getObjectURI(reader), set);
+        } catch (ResourceIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResourceIndexException("Error generating triples", e);
+        }
+
+        return set;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException {
+
+        Set<Triple> set = new HashSet<Triple>();
+
+        try {
+            URIReference objURI = getObjectURI(reader);
+
+            Datastream ds = reader.GetDatastream(datastreamID, null);
+            if (ds != null) {
+                addCoreDatastreamTriples(ds, objURI, set);
+                if (ds.DatastreamID.equals("DC")) {
+                    addDCTriples(ds, objURI, set);
+                }
+            }
+
+            if (datastreamID.equals(RELS_EXT) || datastreamID.equals(RELS_INT)) {
+                addRelationshipTriples(reader, objURI, datastreamID, set);
+            }
+        } catch (ResourceIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResourceIndexException("Error generating triples", e);
+        }
+
+        return set;
+    }
+
+    private URIReference getObjectURI(DOReader reader) throws Exception {
+        return new SimpleURIReference(new URI(PID.toURI(reader
+                .GetObjectPID())));
+    }
+
     /**
      * Add the common core and datastream triples for the given object.
      */
@@ -61,8 +121,7 @@ public class FedoraObjectTripleGenerator_3_0
 
         try {
 
-            URIReference objURI = new SimpleURIReference(
-                    new URI(PID.toURI(reader.GetObjectPID())));
+            URIReference objURI = getObjectURI(reader);
 
             addCoreObjectTriples(reader, objURI, set);
 
@@ -74,7 +133,7 @@ public class FedoraObjectTripleGenerator_3_0
                 }
             }
 
-            addRelationshipTriples(reader, objURI, set);
+            addRelationshipTriples(reader, objURI, null, set);
 
             return objURI;
         } catch (ResourceIndexException e) {
@@ -167,13 +226,22 @@ public class FedoraObjectTripleGenerator_3_0
      * Adds all triples given by reader.getRelationships(null, null).
      * <p>
      * This includes everything in RELS-EXT and RELS-INT as well as the implicit
-     * basic content model assertion, if any.
+     * basic content model assertion, if any. If datastreamID is RELS-EXT, only
+     * the relationships of the object are added, and if it is RELS-INT, only
+     * those of its datastreams.
      */
     private void addRelationshipTriples(DOReader reader,
                                         URIReference objURI,
+                                        String datastreamID,
                                         Set<Triple> set)
             throws Exception {
+        String objSubject = objURI.getURI().toString();
         for (RelationshipTuple tuple : reader.getRelationships()) {
+            if (datastreamID != null
+                    && tuple.subject.equals(objSubject) != datastreamID
+                            .equals(RELS_EXT)) {
+                continue;
+            }
             ObjectNode oNode;
             if (tuple.isLiteral) {
                 if (tuple.datatype != null) {
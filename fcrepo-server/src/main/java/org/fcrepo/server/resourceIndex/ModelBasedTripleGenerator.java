@@ -4,8 +4,10 @@
  */
 package org.fcrepo.server.resourceIndex;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,11 +29,16 @@ import static org.fcrepo.common.Models.SERVICE_DEPLOYMENT_3_0;
  * {@link TripleGenerator} for that model. Returns the union of all triples
  * created by these generators.
  * </p>
+ * <p>
+ * The triples of generators that are {@link DatastreamTripleGenerator}s are
+ * also available in parts. Those of other generators are all counted as
+ * triples of the object's properties.
+ * </p>
  *
  * @author Aaron Birkland
  */
 public class ModelBasedTripleGenerator
-        implements TripleGenerator {
+        implements DatastreamTripleGenerator {
 
     /**
      * Map of model-specific triple generators. Right now, this is entirely
@@ -111,4 +118,73 @@ public class ModelBasedTripleGenerator
 
         return objectTriples;
     }
+
+    /**
+     * Gets the triples of the object's properties implied by the object's
+     * models, and all triples of its models that have no
+     * DatastreamTripleGenerator.
+     *
+     * @param reader
+     *        Reads the current object
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader)
+            throws ResourceIndexException {
+
+        Set<Triple> objectTriples = new HashSet<Triple>();
+
+        for (TripleGenerator generator : getGenerators(reader)) {
+            if (generator instanceof DatastreamTripleGenerator) {
+                objectTriples.addAll(((DatastreamTripleGenerator) generator)
+                        .getTriplesForObjectProperties(reader));
+            } else {
+                objectTriples.addAll(generator.getTriplesForObject(reader));
+            }
+        }
+
+        return objectTriples;
+    }
+
+    /**
+     * Gets the triples of a datastream implied by the object's models.
+     *
+     * @param reader
+     *        Reads the current object
+     * @param datastreamID
+     *        the ID of the datastream
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException {
+
+        Set<Triple> datastreamTriples = new HashSet<Triple>();
+
+        for (TripleGenerator generator : getGenerators(reader)) {
+            if (generator instanceof DatastreamTripleGenerator) {
+                datastreamTriples
+                        .addAll(((DatastreamTripleGenerator) generator)
+                                .getTriplesForDatastream(reader, datastreamID));
+            }
+        }
+
+        return datastreamTriples;
+    }
+
+    /**
+     * Gets the generators of the object's models.
+     */
+    private List<TripleGenerator> getGenerators(DOReader reader)
+            throws ResourceIndexException {
+        List<TripleGenerator> generators = new ArrayList<TripleGenerator>();
+        try {
+            for (String model : reader.getContentModels()) {
+                if (m_generators.containsKey(model)) {
+                    generators.add(m_generators.get(model));
+                }
+            }
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Could not read object's content model",
+                                             e);
+        }
+        return generators;
+    }
 }
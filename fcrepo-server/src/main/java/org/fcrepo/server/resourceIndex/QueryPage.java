@@ -0,0 +1,540 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.UnsupportedEncodingException;
+
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+
+/**
+ * A page of the results of a Resource Index query, read within a time
+ * budget.
+ * <p>
+ * Paging is by offset. The triplestores can't skip results, so a page is
+ * read by asking for no more results than the end of the page, one more to
+ * tell whether there are others, and skipping those before the page; reading
+ * all of a large result a page at a time therefore costs time in proportion
+ * to the square of its size, and offsets are limited to {@link #MAX_OFFSET}.
+ * Each page after the first is asked for with a continuation cursor, which
+ * holds the offset of the page and a checksum of the query, so that it can't
+ * be used with another query. Pages are only stable while the Resource Index
+ * doesn't change.
+ * </p>
+ * <p>
+ * The time budget starts when the page is created, and covers the query as
+ * well as reading its results. A query that is still running when the budget
+ * runs out is interrupted and left to finish on its own thread, and its
+ * results are closed as soon as they arrive. If the budget runs out while
+ * results are read, reading fails and the results are closed, so a query
+ * that is waiting for the triplestore releases it.
+ * </p>
+ */
+public class QueryPage {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(QueryPage.class);
+
+    private static final Timer TIMER = new Timer("QueryPage-timeout", true);
+
+    /** Runs the queries that have a time budget. */
+    private static final ExecutorService QUERIES =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+
+                private int _count;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "QueryPage-query-" + ++_count);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * The largest offset a cursor may give. Every result before a page is
+     * read and skipped, so pages further on are too costly to ask for;
+     * larger results should be narrowed by the query instead.
+     */
+    public static final int MAX_OFFSET = 100000;
+
+    private final int _offset;
+
+    private final int _size;
+
+    private final long _timeout;
+
+    private final long _deadline;
+
+    private int _skipped;
+
+    private int _returned;
+
+    private boolean _more;
+
+    private volatile boolean _timedOut;
+
+    /**
+     * Creates a page.
+     *
+     * @param offset
+     *        the number of results before the page
+     * @param size
+     *        the most results in the page, or 0 for all of those after the
+     *        offset
+     * @param timeout
+     *        the time budget in milliseconds, starting now, or 0 for none
+     */
+    public QueryPage(int offset, int size, long timeout) {
+        _offset = offset;
+        _size = size;
+        _timeout = timeout;
+        _deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    }
+
+    /**
+     * Gets the offset given by a continuation cursor.
+     *
+     * @param cursor
+     *        the cursor, from {@link #getCursor(String)}
+     * @param queryKey
+     *        the key of the query, from
+     *        {@link QueryResultCache#getKey(String, String, String, String, String, String, String, String)}
+     * @throws IllegalArgumentException
+     *         if the cursor is malformed, is for another query, or gives an
+     *         offset above {@link #MAX_OFFSET}.
+     */
+    public static int parseCursor(String cursor, String queryKey) {
+        int dot = cursor.indexOf('.');
+        if (dot > 0 && cursor.substring(dot + 1).equals(checksum(queryKey))) {
+            try {
+                int offset = Integer.parseInt(cursor.substring(0, dot));
+                if (offset >= 0 && offset <= MAX_OFFSET) {
+                    return offset;
+                }
+            } catch (NumberFormatException e) {
+            }
+        }
+        throw new IllegalArgumentException("Invalid cursor for this query: "
+                + cursor);
+    }
+
+    private static String checksum(String queryKey) {
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(queryKey.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Gets the limit to ask the triplestore for.
+     *
+     * @param limit
+     *        the limit of the query, or 0 for none
+     * @return the smaller of the limit and one more than the end of the page,
+     *         at most Integer.MAX_VALUE, or 0 for none.
+     */
+    public int getLimit(int limit) {
+        if (_size == 0) {
+            return limit;
+        }
+        long end = (long) _offset + _size;
+        if (limit > 0 && limit <= end) {
+            return limit;
+        }
+        return (int) Math.min(end + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Tells whether only some of the results are asked for, rather than all
+     * of them within the time budget.
+     */
+    public boolean isPaged() {
+        return _size > 0 || _offset > 0;
+    }
+
+    /**
+     * Tells whether there are more results after those read, which is only
+     * known once the page has been read.
+     */
+    public boolean hasMore() {
+        return _more;
+    }
+
+    /**
+     * Gets the cursor of the next page.
+     *
+     * @return the cursor, or null if there are no more results.
+     */
+    public String getCursor(String queryKey) {
+        if (!_more) {
+            return null;
+        }
+        return ((long) _offset + _returned) + "." + checksum(queryKey);
+    }
+
+    /**
+     * Gets the cursor of the page after this one, before this page is read,
+     * for results that are sent as they are read. The page after it may be
+     * empty.
+     *
+     * @return the cursor, or null if this page holds all of the results
+     *         after its offset.
+     */
+    public String getNextCursor(String queryKey) {
+        if (_size == 0) {
+            return null;
+        }
+        return ((long) _offset + _size) + "." + checksum(queryKey);
+    }
+
+    public boolean isTimedOut() {
+        return _timedOut;
+    }
+
+    /**
+     * Runs a tuple query within the time budget, and gets the page of its
+     * results.
+     *
+     * @param query
+     *        finds the tuples, with no more than {@link #getLimit(int)}
+     *        results
+     * @throws TrippiException
+     *         if the query fails, or does not return its results within the
+     *         time budget.
+     */
+    public TupleIterator findTuples(final Callable<TupleIterator> query)
+            throws TrippiException {
+        return getPage(run(new Query<TupleIterator>() {
+
+            @Override
+            TupleIterator find() throws Exception {
+                return query.call();
+            }
+
+            @Override
+            void close(TupleIterator results) throws TrippiException {
+                results.close();
+            }
+        }));
+    }
+
+    /**
+     * Runs a triple query within the time budget, and gets the page of its
+     * results.
+     *
+     * @param query
+     *        finds the triples, with no more than {@link #getLimit(int)}
+     *        results
+     * @throws TrippiException
+     *         if the query fails, or does not return its results within the
+     *         time budget.
+     */
+    public TripleIterator findTriples(final Callable<TripleIterator> query)
+            throws TrippiException {
+        return getPage(run(new Query<TripleIterator>() {
+
+            @Override
+            TripleIterator find() throws Exception {
+                return query.call();
+            }
+
+            @Override
+            void close(TripleIterator results) throws TrippiException {
+                results.close();
+            }
+        }));
+    }
+
+    /**
+     * Runs a query, on another thread if there is a time budget, so that the
+     * caller can give up on it when the budget runs out.
+     */
+    private <T> T run(Query<T> query) throws TrippiException {
+        if (_deadline == 0) {
+            return query.call();
+        }
+        Future<T> future = QUERIES.submit(query);
+        try {
+            long wait = Math.max(1, _deadline - System.currentTimeMillis());
+            return future.get(wait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            _timedOut = true;
+            logger.warn("Aborting query that exceeded its time budget of {}ms",
+                        _timeout);
+            query.abandon();
+            future.cancel(true);
+            throw new TrippiException("Query exceeded its time budget of "
+                    + _timeout + "ms");
+        } catch (InterruptedException e) {
+            query.abandon();
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new TrippiException("Interrupted while querying", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TrippiException) {
+                throw (TrippiException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new TrippiException("Error querying", cause);
+        }
+    }
+
+    /**
+     * Gets the page of the given tuples.
+     */
+    public TupleIterator getPage(final TupleIterator tuples) {
+        final Results results = new Results() {
+
+            @Override
+            boolean hasNext() throws TrippiException {
+                return tuples.hasNext();
+            }
+
+            @Override
+            void skip() throws TrippiException {
+                tuples.next();
+            }
+
+            @Override
+            void closeResults() throws TrippiException {
+                tuples.close();
+            }
+        };
+        return new TupleIterator() {
+
+            @Override
+            public String[] names() throws TrippiException {
+                return tuples.names();
+            }
+
+            @Override
+            public boolean hasNext() throws TrippiException {
+                return QueryPage.this.hasNext(results);
+            }
+
+            @Override
+            public Map<String, Node> next() throws TrippiException {
+                if (!hasNext()) {
+                    return null;
+                }
+                _returned++;
+                return tuples.next();
+            }
+
+            @Override
+            public void close() throws TrippiException {
+                results.close();
+            }
+        };
+    }
+
+    /**
+     * Gets the page of the given triples.
+     */
+    public TripleIterator getPage(final TripleIterator triples) {
+        final Results results = new Results() {
+
+            @Override
+            boolean hasNext() throws TrippiException {
+                return triples.hasNext();
+            }
+
+            @Override
+            void skip() throws TrippiException {
+                triples.next();
+            }
+
+            @Override
+            void closeResults() throws TrippiException {
+                triples.close();
+            }
+        };
+        return new TripleIterator() {
+
+            @Override
+            public boolean hasNext() throws TrippiException {
+                return QueryPage.this.hasNext(results);
+            }
+
+            @Override
+            public Triple next() throws TrippiException {
+                if (!hasNext()) {
+                    return null;
+                }
+                _returned++;
+                return triples.next();
+            }
+
+            @Override
+            public void close() throws TrippiException {
+                results.close();
+            }
+        };
+    }
+
+    /**
+     * Skips to the page, and tells whether it has another result.
+     */
+    private boolean hasNext(Results results) throws TrippiException {
+        checkTime();
+        while (_skipped < _offset) {
+            if (!results.hasNext()) {
+                return false;
+            }
+            results.skip();
+            _skipped++;
+            checkTime();
+        }
+        if (_size > 0 && _returned == _size) {
+            _more = results.hasNext();
+            return false;
+        }
+        return results.hasNext();
+    }
+
+    private void checkTime() throws TrippiException {
+        if (_timedOut || _deadline > 0
+                && System.currentTimeMillis() > _deadline) {
+            _timedOut = true;
+            throw new TrippiException("Query exceeded its time budget of "
+                    + _timeout + "ms");
+        }
+    }
+
+    /**
+     * A query whose results are closed if they arrive after it has been given
+     * up on.
+     */
+    private abstract static class Query<T>
+            implements Callable<T> {
+
+        private boolean _abandoned;
+
+        private T _results;
+
+        abstract T find() throws Exception;
+
+        abstract void close(T results) throws TrippiException;
+
+        public T call() throws TrippiException {
+            T results;
+            try {
+                results = find();
+            } catch (TrippiException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new TrippiException("Error querying", e);
+            }
+            synchronized (this) {
+                if (!_abandoned) {
+                    _results = results;
+                    return results;
+                }
+            }
+            closeQuietly(results);
+            return null;
+        }
+
+        /**
+         * Gives up on the query, closing its results if they have already
+         * arrived.
+         */
+        void abandon() {
+            T results;
+            synchronized (this) {
+                _abandoned = true;
+                results = _results;
+                _results = null;
+            }
+            if (results != null) {
+                closeQuietly(results);
+            }
+        }
+
+        private void closeQuietly(T results) {
+            try {
+                close(results);
+            } catch (TrippiException e) {
+                logger.warn("Error closing results of aborted query", e);
+            }
+        }
+    }
+
+    /**
+     * The results of a query, which are closed when the time budget runs
+     * out, if they haven't been already.
+     */
+    private abstract class Results
+            extends TimerTask {
+
+        private boolean _closed;
+
+        Results() {
+            if (_deadline > 0) {
+                TIMER.schedule(this, Math.max(0, _deadline
+                        - System.currentTimeMillis()));
+            }
+        }
+
+        abstract boolean hasNext() throws TrippiException;
+
+        abstract void skip() throws TrippiException;
+
+        abstract void closeResults() throws TrippiException;
+
+        @Override
+        public void run() {
+            _timedOut = true;
+            logger.warn("Aborting query that exceeded its time budget of {}ms",
+                        _timeout);
+            try {
+                close();
+            } catch (TrippiException e) {
+                logger.warn("Error closing results of aborted query", e);
+            }
+        }
+
+        synchronized void close() throws TrippiException {
+            cancel();
+            if (!_closed) {
+                _closed = true;
+                closeResults();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.server.utilities.TimestampedCacheEntry;
+
+
+/**
+ * A cache of serialized Resource Index query results, bounded by their total
+ * size.
+ * <p>
+ * Results are keyed by all of the query parameters, with the whitespace of
+ * the query normalized. The cache has an epoch that the Resource Index
+ * advances whenever it writes or flushes updates; advancing it empties the
+ * cache, and a result read before the change is not added to the cache
+ * afterwards. Results should also only be added if the index had no updates
+ * pending when the query started, since those may become visible at any
+ * time. A cached result is otherwise served until it is older than the
+ * maximum age, which bounds how stale it can be if the triplestore makes
+ * updates visible on its own.
+ * </p>
+ */
+public class QueryResultCache {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(QueryResultCache.class);
+
+    private final long _maxBytes;
+
+    private final long _maxAge;
+
+    /** Least recently used first. */
+    private final Map<String, TimestampedCacheEntry<Result>> _entries =
+            new LinkedHashMap<String, TimestampedCacheEntry<Result>>(16,
+                                                                    0.75f,
+                                                                    true);
+
+    private long _bytes;
+
+    private long _epoch;
+
+    private long _hits;
+
+    private long _misses;
+
+    private long _savedMillis;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes
+     *        the total size of the results to keep; the least recently used
+     *        are evicted first. Results larger than a tenth of this are not
+     *        cached.
+     * @param maxAge
+     *        how long, in milliseconds, a result is served
+     */
+    public QueryResultCache(long maxBytes, long maxAge) {
+        _maxBytes = maxBytes;
+        _maxAge = maxAge;
+    }
+
+    /**
+     * Gets the cache key of a query.
+     */
+    public static String getKey(String type,
+                                String template,
+                                String lang,
+                                String query,
+                                String limit,
+                                String distinct,
+                                String format,
+                                String dumbTypes) {
+        StringBuilder key = new StringBuilder();
+        key.append(type).append(' ').append(lang);
+        key.append(' ').append(limit).append(' ').append(distinct);
+        key.append(' ').append(format).append(' ').append(dumbTypes);
+        key.append('\n').append(normalize(template));
+        key.append('\n').append(normalize(query));
+        return key.toString();
+    }
+
+    /**
+     * Trims a query and collapses each run of whitespace outside of quoted
+     * literals to a single space.
+     */
+    protected static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder(query.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            out.append(c);
+            if (quote == 0) {
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+            } else if (c == '\\' && i + 1 < query.length()) {
+                out.append(query.charAt(++i));
+            } else if (c == quote) {
+                quote = 0;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Gets the current epoch. It must be read before a query is run, and
+     * given when its result is added to the cache.
+     */
+    public synchronized long getEpoch() {
+        return _epoch;
+    }
+
+    /**
+     * Advances the epoch, emptying the cache.
+     */
+    public synchronized void invalidate() {
+        _epoch++;
+        _entries.clear();
+        _bytes = 0;
+    }
+
+    /**
+     * Gets a cached result.
+     *
+     * @return the result, or null if it is not cached
+     */
+    public synchronized Result get(String key) {
+        TimestampedCacheEntry<Result> entry = _entries.get(key);
+        if (entry != null && entry.age() > _maxAge) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            _misses++;
+            return null;
+        }
+        _hits++;
+        _savedMillis += entry.value()._queryMillis;
+        return entry.value();
+    }
+
+    /**
+     * Gets the size of the largest result that will be cached.
+     */
+    public long getMaxResultBytes() {
+        return _maxBytes / 10;
+    }
+
+    /**
+     * Adds a result to the cache, unless the epoch has advanced since its
+     * query was run or it is too large.
+     *
+     * @param key
+     *        the key of the query
+     * @param epoch
+     *        the epoch before the query was run
+     * @param mediaType
+     *        the media type of the result
+     * @param bytes
+     *        the serialized result
+     * @param queryMillis
+     *        how long it took to run the query
+     */
+    public synchronized void put(String key,
+                                 long epoch,
+                                 String mediaType,
+                                 byte[] bytes,
+                                 long queryMillis) {
+        if (epoch != _epoch) {
+            logger.debug("Not caching result read before epoch {}", _epoch);
+            return;
+        }
+        if (bytes.length > getMaxResultBytes()) {
+            return;
+        }
+        remove(key);
+        _entries.put(key,
+                     new TimestampedCacheEntry<Result>(new Result(mediaType,
+                                                                  bytes,
+                                                                  queryMillis)));
+        _bytes += bytes.length;
+        Iterator<TimestampedCacheEntry<Result>> iter =
+                _entries.values().iterator();
+        while (_bytes > _maxBytes && iter.hasNext()) {
+            _bytes -= iter.next().value()._bytes.length;
+            iter.remove();
+        }
+    }
+
+    private void remove(String key) {
+        TimestampedCacheEntry<Result> entry = _entries.remove(key);
+        if (entry != null) {
+            _bytes -= entry.value()._bytes.length;
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return _entries.size();
+    }
+
+    /**
+     * Gets the total size of the cached results.
+     */
+    public synchronized long getBytes() {
+        return _bytes;
+    }
+
+    public long getMaxBytes() {
+        return _maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    /**
+     * Gets the fraction of lookups that were hits, or 0 if there have been
+     * none.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = _hits + _misses;
+        return lookups == 0 ? 0 : (double) _hits / lookups;
+    }
+
+    /**
+     * Gets the total time, in milliseconds, that the queries of the hits
+     * took when they were run.
+     */
+    public synchronized long getSavedMillis() {
+        return _savedMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RI query result cache: " + _entries.size() + " results, "
+                + _bytes + " of " + _maxBytes + " bytes, " + _hits
+                + " hits, " + _misses + " misses, " + _savedMillis
+                + "ms of queries saved";
+    }
+
+    /**
+     * A cached query result.
+     */
+    public static class Result {
+
+        private final String _mediaType;
+
+        private final byte[] _bytes;
+
+        private final long _queryMillis;
+
+        private Result(String mediaType, byte[] bytes, long queryMillis) {
+            _mediaType = mediaType;
+            _bytes = bytes;
+            _queryMillis = queryMillis;
+        }
+
+        public String getMediaType() {
+            return _mediaType;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(_bytes);
+        }
+    }
+
+}
@@ -6,6 +6,8 @@ package org.fcrepo.server.resourceIndex;
 
 import java.io.OutputStream;
 
+import java.util.Set;
+
 import org.trippi.RDFFormat;
 import org.trippi.TriplestoreWriter;
 
@@ -68,6 +70,25 @@ public interface ResourceIndex
     void modifyObject(DOReader oldReader, DOReader newReader)
             throws ResourceIndexException;
 
+    /**
+     * Updates any appropriate triples implied a modified object, given which
+     * of its datastreams were changed. Only the triples of the object's
+     * properties and of those datastreams need to be generated again.
+     * 
+     * @param oldReader
+     *        Pre-modification version of the oject.
+     * @param newReader
+     *        Post-modification version of the object.
+     * @param changedDatastreams
+     *        IDs of the datastreams that were added, modified or removed.
+     * @throws ResourceIndexException
+     *         If the triples can't be updated for any reason.
+     */
+    void modifyObject(DOReader oldReader,
+                      DOReader newReader,
+                      Set<String> changedDatastreams)
+            throws ResourceIndexException;
+
     /**
      * Removes the triples implied by a given object from the ResourceIndex.
      * 
@@ -92,4 +113,20 @@ public interface ResourceIndex
     void export(OutputStream out, RDFFormat format)
             throws ResourceIndexException;
 
+    /**
+     * Gets the cache of query results, which is invalidated whenever the RI
+     * writes or flushes updates.
+     *
+     * @return the cache, or null if results are not cached.
+     */
+    QueryResultCache getResultCache();
+
+    /**
+     * Gets the longest a query may run, including the time taken to
+     * serialize its results, before it is aborted.
+     *
+     * @return the time budget in milliseconds, or 0 if there is none.
+     */
+    long getQueryTimeout();
+
 }
@@ -7,6 +7,8 @@ package org.fcrepo.server.resourceIndex;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -33,6 +35,7 @@ import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
 
 import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.DOReader;
 
 
@@ -62,6 +65,17 @@ public class ResourceIndexImpl
      */
     private final boolean _syncUpdates;
 
+    /**
+     * The buffer that object modifications are written through, or null if
+     * they are written directly.
+     */
+    private final TripleUpdateBuffer _buffer;
+
+    /** The cache of query results, or null if they are not cached. */
+    private QueryResultCache _resultCache;
+
+    private long _queryTimeout;
+
     ////////////////////
     // Initialization //
     ////////////////////
@@ -70,11 +84,30 @@ public class ResourceIndexImpl
                              TripleGenerator generator,
                              int indexLevel,
                              boolean syncUpdates) {
+        this(connector, generator, indexLevel, syncUpdates, null);
+    }
+
+    /**
+     * Creates an instance that writes the triples of object modifications
+     * through a buffer. If syncUpdates is true, each modification waits for
+     * the buffer to be flushed, so concurrent modifications are written in
+     * groups.
+     *
+     * @param buffer
+     *        the buffer, flushing to the writer of the connector, or null to
+     *        write directly
+     */
+    public ResourceIndexImpl(TriplestoreConnector connector,
+                             TripleGenerator generator,
+                             int indexLevel,
+                             boolean syncUpdates,
+                             TripleUpdateBuffer buffer) {
         _connector = connector;
         _writer = _connector.getWriter();
         _generator = generator;
         _indexLevel = indexLevel;
         _syncUpdates = syncUpdates;
+        _buffer = buffer;
     }
 
     ///////////////////////////
@@ -108,6 +141,44 @@ public class ResourceIndexImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unless the generator is a DatastreamTripleGenerator and the object's
+     * content models are unchanged, all triples of both versions are
+     * generated.
+     * </p>
+     */
+    public void modifyObject(DOReader oldReader,
+                             DOReader newReader,
+                             Set<String> changedDatastreams)
+            throws ResourceIndexException {
+        if (_indexLevel > INDEX_LEVEL_OFF) {
+            if (!(_generator instanceof DatastreamTripleGenerator)
+                    || changesContentModels(oldReader,
+                                            newReader,
+                                            changedDatastreams)) {
+                modifyObject(oldReader, newReader);
+                return;
+            }
+            DatastreamTripleGenerator generator =
+                    (DatastreamTripleGenerator) _generator;
+            Set<Triple> existing =
+                    new HashSet<Triple>(generator
+                            .getTriplesForObjectProperties(oldReader));
+            Set<Triple> desired =
+                    new HashSet<Triple>(generator
+                            .getTriplesForObjectProperties(newReader));
+            for (String datastreamID : changedDatastreams) {
+                existing.addAll(generator.getTriplesForDatastream(oldReader,
+                                                                  datastreamID));
+                desired.addAll(generator.getTriplesForDatastream(newReader,
+                                                                 datastreamID));
+            }
+            updateTripleDiffs(existing, desired);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -141,6 +212,11 @@ public class ResourceIndexImpl
      */
     private void updateTriples(Set<Triple> set, boolean delete)
             throws ResourceIndexException {
+        if (_buffer != null) {
+            Set<Triple> none = Collections.emptySet();
+            bufferTriples(delete ? set : none, delete ? none : set);
+            return;
+        }
         try {
             if (delete) {
                 _writer.delete(getTripleIterator(set), _syncUpdates);
@@ -149,6 +225,8 @@ public class ResourceIndexImpl
             }
         } catch (Exception e) {
             throw new ResourceIndexException("Error updating triples", e);
+        } finally {
+            invalidateResults();
         }
     }
 
@@ -164,13 +242,115 @@ public class ResourceIndexImpl
         // leaving the ones we want in place
         HashSet<Triple> obsoleteTriples = new HashSet<Triple>(existing);
         obsoleteTriples.removeAll(desired);
-        updateTriples(obsoleteTriples, true);
 
         // Add only new desired triples
         HashSet<Triple> newTriples = new HashSet<Triple>(desired);
         newTriples.removeAll(existing);
-        updateTriples(newTriples, false);
 
+        if (_buffer != null) {
+            bufferTriples(obsoleteTriples, newTriples);
+        } else {
+            updateTriples(obsoleteTriples, true);
+            updateTriples(newTriples, false);
+        }
+    }
+
+    /**
+     * Adds the given deletes and adds to the update buffer. If _syncUpdates is
+     * true, waits for them to be flushed before returning.
+     */
+    private void bufferTriples(Set<Triple> deletes, Set<Triple> adds)
+            throws ResourceIndexException {
+        try {
+            long sequence =
+                    _buffer.update(getLocalizedTriples(deletes),
+                                   getLocalizedTriples(adds));
+            invalidateResults();
+            if (_syncUpdates) {
+                _buffer.awaitFlush(sequence);
+            }
+        } catch (Exception e) {
+            throw new ResourceIndexException("Error updating triples", e);
+        }
+    }
+
+    /**
+     * Sets the cache of query results, which will be invalidated whenever
+     * updates are written or flushed.
+     */
+    public void setResultCache(QueryResultCache cache) {
+        _resultCache = cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public QueryResultCache getResultCache() {
+        return _resultCache;
+    }
+
+    /**
+     * Sets the longest a query may run, in milliseconds, or 0 for no limit.
+     */
+    public void setQueryTimeout(long millis) {
+        _queryTimeout = millis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getQueryTimeout() {
+        return _queryTimeout;
+    }
+
+    /**
+     * Invalidates the cached query results. This must be called after
+     * updates have been given to the writer or buffer, so that a query run
+     * in between sees them pending and isn't cached.
+     */
+    private void invalidateResults() {
+        if (_resultCache != null) {
+            _resultCache.invalidate();
+        }
+    }
+
+    /**
+     * Gets the update buffer, or null if updates are written directly.
+     */
+    public TripleUpdateBuffer getUpdateBuffer() {
+        return _buffer;
+    }
+
+    /**
+     * Gets the triples of the given set as they should be written to the
+     * store.
+     */
+    private List<Triple> getLocalizedTriples(Set<Triple> set) {
+        List<Triple> triples = new ArrayList<Triple>(set.size());
+        for (Triple triple : set) {
+            triples.add(getLocalizedTriple(triple));
+        }
+        return triples;
+    }
+
+    /**
+     * Tells whether the content models of an object may differ between two
+     * versions, which can only be the case if RELS-EXT was changed.
+     */
+    private static boolean changesContentModels(DOReader oldReader,
+                                                DOReader newReader,
+                                                Set<String> changedDatastreams)
+            throws ResourceIndexException {
+        if (!changedDatastreams.contains("RELS-EXT")) {
+            return false;
+        }
+        try {
+            return !new HashSet<String>(oldReader.getContentModels())
+                    .equals(new HashSet<String>(newReader.getContentModels()));
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Could not read object's content model",
+                                             e);
+        }
     }
 
     /**
@@ -378,7 +558,15 @@ public class ResourceIndexImpl
      * {@inheritDoc}
      */
     public void close() throws TrippiException {
-        _connector.close();
+        try {
+            if (_buffer != null) {
+                _buffer.close();
+            }
+        } catch (IOException e) {
+            throw new TrippiException("Error flushing RI update buffer", e);
+        } finally {
+            _connector.close();
+        }
     }
 
     ///////////////////////////////
@@ -391,6 +579,7 @@ public class ResourceIndexImpl
     public void add(List<Triple> triples, boolean flush) throws IOException,
             TrippiException {
         _writer.add(triples, flush);
+        invalidateResults();
     }
 
     /**
@@ -399,6 +588,7 @@ public class ResourceIndexImpl
     public void add(TripleIterator triples, boolean flush) throws IOException,
             TrippiException {
         _writer.add(triples, flush);
+        invalidateResults();
     }
 
     /**
@@ -407,6 +597,7 @@ public class ResourceIndexImpl
     public void add(Triple triple, boolean flush) throws IOException,
             TrippiException {
         _writer.add(triple, flush);
+        invalidateResults();
     }
 
     /**
@@ -415,6 +606,7 @@ public class ResourceIndexImpl
     public void delete(List<Triple> triples, boolean flush) throws IOException,
             TrippiException {
         _writer.delete(triples, flush);
+        invalidateResults();
     }
 
     /**
@@ -423,6 +615,7 @@ public class ResourceIndexImpl
     public void delete(TripleIterator triples, boolean flush)
             throws IOException, TrippiException {
         _writer.delete(triples, flush);
+        invalidateResults();
     }
 
     /**
@@ -431,13 +624,22 @@ public class ResourceIndexImpl
     public void delete(Triple triple, boolean flush) throws IOException,
             TrippiException {
         _writer.delete(triple, flush);
+        invalidateResults();
     }
 
     /**
      * {@inheritDoc}
      */
     public void flushBuffer() throws IOException, TrippiException {
+        // flushing nothing doesn't change query results
+        boolean pending = getBufferSize() > 0;
+        if (_buffer != null) {
+            _buffer.flush();
+        }
         _writer.flushBuffer();
+        if (pending) {
+            invalidateResults();
+        }
     }
 
     /**
@@ -451,6 +653,9 @@ public class ResourceIndexImpl
      * {@inheritDoc}
      */
     public int getBufferSize() {
+        if (_buffer != null) {
+            return _buffer.size() + _writer.getBufferSize();
+        }
         return _writer.getBufferSize();
     }
 
@@ -461,10 +666,20 @@ public class ResourceIndexImpl
                                                   PredicateNode predicate,
                                                   ObjectNode object,
                                                   int updateType) {
-        return _writer.findBufferedUpdates(subject,
-                                           predicate,
-                                           object,
-                                           updateType);
+        List<TripleUpdate> updates =
+                _writer.findBufferedUpdates(subject,
+                                            predicate,
+                                            object,
+                                            updateType);
+        if (_buffer != null) {
+            // the writer's updates are older than the buffer's
+            updates = new ArrayList<TripleUpdate>(updates);
+            updates.addAll(_buffer.findUpdates(subject,
+                                               predicate,
+                                               object,
+                                               updateType));
+        }
+        return updates;
     }
 
 }
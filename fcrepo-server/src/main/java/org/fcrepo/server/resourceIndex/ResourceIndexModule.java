@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.PredicateNode;
@@ -86,6 +87,25 @@ public class ResourceIndexModule
      * triple buffer before returning from object modification operations.
      * Specifying this as true will ensure that RI queries always reflect the
      * latest triples. </li>
+     * <li> groupFlushSize (optional, default is 0)<br/> If greater than zero,
+     * the triples of object modifications are collected in a buffer that is
+     * flushed to the triplestore once it holds this many updates, and an add
+     * and delete of the same triple in the buffer cancel out. With
+     * syncUpdates, modifications made at the same time share a flush. </li>
+     * <li> groupFlushMillis (optional, default is 1000)<br/> How long an
+     * update may wait in the buffer before it is flushed. </li>
+     * <li> groupBufferCapacity (optional, default is ten times
+     * groupFlushSize)<br/> The number of buffered updates at which object
+     * modifications wait for a flush before adding theirs. </li>
+     * <li> resultCacheBytes (optional, default is 0)<br/> If greater than
+     * zero, the serialized results of RISearch queries are cached, up to this
+     * many bytes in total. The cache is emptied whenever the RI writes or
+     * flushes updates. </li>
+     * <li> resultCacheSeconds (optional, default is 60)<br/> How long a
+     * cached result is served. </li>
+     * <li> queryTimeoutSeconds (optional, default is 0)<br/> If greater than
+     * zero, the longest an RISearch query may run, including the time taken
+     * to send its results, before it is aborted. </li>
      * <li> alias:xyz (optional, uri)<br/> Any parameter starting with "alias:"
      * will be put into Trippi's alias map, and can be used for queries. For
      * example, alias:xyz with a value of urn:example:long:uri:x:y:z: will make
@@ -101,6 +121,17 @@ public class ResourceIndexModule
             return;
         }
         boolean syncUpdates = getBoolean("syncUpdates", false);
+        int groupFlushSize = getInt("groupFlushSize", 0);
+        int groupFlushMillis = getInt("groupFlushMillis", 1000);
+        int groupBufferCapacity =
+                getInt("groupBufferCapacity", groupFlushSize * 10);
+        if (groupFlushSize > 0 && groupBufferCapacity < groupFlushSize) {
+            throw new ModuleInitializationException("groupBufferCapacity "
+                    + "must not be less than groupFlushSize", getRole());
+        }
+        int resultCacheBytes = getInt("resultCacheBytes", 0);
+        int resultCacheSeconds = getInt("resultCacheSeconds", 60);
+        int queryTimeoutSeconds = getInt("queryTimeoutSeconds", 0);
         try {
             TriplestoreConnector connector = null;
             String ds = getParameter("datastore");
@@ -118,10 +149,29 @@ public class ResourceIndexModule
             TripleGenerator generator =
                 getServer().getBean(TripleGenerator.class.getName(), TripleGenerator.class);
 
-            _ri = new ResourceIndexImpl(connector,
-                                        generator,
-                                        level,
-                                        syncUpdates);
+            TripleUpdateBuffer buffer = null;
+            if (groupFlushSize > 0) {
+                logger.info("Flushing RI updates in groups of up to {}",
+                            groupFlushSize);
+                buffer =
+                        new TripleUpdateBuffer(connector.getWriter(),
+                                               groupFlushSize,
+                                               groupFlushMillis,
+                                               groupBufferCapacity);
+            }
+            ResourceIndexImpl ri = new ResourceIndexImpl(connector,
+                                                         generator,
+                                                         level,
+                                                         syncUpdates,
+                                                         buffer);
+            if (resultCacheBytes > 0) {
+                logger.info("Caching up to {} bytes of query results",
+                            resultCacheBytes);
+                ri.setResultCache(new QueryResultCache(resultCacheBytes,
+                                                       resultCacheSeconds * 1000L));
+            }
+            ri.setQueryTimeout(queryTimeoutSeconds * 1000L);
+            _ri = ri;
             setAliasMap(getAliases());
 
         } catch (Exception e) {
@@ -191,6 +241,24 @@ public class ResourceIndexModule
         }
     }
 
+    private int getInt(String name, int defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value);
+            if (i < 0) {
+                throw new NumberFormatException(value);
+            }
+            return i;
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException(name + " parameter, if "
+                    + "specified, must be a non-negative integer", getRole());
+        }
+    }
+
     private boolean getBoolean(String name, boolean defaultValue)
             throws ModuleInitializationException {
         String value = getParameter(name);
@@ -269,6 +337,16 @@ public class ResourceIndexModule
         _ri.modifyObject(oldReader, newReader);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void modifyObject(DOReader oldReader,
+                             DOReader newReader,
+                             Set<String> changedDatastreams)
+            throws ResourceIndexException {
+        _ri.modifyObject(oldReader, newReader, changedDatastreams);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -276,6 +354,26 @@ public class ResourceIndexModule
         _ri.deleteObject(oldReader);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public QueryResultCache getResultCache() {
+        if (_ri == null) {
+            return null;
+        }
+        return _ri.getResultCache();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getQueryTimeout() {
+        if (_ri == null) {
+            return 0;
+        }
+        return _ri.getQueryTimeout();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -18,6 +18,8 @@ import javax.annotation.Resource;
 import org.trippi.TriplestoreConnector;
 import org.trippi.impl.mulgara.MulgaraConnector;
 
+import org.fcrepo.common.Constants;
+
 import org.fcrepo.server.Module;
 import org.fcrepo.server.config.ModuleConfiguration;
 import org.fcrepo.server.config.Parameter;
@@ -25,7 +27,7 @@ import org.fcrepo.server.config.ServerConfiguration;
 import org.fcrepo.server.errors.ResourceIndexException;
 import org.fcrepo.server.storage.SimpleDOReader;
 import org.fcrepo.server.storage.types.DigitalObject;
-import org.fcrepo.server.utilities.rebuild.Rebuilder;
+import org.fcrepo.server.utilities.rebuild.ParallelRebuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -37,9 +39,15 @@ import org.springframework.context.support.GenericApplicationContext;
 
 /**
  * A Rebuilder for the resource index.
+ *
+ * <p>Objects are read and their triples generated by several threads; the
+ * triples are queued in a bounded TripleUpdateBuffer, whose single thread
+ * writes them to the triplestore in large batches. An interrupted rebuild can
+ * be resumed from its last checkpoint, rather than clearing the triplestore
+ * and starting over.
  */
 public class ResourceIndexRebuilder
-        implements ApplicationContextAware, Rebuilder {
+        implements ApplicationContextAware, ParallelRebuilder {
 
     private static Logger logger = LoggerFactory.getLogger(ResourceIndexRebuilder.class.getName());
 
@@ -50,12 +58,28 @@ public class ResourceIndexRebuilder
 
     private GenericApplicationContext m_context;
 
-    private ResourceIndex m_ri;
+    private ResourceIndexImpl m_ri;
 
     private TriplestoreConnector m_conn;
 
     private TripleGenerator m_generator;
 
+    private File m_serverDir;
+
+    private int m_threads;
+
+    private boolean m_resuming;
+
+    private static final String THREADS_OPTION = "threads";
+
+    private static final String RESUME_OPTION = "resume";
+
+    /** Triples written to the triplestore at once. */
+    private static final int FLUSH_SIZE = 20000;
+
+    /** Triples that may wait to be written before adding objects blocks. */
+    private static final int BUFFER_CAPACITY = 100000;
+
     public ResourceIndexRebuilder(){
 
     }
@@ -95,7 +119,7 @@ public class ResourceIndexRebuilder
     }
 
     public void setServerDir(File serverBaseDir) {
-        // not needed
+        m_serverDir = serverBaseDir;
     }
 
     public void init() {
@@ -104,6 +128,13 @@ public class ResourceIndexRebuilder
 
     public Map<String, String> getOptions() {
         Map<String, String> m = new HashMap<String, String>();
+        m.put(THREADS_OPTION, "The number of threads that read objects and"
+                + " generate their triples. Leave blank to use one per"
+                + " processor (" + Runtime.getRuntime().availableProcessors()
+                + ").");
+        m.put(RESUME_OPTION, "Enter yes to continue an interrupted rebuild"
+                + " from its last checkpoint, rather than clearing the"
+                + " Resource Index. Leave blank to start over.");
         return m;
     }
 
@@ -118,6 +149,28 @@ public class ResourceIndexRebuilder
     public void start(Map<String, String> options)
     throws ResourceIndexException {
         // validate options
+        m_threads = Runtime.getRuntime().availableProcessors();
+        String threads = options.get(THREADS_OPTION);
+        if (threads != null && threads.trim().length() > 0) {
+            try {
+                m_threads = Integer.parseInt(threads.trim());
+            } catch (NumberFormatException e) {
+                throw new ResourceIndexException("Number of threads is not"
+                        + " an integer: " + threads);
+            }
+            if (m_threads < 1) {
+                throw new ResourceIndexException("Number of threads must be"
+                        + " at least 1: " + threads);
+            }
+        }
+        String resume = options.get(RESUME_OPTION);
+        m_resuming =
+                resume != null && resume.trim().toLowerCase().startsWith("y");
+        if (m_resuming && !getCheckpointFile().exists()) {
+            System.out.println("No checkpoint found in " + getCheckpointFile()
+                    + "; starting over.");
+            m_resuming = false;
+        }
 
         // do startup tasks
 
@@ -153,12 +206,27 @@ public class ResourceIndexRebuilder
 
         System.out.println("Initializing triplestore interface...");
         try {
-            if (m_conn instanceof MulgaraConnector){
-                String path = m_conn.getConfiguration().get("path");
-                dropIndex(path);
+            if (m_resuming) {
+                System.out.println("Keeping the existing triplestore to"
+                        + " resume the rebuild.");
+            } else {
+                getCheckpointFile().delete();
+                if (m_conn instanceof MulgaraConnector){
+                    String path = m_conn.getConfiguration().get("path");
+                    dropIndex(path);
+                }
             }
 
-            m_ri = new ResourceIndexImpl(m_conn, m_generator, riLevel, false);
+            TripleUpdateBuffer buffer =
+                    new TripleUpdateBuffer(m_conn.getWriter(),
+                                           FLUSH_SIZE,
+                                           1000,
+                                           BUFFER_CAPACITY);
+            m_ri = new ResourceIndexImpl(m_conn,
+                                         m_generator,
+                                         riLevel,
+                                         false,
+                                         buffer);
             m_ri.setAliasMap(aliasMap);
         } catch (Exception e) {
             logger.error("Failed to initialize new Resource Index",e);
@@ -197,7 +265,8 @@ public class ResourceIndexRebuilder
     }
 
     /**
-     * Add the data of interest for the given object.
+     * Add the data of interest for the given object. This may be called by
+     * several threads at once.
      *
      * @throws ResourceIndexException
      */
@@ -205,6 +274,34 @@ public class ResourceIndexRebuilder
         m_ri.addObject(new SimpleDOReader(null, null, null, null, null, obj));
     }
 
+    public int getThreadCount() {
+        return m_threads;
+    }
+
+    /**
+     * The checkpoint file is kept in the server directory, next to the
+     * Resource Index it describes.
+     */
+    public File getCheckpointFile() {
+        File serverDir = m_serverDir;
+        if (serverDir == null) {
+            serverDir = new File(Constants.FEDORA_HOME, "server");
+        }
+        return new File(serverDir, "resourceIndex-rebuild.checkpoint");
+    }
+
+    public boolean isResuming() {
+        return m_resuming;
+    }
+
+    /**
+     * Write the triples of every object added so far to the triplestore.
+     */
+    public void checkpoint() throws Exception {
+        m_ri.flushBuffer();
+        logger.info(m_ri.getUpdateBuffer().toString());
+    }
+
     /**
      * Free up any system resources associated with rebuilding.
      */
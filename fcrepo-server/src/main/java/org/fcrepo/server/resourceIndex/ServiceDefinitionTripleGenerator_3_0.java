@@ -38,7 +38,7 @@ import static org.fcrepo.common.Constants.MODEL;
  */
 public class ServiceDefinitionTripleGenerator_3_0
         extends TripleGeneratorBase
-        implements TripleGenerator {
+        implements DatastreamTripleGenerator {
 
     private static final String METHODMAP_DS = "METHODMAP";
 
@@ -61,6 +61,25 @@ public class ServiceDefinitionTripleGenerator_3_0
         return set;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader) {
+        return new HashSet<Triple>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException {
+        if (datastreamID.equals(METHODMAP_DS)) {
+            return getTriplesForObject(reader);
+        }
+        return new HashSet<Triple>();
+    }
+
     /**
      * Add a "defines" statement for the given sDef for each abstract method it
      * defines.
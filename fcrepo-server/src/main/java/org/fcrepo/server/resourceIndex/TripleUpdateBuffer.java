@@ -0,0 +1,506 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.trippi.TripleUpdate;
+import org.trippi.TriplestoreWriter;
+import org.trippi.TrippiException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.common.Constants;
+
+
+/**
+ * Collects the triple updates of many object modifications and writes them to
+ * the triplestore in groups.
+ * <p>
+ * A group is flushed by a background thread once the buffer holds
+ * <code>flushSize</code> updates, or once its oldest update has waited
+ * <code>flushMillis</code> milliseconds. Callers that need their updates to
+ * be visible wait for a flush with {@link #awaitFlush(long)}; callers waiting
+ * at the same time share a single flush.
+ * </p>
+ * <p>
+ * Only the latest update of each triple is kept. An add followed by a delete
+ * of the same triple, or a delete followed by an add, cancel each other out;
+ * this relies on the resource index only adding triples it does not hold and
+ * only deleting triples it does. Updates that are added while the buffer holds
+ * <code>capacity</code> updates wait until it has been flushed.
+ * </p>
+ */
+public class TripleUpdateBuffer {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(TripleUpdateBuffer.class);
+
+    private final TriplestoreWriter _writer;
+
+    private final int _flushSize;
+
+    private final long _flushMillis;
+
+    private final int _capacity;
+
+    private final Thread _flusher;
+
+    /** The latest update type of each pending triple, in update order. */
+    private Map<Triple, Integer> _pending =
+            new LinkedHashMap<Triple, Integer>();
+
+    /** The updates being written by the current flush, if any. */
+    private Map<Triple, Integer> _flushing;
+
+    /**
+     * The triples of a failed flush, which may have been partly written, so
+     * their updates are not cancelled.
+     */
+    private final Set<Triple> _unsure = new HashSet<Triple>();
+
+    /** When the oldest pending update was made. */
+    private long _pendingSince;
+
+    /** The number of calls to update so far. */
+    private long _updateCount;
+
+    /** The number of calls to update whose updates have been written. */
+    private long _flushedCount;
+
+    private boolean _closed;
+
+    private long _flushes;
+
+    private long _flushedUpdates;
+
+    private long _cancelledUpdates;
+
+    private long _lastFlushMillis;
+
+    private long _maxFlushMillis;
+
+    private long _totalFlushMillis;
+
+    private long _blocked;
+
+    private long _blockedMillis;
+
+    /**
+     * Creates a buffer and starts its flushing thread.
+     *
+     * @param writer
+     *        the writer the updates are flushed to
+     * @param flushSize
+     *        the number of pending updates that causes a flush
+     * @param flushMillis
+     *        how long an update may be pending before it is flushed
+     * @param capacity
+     *        the number of pending updates at which further updates wait
+     */
+    public TripleUpdateBuffer(TriplestoreWriter writer,
+                              int flushSize,
+                              long flushMillis,
+                              int capacity) {
+        _writer = writer;
+        _flushSize = flushSize;
+        _flushMillis = flushMillis;
+        _capacity = capacity;
+        _flusher = new Thread(new Runnable() {
+
+            public void run() {
+                runFlusher();
+            }
+        }, "ResourceIndex-flusher");
+        _flusher.setDaemon(true);
+        _flusher.start();
+    }
+
+    /**
+     * Adds the deletes and adds of an object modification to the buffer,
+     * waiting first if it is full.
+     *
+     * @return the sequence number to give {@link #awaitFlush(long)}
+     * @throws IOException
+     *         if the buffer is closed, or the thread is interrupted while
+     *         waiting
+     */
+    public synchronized long update(Collection<Triple> deletes,
+                                    Collection<Triple> adds)
+            throws IOException {
+        if (_pending.size() >= _capacity && !_closed) {
+            logger.debug("RI update buffer is full, waiting for a flush");
+            long start = System.currentTimeMillis();
+            _blocked++;
+            // wake the flushing thread
+            notifyAll();
+            try {
+                while (_pending.size() >= _capacity && !_closed) {
+                    waitForChange(0);
+                }
+            } finally {
+                _blockedMillis += System.currentTimeMillis() - start;
+            }
+        }
+        if (_closed) {
+            throw new IOException("RI update buffer is closed");
+        }
+        boolean wasEmpty = _pending.isEmpty();
+        for (Triple triple : deletes) {
+            put(_pending, triple, TripleUpdate.DELETE, true);
+        }
+        for (Triple triple : adds) {
+            put(_pending, triple, TripleUpdate.ADD, true);
+        }
+        if (wasEmpty) {
+            _pendingSince = System.currentTimeMillis();
+        }
+        if (wasEmpty || _pending.size() >= _flushSize) {
+            notifyAll();
+        }
+        return ++_updateCount;
+    }
+
+    /**
+     * Waits until the updates of a call to {@link #update} have been written,
+     * flushing the buffer if no other flush is in progress.
+     *
+     * @param sequence
+     *        the sequence number returned by the call
+     */
+    public void awaitFlush(long sequence) throws IOException, TrippiException {
+        while (true) {
+            synchronized (this) {
+                if (_flushedCount >= sequence) {
+                    return;
+                }
+                if (_flushing != null) {
+                    waitForChange(0);
+                    continue;
+                }
+            }
+            flushPending();
+        }
+    }
+
+    /**
+     * Writes all updates made so far.
+     */
+    public void flush() throws IOException, TrippiException {
+        long sequence;
+        synchronized (this) {
+            sequence = _updateCount;
+        }
+        awaitFlush(sequence);
+    }
+
+    /**
+     * Writes all pending updates and stops the flushing thread. Later updates
+     * are refused.
+     */
+    public void close() throws IOException, TrippiException {
+        synchronized (this) {
+            _closed = true;
+            notifyAll();
+        }
+        flush();
+        logger.info(toString());
+    }
+
+    /**
+     * Gets the number of updates that have not been written yet.
+     */
+    public synchronized int size() {
+        return _pending.size() + (_flushing == null ? 0 : _flushing.size());
+    }
+
+    /**
+     * Gets the unwritten updates of the triples matching a pattern, oldest
+     * first.
+     *
+     * @param updateType
+     *        <code>TripleUpdate.ADD</code>, <code>TripleUpdate.DELETE</code>,
+     *        or any other value for both
+     */
+    public synchronized List<TripleUpdate> findUpdates(SubjectNode subject,
+                                                       PredicateNode predicate,
+                                                       ObjectNode object,
+                                                       int updateType) {
+        List<TripleUpdate> updates = new ArrayList<TripleUpdate>();
+        if (_flushing != null) {
+            findUpdates(_flushing, subject, predicate, object, updateType, updates);
+        }
+        findUpdates(_pending, subject, predicate, object, updateType, updates);
+        return updates;
+    }
+
+    /**
+     * Gets the number of unwritten updates of the triples of an object and
+     * its datastreams.
+     */
+    public synchronized int getPendingUpdates(String pid) {
+        String uri = Constants.FEDORA.uri + pid;
+        int count = 0;
+        if (_flushing != null) {
+            count += countUpdates(_flushing, uri);
+        }
+        return count + countUpdates(_pending, uri);
+    }
+
+    public synchronized long getFlushCount() {
+        return _flushes;
+    }
+
+    public synchronized long getFlushedUpdates() {
+        return _flushedUpdates;
+    }
+
+    /**
+     * Gets the number of updates that were dropped because a later update of
+     * the same triple cancelled them.
+     */
+    public synchronized long getCancelledUpdates() {
+        return _cancelledUpdates;
+    }
+
+    public synchronized long getLastFlushMillis() {
+        return _lastFlushMillis;
+    }
+
+    public synchronized long getMaxFlushMillis() {
+        return _maxFlushMillis;
+    }
+
+    public synchronized long getAverageFlushMillis() {
+        return _flushes == 0 ? 0 : _totalFlushMillis / _flushes;
+    }
+
+    /**
+     * Gets the number of updates that had to wait for a flush because the
+     * buffer was full.
+     */
+    public synchronized long getBlockedCount() {
+        return _blocked;
+    }
+
+    public synchronized long getBlockedMillis() {
+        return _blockedMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RI update buffer: " + size() + " pending, " + _flushes
+                + " flushes of " + _flushedUpdates + " updates (average "
+                + getAverageFlushMillis() + "ms, max " + _maxFlushMillis
+                + "ms), " + _cancelledUpdates + " cancelled, " + _blocked
+                + " blocked for " + _blockedMillis + "ms";
+    }
+
+    /**
+     * Writes the pending updates unless another flush is in progress. If
+     * writing fails, the updates are pending again.
+     */
+    private void flushPending() throws IOException, TrippiException {
+        Map<Triple, Integer> updates;
+        long sequence;
+        synchronized (this) {
+            if (_flushing != null) {
+                return;
+            }
+            updates = _pending;
+            sequence = _updateCount;
+            _flushing = updates;
+            _pending = new LinkedHashMap<Triple, Integer>();
+            // make room for updates waiting on a full buffer
+            notifyAll();
+        }
+        long start = System.currentTimeMillis();
+        boolean written = false;
+        try {
+            if (!updates.isEmpty()) {
+                write(updates);
+            }
+            written = true;
+        } finally {
+            long millis = System.currentTimeMillis() - start;
+            synchronized (this) {
+                _flushing = null;
+                if (written) {
+                    _flushedCount = sequence;
+                    _unsure.clear();
+                    if (!updates.isEmpty()) {
+                        _flushes++;
+                        _flushedUpdates += updates.size();
+                        _lastFlushMillis = millis;
+                        _totalFlushMillis += millis;
+                        _maxFlushMillis = Math.max(_maxFlushMillis, millis);
+                        logger.debug("Flushed {} RI updates in {}ms",
+                                     updates.size(),
+                                     millis);
+                    }
+                } else {
+                    // some may have been written, so later updates replace
+                    // these rather than cancel them
+                    _unsure.addAll(updates.keySet());
+                    Map<Triple, Integer> newer = _pending;
+                    _pending = updates;
+                    for (Map.Entry<Triple, Integer> entry : newer.entrySet()) {
+                        put(_pending, entry.getKey(), entry.getValue(), false);
+                    }
+                    _pendingSince = start;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void write(Map<Triple, Integer> updates) throws IOException,
+            TrippiException {
+        List<Triple> deletes = new ArrayList<Triple>();
+        List<Triple> adds = new ArrayList<Triple>();
+        for (Map.Entry<Triple, Integer> entry : updates.entrySet()) {
+            if (entry.getValue().intValue() == TripleUpdate.DELETE) {
+                deletes.add(entry.getKey());
+            } else {
+                adds.add(entry.getKey());
+            }
+        }
+        if (!deletes.isEmpty()) {
+            _writer.delete(deletes, false);
+        }
+        if (!adds.isEmpty()) {
+            _writer.add(adds, false);
+        }
+        _writer.flushBuffer();
+    }
+
+    private void runFlusher() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (!_closed && !isFlushDue()) {
+                        if (_pending.isEmpty()) {
+                            waitForChange(0);
+                        } else {
+                            waitForChange(Math.max(1, _pendingSince
+                                    + _flushMillis - System.currentTimeMillis()));
+                        }
+                    }
+                    if (_closed) {
+                        return;
+                    }
+                }
+                try {
+                    flushPending();
+                } catch (Exception e) {
+                    logger.error("Error flushing RI updates, retrying in "
+                            + _flushMillis + "ms", e);
+                    synchronized (this) {
+                        waitForChange(_flushMillis);
+                    }
+                }
+            }
+        } catch (InterruptedIOException e) {
+            logger.warn("RI update flusher interrupted");
+        }
+    }
+
+    /**
+     * Tells whether the pending updates should be flushed now. The lock must
+     * be held.
+     */
+    private boolean isFlushDue() {
+        return _flushing == null
+                && !_pending.isEmpty()
+                && (_pending.size() >= _flushSize || System
+                        .currentTimeMillis()
+                        - _pendingSince >= _flushMillis);
+    }
+
+    /**
+     * Waits for the state of the buffer to change. The lock must be held.
+     */
+    private void waitForChange(long millis) throws InterruptedIOException {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "
+                    + "the RI update buffer");
+        }
+    }
+
+    /**
+     * Records an update of a triple. If the triple has a pending update of the
+     * other type and cancel is true, both are dropped, unless the triple was
+     * in a failed flush; otherwise the new update replaces it.
+     */
+    private void put(Map<Triple, Integer> updates,
+                     Triple triple,
+                     int type,
+                     boolean cancel) {
+        Integer previous = updates.remove(triple);
+        if (previous != null && previous.intValue() != type && cancel
+                && !_unsure.contains(triple)) {
+            _cancelledUpdates += 2;
+        } else {
+            updates.put(triple, type);
+        }
+    }
+
+    private static void findUpdates(Map<Triple, Integer> updates,
+                                    SubjectNode subject,
+                                    PredicateNode predicate,
+                                    ObjectNode object,
+                                    int updateType,
+                                    List<TripleUpdate> found) {
+        boolean anyType =
+                updateType != TripleUpdate.ADD
+                        && updateType != TripleUpdate.DELETE;
+        for (Map.Entry<Triple, Integer> entry : updates.entrySet()) {
+            Triple triple = entry.getKey();
+            int type = entry.getValue().intValue();
+            if ((anyType || type == updateType)
+                    && (subject == null || subject.equals(triple.getSubject()))
+                    && (predicate == null || predicate.equals(triple
+                            .getPredicate()))
+                    && (object == null || object.equals(triple.getObject()))) {
+                found.add(new TripleUpdate(triple, type));
+            }
+        }
+    }
+
+    private static int countUpdates(Map<Triple, Integer> updates, String uri) {
+        int count = 0;
+        for (Triple triple : updates.keySet()) {
+            if (triple.getSubject() instanceof URIReference) {
+                String subject =
+                        ((URIReference) triple.getSubject()).getURI()
+                                .toString();
+                if (subject.equals(uri) || subject.startsWith(uri + "/")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+}
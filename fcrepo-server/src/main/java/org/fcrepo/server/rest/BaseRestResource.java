@@ -37,6 +37,7 @@ import org.fcrepo.server.Context;
 import org.fcrepo.server.ReadOnlyContext;
 import org.fcrepo.server.Server;
 import org.fcrepo.server.access.Access;
+import org.fcrepo.server.errors.BackendUnavailableException;
 import org.fcrepo.server.errors.DatastreamLockedException;
 import org.fcrepo.server.errors.DatastreamNotFoundException;
 import org.fcrepo.server.errors.ObjectLockedException;
@@ -182,6 +183,9 @@ public class BaseRestResource {
                    ex instanceof DatastreamLockedException) {
             LOGGER.warn("Lock exception; unable to fulfill REST API request", ex);
             return Response.status(Status.CONFLICT).entity(ex.getMessage()).type(MediaType.TEXT_PLAIN).build();
+        } else if (ex instanceof BackendUnavailableException) {
+            LOGGER.warn("Backend service busy; unable to fulfill REST API request: " + ex.getMessage());
+            return Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", "1").entity(ex.getMessage()).type(MediaType.TEXT_PLAIN).build();
         } else if (ex instanceof ObjectValidityException){
             LOGGER.warn("Validation exception; unable to fulfill REST API request", ex);
 			if (((ObjectValidityException) ex).getValidation() != null) {
@@ -82,6 +82,14 @@ public class FedoraObjectsResource extends BaseRestResource {
             int maxResults,
             @QueryParam(RestParam.SESSION_TOKEN)
             String sessionToken,
+            @QueryParam(RestParam.SORT_FIELD)
+            String sortField,
+            @QueryParam(RestParam.SORT_ORDER)
+            @DefaultValue("asc")
+            String sortOrder,
+            @QueryParam(RestParam.COUNT_RESULTS)
+            @DefaultValue("false")
+            boolean countResults,
             @QueryParam(RestParam.RESULT_FORMAT)
             @DefaultValue(HTML)
             String format,
@@ -100,11 +108,17 @@ public class FedoraObjectsResource extends BaseRestResource {
                 if (sessionToken != null) {
                     result = m_access.resumeFindObjects(context, sessionToken);
                 } else {
+                    FieldSearchQuery fieldSearchQuery;
                     if ((terms != null) && (terms.length() != 0)) {
-                        result = m_access.findObjects(context, wantedFields, maxResults, new FieldSearchQuery(terms));
+                        fieldSearchQuery = new FieldSearchQuery(terms);
                     } else {
-                        result = m_access.findObjects(context, wantedFields, maxResults, new FieldSearchQuery(Condition.getConditions(query)));
+                        fieldSearchQuery = new FieldSearchQuery(Condition.getConditions(query));
+                    }
+                    if (sortField != null && sortField.length() != 0) {
+                        fieldSearchQuery.setSortField(sortField, getDescending(sortOrder));
                     }
+                    fieldSearchQuery.setCountRequested(countResults);
+                    result = m_access.findObjects(context, wantedFields, maxResults, fieldSearchQuery);
                 }
             }
 
@@ -122,6 +136,20 @@ public class FedoraObjectsResource extends BaseRestResource {
         }
     }
 
+    /**
+     * Tell whether a sortOrder parameter asks for descending order.
+     *
+     * @throws IllegalArgumentException if it is neither asc nor desc
+     */
+    private static boolean getDescending(String sortOrder) {
+        if (sortOrder.equalsIgnoreCase("desc")) {
+            return true;
+        } else if (sortOrder.equalsIgnoreCase("asc")) {
+            return false;
+        }
+        throw new IllegalArgumentException("sortOrder must be asc or desc");
+    }
+
     /**
      * Implements the "getNextPID" functionality of the Fedora Management LITE
      * (API-M-LITE) interface using a java servlet front end. The syntax defined
@@ -5,7 +5,11 @@
 package org.fcrepo.server.rest;
 
 import java.io.CharArrayWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
@@ -13,13 +17,17 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
 
 import org.fcrepo.server.Context;
 import org.fcrepo.server.Server;
+import org.fcrepo.server.storage.types.MIMETypedStream;
 import org.fcrepo.server.storage.types.ObjectMethodsDef;
 import org.fcrepo.server.storage.types.Property;
 import org.fcrepo.utilities.DateUtility;
@@ -96,6 +104,8 @@ public class MethodResource extends BaseRestResource {
     public Response invokeSDefMethodUsingGET(
             @javax.ws.rs.core.Context
             UriInfo uriInfo,
+            @javax.ws.rs.core.Context
+            Request request,
             @PathParam(RestParam.PID)
             String pid,
             @PathParam(RestParam.SDEF)
@@ -109,19 +119,62 @@ public class MethodResource extends BaseRestResource {
             boolean flash) {
         try {
             Date asOfDateTime = DateUtility.parseDateOrNull(dTime);
-            return buildResponse(m_access.getDissemination(
+            MIMETypedStream result = m_access.getDissemination(
                     getContext(),
                     pid,
                     sDef,
                     method,
                     toProperties(uriInfo.getQueryParameters(),
                                  asOfDateTime != null),
-                    asOfDateTime));
+                    asOfDateTime);
+            ResponseBuilder notModified = evaluatePreconditions(request, result);
+            if (notModified != null) {
+                result.close();
+                return notModified.build();
+            }
+            return buildResponse(result);
         } catch (Exception e) {
             return handleException(e, flash);
         }
     }
 
+    /**
+     * Evaluates a conditional request against the ETag and Last-Modified
+     * headers of a dissemination, which cacheable methods' results have.
+     *
+     * @return the response to send if the client's copy is current, or null.
+     */
+    private static ResponseBuilder evaluatePreconditions(Request request,
+                                                         MIMETypedStream result) {
+        String eTag = null;
+        String lastModified = null;
+        if (result.header != null) {
+            for (Property header : result.header) {
+                if ("ETag".equalsIgnoreCase(header.name)) {
+                    eTag = header.value;
+                } else if ("Last-Modified".equalsIgnoreCase(header.name)) {
+                    lastModified = header.value;
+                }
+            }
+        }
+        if (eTag == null) {
+            return null;
+        }
+        EntityTag tag = new EntityTag(eTag.replaceAll("^\"|\"$", ""));
+        if (lastModified != null) {
+            SimpleDateFormat format =
+                    new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                         Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return request.evaluatePreconditions(format.parse(lastModified),
+                                                     tag);
+            } catch (ParseException e) {
+            }
+        }
+        return request.evaluatePreconditions(tag);
+    }
+
     private Response getObjectMethodsForSDefImpl(String pid, String sDef, String dTime, String format, boolean flash) {
         try {
             Date asOfDateTime = DateUtility.parseDateOrNull(dTime);
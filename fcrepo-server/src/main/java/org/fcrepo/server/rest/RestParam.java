@@ -48,6 +48,9 @@ public interface RestParam {
     String QUERY = "query";
     String MAX_RESULTS = "maxResults";
     String SESSION_TOKEN = "sessionToken";
+    String SORT_FIELD = "sortField";
+    String SORT_ORDER = "sortOrder";
+    String COUNT_RESULTS = "countResults";
     String RESULT_FORMAT = "resultFormat";
     // common flash override param
     String FLASH = "flash";
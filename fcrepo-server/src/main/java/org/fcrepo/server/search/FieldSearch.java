@@ -4,6 +4,8 @@
  */
 package org.fcrepo.server.search;
 
+import java.util.List;
+
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.DOReader;
 
@@ -36,6 +38,18 @@ public interface FieldSearch {
      */
     public void update(DOReader reader) throws ServerException;
 
+    /**
+     * Update the search indexes with information from many DOReaders at once.
+     * This may be much faster than updating them one at a time.
+     * 
+     * @param readers
+     *        the DOReaders containing all the field information for the
+     *        objects
+     * @throws ServerException
+     *         if anything went wrong
+     */
+    public void update(List<DOReader> readers) throws ServerException;
+
     /**
      * Remove an object from the search indexes.
      * 
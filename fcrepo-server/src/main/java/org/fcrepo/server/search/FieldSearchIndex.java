@@ -0,0 +1,915 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.server.search.PostingsSegment.Posting;
+
+
+/**
+ * An inverted index of the fields of all objects, kept in a directory.
+ * <p>
+ * The fields of the objects are kept in a log file, to which each change is
+ * appended, and forced to disk, as it is made. Each version of an object
+ * gets a sequence number. Only the pid, sequence number and log offset of
+ * each current object (about 150 bytes with a typical pid) are held in
+ * memory, along with a bounded cache of the fields of recently used
+ * objects. When most of the log describes objects that have since changed,
+ * it is rewritten to hold only the current objects.
+ * </p>
+ * <p>
+ * The postings of every token (which versions of objects contain it, and in
+ * how many fields) are buffered in memory as objects change, and written to
+ * a new {@link PostingsSegment} once the buffer is full or the index is
+ * closed. Segments of similar size are merged, so there are few of them,
+ * and merging drops the postings of versions that are no longer current.
+ * Postings that have not reached a segment when the server stops are
+ * recovered from the log when the index is next opened.
+ * </p>
+ * <p>
+ * Changes take the write lock; readers must hold the read lock while they
+ * use the index. The index never refuses an object for lack of room.
+ * </p>
+ */
+public class FieldSearchIndex {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(FieldSearchIndex.class);
+
+    /** The name of the log file in the index directory. */
+    public static final String LOG_NAME = "fieldsearch.log";
+
+    /** The number of objects whose fields are cached by default. */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The number of postings buffered in memory by default. */
+    static final int DEFAULT_BUFFER_SIZE = 200000;
+
+    private static final int MAGIC = 0x46534958; // FSIX
+
+    /** Version 1 logs had no sequence numbers; they are rewritten. */
+    private static final int VERSION = 2;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    /** Rewrite the log only once it has at least this many old records. */
+    private static final int MIN_GARBAGE = 10000;
+
+    /** Merge all segments once there are more than this many. */
+    private static final int MAX_SEGMENTS = 16;
+
+    private final File m_directory;
+
+    private final File m_logFile;
+
+    private final int m_cacheSize;
+
+    private final int m_bufferSize;
+
+    /** The log location of the current version of each object. */
+    private final SortedMap<String, Location> m_objects =
+            new TreeMap<String, Location>();
+
+    /** Least recently used first; guarded by itself. */
+    private final LinkedHashMap<String, IndexedFields> m_cache =
+            new LinkedHashMap<String, IndexedFields>(16, 0.75f, true);
+
+    /** Postings not yet written to a segment, by token and pid. */
+    private final SortedMap<String, Map<String, Posting>> m_buffer =
+            new TreeMap<String, Map<String, Posting>>();
+
+    private int m_bufferedPostings;
+
+    /** Oldest first; their sequence number ranges don't overlap. */
+    private final List<PostingsSegment> m_segments =
+            new ArrayList<PostingsSegment>();
+
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    private long m_nextSeq = 1;
+
+    /** The highest sequence number whose postings are in a segment. */
+    private long m_flushedSeq;
+
+    private FileOutputStream m_logOut;
+
+    private DataOutputStream m_log;
+
+    private long m_logLength;
+
+    private RandomAccessFile m_logReader;
+
+    /** The number of records in the log that are no longer current. */
+    private int m_garbage;
+
+    /**
+     * Open the index in a directory, creating it if necessary, with the
+     * default cache size.
+     *
+     * @param directory
+     *        the index directory
+     * @throws IOException
+     *         if the index can't be read or created
+     */
+    public FieldSearchIndex(File directory) throws IOException {
+        this(directory, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Open the index in a directory, creating it if necessary.
+     *
+     * @param directory
+     *        the index directory
+     * @param cacheSize
+     *        the number of objects whose fields are kept in memory
+     * @throws IOException
+     *         if the index can't be read or created
+     */
+    public FieldSearchIndex(File directory, int cacheSize) throws IOException {
+        this(directory, cacheSize, DEFAULT_BUFFER_SIZE);
+    }
+
+    FieldSearchIndex(File directory, int cacheSize, int bufferSize)
+            throws IOException {
+        m_directory = directory;
+        m_cacheSize = cacheSize;
+        m_bufferSize = bufferSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create index directory "
+                    + directory.getPath());
+        }
+        m_logFile = new File(directory, LOG_NAME);
+        File newFile = new File(directory, LOG_NAME + ".new");
+        if (!m_logFile.exists() && newFile.exists()) {
+            // interrupted while replacing the log by a complete new one
+            if (!newFile.renameTo(m_logFile)) {
+                throw new IOException("Unable to rename " + newFile.getPath());
+            }
+        }
+        openSegments();
+        boolean rewrite = !m_logFile.exists();
+        if (!rewrite) {
+            rewrite = load();
+        }
+        if (rewrite || m_garbage >= MIN_GARBAGE) {
+            rewriteLog();
+        } else {
+            openLog(true);
+        }
+        flushIfFull();
+        logger.info("Opened FieldSearch index of " + m_objects.size()
+                + " objects, with " + m_segments.size()
+                + " postings segments, in " + directory.getPath());
+    }
+
+    /**
+     * Get the lock that guards the index.
+     */
+    public ReadWriteLock getLock() {
+        return m_lock;
+    }
+
+    /**
+     * Get the number of objects. The read lock must be held.
+     */
+    int getObjectCount() {
+        return m_objects.size();
+    }
+
+    /**
+     * Get the pids of all objects, in order. The read lock must be held.
+     */
+    SortedSet<String> getPids() {
+        return Collections.unmodifiableSortedSet((SortedSet<String>) m_objects
+                .keySet());
+    }
+
+    /**
+     * Get the fields of an object, from the cache or the log. The read lock
+     * must be held.
+     *
+     * @return the fields, or null if the object is not in the index
+     */
+    IndexedFields getFields(String pid) throws IOException {
+        synchronized (m_cache) {
+            IndexedFields fields = m_cache.get(pid);
+            if (fields != null) {
+                return fields;
+            }
+        }
+        Location location = m_objects.get(pid);
+        if (location == null) {
+            return null;
+        }
+        IndexedFields fields = readRecord(location.offset).fields;
+        cache(fields);
+        return fields;
+    }
+
+    /**
+     * Visit the fields of all objects, in the order they are in the log,
+     * which is faster than getting each by pid. The read lock must be held.
+     */
+    void scan(ObjectVisitor visitor) throws IOException {
+        DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new PostingsSegment.ChannelInputStream(m_logReader
+                        .getChannel(), 8, m_logLength)));
+        long offset = 8;
+        while (offset < m_logLength) {
+            int length = in.readInt();
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            Record record = parseRecord(bytes, VERSION);
+            if (record.fields != null) {
+                Location location = m_objects.get(record.fields.getPid());
+                if (location != null && location.seq == record.seq) {
+                    visitor.visit(record.fields);
+                }
+            }
+            offset += 4 + length;
+        }
+    }
+
+    /**
+     * Get the postings of a token, or of all tokens with a prefix: for each
+     * token, the number of fields it occurs in, by pid, for current objects
+     * only. The read lock must be held.
+     */
+    Collection<Map<String, Integer>> getPostings(String token, boolean prefix)
+            throws IOException {
+        String to = prefix ? token + Character.MAX_VALUE : token + '\0';
+        final SortedMap<String, Map<String, Integer>> postings =
+                new TreeMap<String, Map<String, Integer>>();
+        PostingsSegment.Visitor collector = new PostingsSegment.Visitor() {
+
+            public void visit(String t, List<Posting> list) {
+                Map<String, Integer> posting = postings.get(t);
+                for (Posting p : list) {
+                    if (isCurrent(p)) {
+                        if (posting == null) {
+                            posting = new HashMap<String, Integer>();
+                            postings.put(t, posting);
+                        }
+                        posting.put(p.pid, p.count);
+                    }
+                }
+            }
+        };
+        for (PostingsSegment segment : m_segments) {
+            segment.read(token, to, collector);
+        }
+        for (Map.Entry<String, Map<String, Posting>> entry : m_buffer
+                .subMap(token, to).entrySet()) {
+            collector.visit(entry.getKey(),
+                            new ArrayList<Posting>(entry.getValue().values()));
+        }
+        return postings.values();
+    }
+
+    /**
+     * Add or replace the fields of an object.
+     */
+    void put(IndexedFields fields) throws IOException {
+        put(Collections.singletonList(fields));
+    }
+
+    /**
+     * Add or replace the fields of many objects, with a single write to the
+     * log.
+     *
+     * @throws IOException
+     *         if the log can't be written
+     */
+    void put(List<IndexedFields> objects) throws IOException {
+        m_lock.writeLock().lock();
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            DataOutputStream log = new DataOutputStream(records);
+            long[] offsets = new long[objects.size()];
+            long seq = m_nextSeq;
+            for (int i = 0; i < objects.size(); i++) {
+                offsets[i] = m_logLength + records.size();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(PUT);
+                out.writeLong(seq + i);
+                objects.get(i).write(out);
+                out.flush();
+                log.writeInt(bytes.size());
+                bytes.writeTo(log);
+            }
+            log.flush();
+            appendRecords(records.toByteArray());
+            for (int i = 0; i < objects.size(); i++) {
+                apply(objects.get(i), new Location(offsets[i], m_nextSeq++));
+            }
+            flushIfFull();
+            rewriteLogIfNeeded();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the fields of an object.
+     *
+     * @return whether the object was in the index
+     */
+    boolean remove(String pid) throws IOException {
+        m_lock.writeLock().lock();
+        try {
+            if (!m_objects.containsKey(pid)) {
+                return false;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(DELETE);
+            out.writeUTF(pid);
+            out.flush();
+            appendRecord(bytes.toByteArray());
+            applyDelete(pid);
+            // both the old record and this one
+            m_garbage += 2;
+            rewriteLogIfNeeded();
+            return true;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all objects.
+     */
+    void clear() throws IOException {
+        m_lock.writeLock().lock();
+        try {
+            m_objects.clear();
+            synchronized (m_cache) {
+                m_cache.clear();
+            }
+            m_buffer.clear();
+            m_bufferedPostings = 0;
+            for (PostingsSegment segment : m_segments) {
+                segment.close();
+                segment.delete();
+            }
+            m_segments.clear();
+            m_flushedSeq = m_nextSeq - 1;
+            rewriteLog();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the buffered postings and close the index. It can't be used
+     * afterwards.
+     */
+    public void close() throws IOException {
+        m_lock.writeLock().lock();
+        try {
+            if (m_log == null) {
+                return;
+            }
+            try {
+                flush(true);
+            } finally {
+                m_log.close();
+                m_log = null;
+                m_logReader.close();
+                for (PostingsSegment segment : m_segments) {
+                    segment.close();
+                }
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    private boolean isCurrent(Posting posting) {
+        Location location = m_objects.get(posting.pid);
+        return location != null && location.seq == posting.seq;
+    }
+
+    private void cache(IndexedFields fields) {
+        synchronized (m_cache) {
+            m_cache.put(fields.getPid(), fields);
+            if (m_cache.size() > m_cacheSize) {
+                Iterator<IndexedFields> eldest = m_cache.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Make a version of an object current, buffering its postings unless
+     * they are already in a segment.
+     */
+    private void apply(IndexedFields fields, Location location) {
+        String pid = fields.getPid();
+        if (m_objects.put(pid, location) != null) {
+            m_garbage++;
+        }
+        synchronized (m_cache) {
+            m_cache.remove(pid);
+        }
+        if (location.seq <= m_flushedSeq) {
+            return;
+        }
+        Map<String, Integer> tokens = new HashMap<String, Integer>();
+        fields.addTokens(tokens);
+        for (Map.Entry<String, Integer> token : tokens.entrySet()) {
+            Map<String, Posting> posting = m_buffer.get(token.getKey());
+            if (posting == null) {
+                posting = new HashMap<String, Posting>();
+                m_buffer.put(token.getKey(), posting);
+            }
+            if (posting.put(pid, new Posting(pid, location.seq, token
+                    .getValue())) == null) {
+                m_bufferedPostings++;
+            }
+        }
+    }
+
+    private void applyDelete(String pid) {
+        m_objects.remove(pid);
+        synchronized (m_cache) {
+            m_cache.remove(pid);
+        }
+    }
+
+    private void flushIfFull() throws IOException {
+        if (m_bufferedPostings >= m_bufferSize) {
+            flush(true);
+        }
+    }
+
+    /**
+     * Write the buffered postings of current objects to a new segment, and
+     * merge segments if need be. Versions without postings need no segment;
+     * they are just read from the log again when the index is next opened.
+     *
+     * @param merge
+     *        whether segments may be merged, which they may not while the
+     *        log is being loaded, since the objects that are current are not
+     *        all known yet
+     */
+    private void flush(boolean merge) throws IOException {
+        long maxSeq = m_nextSeq - 1;
+        if (m_buffer.isEmpty() || maxSeq <= m_flushedSeq) {
+            return;
+        }
+        PostingsSegment.Writer writer =
+                new PostingsSegment.Writer(m_directory,
+                                           m_flushedSeq + 1,
+                                           maxSeq);
+        PostingsSegment segment;
+        try {
+            for (Map.Entry<String, Map<String, Posting>> entry : m_buffer
+                    .entrySet()) {
+                writer.add(entry.getKey(), current(entry.getValue().values()));
+            }
+            segment = writer.finish();
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        m_segments.add(segment);
+        m_flushedSeq = maxSeq;
+        m_buffer.clear();
+        m_bufferedPostings = 0;
+        logger.debug("Wrote FieldSearch postings segment {}", segment);
+        if (!merge) {
+            return;
+        }
+        // keep the segments growing in size, so there are few of them
+        int count = m_segments.size();
+        while (count >= 2
+                && m_segments.get(count - 1).getLength() * 2 >= m_segments
+                        .get(count - 2).getLength()) {
+            merge(count - 2);
+            count = m_segments.size();
+        }
+        if (count > MAX_SEGMENTS) {
+            merge(0);
+        }
+    }
+
+    private List<Posting> current(Collection<Posting> postings) {
+        List<Posting> current = new ArrayList<Posting>(postings.size());
+        for (Posting posting : postings) {
+            if (isCurrent(posting)) {
+                current.add(posting);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Merge the segments from the given one to the last into one, keeping
+     * only the postings of current objects.
+     */
+    private void merge(int first) throws IOException {
+        final List<PostingsSegment> merged =
+                new ArrayList<PostingsSegment>(m_segments.subList(first,
+                                                                  m_segments
+                                                                          .size()));
+        if (merged.size() < 2) {
+            return;
+        }
+        PostingsSegment.Writer writer =
+                new PostingsSegment.Writer(m_directory, merged.get(0)
+                        .getMinSeq(), merged.get(merged.size() - 1)
+                        .getMaxSeq());
+        PostingsSegment result;
+        try {
+            PriorityQueue<PostingsSegment.Cursor> cursors =
+                    new PriorityQueue<PostingsSegment.Cursor>(merged.size(),
+                            new Comparator<PostingsSegment.Cursor>() {
+
+                                public int compare(PostingsSegment.Cursor a,
+                                                   PostingsSegment.Cursor b) {
+                                    return a.getToken().compareTo(b
+                                            .getToken());
+                                }
+                            });
+            for (PostingsSegment segment : merged) {
+                PostingsSegment.Cursor cursor = segment.cursor();
+                if (cursor.next()) {
+                    cursors.add(cursor);
+                }
+            }
+            while (!cursors.isEmpty()) {
+                String token = cursors.peek().getToken();
+                Map<String, Posting> postings =
+                        new LinkedHashMap<String, Posting>();
+                while (!cursors.isEmpty()
+                        && cursors.peek().getToken().equals(token)) {
+                    PostingsSegment.Cursor cursor = cursors.poll();
+                    for (Posting posting : cursor.getPostings()) {
+                        if (isCurrent(posting)) {
+                            postings.put(posting.pid, posting);
+                        }
+                    }
+                    if (cursor.next()) {
+                        cursors.add(cursor);
+                    }
+                }
+                writer.add(token, new ArrayList<Posting>(postings.values()));
+            }
+            result = writer.finish();
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        m_segments.removeAll(merged);
+        m_segments.add(result);
+        for (PostingsSegment segment : merged) {
+            segment.close();
+            segment.delete();
+        }
+        logger.debug("Merged {} FieldSearch postings segments into {}",
+                     merged.size(),
+                     result);
+    }
+
+    /**
+     * Open the segments in the directory, deleting those left incomplete or
+     * replaced by a merge that was interrupted.
+     */
+    private void openSegments() throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (File file : m_directory.listFiles()) {
+            if (file.getName().endsWith(".seg.tmp")) {
+                file.delete();
+            } else if (PostingsSegment.isSegment(file.getName())) {
+                files.add(file);
+            }
+        }
+        List<PostingsSegment> segments = new ArrayList<PostingsSegment>();
+        for (File file : files) {
+            segments.add(new PostingsSegment(file));
+        }
+        // by first sequence number, the widest range first
+        Collections.sort(segments, new Comparator<PostingsSegment>() {
+
+            public int compare(PostingsSegment a, PostingsSegment b) {
+                if (a.getMinSeq() != b.getMinSeq()) {
+                    return a.getMinSeq() < b.getMinSeq() ? -1 : 1;
+                }
+                return a.getMaxSeq() > b.getMaxSeq() ? -1
+                        : a.getMaxSeq() == b.getMaxSeq() ? 0 : 1;
+            }
+        });
+        for (PostingsSegment segment : segments) {
+            if (segment.getMinSeq() <= m_flushedSeq) {
+                // a merge was interrupted before the inputs were deleted
+                segment.close();
+                segment.delete();
+            } else {
+                m_segments.add(segment);
+                m_flushedSeq = segment.getMaxSeq();
+            }
+        }
+        m_nextSeq = m_flushedSeq + 1;
+    }
+
+    private void appendRecord(byte[] record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(record.length);
+        out.write(record);
+        out.flush();
+        appendRecords(bytes.toByteArray());
+    }
+
+    /**
+     * Append records, each preceded by its length, to the log, and force
+     * them to disk.
+     */
+    private void appendRecords(byte[] records) throws IOException {
+        if (m_log == null) {
+            throw new IOException("FieldSearch index is closed");
+        }
+        m_log.write(records);
+        m_log.flush();
+        m_logOut.getChannel().force(false);
+        m_logLength += records.length;
+    }
+
+    private Record readRecord(long offset) throws IOException {
+        FileChannel channel = m_logReader.getChannel();
+        DataInputStream in =
+                new DataInputStream(new PostingsSegment.ChannelInputStream(channel,
+                                                                          offset,
+                                                                          m_logLength));
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        Record record = parseRecord(bytes, VERSION);
+        if (record.fields == null) {
+            throw new IOException("No object at " + offset + " in "
+                    + m_logFile.getPath());
+        }
+        return record;
+    }
+
+    private static Record parseRecord(byte[] bytes, int version)
+            throws IOException {
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = in.readByte();
+        if (type == PUT) {
+            long seq = version == 1 ? 0 : in.readLong();
+            return new Record(seq, IndexedFields.read(in), null);
+        } else if (type == DELETE) {
+            return new Record(0, null, in.readUTF());
+        } else {
+            throw new IOException("Bad record type " + type);
+        }
+    }
+
+    /**
+     * Read the objects in the log.
+     *
+     * @return whether the log must be rewritten in the current format
+     */
+    private boolean load() throws IOException {
+        DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(m_logFile)));
+        long validLength;
+        int version;
+        try {
+            version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Not a FieldSearch index log: "
+                        + m_logFile.getPath());
+            }
+            validLength = 8;
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = in.readInt();
+                    if (length < 1) {
+                        throw new IOException("Bad record length " + length);
+                    }
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                } catch (EOFException e) {
+                    break;
+                }
+                Record record = parseRecord(bytes, version);
+                if (record.fields != null) {
+                    long seq = version == 1 ? m_nextSeq : record.seq;
+                    apply(record.fields, new Location(validLength, seq));
+                    m_nextSeq = Math.max(m_nextSeq, seq + 1);
+                    if (m_bufferedPostings >= m_bufferSize) {
+                        flush(false);
+                    }
+                } else {
+                    applyDelete(record.pid);
+                    m_garbage += 2;
+                }
+                validLength += 4 + bytes.length;
+            }
+        } finally {
+            in.close();
+        }
+        synchronized (m_cache) {
+            m_cache.clear();
+        }
+        if (validLength < m_logFile.length()) {
+            // the last change was not completely written
+            logger.warn("Discarding incomplete record at the end of "
+                    + m_logFile.getPath());
+            RandomAccessFile file = new RandomAccessFile(m_logFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        m_logLength = validLength;
+        if (version == 1) {
+            logger.info("Converting FieldSearch index log to version "
+                    + VERSION);
+            return true;
+        }
+        return false;
+    }
+
+    private void rewriteLogIfNeeded() throws IOException {
+        if (m_garbage >= MIN_GARBAGE && m_garbage > m_objects.size()) {
+            rewriteLog();
+            // the segments hold about as many old postings
+            flush(true);
+            merge(0);
+        }
+    }
+
+    /**
+     * Replace the log with one that holds only the current objects, which
+     * keep their sequence numbers. The old log is read in order, and may be
+     * in the old format.
+     */
+    private void rewriteLog() throws IOException {
+        File newFile =
+                new File(m_logFile.getParentFile(), m_logFile.getName()
+                        + ".new");
+        Map<String, Location> locations = new HashMap<String, Location>();
+        FileOutputStream fileOut = new FileOutputStream(newFile);
+        DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long newOffset = 8;
+            if (m_logFile.exists() && m_logLength > 8) {
+                DataInputStream in =
+                        new DataInputStream(new BufferedInputStream(new FileInputStream(m_logFile)));
+                try {
+                    in.readInt();
+                    int version = in.readInt();
+                    long offset = 8;
+                    while (offset < m_logLength) {
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        Record record = parseRecord(bytes, version);
+                        Location old =
+                                record.fields == null ? null : m_objects
+                                        .get(record.fields.getPid());
+                        if (old != null && old.offset == offset) {
+                            ByteArrayOutputStream current =
+                                    new ByteArrayOutputStream();
+                            DataOutputStream recordOut =
+                                    new DataOutputStream(current);
+                            recordOut.writeByte(PUT);
+                            recordOut.writeLong(old.seq);
+                            record.fields.write(recordOut);
+                            recordOut.flush();
+                            out.writeInt(current.size());
+                            current.writeTo(out);
+                            locations.put(record.fields.getPid(),
+                                          new Location(newOffset, old.seq));
+                            newOffset += 4 + current.size();
+                        }
+                        offset += 4 + bytes.length;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            out.flush();
+            fileOut.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+        if (m_log != null) {
+            m_log.close();
+            m_log = null;
+        }
+        if (m_logReader != null) {
+            m_logReader.close();
+            m_logReader = null;
+        }
+        // File.renameTo does not replace an existing file everywhere
+        if (m_logFile.exists() && !m_logFile.delete()
+                || !newFile.renameTo(m_logFile)) {
+            throw new IOException("Unable to replace " + m_logFile.getPath());
+        }
+        m_objects.putAll(locations);
+        m_garbage = 0;
+        openLog(true);
+    }
+
+    private void openLog(boolean append) throws IOException {
+        boolean isNew = !append || !m_logFile.exists()
+                || m_logFile.length() == 0;
+        m_logOut = new FileOutputStream(m_logFile, append);
+        m_log = new DataOutputStream(new BufferedOutputStream(m_logOut));
+        if (isNew) {
+            m_log.writeInt(MAGIC);
+            m_log.writeInt(VERSION);
+            m_log.flush();
+            m_logOut.getChannel().force(false);
+        }
+        m_logLength = m_logFile.length();
+        m_logReader = new RandomAccessFile(m_logFile, "r");
+    }
+
+    /**
+     * Receives the fields of objects.
+     */
+    interface ObjectVisitor {
+
+        void visit(IndexedFields fields) throws IOException;
+    }
+
+    /**
+     * Where the current version of an object is in the log.
+     */
+    private static class Location {
+
+        final long offset;
+
+        final long seq;
+
+        Location(long offset, long seq) {
+            this.offset = offset;
+            this.seq = seq;
+        }
+    }
+
+    private static class Record {
+
+        final long seq;
+
+        final IndexedFields fields;
+
+        final String pid;
+
+        Record(long seq, IndexedFields fields, String pid) {
+            this.seq = seq;
+            this.fields = fields;
+            this.pid = pid;
+        }
+    }
+
+}
@@ -0,0 +1,710 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.IOException;
+
+import java.text.ParseException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.server.errors.QueryParseException;
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.errors.StorageDeviceException;
+import org.fcrepo.server.errors.UnknownSessionTokenException;
+import org.fcrepo.server.errors.UnrecognizedFieldException;
+import org.fcrepo.server.search.TokenIndex.TokenCondition;
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.utilities.DateUtility;
+
+
+/**
+ * A FieldSearch implementation that uses a FieldSearchIndex, kept in
+ * process, instead of a relational database.
+ * <p>
+ * Queries have the same meaning as with FieldSearchSQLImpl. The candidates
+ * of keyword searches are found through the postings of the index; the
+ * conditions are then checked against the fields of each candidate. Terms
+ * queries are ordered by relevance: the more (and the rarer) the tokens of
+ * an object that the words of the query match, the higher it ranks. Other
+ * queries are ordered by pid, and queries with another sort order are
+ * ordered as FieldSearchResultSQLImpl orders them. Since all matches are
+ * found, the complete list size of every result is known.
+ * </p>
+ * <p>
+ * Session tokens are stateless, like those of FieldSearchSQLImpl: resuming a
+ * search runs it again and skips the results that have been returned.
+ * </p>
+ */
+public class FieldSearchIndexImpl
+        implements FieldSearch {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(FieldSearchIndexImpl.class);
+
+    private final FieldSearchIndex m_index;
+
+    private final int m_maxResults;
+
+    private final int m_maxSecondsPerSession;
+
+    private final boolean m_indexDCFields;
+
+    /** The key session tokens are signed with. */
+    private byte[] m_tokenKey;
+
+    /**
+     * Construct a FieldSearchIndexImpl.
+     *
+     * @param index
+     *        the index
+     * @param maxResults
+     *        the maximum number of results to return at a time, regardless of
+     *        what the user might request
+     * @param maxSecondsPerSession
+     *        maximum number of seconds per session.
+     * @param indexDCFields
+     *        whether DC field values should be indexed. If false, queries
+     *        will behave as if no values had been specified for the DC fields.
+     */
+    public FieldSearchIndexImpl(FieldSearchIndex index,
+                                int maxResults,
+                                int maxSecondsPerSession,
+                                boolean indexDCFields) {
+        m_index = index;
+        m_maxResults = maxResults;
+        m_maxSecondsPerSession = maxSecondsPerSession;
+        m_indexDCFields = indexDCFields;
+        m_tokenKey = FieldSearchToken.newKey();
+    }
+
+    /**
+     * Set the key to sign session tokens with. Unless it is set, tokens are
+     * signed with a random key, so they are not valid after a restart.
+     *
+     * @param tokenKey
+     *        the key
+     * @see FieldSearchToken#getKey(String)
+     */
+    public void setTokenKey(byte[] tokenKey) {
+        m_tokenKey = tokenKey;
+    }
+
+    public void update(DOReader reader) throws ServerException {
+        update(Collections.singletonList(reader));
+    }
+
+    public void update(List<DOReader> readers) throws ServerException {
+        List<IndexedFields> objects =
+                new ArrayList<IndexedFields>(readers.size());
+        for (DOReader reader : readers) {
+            objects.add(IndexedFields.getFields(reader, m_indexDCFields));
+        }
+        try {
+            m_index.put(objects);
+        } catch (IOException e) {
+            throw new StorageDeviceException("Error updating FieldSearch "
+                    + "index for "
+                    + (objects.size() == 1 ? objects.get(0).getPid()
+                            : objects.size() + " objects") + ": "
+                    + e.getMessage());
+        }
+    }
+
+    public boolean delete(String pid) throws ServerException {
+        try {
+            return m_index.remove(pid);
+        } catch (IOException e) {
+            throw new StorageDeviceException("Error deleting " + pid
+                    + " from FieldSearch index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove all objects from the index.
+     */
+    public void clear() throws ServerException {
+        try {
+            m_index.clear();
+        } catch (IOException e) {
+            throw new StorageDeviceException("Error clearing FieldSearch "
+                    + "index: " + e.getMessage());
+        }
+    }
+
+    public FieldSearchResult findObjects(String[] resultFields,
+                                         int maxResults,
+                                         FieldSearchQuery query)
+            throws ServerException {
+        int actualMax = maxResults;
+        if (m_maxResults < maxResults) {
+            actualMax = m_maxResults;
+        }
+        return getPage(query, resultFields, actualMax, 0);
+    }
+
+    public FieldSearchResult resumeFindObjects(String sessionToken)
+            throws ServerException {
+        // the token holds all there is to know about the session
+        FieldSearchToken token =
+                FieldSearchToken.decode(sessionToken, m_tokenKey)
+                        .limit(m_maxResults, m_maxSecondsPerSession);
+        if (token.isExpired()) {
+            throw new UnknownSessionTokenException("Session is expired "
+                    + "or never existed.");
+        }
+        return getPage(token.getQuery(),
+                       token.getResultFields(),
+                       token.getMaxResults(),
+                       token.getCursor());
+    }
+
+    private FieldSearchResult getPage(FieldSearchQuery query,
+                                      String[] resultFields,
+                                      int maxResults,
+                                      long cursor) throws ServerException {
+        int[] fields = new int[resultFields.length];
+        for (int i = 0; i < resultFields.length; i++) {
+            fields[i] = ObjectFields.getField(resultFields[i]);
+            if (fields[i] < 0) {
+                throw new UnrecognizedFieldException("Unrecognized field: '"
+                        + resultFields[i] + "'");
+            }
+        }
+        Search search = new Search(query);
+        List<ObjectFields> page = new ArrayList<ObjectFields>();
+        String lastPID = null;
+        int size;
+        m_index.getLock().readLock().lock();
+        try {
+            List<String> pids = search.run(m_index);
+            sort(pids, query);
+            size = pids.size();
+            for (long i = cursor; i < size && page.size() < maxResults; i++) {
+                lastPID = pids.get((int) i);
+                page.add(m_index.getFields(lastPID).getObjectFields(fields));
+            }
+        } catch (IOException e) {
+            throw new StorageDeviceException("Error reading FieldSearch "
+                    + "index: " + e.getMessage());
+        } finally {
+            m_index.getLock().readLock().unlock();
+        }
+        logger.debug("Returning {} of {} results", page.size(), size);
+        String token = null;
+        Date expirationDate = null;
+        if (cursor + page.size() < size) {
+            expirationDate =
+                    new Date(System.currentTimeMillis() + 1000L
+                            * m_maxSecondsPerSession);
+            token =
+                    new FieldSearchToken(query,
+                                         resultFields,
+                                         maxResults,
+                                         lastPID,
+                                         cursor + page.size(),
+                                         expirationDate).encode(m_tokenKey);
+        }
+        return new Result(page, token, cursor, size, expirationDate);
+    }
+
+    /**
+     * Order results as the query asks, unless it asks for the default
+     * order: by relevance or pid. Results without a value come last, as in
+     * FieldSearchResultSQLImpl. The read lock must be held.
+     */
+    private void sort(List<String> pids, final FieldSearchQuery query)
+            throws IOException {
+        if (query.getSortField().equals("pid") && !query.isDescending()) {
+            return;
+        }
+        final int field = ObjectFields.getField(query.getSortField());
+        final boolean isDate =
+                field == ObjectFields.CDATE || field == ObjectFields.MDATE
+                        || field == ObjectFields.DCMDATE;
+        // read each object once, rather than at every comparison
+        final Map<String, Comparable<?>> keys =
+                new HashMap<String, Comparable<?>>();
+        if (field != ObjectFields.PID) {
+            for (String pid : pids) {
+                IndexedFields fields = m_index.getFields(pid);
+                // compared in lowercase, as held in the database
+                keys.put(pid, isDate ? Long.valueOf(fields.getDate(field))
+                        : fields.getSearchValue(field));
+            }
+        }
+        Collections.sort(pids, new Comparator<String>() {
+
+            @SuppressWarnings("unchecked")
+            public int compare(String a, String b) {
+                int order = 0;
+                if (field != ObjectFields.PID) {
+                    Comparable<Object> x = (Comparable<Object>) keys.get(a);
+                    Comparable<Object> y = (Comparable<Object>) keys.get(b);
+                    if (x == null || y == null) {
+                        if (x != y) {
+                            return x == null ? 1 : -1;
+                        }
+                    } else {
+                        order = x.compareTo(y);
+                    }
+                }
+                if (order == 0) {
+                    order = a.compareTo(b);
+                }
+                return query.isDescending() ? -order : order;
+            }
+        });
+    }
+
+    /**
+     * Get a pattern that matches the values a search string matches, as
+     * FieldSearchResultSQLImpl.toSql does with LIKE.
+     *
+     * @param in
+     *        the search string, where * and ? are wildcards, and \ escapes
+     *        the next character
+     * @param dc
+     *        whether the values are of a dublin core field
+     */
+    static Pattern toPattern(String in, boolean dc) {
+        if (dc) {
+            StringBuilder newIn = new StringBuilder();
+            if (!in.startsWith("*")) {
+                newIn.append("* ");
+            }
+            newIn.append(in);
+            if (!in.endsWith("*")) {
+                newIn.append(" *");
+            }
+            in = newIn.toString();
+        }
+        StringBuilder regex = new StringBuilder();
+        boolean lastWasEscape = false;
+        for (int i = 0; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (!lastWasEscape && c == '\\') {
+                lastWasEscape = true;
+                continue;
+            }
+            if (!lastWasEscape && c == '*') {
+                regex.append(".*");
+            } else if (!lastWasEscape && c == '?') {
+                regex.append('.');
+            } else if (Character.isLetterOrDigit(c)) {
+                regex.append(c);
+            } else {
+                regex.append('\\').append(c);
+            }
+            lastWasEscape = false;
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static boolean hasWildcard(String in) {
+        boolean lastWasEscape = false;
+        for (int i = 0; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (!lastWasEscape && c == '\\') {
+                lastWasEscape = true;
+            } else {
+                if (!lastWasEscape && (c == '*' || c == '?')) {
+                    return true;
+                }
+                lastWasEscape = false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDCField(int field) {
+        return field >= ObjectFields.TITLE && field <= ObjectFields.RIGHTS;
+    }
+
+    private static boolean compare(long value, Operator op, long operand) {
+        switch (op) {
+            case EQUALS:
+                return value == operand;
+            case GREATER_THAN:
+                return value > operand;
+            case GREATER_OR_EQUAL:
+                return value >= operand;
+            case LESS_THAN:
+                return value < operand;
+            case LESS_OR_EQUAL:
+                return value <= operand;
+            default:
+                throw new IllegalArgumentException("Not a date operator: "
+                        + op);
+        }
+    }
+
+    /**
+     * A string condition on one field.
+     */
+    private static class FieldPattern {
+
+        final int field;
+
+        final Pattern pattern;
+
+        FieldPattern(int field, Pattern pattern) {
+            this.field = field;
+            this.pattern = pattern;
+        }
+
+        boolean matches(IndexedFields fields) {
+            String value = fields.getSearchValue(field);
+            return value != null && pattern.matcher(value).matches();
+        }
+    }
+
+    /**
+     * A date condition on one field.
+     */
+    private static class DateComparison {
+
+        final int field;
+
+        final Operator op;
+
+        final long operand;
+
+        DateComparison(int field, Operator op, long operand) {
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+    }
+
+    /**
+     * A query, compiled for running against the index.
+     */
+    private static class Search {
+
+        /** Conditions that must all hold, each on any of its fields. */
+        private final List<List<FieldPattern>> m_patterns =
+                new ArrayList<List<FieldPattern>>();
+
+        private final List<DateComparison> m_dates =
+                new ArrayList<DateComparison>();
+
+        /** Conditions that must all hold for a single dc:date. */
+        private final List<DateComparison> m_dcDates =
+                new ArrayList<DateComparison>();
+
+        /**
+         * Conditions on the tokens of matching objects: each must hold for
+         * any of its alternatives.
+         */
+        private final List<TokenCondition[]> m_tokens =
+                new ArrayList<TokenCondition[]>();
+
+        /** The words of a terms query, used to rank the results. */
+        private final List<TokenCondition> m_rankingWords =
+                new ArrayList<TokenCondition>();
+
+        Search(FieldSearchQuery query) throws QueryParseException {
+            if (query.getType() == FieldSearchQuery.TERMS_TYPE) {
+                addTerms(query.getTerms());
+            } else {
+                for (Condition condition : query.getConditions()) {
+                    addCondition(condition);
+                }
+            }
+        }
+
+        private void addTerms(String terms) {
+            if (terms.equals("*") || terms.equals("")) {
+                return;
+            }
+            // the pid is matched as given, the other fields in lowercase
+            String lowerTerms = terms.toLowerCase();
+            Pattern pidPattern = toPattern(terms, false);
+            Pattern pattern = toPattern(lowerTerms, false);
+            Pattern dcPattern = toPattern(lowerTerms, true);
+            List<FieldPattern> any = new ArrayList<FieldPattern>();
+            for (int field : IndexedFields.STRING_FIELDS) {
+                if (field == ObjectFields.PID) {
+                    any.add(new FieldPattern(field, pidPattern));
+                } else if (isDCField(field)) {
+                    any.add(new FieldPattern(field, dcPattern));
+                } else {
+                    any.add(new FieldPattern(field, pattern));
+                }
+            }
+            m_patterns.add(any);
+            TokenCondition lower = TokenIndex.getCondition(lowerTerms);
+            TokenCondition asGiven = TokenIndex.getCondition(terms);
+            if (lower != null && asGiven != null) {
+                m_tokens.add(new TokenCondition[] {lower, asGiven});
+            }
+            for (String word : lowerTerms.split(" ")) {
+                if (word.length() > 0 && word.indexOf('\\') == -1) {
+                    TokenCondition condition = TokenIndex.getCondition(word);
+                    if (condition != null) {
+                        m_rankingWords.add(condition);
+                    }
+                }
+            }
+        }
+
+        private void addCondition(Condition cond) throws QueryParseException {
+            Operator op = cond.getOperator();
+            String prop = cond.getProperty();
+            int field = ObjectFields.getField(prop);
+            if (field < 0) {
+                throw new QueryParseException("Unrecognized field: '" + prop
+                        + "'");
+            }
+            if (prop.toLowerCase().endsWith("date")) {
+                // deal with dates ... cDate mDate dcmDate date
+                if (op == Operator.CONTAINS) {
+                    if (field == ObjectFields.DATE) {
+                        // query for dcDate as string
+                        addPattern(field, cond.getValue());
+                    } else {
+                        throw new QueryParseException("The ~ operator "
+                                + "cannot be used with cDate, mDate, "
+                                + "or dcmDate because they are not "
+                                + "string-valued fields.");
+                    }
+                } else { // =, <, <=, >, >=
+                    Date dt;
+                    try {
+                        dt = DateUtility.parseDateStrict(cond.getValue());
+                    } catch (ParseException e) {
+                        throw new QueryParseException("When using "
+                                + "equality or inequality operators "
+                                + "with a date-based value, the date "
+                                + "must be in yyyy-MM-DD[THH:mm:ss[.SSS][Z]] "
+                                + "form.");
+                    }
+                    DateComparison comparison =
+                            new DateComparison(field, op, dt.getTime());
+                    if (field == ObjectFields.DATE) {
+                        m_dcDates.add(comparison);
+                    } else {
+                        m_dates.add(comparison);
+                    }
+                }
+            } else if (op == Operator.EQUALS) {
+                if (isDCField(field)) {
+                    throw new QueryParseException("The = operator "
+                            + "can only be used with dates and "
+                            + "non-repeating fields.");
+                } else if (hasWildcard(cond.getValue())) {
+                    throw new QueryParseException("The = "
+                            + "operator cannot be used with "
+                            + "wildcards.");
+                }
+                addPattern(field, cond.getValue());
+            } else if (op == Operator.CONTAINS) {
+                addPattern(field, cond.getValue());
+            } else {
+                throw new QueryParseException("Can't use >, >=, <, "
+                        + "or <= operator on a string-based field.");
+            }
+        }
+
+        private void addPattern(int field, String value) {
+            // like toSql, only the pid is case sensitive
+            String pattern =
+                    field == ObjectFields.PID ? value : value.toLowerCase();
+            m_patterns.add(Collections.singletonList(new FieldPattern(field,
+                    toPattern(pattern, isDCField(field)))));
+            TokenCondition condition = TokenIndex.getCondition(pattern);
+            if (condition != null) {
+                m_tokens.add(new TokenCondition[] {condition});
+            }
+        }
+
+        /**
+         * Get the pids of the matching objects, in result order. The read
+         * lock of the index must be held.
+         */
+        List<String> run(FieldSearchIndex index) throws IOException {
+            Set<String> candidates = null;
+            for (TokenCondition[] alternatives : m_tokens) {
+                Set<String> pids = new HashSet<String>();
+                for (TokenCondition condition : alternatives) {
+                    for (Map<String, Integer> posting : index
+                            .getPostings(condition.getValue(), condition
+                                    .isPrefix())) {
+                        pids.addAll(posting.keySet());
+                    }
+                }
+                if (candidates == null) {
+                    candidates = pids;
+                } else {
+                    candidates.retainAll(pids);
+                }
+            }
+            final List<String> result = new ArrayList<String>();
+            if (candidates == null) {
+                // no postings to go by: read the log in order
+                index.scan(new FieldSearchIndex.ObjectVisitor() {
+
+                    public void visit(IndexedFields fields) {
+                        if (matches(fields)) {
+                            result.add(fields.getPid());
+                        }
+                    }
+                });
+                Collections.sort(result);
+            } else {
+                for (String pid : new TreeSet<String>(candidates)) {
+                    IndexedFields fields = index.getFields(pid);
+                    if (fields != null && matches(fields)) {
+                        result.add(pid);
+                    }
+                }
+            }
+            if (!m_rankingWords.isEmpty() && result.size() > 1) {
+                rank(index, result);
+            }
+            return result;
+        }
+
+        private boolean matches(IndexedFields fields) {
+            for (List<FieldPattern> any : m_patterns) {
+                boolean matched = false;
+                for (FieldPattern pattern : any) {
+                    if (pattern.matches(fields)) {
+                        matched = true;
+                        break;
+                    }
+                }
+                if (!matched) {
+                    return false;
+                }
+            }
+            for (DateComparison date : m_dates) {
+                if (!compare(fields.getDate(date.field),
+                             date.op,
+                             date.operand)) {
+                    return false;
+                }
+            }
+            if (!m_dcDates.isEmpty()) {
+                boolean matched = false;
+                for (long value : fields.getDCDates()) {
+                    matched = true;
+                    for (DateComparison date : m_dcDates) {
+                        if (!compare(value, date.op, date.operand)) {
+                            matched = false;
+                            break;
+                        }
+                    }
+                    if (matched) {
+                        break;
+                    }
+                }
+                if (!matched) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Order results by the sum, over the tokens they have that match the
+         * words of the query, of the number of fields with the token times
+         * the inverse document frequency of the token; then by pid.
+         */
+        private void rank(FieldSearchIndex index, List<String> result)
+                throws IOException {
+            final Map<String, Double> scores = new HashMap<String, Double>();
+            for (String pid : result) {
+                scores.put(pid, 0.0);
+            }
+            double objectCount = index.getObjectCount();
+            for (TokenCondition word : m_rankingWords) {
+                for (Map<String, Integer> posting : index.getPostings(word
+                        .getValue(), word.isPrefix())) {
+                    double idf = Math.log(1 + objectCount / posting.size());
+                    for (Map.Entry<String, Integer> entry : posting.entrySet()) {
+                        Double score = scores.get(entry.getKey());
+                        if (score != null) {
+                            scores.put(entry.getKey(), score
+                                    + entry.getValue() * idf);
+                        }
+                    }
+                }
+            }
+            Collections.sort(result, new Comparator<String>() {
+
+                public int compare(String a, String b) {
+                    int byScore = scores.get(b).compareTo(scores.get(a));
+                    return byScore != 0 ? byScore : a.compareTo(b);
+                }
+            });
+        }
+
+    }
+
+    /**
+     * A page of results.
+     */
+    private static class Result
+            implements FieldSearchResult {
+
+        private final List<ObjectFields> m_objectFields;
+
+        private final String m_token;
+
+        private final long m_cursor;
+
+        private final long m_completeListSize;
+
+        private final Date m_expirationDate;
+
+        Result(List<ObjectFields> objectFields,
+               String token,
+               long cursor,
+               long completeListSize,
+               Date expirationDate) {
+            m_objectFields = objectFields;
+            m_token = token;
+            m_cursor = cursor;
+            m_completeListSize = completeListSize;
+            m_expirationDate = expirationDate;
+        }
+
+        public List<ObjectFields> objectFieldsList() {
+            return m_objectFields;
+        }
+
+        public String getToken() {
+            return m_token;
+        }
+
+        public long getCursor() {
+            return m_cursor;
+        }
+
+        public long getCompleteListSize() {
+            return m_completeListSize;
+        }
+
+        public Date getExpirationDate() {
+            return m_expirationDate;
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.common.Constants;
+
+import org.fcrepo.server.Module;
+import org.fcrepo.server.Server;
+import org.fcrepo.server.errors.ModuleInitializationException;
+import org.fcrepo.server.errors.ModuleShutdownException;
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.storage.DOReader;
+
+
+/**
+ * Module that wraps FieldSearchIndexImpl.
+ * <p>
+ * This is an alternative to FieldSearchSQLModule that keeps its index in
+ * process, in the directory given by the <code>indexDirectory</code>
+ * parameter, rather than in the database. It takes the same
+ * <code>maxResults</code>, <code>maxSecondsPerSession</code>,
+ * <code>indexDCFields</code> and <code>sessionTokenSecret</code>
+ * parameters. The fields and postings of the objects are kept on disk; the
+ * optional <code>cacheSize</code> parameter is the number of objects whose
+ * fields are kept in memory. The index can be rebuilt with the
+ * FieldSearchIndexRebuilder.
+ * </p>
+ */
+public class FieldSearchIndexModule
+        extends Module
+        implements FieldSearch {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(FieldSearchIndexModule.class);
+
+    /** The index directory if the parameter is not given. */
+    public static final String DEFAULT_INDEX_DIRECTORY = "data/fieldSearch";
+
+    private FieldSearchIndex m_index;
+
+    private FieldSearchIndexImpl m_wrappedFieldSearch;
+
+    public FieldSearchIndexModule(Map params, Server server, String role)
+            throws ModuleInitializationException {
+        super(params, server, role);
+    }
+
+    @Override
+    public void postInitModule() throws ModuleInitializationException {
+        int maxResults = getPositiveInt("maxResults");
+        int maxSecondsPerSession = getPositiveInt("maxSecondsPerSession");
+
+        //
+        // get indexDCFields parameter (default to true if unspecified)
+        //
+        boolean indexDCFields = true;
+        String indexDCFieldsValue = getParameter("indexDCFields");
+        if (indexDCFieldsValue != null) {
+            String val = indexDCFieldsValue.trim().toLowerCase();
+            if (val.equals("false") || val.equals("no")) {
+                indexDCFields = false;
+            } else if (!val.equals("true") && !val.equals("yes")) {
+                throw new ModuleInitializationException("indexDCFields param "
+                        + "was not a boolean", getRole());
+            }
+        }
+
+        //
+        // open the index
+        //
+        int cacheSize = FieldSearchIndex.DEFAULT_CACHE_SIZE;
+        if (getParameter("cacheSize") != null) {
+            cacheSize = getPositiveInt("cacheSize");
+        }
+        if (getParameter("maxObjects") != null) {
+            logger.warn("Ignoring the maxObjects parameter; the FieldSearch "
+                    + "index is no longer limited in size");
+        }
+        File directory = getIndexDirectory(getParameter("indexDirectory", true));
+        try {
+            m_index = new FieldSearchIndex(directory, cacheSize);
+        } catch (IOException e) {
+            throw new ModuleInitializationException("Unable to open the "
+                    + "FieldSearch index in " + directory.getPath() + ": "
+                    + e.getMessage(), getRole(), e);
+        }
+        m_wrappedFieldSearch =
+                new FieldSearchIndexImpl(m_index,
+                                         maxResults,
+                                         maxSecondsPerSession,
+                                         indexDCFields);
+        m_wrappedFieldSearch.setTokenKey(FieldSearchToken
+                .getKey(getParameter("sessionTokenSecret")));
+    }
+
+    /**
+     * Get the index directory, given the value of the indexDirectory
+     * parameter as an absolute path.
+     */
+    static File getIndexDirectory(String indexDirectory) {
+        if (indexDirectory == null) {
+            return new File(Constants.FEDORA_HOME, DEFAULT_INDEX_DIRECTORY);
+        }
+        return new File(indexDirectory);
+    }
+
+    private int getPositiveInt(String name)
+            throws ModuleInitializationException {
+        if (getParameter(name) == null) {
+            throw new ModuleInitializationException(name
+                    + " parameter must be specified.", getRole());
+        }
+        try {
+            int value = Integer.parseInt(getParameter(name));
+            if (value < 1) {
+                throw new NumberFormatException("");
+            }
+            return value;
+        } catch (NumberFormatException nfe) {
+            throw new ModuleInitializationException(name
+                    + " must be a positive integer.", getRole());
+        }
+    }
+
+    @Override
+    public void shutdownModule() throws ModuleShutdownException {
+        if (m_index != null) {
+            try {
+                m_index.close();
+            } catch (IOException e) {
+                logger.warn("Error closing FieldSearch index", e);
+            }
+        }
+    }
+
+    /**
+     * Remove all objects from the index, before it is rebuilt.
+     */
+    public void clear() throws ServerException {
+        m_wrappedFieldSearch.clear();
+    }
+
+    public void update(DOReader reader) throws ServerException {
+        m_wrappedFieldSearch.update(reader);
+    }
+
+    public void update(List<DOReader> readers) throws ServerException {
+        m_wrappedFieldSearch.update(readers);
+    }
+
+    public boolean delete(String pid) throws ServerException {
+        return m_wrappedFieldSearch.delete(pid);
+    }
+
+    public FieldSearchResult findObjects(String[] resultFields,
+                                         int maxResults,
+                                         FieldSearchQuery query)
+            throws ServerException {
+        return m_wrappedFieldSearch
+                .findObjects(resultFields, maxResults, query);
+    }
+
+    public FieldSearchResult resumeFindObjects(String sessionToken)
+            throws ServerException {
+        return m_wrappedFieldSearch.resumeFindObjects(sessionToken);
+    }
+
+}
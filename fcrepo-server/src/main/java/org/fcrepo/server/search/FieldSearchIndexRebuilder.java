@@ -0,0 +1,114 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.File;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.server.Server;
+import org.fcrepo.server.config.ServerConfiguration;
+import org.fcrepo.server.errors.ModuleInitializationException;
+import org.fcrepo.server.storage.SimpleDOReader;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.utilities.rebuild.Rebuild;
+import org.fcrepo.server.utilities.rebuild.Rebuilder;
+
+
+/**
+ * A Rebuilder for the index of the FieldSearchIndexModule.
+ * <p>
+ * The index is emptied, then every object is added to it again. This only
+ * applies when FieldSearchIndexModule is the configured FieldSearch module;
+ * the tables used by FieldSearchSQLModule are rebuilt by the SQLRebuilder.
+ * </p>
+ */
+public class FieldSearchIndexRebuilder
+        implements Rebuilder {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(FieldSearchIndexRebuilder.class);
+
+    private static final String ROLE = "org.fcrepo.server.search.FieldSearch";
+
+    private FieldSearchIndexModule m_fieldSearch;
+
+    private long m_count;
+
+    /**
+     * Get a short phrase describing what the user can do with this rebuilder.
+     */
+    public String getAction() {
+        return "Rebuild the FieldSearch index.";
+    }
+
+    /**
+     * Returns true is the server _must_ be shut down for this rebuilder to
+     * safely operate.
+     */
+    public boolean shouldStopServer() {
+        return true;
+    }
+
+    public void setServerConfiguration(ServerConfiguration serverConfig) {
+        // not needed
+    }
+
+    public void setServerDir(File serverBaseDir) {
+        // not needed
+    }
+
+    public void init() {
+
+    }
+
+    public Map<String, String> getOptions() {
+        Map<String, String> m = new HashMap<String, String>();
+        return m;
+    }
+
+    /**
+     * Validate the provided options and perform any necessary startup tasks.
+     */
+    public void start(Map<String, String> options) throws Exception {
+        Server server = Rebuild.getServer();
+        Object fieldSearch = server.getModule(ROLE);
+        if (!(fieldSearch instanceof FieldSearchIndexModule)) {
+            throw new ModuleInitializationException("The FieldSearch module "
+                    + "is not a FieldSearchIndexModule; rebuild the SQL "
+                    + "database instead.", ROLE);
+        }
+        m_fieldSearch = (FieldSearchIndexModule) fieldSearch;
+        System.out.println("Clearing the FieldSearch index...");
+        m_fieldSearch.clear();
+        m_count = 0;
+    }
+
+    /**
+     * Add the data of interest for the given object.
+     */
+    public void addObject(DigitalObject object) throws Exception {
+        m_fieldSearch.update(new SimpleDOReader(null,
+                                                null,
+                                                null,
+                                                null,
+                                                null,
+                                                object));
+        m_count++;
+    }
+
+    /**
+     * Free up any system resources associated with rebuilding.
+     */
+    public void finish() throws Exception {
+        // the index is closed when the server shuts down
+        logger.info("Added " + m_count + " objects to the FieldSearch index");
+    }
+
+}
@@ -15,12 +15,23 @@ public class FieldSearchQuery {
 
     public final static int TERMS_TYPE = 2;
 
+    /** The fields results can be sorted by. */
+    public final static String[] SORT_FIELDS =
+            new String[] {"pid", "label", "state", "ownerId", "cDate",
+                    "mDate", "dcmDate"};
+
     private List<Condition> m_conditions;
 
     private String m_terms;
 
     private final int m_type;
 
+    private String m_sortField = "pid";
+
+    private boolean m_descending;
+
+    private boolean m_countRequested;
+
     public FieldSearchQuery(List<Condition> conditions) {
         m_conditions = conditions;
         m_type = CONDITIONS_TYPE;
@@ -43,4 +54,57 @@ public class FieldSearchQuery {
         return m_terms;
     }
 
+    /**
+     * Sets the order of the results. By default they are in ascending pid
+     * order. Results with the same value of the field are in pid order, and
+     * results without a value come last.
+     *
+     * @param sortField
+     *        one of the SORT_FIELDS
+     * @param descending
+     *        whether the results are in descending order
+     * @throws IllegalArgumentException
+     *         if the field isn't one of the SORT_FIELDS
+     */
+    public void setSortField(String sortField, boolean descending) {
+        if (!isSortField(sortField)) {
+            throw new IllegalArgumentException("Results can't be sorted by "
+                    + sortField);
+        }
+        m_sortField = sortField;
+        m_descending = descending;
+    }
+
+    public String getSortField() {
+        return m_sortField;
+    }
+
+    public boolean isDescending() {
+        return m_descending;
+    }
+
+    /**
+     * Sets whether the complete number of results should be counted when
+     * the first page is read, rather than only being known on the last page.
+     */
+    public void setCountRequested(boolean countRequested) {
+        m_countRequested = countRequested;
+    }
+
+    public boolean isCountRequested() {
+        return m_countRequested;
+    }
+
+    /**
+     * Tells whether results can be sorted by the given field.
+     */
+    public static boolean isSortField(String field) {
+        for (String sortField : SORT_FIELDS) {
+            if (sortField.equals(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,257 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.server.utilities.TimestampedCacheEntry;
+
+
+/**
+ * A bounded cache of the first pages of FieldSearch results.
+ * <p>
+ * Pages are keyed by the query, requested fields and page size. The cache
+ * has an epoch that is advanced whenever the indexed fields of any object
+ * change; advancing it empties the cache, and a page read before the change
+ * is not added to the cache afterwards. A cached page is otherwise served
+ * until it is older than the maximum age, which should leave clients enough
+ * of the lifetime of the page's session token to resume the search.
+ * </p>
+ * <p>
+ * The number of hits and misses, and the time the queries of the hits took
+ * when they were run, are counted.
+ * </p>
+ */
+public class FieldSearchResultCache {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(FieldSearchResultCache.class);
+
+    private final int m_maxEntries;
+
+    private final long m_maxAge;
+
+    private final Map<String, TimestampedCacheEntry<CachedResult>> m_entries;
+
+    private long m_epoch;
+
+    private long m_hits;
+
+    private long m_misses;
+
+    private long m_savedMillis;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries
+     *        the number of pages to keep; the least recently used are
+     *        evicted first
+     * @param maxAge
+     *        how long, in milliseconds, a page is served
+     */
+    public FieldSearchResultCache(final int maxEntries, long maxAge) {
+        m_maxEntries = maxEntries;
+        m_maxAge = maxAge;
+        m_entries =
+                new LinkedHashMap<String, TimestampedCacheEntry<CachedResult>>(16,
+                                                                               0.75f,
+                                                                               true) {
+
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, TimestampedCacheEntry<CachedResult>> eldest) {
+                        return size() > m_maxEntries;
+                    }
+                };
+    }
+
+    /**
+     * Gets the cache key of the first page of a search. The conditions of a
+     * query are sorted, since their order doesn't change the results.
+     */
+    public static String getKey(String[] resultFields,
+                                int maxResults,
+                                FieldSearchQuery query) {
+        StringBuilder key = new StringBuilder();
+        key.append(maxResults);
+        for (String field : resultFields) {
+            key.append(' ').append(field);
+        }
+        key.append('\n').append(query.getSortField());
+        key.append(query.isDescending() ? " desc" : " asc");
+        key.append(query.isCountRequested() ? " count" : "");
+        if (query.getType() == FieldSearchQuery.TERMS_TYPE) {
+            key.append("\nterms ").append(query.getTerms());
+        } else {
+            List<String> conditions = new ArrayList<String>();
+            for (Condition condition : query.getConditions()) {
+                conditions.add(condition.getProperty()
+                        + condition.getOperator().getAbbreviation()
+                        + condition.getValue());
+            }
+            Collections.sort(conditions);
+            for (String condition : conditions) {
+                key.append('\n').append(condition);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the current epoch. It must be read before a page is read, and
+     * given when the page is added to the cache.
+     */
+    public synchronized long getEpoch() {
+        return m_epoch;
+    }
+
+    /**
+     * Advances the epoch, emptying the cache. This must be called after the
+     * indexed fields of an object have changed.
+     */
+    public synchronized void invalidate() {
+        m_epoch++;
+        m_entries.clear();
+    }
+
+    /**
+     * Gets a cached page.
+     *
+     * @return the page, or null if it is not cached
+     */
+    public synchronized FieldSearchResult get(String key) {
+        TimestampedCacheEntry<CachedResult> entry = m_entries.get(key);
+        if (entry != null && entry.age() > m_maxAge) {
+            m_entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            m_misses++;
+            return null;
+        }
+        m_hits++;
+        m_savedMillis += entry.value().m_queryMillis;
+        return entry.value();
+    }
+
+    /**
+     * Adds a page to the cache, unless the epoch has advanced since it was
+     * read.
+     *
+     * @param key
+     *        the key of the search
+     * @param epoch
+     *        the epoch before the page was read
+     * @param result
+     *        the page
+     * @param queryMillis
+     *        how long it took to read the page
+     */
+    public synchronized void put(String key,
+                                 long epoch,
+                                 FieldSearchResult result,
+                                 long queryMillis) {
+        if (epoch != m_epoch) {
+            logger.debug("Not caching results read before epoch {}", m_epoch);
+            return;
+        }
+        m_entries.put(key,
+                      new TimestampedCacheEntry<CachedResult>(new CachedResult(result,
+                                                                               queryMillis)));
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * Gets the fraction of lookups that were hits, or 0 if there have been
+     * none.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = m_hits + m_misses;
+        return lookups == 0 ? 0 : (double) m_hits / lookups;
+    }
+
+    /**
+     * Gets the total time, in milliseconds, that the queries of the hits
+     * took when they were run.
+     */
+    public synchronized long getSavedMillis() {
+        return m_savedMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FieldSearch result cache: " + m_entries.size() + " of "
+                + m_maxEntries + " pages, " + m_hits + " hits, " + m_misses
+                + " misses, " + m_savedMillis + "ms of queries saved";
+    }
+
+    /**
+     * An unmodifiable copy of a page.
+     */
+    private static class CachedResult
+            implements FieldSearchResult {
+
+        private final List<ObjectFields> m_objectFields;
+
+        private final String m_token;
+
+        private final long m_cursor;
+
+        private final long m_completeListSize;
+
+        private final Date m_expirationDate;
+
+        private final long m_queryMillis;
+
+        public CachedResult(FieldSearchResult result, long queryMillis) {
+            m_objectFields =
+                    Collections.unmodifiableList(new ArrayList<ObjectFields>(result
+                            .objectFieldsList()));
+            m_token = result.getToken();
+            m_cursor = result.getCursor();
+            m_completeListSize = result.getCompleteListSize();
+            m_expirationDate = result.getExpirationDate();
+            m_queryMillis = queryMillis;
+        }
+
+        public List<ObjectFields> objectFieldsList() {
+            return m_objectFields;
+        }
+
+        public String getToken() {
+            return m_token;
+        }
+
+        public long getCursor() {
+            return m_cursor;
+        }
+
+        public long getCompleteListSize() {
+            return m_completeListSize;
+        }
+
+        public Date getExpirationDate() {
+            return m_expirationDate;
+        }
+    }
+
+}
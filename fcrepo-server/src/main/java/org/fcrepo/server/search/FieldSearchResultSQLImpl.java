@@ -27,11 +27,14 @@ import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.errors.StorageDeviceException;
 import org.fcrepo.server.errors.StreamIOException;
 import org.fcrepo.server.errors.UnrecognizedFieldException;
+import org.fcrepo.server.search.TokenIndex.TokenCondition;
 import org.fcrepo.server.storage.ConnectionPool;
 import org.fcrepo.server.storage.DOReader;
 import org.fcrepo.server.storage.RepositoryReader;
 import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.utilities.DCField;
 import org.fcrepo.server.utilities.MD5Utility;
+import org.fcrepo.server.utilities.SQLUtility;
 import org.fcrepo.utilities.DateUtility;
 
 
@@ -39,8 +42,27 @@ import org.fcrepo.utilities.DateUtility;
  * A FieldSearchResults object returned as the result of a FieldSearchSQLImpl
  * search.
  * <p>
- * A FieldSearchResultSQLImpl is intended to be re-used in cases where the
- * results of a query require more than one call to the server.
+ * Each page of results is read with a separate query that returns results
+ * ordered by the query's sort field and pid, starting after the last result
+ * of the previous page. The session token of a page is a
+ * {@link FieldSearchToken} holding the query and the pid and sort field value
+ * of that result, so nothing (in particular no database connection) is held
+ * between pages; a search is resumed by constructing a new
+ * FieldSearchResultSQLImpl from the token.
+ * </p>
+ * <p>
+ * When all of the requested fields are held in the doFields and
+ * doDisplayFields tables, results are built from the query's result set
+ * alone. Otherwise, or if an object has no row in doDisplayFields yet, the
+ * object is read from the repository to build its result.
+ * </p>
+ * <p>
+ * The sort fields are indexed in doFields, most of them together with the
+ * pid, so a page is read from the index rather than by sorting all results.
+ * Since databases disagree on where nulls are sorted, results without a
+ * label or ownerId are read by a separate query after all those with one.
+ * The complete number of results is known on the last page, or, if the
+ * query asks for it, is counted when the first page is read.
  * </p>
  *
  * @author Chris Wilper
@@ -58,46 +80,55 @@ public class FieldSearchResultSQLImpl
 
     private long m_cursor = -1;
 
-    private final long m_completeListSize = -1;
+    private long m_completeListSize = -1;
 
     private Date m_expirationDate;
 
-    private String m_nextPID;
-
     /* invariants */
-    private final Connection m_conn;
-
     private final ConnectionPool m_cPool;
 
     private final RepositoryReader m_repoReader;
 
+    private final FieldSearchQuery m_query;
+
     private final String[] m_resultFields;
 
     private final int m_maxResults;
 
     private final int m_maxSeconds;
 
-    private long m_startMillis;
+    /** The key session tokens are signed with. */
+    private final byte[] m_tokenKey;
+
+    /**
+     * The ObjectFields constants of m_resultFields, or null if they can't all
+     * be read from the result set.
+     */
+    private final int[] m_projectedFields;
+
+    /** Whether doTokens is used to narrow down string matches. */
+    private final boolean m_useTokenIndex;
 
     /* internal state */
-    private PreparedStatement m_statement;
+    /** The last pid of the previous page, or null on the first page. */
+    private String m_lastPID;
 
-    private ResultSet m_resultSet;
+    /**
+     * The sort field value of the last result of the previous page, or null
+     * if it has none or results are in pid order.
+     */
+    private String m_lastSortValue;
 
-    private long m_nextCursor = 0;
+    /** The number of results on previous pages. */
+    private long m_previousResults = 0;
 
-    private boolean m_expired;
+    /** The parameters of the query, in order: Strings or Longs. */
+    private List<Object> m_parameters;
 
     /**
-     * Construct a FieldSearchResultSQLImpl object.
-     * <p />
-     * Upon construction, a connection is obtained from the connectionPool, and
-     * the query is executed. (The connection will be returned to the pool only
-     * after the last result has been obtained from the ResultSet, the session
-     * is expired, or some non-recoverable error has occurred)
+     * Construct a FieldSearchResultSQLImpl object for a new search.
      * <p />
-     * Once the ResultSet is obtained, one result is requested of it (and
-     * remembered for use in step()); then the call returns.
+     * The query is not run until step() is called.
      *
      * @param cPool
      *        the connectionPool
@@ -109,86 +140,271 @@ public class FieldSearchResultSQLImpl
      *        how many results should be returned at one time. This should be
      *        the smaller of a) the FieldSearchImpl's limit [the server limit]
      *        and b) the requested limit [the client limit]
+     * @param maxSeconds
+     *        how long the session token of a page remains valid
+     * @param tokenKey
+     *        the key to sign session tokens with
+     * @param indexDCFields
+     *        whether dublin core values are held in the database
+     * @param useTokenIndex
+     *        whether doTokens is used to narrow down string matches
      * @param query
      *        the end-user query
+     * @throws UnrecognizedFieldException
+     *         if a resultFields value isn't valid
      */
     protected FieldSearchResultSQLImpl(ConnectionPool cPool,
                                        RepositoryReader repoReader,
                                        String[] resultFields,
                                        int maxResults,
                                        int maxSeconds,
+                                       byte[] tokenKey,
+                                       boolean indexDCFields,
+                                       boolean useTokenIndex,
                                        FieldSearchQuery query)
-            throws SQLException, QueryParseException {
+            throws UnrecognizedFieldException {
         m_cPool = cPool;
         m_repoReader = repoReader;
+        m_query = query;
         m_resultFields = resultFields;
         m_maxResults = maxResults;
         m_maxSeconds = maxSeconds;
-        m_conn = m_cPool.getReadOnlyConnection();
-        boolean success = false;
-        try {
-            m_statement = m_conn.prepareStatement(logAndGetQueryText(query,
-                    m_resultFields));
-            m_resultSet =
-                    m_statement.executeQuery(); //2004.05.02 wdn5e
-            success = true;
-        } finally {
-            if (!success) {
-                try {
-                    if (m_resultSet != null) {
-                        m_resultSet.close();
-                    }
-                    if (m_statement != null) {
-                        m_statement.close();
-                    }
-                    if (m_conn != null) {
-                        m_cPool.free(m_conn);
-                    }
-                } catch (SQLException e) {
-                    logger.warn("SQL error during failed query cleanup", e);
-                } finally {
-                    m_resultSet = null;
-                    m_statement = null;
-                }
+        m_tokenKey = tokenKey;
+        m_projectedFields = getProjectedFields(resultFields, indexDCFields);
+        m_useTokenIndex = useTokenIndex;
+    }
+
+    /**
+     * Construct a FieldSearchResultSQLImpl object that resumes a search.
+     * <p />
+     * The next page is not read until step() is called.
+     *
+     * @param cPool
+     *        the connectionPool
+     * @param repoReader
+     *        the provider of object field information for results
+     * @param maxSeconds
+     *        how long the session token of a page remains valid
+     * @param tokenKey
+     *        the key to sign session tokens with
+     * @param indexDCFields
+     *        whether dublin core values are held in the database
+     * @param useTokenIndex
+     *        whether doTokens is used to narrow down string matches
+     * @param token
+     *        the session token of the previous page
+     * @throws UnrecognizedFieldException
+     *         if a resultFields value of the token isn't valid
+     */
+    protected FieldSearchResultSQLImpl(ConnectionPool cPool,
+                                       RepositoryReader repoReader,
+                                       int maxSeconds,
+                                       byte[] tokenKey,
+                                       boolean indexDCFields,
+                                       boolean useTokenIndex,
+                                       FieldSearchToken token)
+            throws UnrecognizedFieldException {
+        this(cPool,
+             repoReader,
+             token.getResultFields(),
+             token.getMaxResults(),
+             maxSeconds,
+             tokenKey,
+             indexDCFields,
+             useTokenIndex,
+             token.getQuery());
+        m_lastPID = token.getLastPID();
+        m_lastSortValue = token.getLastSortValue();
+        m_previousResults = token.getCursor();
+        m_completeListSize = token.getCompleteListSize();
+    }
+
+    /**
+     * Get the ObjectFields constants of the given result fields, if all of
+     * them can be read from the database.
+     *
+     * @return the constants, or null if the object must be read to get some
+     *         of the fields
+     */
+    private static int[] getProjectedFields(String[] resultFields,
+                                            boolean indexDCFields)
+            throws UnrecognizedFieldException {
+        int[] fields = new int[resultFields.length];
+        boolean projected = true;
+        for (int i = 0; i < resultFields.length; i++) {
+            fields[i] = ObjectFields.getField(resultFields[i]);
+            if (fields[i] < 0) {
+                throw new UnrecognizedFieldException("Unrecognized field: '"
+                        + resultFields[i] + "'");
+            }
+            if (getColumn(fields[i], indexDCFields) == null) {
+                projected = false;
             }
         }
+        return projected ? fields : null;
+    }
+
+    /**
+     * Get the qualified database column holding the given ObjectFields
+     * field, or null if it isn't held in the database.
+     */
+    private static String getColumn(int field, boolean indexDCFields) {
+        switch (field) {
+            case ObjectFields.PID:
+                return "doFields.pid";
+            case ObjectFields.STATE:
+                return "doFields.state";
+            case ObjectFields.CDATE:
+                return "doFields.cDate";
+            case ObjectFields.MDATE:
+                return "doFields.mDate";
+            case ObjectFields.DCMDATE:
+                return "doFields.dcmDate";
+            case ObjectFields.LABEL:
+                return "doDisplayFields.label";
+            case ObjectFields.OWNERID:
+                return "doDisplayFields.ownerId";
+            default:
+                if (!indexDCFields) {
+                    return null;
+                }
+                // DB_COLUMN_NAMES lists dcTitle..dcRights in field order
+                return "doDisplayFields."
+                        + FieldSearchSQLImpl.DB_COLUMN_NAMES[field - 1];
+        }
     }
 
-    //2004.05.02 wdn5e -- sort on selected fields
-    private String logAndGetQueryText(FieldSearchQuery query,
-                                      String[] resultFields) //2004.05.02 wdn5e
-            throws SQLException, QueryParseException {
-        StringBuffer queryText = new StringBuffer("SELECT");
+    /**
+     * Get the where clause of the query, setting m_parameters to its
+     * parameters.
+     *
+     * @return the where clause, starting with a space, or "" if there is
+     *         none
+     */
+    private String getWhereClause(FieldSearchQuery query)
+            throws QueryParseException {
+        m_parameters = new ArrayList<Object>();
         if (query.getType() == FieldSearchQuery.TERMS_TYPE) {
-            queryText.append(" doFields.pid FROM doFields"
-                    + getWhereClause(query.getTerms()));
+            return getWhereClause(query.getTerms());
         } else {
-            StringBuffer resultFieldsString = new StringBuffer();
-            if (resultFields.length > 0) {
-                String delimiter = " ";
-                for (String element : resultFields) {
-                    String dbColumn = "doFields." + dcFixup(element);
-                    resultFieldsString.append(delimiter + dbColumn);
-                    delimiter = ", ";
-                }
-            }
-            queryText.append(resultFieldsString);
-            queryText.append(" FROM doFields");
-            queryText.append(getWhereClause(query.getConditions()));
-            // disabled sorting: see bug 78
-            //            queryText.append(" ORDER BY");
-            //            queryText.append(resultFieldsString);
+            return getWhereClause(query.getConditions());
+        }
+    }
 
+    /**
+     * Get the text of the query for a page, setting m_parameters to its
+     * parameters.
+     *
+     * @param where
+     *        the where clause of the query
+     * @param whereParameters
+     *        the parameters of the where clause
+     * @param nullPhase
+     *        whether the results without a sort field value are read
+     * @param resume
+     *        whether the results follow the last result of the previous
+     *        page
+     */
+    private String logAndGetQueryText(String where,
+                                      List<Object> whereParameters,
+                                      boolean nullPhase,
+                                      boolean resume)
+            throws QueryParseException {
+        m_parameters = new ArrayList<Object>(whereParameters);
+        String sortField = m_query.getSortField();
+        String sortColumn = "doFields." + sortField;
+        // in pid order, the pid is the only key of a result
+        boolean pidOrder = nullPhase || sortField.equals("pid");
+        String direction = m_query.isDescending() ? " DESC" : "";
+        String after = m_query.isDescending() ? " < ?" : " > ?";
+        // the pid is always the first column; when projecting, the
+        // doDisplayFields pid and the result fields follow, then the sort
+        // field unless the results are in pid order.
+        StringBuffer queryText = new StringBuffer("SELECT doFields.pid");
+        if (m_projectedFields != null) {
+            queryText.append(", doDisplayFields.pid");
+            for (int field : m_projectedFields) {
+                queryText.append(", ");
+                queryText.append(getColumn(field, true));
+            }
+        }
+        if (!pidOrder) {
+            queryText.append(", " + sortColumn);
+        }
+        queryText.append(" FROM doFields");
+        if (m_projectedFields != null) {
+            queryText.append(" LEFT JOIN doDisplayFields"
+                    + " ON doFields.pid=doDisplayFields.pid");
+        }
+        List<String> conditions = new ArrayList<String>();
+        if (isNullable(sortField)) {
+            conditions.add(sortColumn
+                    + (nullPhase ? " IS NULL" : " IS NOT NULL"));
+        }
+        if (resume && pidOrder) {
+            conditions.add("doFields.pid" + after);
+            m_parameters.add(m_lastPID);
+        } else if (resume) {
+            conditions.add("(" + sortColumn + after + " OR (" + sortColumn
+                    + " = ? AND doFields.pid" + after + "))");
+            Object sortValue = getLastSortValue(sortField);
+            m_parameters.add(sortValue);
+            m_parameters.add(sortValue);
+            m_parameters.add(m_lastPID);
+        }
+        // the where clause, if any, starts with a space
+        if (where.length() > 0 && conditions.size() > 0) {
+            queryText.append(" WHERE (" + where.substring(1) + ")");
+        } else if (where.length() > 0) {
+            queryText.append(" WHERE" + where);
+        }
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i > 0 || where.length() > 0) {
+                queryText.append(" AND ");
+            } else {
+                queryText.append(" WHERE ");
+            }
+            queryText.append(conditions.get(i));
+        }
+        if (pidOrder) {
+            queryText.append(" ORDER BY doFields.pid" + direction);
+        } else {
+            // served by the index on the sort field and pid
+            queryText.append(" ORDER BY " + sortColumn + direction
+                    + ", doFields.pid" + direction);
         }
         String qt = queryText.toString();
         logger.debug(qt);
         return qt;
     }
 
+    /**
+     * Tell whether the doFields column of a sort field may be null.
+     */
+    private static boolean isNullable(String sortField) {
+        return sortField.equals("label") || sortField.equals("ownerId");
+    }
+
+    /**
+     * Get the sort field value of the last result of the previous page as a
+     * parameter of the same type as its column.
+     */
+    private Object getLastSortValue(String sortField)
+            throws QueryParseException {
+        if (!sortField.endsWith("Date")) {
+            return m_lastSortValue;
+        }
+        try {
+            return Long.valueOf(m_lastSortValue);
+        } catch (NumberFormatException e) {
+            throw new QueryParseException("The session token holds an "
+                    + "invalid " + sortField + " value: " + m_lastSortValue);
+        }
+    }
+
     private String getWhereClause(String terms) throws QueryParseException {
         StringBuffer whereClause = new StringBuffer();
         if (!terms.equals("*") && !terms.equals("")) {
-            whereClause.append(" WHERE");
             // formulate the where clause if the terms aren't * or ""
             int usedCount = 0;
             boolean needsEscape = false;
@@ -204,7 +420,7 @@ public class FieldSearchResultSQLImpl
                     if (usedCount > 0) {
                         whereClause.append(" OR");
                     }
-                    String qPart = toSql(column, terms);
+                    String qPart = toSql("doFields." + column, terms);
                     if (qPart.charAt(0) == ' ') {
                         needsEscape = true;
                     } else {
@@ -217,244 +433,442 @@ public class FieldSearchResultSQLImpl
             if (needsEscape) {
                 //    whereClause.append(" {escape '/'}");
             }
+            // the pid is matched as given, the other columns in lowercase
+            String tokenClause = getTokenClause(null, terms.toLowerCase(), terms);
+            if (tokenClause != null) {
+                whereClause.insert(0, tokenClause + " AND (");
+                whereClause.append(")");
+            }
         }
         return whereClause.toString();
     }
 
-    private String getWhereClause(List conditions) throws QueryParseException {
+    private String getWhereClause(List<Condition> conditions)
+            throws QueryParseException {
         StringBuffer whereClause = new StringBuffer();
-        boolean willJoin = false;
-        if (conditions.size() > 0) {
-            boolean needsEscape = false;
-            whereClause.append(" WHERE");
-            for (int i = 0; i < conditions.size(); i++) {
-                Condition cond = (Condition) conditions.get(i);
-                if (i > 0) {
-                    whereClause.append(" AND");
-                }
-                String op = cond.getOperator().getSymbol();
-                String prop = cond.getProperty();
-                if (prop.toLowerCase().endsWith("date")) {
-                    // deal with dates ... cDate mDate dcmDate date
-                    if (op.equals("~")) {
-                        if (prop.equals("date")) {
-                            // query for dcDate as string
-                            String sqlPart =
-                                    toSql("doFields.dcDate", cond.getValue());
-                            if (sqlPart.startsWith(" ")) {
-                                needsEscape = true;
-                            } else {
-                                whereClause.append(' ');
-                            }
-                            whereClause.append(sqlPart);
-                        } else {
-                            throw new QueryParseException("The ~ operator "
-                                    + "cannot be used with cDate, mDate, "
-                                    + "or dcmDate because they are not "
-                                    + "string-valued fields.");
-                        }
-                    } else { // =, <, <=, >, >=
-                        // property must be parsable as a date... if ok,
-                        // do (cDate, mDate, dcmDate)
-                        // or (date) <- dcDate from dcDates table
-                        Date dt;
-                        try {
-                            dt = DateUtility.parseDateStrict(cond.getValue());
-                        } catch (ParseException e) {
-                            throw new QueryParseException("When using "
-                                    + "equality or inequality operators "
-                                    + "with a date-based value, the date "
-                                    + "must be in yyyy-MM-DD[THH:mm:ss[.SSS][Z]] "
-                                    + "form.");
-                        }
-                        if (prop.equals("date")) {
-                            // do a left join on the dcDates table...dcDate
-                            // query will be of form:
-                            // select pid
-                            // from doFields
-                            // left join dcDates on doFields.pid=dcDates.pid
-                            // where...
-                            if (!willJoin) {
-                                willJoin = true;
-                                whereClause.insert(0, " LEFT JOIN dcDates "
-                                        + "ON doFields.pid=dcDates.pid");
-                            }
-                            whereClause.append(" dcDates.dcDate" + op
-                                    + dt.getTime());
+        // conditions on dcDates must all hold for the same date, so they
+        // are combined in a single subquery
+        StringBuffer dateClause = new StringBuffer();
+        int usedCount = 0;
+        boolean needsEscape = false;
+        for (Condition cond : conditions) {
+            StringBuffer part = new StringBuffer();
+            String op = cond.getOperator().getSymbol();
+            String prop = cond.getProperty();
+            if (prop.toLowerCase().endsWith("date")) {
+                // deal with dates ... cDate mDate dcmDate date
+                if (op.equals("~")) {
+                    if (prop.equals("date")) {
+                        // query for dcDate as string
+                        String sqlPart =
+                                toSql("doFields.dcDate", cond.getValue());
+                        appendTokenClause(part, "dcDate", cond.getValue());
+                        if (sqlPart.startsWith(" ")) {
+                            needsEscape = true;
                         } else {
-                            whereClause.append(" doFields." + prop + op
-                                    + dt.getTime());
+                            part.append(' ');
                         }
+                        part.append(sqlPart);
+                    } else {
+                        throw new QueryParseException("The ~ operator "
+                                + "cannot be used with cDate, mDate, "
+                                + "or dcmDate because they are not "
+                                + "string-valued fields.");
                     }
-                } else {
-                    if (op.equals("=")) {
-                        if (isDCProp(prop)) {
-                            throw new QueryParseException("The = operator "
-                                    + "can only be used with dates and "
-                                    + "non-repeating fields.");
-                        } else {
-                            // do a real equals check... do a toSql but
-                            // reject it if it uses "LIKE"
-                            String sqlPart =
-                                    toSql("doFields." + prop, cond.getValue());
-                            if (sqlPart.indexOf("LIKE ") != -1) {
-                                throw new QueryParseException("The = "
-                                        + "operator cannot be used with "
-                                        + "wildcards.");
-                            }
-                            if (sqlPart.startsWith(" ")) {
-                                needsEscape = true;
-                            } else {
-                                whereClause.append(' ');
-                            }
-                            whereClause.append(sqlPart);
-                        }
-                    } else if (op.equals("~")) {
-                        if (isDCProp(prop)) {
-                            // prepend dc and caps the first char first...
-                            prop =
-                                    "dc" + prop.substring(0, 1).toUpperCase()
-                                            + prop.substring(1);
-                        }
-                        // the field name is ok, so toSql it
+                } else { // =, <, <=, >, >=
+                    // property must be parsable as a date... if ok,
+                    // do (cDate, mDate, dcmDate)
+                    // or (date) <- dcDate from dcDates table
+                    Date dt;
+                    try {
+                        dt = DateUtility.parseDateStrict(cond.getValue());
+                    } catch (ParseException e) {
+                        throw new QueryParseException("When using "
+                                + "equality or inequality operators "
+                                + "with a date-based value, the date "
+                                + "must be in yyyy-MM-DD[THH:mm:ss[.SSS][Z]] "
+                                + "form.");
+                    }
+                    if (prop.equals("date")) {
+                        // checked in a subquery on dcDates, added below
+                        dateClause.append(" AND dcDates.dcDate" + op
+                                + dt.getTime());
+                    } else {
+                        part.append(" doFields." + prop + op + dt.getTime());
+                    }
+                }
+            } else {
+                if (op.equals("=")) {
+                    if (isDCProp(prop)) {
+                        throw new QueryParseException("The = operator "
+                                + "can only be used with dates and "
+                                + "non-repeating fields.");
+                    } else {
+                        // do a real equals check... do a toSql but
+                        // reject it if it uses "LIKE"
                         String sqlPart =
                                 toSql("doFields." + prop, cond.getValue());
+                        if (sqlPart.indexOf("LIKE ") != -1) {
+                            throw new QueryParseException("The = "
+                                    + "operator cannot be used with "
+                                    + "wildcards.");
+                        }
+                        appendTokenClause(part, prop, cond.getValue());
                         if (sqlPart.startsWith(" ")) {
                             needsEscape = true;
                         } else {
-                            whereClause.append(' ');
+                            part.append(' ');
                         }
-                        whereClause.append(sqlPart);
+                        part.append(sqlPart);
+                    }
+                } else if (op.equals("~")) {
+                    if (isDCProp(prop)) {
+                        // prepend dc and caps the first char first...
+                        prop =
+                                "dc" + prop.substring(0, 1).toUpperCase()
+                                        + prop.substring(1);
+                    }
+                    // the field name is ok, so toSql it
+                    String sqlPart =
+                            toSql("doFields." + prop, cond.getValue());
+                    appendTokenClause(part, prop, cond.getValue());
+                    if (sqlPart.startsWith(" ")) {
+                        needsEscape = true;
                     } else {
-                        throw new QueryParseException("Can't use >, >=, <, "
-                                + "or <= operator on a string-based field.");
+                        part.append(' ');
                     }
+                    part.append(sqlPart);
+                } else {
+                    throw new QueryParseException("Can't use >, >=, <, "
+                            + "or <= operator on a string-based field.");
                 }
             }
-            if (needsEscape) {
-                //    whereClause.append(" {escape '/'}");
+            if (part.length() > 0) {
+                if (usedCount > 0) {
+                    whereClause.append(" AND");
+                }
+                whereClause.append(part);
+                usedCount++;
+            }
+        }
+        if (dateClause.length() > 0) {
+            if (usedCount > 0) {
+                whereClause.append(" AND");
             }
+            whereClause.append(" EXISTS (SELECT dcDates.pid FROM dcDates"
+                    + " WHERE dcDates.pid=doFields.pid" + dateClause + ")");
+        }
+        if (needsEscape) {
+            //    whereClause.append(" {escape '/'}");
         }
         return whereClause.toString();
     }
 
-    protected boolean isExpired() {
-        long passedSeconds =
-                (System.currentTimeMillis() - m_startMillis) / 1000;
-        m_expired = passedSeconds > m_maxSeconds;
-        logger.debug("has fieldSearchResultSQL expired? "+m_expired +
-                  ", passed: "+passedSeconds);
-        if (m_expired) {
-            // clean up
-            try {
-                if (m_resultSet != null) {
-                    m_resultSet.close();
-                }
-                if (m_statement != null) {
-                    m_statement.close();
-                }
-                if (m_conn != null) {
-                    m_cPool.free(m_conn);
-                }
-            } catch (SQLException sqle) {
-            } finally {
-                m_resultSet = null;
-                m_statement = null;
-            }
+    /**
+     * Append a token condition for a string condition on a doFields column,
+     * followed by " AND", if there is one.
+     *
+     * @param part
+     *        the condition being built
+     * @param column
+     *        the doFields column
+     * @param value
+     *        the value of the condition, with wildcards
+     */
+    private void appendTokenClause(StringBuffer part,
+                                   String column,
+                                   String value) {
+        // like toSql, only the pid is case sensitive
+        String pattern = column.equals("pid") ? value : value.toLowerCase();
+        String tokenClause = getTokenClause(column, pattern, pattern);
+        if (tokenClause != null) {
+            part.append(tokenClause);
+            part.append(" AND");
+        }
+    }
+
+    /**
+     * Get a condition that limits doFields to the objects that have a token
+     * that any value matching a pattern must contain, using doTokens.
+     * <p>
+     * This is only a filter on the candidate rows: the pattern must still be
+     * matched against doFields, and is only there to let the database find
+     * the candidates through the token index.
+     * </p>
+     *
+     * @param column
+     *        the doFields column the pattern is matched against, or null for
+     *        any column
+     * @param pattern
+     *        the pattern, as matched against columns other than the pid
+     * @param pidPattern
+     *        the pattern, as matched against the pid
+     * @return the condition, starting with a space, or null if there is none
+     */
+    private String getTokenClause(String column,
+                                  String pattern,
+                                  String pidPattern) {
+        if (!m_useTokenIndex) {
+            return null;
+        }
+        TokenCondition tokenCondition = TokenIndex.getCondition(pattern);
+        TokenCondition pidCondition = TokenIndex.getCondition(pidPattern);
+        if (tokenCondition == null || pidCondition == null) {
+            // a value might match without containing a known token
+            return null;
+        }
+        StringBuffer clause =
+                new StringBuffer(" doFields.pid IN (SELECT doTokens.pid"
+                        + " FROM doTokens WHERE ");
+        if (column != null) {
+            clause.append("doTokens.field = ? AND ");
+            m_parameters.add(column);
         }
-        return m_expired;
+        clause.append(tokenCondition.toSql("doTokens.token"));
+        m_parameters.add(tokenCondition.getParameter());
+        if (!pattern.equals(pidPattern)) {
+            clause.append(" OR " + pidCondition.toSql("doTokens.token"));
+            m_parameters.add(pidCondition.getParameter());
+        }
+        clause.append(")");
+        return clause.toString();
     }
 
     /**
-     * Update object with the next chunk of results. if getToken() is null after
-     * this call, the resultSet was exhausted.
+     * Read the next page of results. if getToken() is null after this call,
+     * there are no more results.
+     * <p />
+     * A connection is only held while the page is queried; objects whose
+     * fields can't be read from the database are read afterwards.
      */
     protected void step() throws UnrecognizedFieldException,
             ObjectIntegrityException, RepositoryConfigurationException,
             StreamIOException, ServerException {
-        m_objectFields = new ArrayList();
-        int resultCount = 0;
-        // Run through resultSet, adding each result to m_objectFields
-        // for up to maxResults objects, or until the result set is
-        // empty, whichever comes first.
-        // Note: If this is the first chunk of results for the entire search,
-        // m_nextPID will be null, and will require the cursor to be advanced
-        // to the first result.  For all remaining chunks, the cursor will
-        // already be in the correct position (and m_nextPID will have been set)
-        // so a call to m_resultSet.next() is not initially necessary.
+        m_objectFields = new ArrayList<ObjectFields>();
+        m_token = null;
+        m_cursor = -1;
+        m_expirationDate = null;
+        List<String> pids = new ArrayList<String>();
+        List<String> sortValues = new ArrayList<String>();
+        boolean more = false;
+        String where = getWhereClause(m_query);
+        List<Object> whereParameters = m_parameters;
+        boolean pidOrder = m_query.getSortField().equals("pid");
+        boolean nullable = isNullable(m_query.getSortField());
+        // whether the previous page ended among the results without a value
+        boolean inNullPhase =
+                nullable && m_lastPID != null && m_lastSortValue == null;
+        Connection conn = null;
         try {
-            while (resultCount < m_maxResults
-                    && (m_nextPID != null || m_resultSet.next())) {
-                resultCount++;
-                // add the current object's info to m_objectFields
-                String pid;
-                if (m_nextPID == null) {
-                    pid = m_resultSet.getString("pid");
-                } else {
-                    pid = m_nextPID;
-                    m_nextPID = null;
-                }
-                m_objectFields.add(getObjectFields(pid));
-            }
-            // done with this block. now, are there more results?
-            if (resultCount == m_maxResults && m_resultSet.next()) {
-                // yes, and we've now advanced the cursor so we must remember
-                // the pid so the next chunk can use it
-                m_nextPID = m_resultSet.getString("pid");
-                // generate a token, make sure the cursor is set,
-                // and make sure the expirationDate is set
-                long now = System.currentTimeMillis();
-                m_token = MD5Utility.getBase16Hash(hashCode() + "" + now);
-                m_cursor = m_nextCursor;
-                // keep m_nextCursor updated for next block
-                m_nextCursor += resultCount;
-                m_startMillis = now;
-                Date dt = new Date();
-                dt.setTime(m_startMillis + 1000 * m_maxSeconds);
-                m_expirationDate = dt;
-            } else {
-                // no, so make sure the token is null and clean up
-                m_token = null;
-                try {
-                    if (m_resultSet != null) {
-                        m_resultSet.close();
-                    }
-                    if (m_statement != null) {
-                        m_statement.close();
-                    }
-                    if (m_conn != null) {
-                        m_cPool.free(m_conn);
-                    }
-                } catch (SQLException sqle2) {
-                    throw new StorageDeviceException("Error closing statement "
-                            + "or result set." + sqle2.getMessage());
-                } finally {
-                    m_resultSet = null;
-                    m_statement = null;
-                }
+            conn = m_cPool.getReadOnlyConnection();
+            if (m_query.isCountRequested() && m_completeListSize < 0) {
+                m_completeListSize = count(conn, where, whereParameters);
+            }
+            if (!inNullPhase) {
+                readPage(conn,
+                         logAndGetQueryText(where,
+                                            whereParameters,
+                                            false,
+                                            m_lastPID != null),
+                         !pidOrder,
+                         pids,
+                         sortValues);
+                more = pids.size() > m_maxResults;
+            }
+            if (nullable && !more) {
+                readPage(conn,
+                         logAndGetQueryText(where,
+                                            whereParameters,
+                                            true,
+                                            inNullPhase),
+                         false,
+                         pids,
+                         sortValues);
+                more = pids.size() > m_maxResults;
             }
         } catch (SQLException sqle) {
+            throw new StorageDeviceException("Error with sql database. "
+                    + sqle.getMessage());
+        } finally {
+            if (conn != null) {
+                m_cPool.free(conn);
+            }
+        }
+        if (more) {
+            // the extra result only told that there are more
+            pids.remove(m_maxResults);
+            sortValues.remove(m_maxResults);
+            m_objectFields.remove(m_maxResults);
+        }
+        for (int i = 0; i < pids.size(); i++) {
+            if (m_objectFields.get(i) == null) {
+                m_objectFields.set(i, getObjectFields(pids.get(i)));
+            }
+        }
+        if (!more) {
+            m_completeListSize = m_previousResults + pids.size();
+        } else {
+            m_cursor = m_previousResults;
+            m_expirationDate =
+                    new Date(System.currentTimeMillis() + 1000L * m_maxSeconds);
+            m_token =
+                    new FieldSearchToken(m_query,
+                                         m_resultFields,
+                                         m_maxResults,
+                                         pids.get(pids.size() - 1),
+                                         sortValues.get(pids.size() - 1),
+                                         m_previousResults + pids.size(),
+                                         m_completeListSize,
+                                         m_expirationDate)
+                            .encode(m_tokenKey);
+        }
+    }
+
+    /**
+     * Count the results of the query.
+     */
+    private long count(Connection conn,
+                       String where,
+                       List<Object> whereParameters) throws SQLException {
+        String queryText = "SELECT COUNT(*) FROM doFields";
+        if (where.length() > 0) {
+            queryText += " WHERE" + where;
+        }
+        logger.debug(queryText);
+        PreparedStatement statement = conn.prepareStatement(queryText);
+        ResultSet resultSet = null;
+        try {
+            setParameters(statement, whereParameters);
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            statement.close();
+        }
+    }
+
+    /**
+     * Add the results of a query to those of the page, until there is one
+     * more than fits on the page.
+     *
+     * @param hasSortColumn
+     *        whether the query selects the sort field, after the other
+     *        columns
+     * @param pids
+     *        the pids of the results
+     * @param sortValues
+     *        the sort field values of the results, or nulls if there are none
+     */
+    private void readPage(Connection conn,
+                          String queryText,
+                          boolean hasSortColumn,
+                          List<String> pids,
+                          List<String> sortValues) throws SQLException {
+        int sortColumn =
+                m_projectedFields == null ? 2 : m_projectedFields.length + 3;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = conn.prepareStatement(queryText);
+            setParameters(statement, m_parameters);
+            // one more than a page tells whether there are more results
+            statement.setMaxRows(m_maxResults + 1 - pids.size());
+            resultSet = statement.executeQuery();
+            while (pids.size() <= m_maxResults && resultSet.next()) {
+                pids.add(resultSet.getString(1));
+                m_objectFields.add(getProjectedObjectFields(resultSet));
+                sortValues.add(hasSortColumn ? resultSet
+                        .getString(sortColumn) : null);
+            }
+        } finally {
             try {
-                if (m_resultSet != null) {
-                    m_resultSet.close();
+                if (resultSet != null) {
+                    resultSet.close();
                 }
-                if (m_statement != null) {
-                    m_statement.close();
+                if (statement != null) {
+                    statement.close();
                 }
-                if (m_conn != null) {
-                    m_cPool.free(m_conn);
-                }
-                throw new StorageDeviceException("Error with sql database. "
-                        + sqle.getMessage());
-            } catch (SQLException sqle2) {
-                throw new StorageDeviceException("Error closing statement "
-                        + "or result set." + sqle.getMessage()
-                        + sqle2.getMessage());
-            } finally {
-                m_resultSet = null;
-                m_statement = null;
+            } catch (SQLException sqle) {
+                logger.warn("Error closing statement or result set", sqle);
+            }
+        }
+    }
+
+    private static void setParameters(PreparedStatement statement,
+                                      List<Object> parameters)
+            throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Object parameter = parameters.get(i);
+            if (parameter instanceof Long) {
+                statement.setLong(i + 1, (Long) parameter);
+            } else {
+                statement.setString(i + 1, (String) parameter);
+            }
+        }
+    }
+
+    /**
+     * Build an ObjectFields object with resultFields fields populated from
+     * the current row of the result set.
+     *
+     * @return ObjectFields populated with the requested fields, or null if
+     *         the object must be read to get them
+     */
+    private ObjectFields getProjectedObjectFields(ResultSet resultSet)
+            throws SQLException {
+        if (m_projectedFields == null || resultSet.getString(2) == null) {
+            // not all wanted, or not yet, in doDisplayFields
+            return null;
+        }
+        ObjectFields f = new ObjectFields();
+        for (int i = 0; i < m_projectedFields.length; i++) {
+            int column = i + 3;
+            switch (m_projectedFields[i]) {
+                case ObjectFields.PID:
+                    f.setPid(resultSet.getString(column));
+                    break;
+                case ObjectFields.LABEL:
+                    f.setLabel(resultSet.getString(column));
+                    break;
+                case ObjectFields.STATE:
+                    // doFields holds the state in lowercase
+                    String state = resultSet.getString(column);
+                    f.setState(state == null ? null : state.toUpperCase());
+                    break;
+                case ObjectFields.OWNERID:
+                    f.setOwnerId(resultSet.getString(column));
+                    break;
+                case ObjectFields.CDATE:
+                    f.setCDate(new Date(resultSet.getLong(column)));
+                    break;
+                case ObjectFields.MDATE:
+                    f.setMDate(new Date(resultSet.getLong(column)));
+                    break;
+                case ObjectFields.DCMDATE:
+                    // zero if the object has no DC datastream
+                    long dcmDate = resultSet.getLong(column);
+                    if (dcmDate != 0) {
+                        f.setDCMDate(new Date(dcmDate));
+                    }
+                    break;
+                default:
+                    List<DCField> values = f.dcFields(m_projectedFields[i]);
+                    values.addAll(FieldSearchSQLImpl
+                            .parseDisplayValue(getLongString(resultSet, column)));
             }
         }
+        return f;
+    }
+
+    private static String getLongString(ResultSet resultSet, int column)
+            throws SQLException {
+        String value = resultSet.getString(column);
+        if (value == null && !resultSet.wasNull()) {
+            value = SQLUtility.getLongString(resultSet, column);
+        }
+        return value;
     }
 
     /**
@@ -722,15 +1136,4 @@ public class FieldSearchResultSQLImpl
         return false;
     }
 
-    //2004.05.18 wdn5e --  logic now needed > 1 places
-    private static final String dcFixup(String st) {
-        String dcFixed;
-        if (isDCProp(st)) {
-            dcFixed = "dc" + st.substring(0, 1).toUpperCase() + st.substring(1);
-        } else {
-            dcFixed = st;
-        }
-        return dcFixed;
-    }
-
 }
@@ -9,11 +9,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.fcrepo.server.errors.ObjectIntegrityException;
 import org.fcrepo.server.errors.RepositoryConfigurationException;
@@ -28,7 +28,6 @@ import org.fcrepo.server.storage.RepositoryReader;
 import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.utilities.DCField;
 import org.fcrepo.server.utilities.DCFields;
-import org.fcrepo.server.utilities.SQLUtility;
 import org.fcrepo.utilities.DateUtility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +46,8 @@ public class FieldSearchSQLImpl
     /** Whether DC fields are being indexed or not. */
     private boolean m_indexDCFields = true;
 
+    private boolean m_useTokenIndex = false;
+
     private final ConnectionPool m_cPool;
 
     private final RepositoryReader m_repoReader;
@@ -55,6 +56,12 @@ public class FieldSearchSQLImpl
 
     private final int m_maxSecondsPerSession;
 
+    /** The key session tokens are signed with. */
+    private byte[] m_tokenKey;
+
+    /** The cache of first pages of results, or null if there is none. */
+    private FieldSearchResultCache m_resultCache;
+
     public static String[] DB_COLUMN_NAMES =
             new String[] {"pid", "label", "state", "ownerId", "cDate", "mDate",
                     "dcmDate", "dcTitle", "dcCreator", "dcSubject",
@@ -74,9 +81,29 @@ public class FieldSearchSQLImpl
     private static boolean[] s_dbColumnNumericNoDC =
             new boolean[] {false, false, false, false, true, true, true};
 
-    // a hash of token-keyed FieldSearchResultSQLImpls
-    private final Map<String, FieldSearchResultSQLImpl> m_currentResults =
-            new ConcurrentHashMap<String, FieldSearchResultSQLImpl>();
+    /**
+     * Columns of the doDisplayFields table, which holds the values that are
+     * only stored in a normalized form in doFields.
+     */
+    public static String[] DISPLAY_COLUMN_NAMES =
+            new String[] {"pid", "label", "ownerId", "dcTitle", "dcCreator",
+                    "dcSubject", "dcDescription", "dcPublisher",
+                    "dcContributor", "dcDate", "dcType", "dcFormat",
+                    "dcIdentifier", "dcSource", "dcLanguage", "dcRelation",
+                    "dcCoverage", "dcRights"};
+
+    public static String[] DISPLAY_COLUMN_NAMES_NODC =
+            new String[] {"pid", "label", "ownerId"};
+
+    private static boolean[] s_displayColumnNumeric =
+            new boolean[DISPLAY_COLUMN_NAMES.length];
+
+    /** Separates the values of a repeating display column. */
+    private static final char DISPLAY_VALUE_SEPARATOR = '\n';
+
+    /** The tables that hold rows for each object. */
+    private static final String[] TABLE_NAMES =
+            new String[] {"doFields", "dcDates", "doDisplayFields", "doTokens"};
 
     /**
      * Construct a FieldSearchSQLImpl that indexes DC fields.
@@ -124,253 +151,492 @@ public class FieldSearchSQLImpl
                               int maxResults,
                               int maxSecondsPerSession,
                               boolean indexDCFields) {
+        this(cPool,
+             repoReader,
+             maxResults,
+             maxSecondsPerSession,
+             indexDCFields,
+             false);
+    }
+
+    /**
+     * Construct a FieldSearchSQLImpl that indexes DC fields only if
+     * specified, and uses the token index in queries only if specified.
+     *
+     * @param cPool
+     *        the ConnectionPool with connections to the db containing the
+     *        fields
+     * @param repoReader
+     *        the RepositoryReader to use when getting the original values of
+     *        the fields
+     * @param maxResults
+     *        the maximum number of results to return at a time, regardless of
+     *        what the user might request
+     * @param maxSecondsPerSession
+     *        maximum number of seconds per session.
+     * @param indexDCFields
+     *        whether DC field values should be examined and updated in the
+     *        database. If false, queries will behave as if no values had been
+     *        specified for the DC fields.
+     * @param useTokenIndex
+     *        whether queries should use doTokens to find the objects whose
+     *        fields contain the searched words. The token index is only
+     *        maintained while it is used, so it is only complete once every
+     *        object has been updated (or the database rebuilt) with it on.
+     */
+    public FieldSearchSQLImpl(ConnectionPool cPool,
+                              RepositoryReader repoReader,
+                              int maxResults,
+                              int maxSecondsPerSession,
+                              boolean indexDCFields,
+                              boolean useTokenIndex) {
         logger.debug("Entering constructor");
         m_cPool = cPool;
         m_repoReader = repoReader;
         m_maxResults = maxResults;
         m_maxSecondsPerSession = maxSecondsPerSession;
         m_indexDCFields = indexDCFields;
+        m_useTokenIndex = useTokenIndex;
+        m_tokenKey = FieldSearchToken.newKey();
         logger.debug("Exiting constructor");
     }
 
+    /**
+     * Set the key to sign session tokens with. Unless it is set, tokens are
+     * signed with a random key, so they are not valid after a restart or on
+     * another server.
+     *
+     * @param tokenKey
+     *        the key
+     * @see FieldSearchToken#getKey(String)
+     */
+    public void setTokenKey(byte[] tokenKey) {
+        m_tokenKey = tokenKey;
+    }
+
+    /**
+     * Set the cache of first pages of results, which is invalidated whenever
+     * objects are updated or deleted.
+     *
+     * @param resultCache
+     *        the cache, or null to read every page from the database
+     */
+    public void setResultCache(FieldSearchResultCache resultCache) {
+        m_resultCache = resultCache;
+    }
+
+    public FieldSearchResultCache getResultCache() {
+        return m_resultCache;
+    }
+
     public void update(DOReader reader) throws ServerException {
-        logger.debug("Entering update(DOReader)");
-        String pid = reader.GetObjectPID();
+        update(Collections.singletonList(reader));
+    }
+
+    /**
+     * Update the search indexes with information from many DOReaders at once,
+     * as when objects are ingested or the indexes are rebuilt.
+     * <p>
+     * The rows of all the objects are replaced in a single transaction. Each
+     * statement is prepared once and run as a JDBC batch, so the number of
+     * round trips to the database doesn't depend on the number of objects,
+     * or on how many dates and tokens they have.
+     * </p>
+     *
+     * @param readers
+     *        the DOReaders containing all the field information for the
+     *        objects
+     * @throws ServerException
+     *         if anything went wrong, in which case none of the objects are
+     *         updated
+     */
+    public void update(List<DOReader> readers) throws ServerException {
+        logger.debug("Entering update(List<DOReader>)");
+        if (readers.isEmpty()) {
+            return;
+        }
+        // an object given more than once is indexed as its last reader has
+        // it, since the rows of all of them would leave it with more than
+        // the one doFields row each object has
+        Map<String, DOReader> latest =
+                new LinkedHashMap<String, DOReader>(readers.size() * 2);
+        for (DOReader reader : readers) {
+            String pid = reader.GetObjectPID();
+            latest.remove(pid);
+            latest.put(pid, reader);
+        }
+        // read the objects before holding a connection
+        List<FieldRows> rows = new ArrayList<FieldRows>(latest.size());
+        List<String> pids = new ArrayList<String>(latest.keySet());
+        for (DOReader reader : latest.values()) {
+            rows.add(getFieldRows(reader));
+        }
         Connection conn = null;
-        PreparedStatement st = null;
+        boolean autoCommit = true;
         try {
             conn = m_cPool.getReadWriteConnection();
-            String[] dbRowValues;
-            if (m_indexDCFields) {
-                dbRowValues = new String[DB_COLUMN_NAMES.length];
-            } else {
-                dbRowValues = new String[DB_COLUMN_NAMES_NODC.length];
-            }
-            dbRowValues[0] = reader.GetObjectPID();
-            String v;
-            v = reader.GetObjectLabel();
-            if (v != null) {
-                v = v.toLowerCase();
-            }
-            dbRowValues[1] = v;
-
-            dbRowValues[2] = reader.GetObjectState().toLowerCase();
-            v = reader.getOwnerId();
-            if (v != null) {
-                v = v.toLowerCase();
-            }
-            dbRowValues[3] = v;
-            Date date = reader.getCreateDate();
-            if (date == null) { // should never happen, but if it does, don't die
-                date = new Date();
-            }
-            dbRowValues[4] = "" + date.getTime();
-            date = reader.getLastModDate();
-            if (date == null) { // should never happen, but if it does, don't die
-                date = new Date();
-            }
-            dbRowValues[5] = "" + date.getTime();
-
-            // do dc stuff if needed
-            Datastream dcmd = null;
-            try {
-                dcmd = reader.GetDatastream("DC", null);
-            } catch (ClassCastException cce) {
-                throw new ObjectIntegrityException("Object "
-                        + reader.GetObjectPID()
-                        + " has a DC datastream, but it's not inline XML.");
-            }
-            if (dcmd == null) {
-                dbRowValues[6] = "0";
-            } else {
-                dbRowValues[6] = "" + dcmd.DSCreateDT.getTime();
-            }
-            if (dcmd != null && m_indexDCFields) {
-                InputStream in = dcmd.getContentStream();
-                DCFields dc = new DCFields(in);
-
-                dbRowValues[7] = getDbValue(dc.titles());
-                dbRowValues[8] = getDbValue(dc.creators());
-                dbRowValues[9] = getDbValue(dc.subjects());
-                dbRowValues[10] = getDbValue(dc.descriptions());
-                dbRowValues[11] = getDbValue(dc.publishers());
-                dbRowValues[12] = getDbValue(dc.contributors());
-                dbRowValues[13] = getDbValue(dc.dates());
-
-                // delete any dc.dates that survive from earlier versions
-                st = conn.prepareStatement("DELETE FROM dcDates WHERE pid=?");
-                st.setString(1, pid);
-                st.executeUpdate();
-
-                // get any dc.dates strings that are formed such that they
-                // can be treated as a timestamp
-                List<Date> wellFormedDates = null;
-                for (int i = 0; i < dc.dates().size(); i++) {
-                    if (i == 0) {
-                        wellFormedDates = new ArrayList<Date>();
-                    }
-                    Date p = DateUtility.parseDateLoose(dc.dates().get(i).getValue());
-                    if (p != null) {
-                        wellFormedDates.add(p);
-                    }
-                }
-                if (wellFormedDates != null && wellFormedDates.size() > 0) {
-                    // found at least one valid date, so add them.
-                    for (int i = 0; i < wellFormedDates.size(); i++) {
-                        Date dt = wellFormedDates.get(i);
-                        String query = 
-                        	"INSERT INTO dcDates (pid, dcDate) values (?, ?)";
-                        st = conn.prepareStatement(query);
-                        st.setString(1, pid);
-                        st.setLong(2, dt.getTime());
-                        st.executeUpdate();
-                    }
-                }
-                dbRowValues[14] = getDbValue(dc.types());
-                dbRowValues[15] = getDbValue(dc.formats());
-                dbRowValues[16] = getDbValue(dc.identifiers());
-                dbRowValues[17] = getDbValue(dc.sources());
-                dbRowValues[18] = getDbValue(dc.languages());
-                dbRowValues[19] = getDbValue(dc.relations());
-                dbRowValues[20] = getDbValue(dc.coverages());
-                dbRowValues[21] = getDbValue(dc.rights());
-                logger.debug("Formulating SQL and inserting/updating WITH DC...");
-                SQLUtility.replaceInto(conn,
-                                       "doFields",
-                                       DB_COLUMN_NAMES,
-                                       dbRowValues,
-                                       "pid",
-                                       s_dbColumnNumeric);
-            } else {
-                logger.debug("Formulating SQL and inserting/updating WITHOUT DC...");
-                SQLUtility.replaceInto(conn,
-                                       "doFields",
-                                       DB_COLUMN_NAMES_NODC,
-                                       dbRowValues,
-                                       "pid",
-                                       s_dbColumnNumericNoDC);
-            }
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            // the rows of earlier versions are deleted, rather than
+            // updated, so that each table takes only two batches
+            deleteRows(conn, pids);
+            insertRows(conn, rows);
+            conn.commit();
         } catch (SQLException sqle) {
+            rollback(conn);
             throw new StorageDeviceException("Error attempting FieldSearch "
-                    + "update of " + pid, sqle);
+                    + "update of "
+                    + (pids.size() == 1 ? pids.get(0) : pids.size()
+                            + " objects"), sqle);
         } finally {
-            try {
-                if (st != null) {
-                    st.close();
-                }
-                if (conn != null) {
-                    m_cPool.free(conn);
+            release(conn, autoCommit);
+            invalidateResultCache();
+            logger.debug("Exiting update(List<DOReader>)");
+        }
+    }
+
+    /**
+     * Get the values of the doFields, doDisplayFields and dcDates rows of an
+     * object.
+     */
+    private FieldRows getFieldRows(DOReader reader) throws ServerException {
+        String[] dbRowValues;
+        String[] displayRowValues;
+        if (m_indexDCFields) {
+            dbRowValues = new String[DB_COLUMN_NAMES.length];
+            displayRowValues = new String[DISPLAY_COLUMN_NAMES.length];
+        } else {
+            dbRowValues = new String[DB_COLUMN_NAMES_NODC.length];
+            displayRowValues = new String[DISPLAY_COLUMN_NAMES_NODC.length];
+        }
+        List<Long> dcDates = new ArrayList<Long>();
+        dbRowValues[0] = reader.GetObjectPID();
+        displayRowValues[0] = dbRowValues[0];
+        String v;
+        v = reader.GetObjectLabel();
+        displayRowValues[1] = v;
+        if (v != null) {
+            v = v.toLowerCase();
+        }
+        dbRowValues[1] = v;
+
+        dbRowValues[2] = reader.GetObjectState().toLowerCase();
+        v = reader.getOwnerId();
+        displayRowValues[2] = v;
+        if (v != null) {
+            v = v.toLowerCase();
+        }
+        dbRowValues[3] = v;
+        Date date = reader.getCreateDate();
+        if (date == null) { // should never happen, but if it does, don't die
+            date = new Date();
+        }
+        dbRowValues[4] = "" + date.getTime();
+        date = reader.getLastModDate();
+        if (date == null) { // should never happen, but if it does, don't die
+            date = new Date();
+        }
+        dbRowValues[5] = "" + date.getTime();
+
+        // do dc stuff if needed
+        Datastream dcmd = null;
+        try {
+            dcmd = reader.GetDatastream("DC", null);
+        } catch (ClassCastException cce) {
+            throw new ObjectIntegrityException("Object "
+                    + reader.GetObjectPID()
+                    + " has a DC datastream, but it's not inline XML.");
+        }
+        if (dcmd == null) {
+            dbRowValues[6] = "0";
+        } else {
+            dbRowValues[6] = "" + dcmd.DSCreateDT.getTime();
+        }
+        // without a DC datastream, the dc values are left null
+        if (dcmd != null && m_indexDCFields) {
+            InputStream in = dcmd.getContentStream();
+            DCFields dc = new DCFields(in);
+
+            dbRowValues[7] = getDbValue(dc.titles());
+            dbRowValues[8] = getDbValue(dc.creators());
+            dbRowValues[9] = getDbValue(dc.subjects());
+            dbRowValues[10] = getDbValue(dc.descriptions());
+            dbRowValues[11] = getDbValue(dc.publishers());
+            dbRowValues[12] = getDbValue(dc.contributors());
+            dbRowValues[13] = getDbValue(dc.dates());
+
+            // get any dc.dates strings that are formed such that they
+            // can be treated as a timestamp
+            for (DCField dcDate : dc.dates()) {
+                Date p = DateUtility.parseDateLoose(dcDate.getValue());
+                if (p != null) {
+                    dcDates.add(p.getTime());
                 }
-            } catch (SQLException sqle2) {
-                throw new StorageDeviceException("Error closing statement "
-                        + "while attempting update of object"
-                        + sqle2.getMessage());
-            } finally {
-                st = null;
-                logger.debug("Exiting update(DOReader)");
             }
+            dbRowValues[14] = getDbValue(dc.types());
+            dbRowValues[15] = getDbValue(dc.formats());
+            dbRowValues[16] = getDbValue(dc.identifiers());
+            dbRowValues[17] = getDbValue(dc.sources());
+            dbRowValues[18] = getDbValue(dc.languages());
+            dbRowValues[19] = getDbValue(dc.relations());
+            dbRowValues[20] = getDbValue(dc.coverages());
+            dbRowValues[21] = getDbValue(dc.rights());
+
+            displayRowValues[3] = getDisplayValue(dc.titles());
+            displayRowValues[4] = getDisplayValue(dc.creators());
+            displayRowValues[5] = getDisplayValue(dc.subjects());
+            displayRowValues[6] = getDisplayValue(dc.descriptions());
+            displayRowValues[7] = getDisplayValue(dc.publishers());
+            displayRowValues[8] = getDisplayValue(dc.contributors());
+            displayRowValues[9] = getDisplayValue(dc.dates());
+            displayRowValues[10] = getDisplayValue(dc.types());
+            displayRowValues[11] = getDisplayValue(dc.formats());
+            displayRowValues[12] = getDisplayValue(dc.identifiers());
+            displayRowValues[13] = getDisplayValue(dc.sources());
+            displayRowValues[14] = getDisplayValue(dc.languages());
+            displayRowValues[15] = getDisplayValue(dc.relations());
+            displayRowValues[16] = getDisplayValue(dc.coverages());
+            displayRowValues[17] = getDisplayValue(dc.rights());
         }
+        return new FieldRows(dbRowValues[0],
+                             dbRowValues,
+                             displayRowValues,
+                             dcDates);
     }
 
     public boolean delete(String pid) throws ServerException {
         logger.debug("Entering delete(String)");
         Connection conn = null;
-        PreparedStatement st = null;
+        boolean autoCommit = true;
         try {
             conn = m_cPool.getReadWriteConnection();
-            st = conn.prepareStatement("DELETE FROM doFields WHERE pid=?");
-            st.setString(1, pid);
-            st.executeUpdate();
-            st = conn.prepareStatement("DELETE FROM dcDates WHERE pid=?");
-            st.setString(1, pid);
-            st.executeUpdate();
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            deleteRows(conn, Collections.singletonList(pid));
+            conn.commit();
             return true;
         } catch (SQLException sqle) {
+            rollback(conn);
             throw new StorageDeviceException("Error attempting delete of "
                     + "object with pid '" + pid + "': " + sqle.getMessage());
         } finally {
-            try {
-                if (st != null) {
-                    st.close();
-                }
-                if (conn != null) {
-                    m_cPool.free(conn);
-                }
-            } catch (SQLException sqle2) {
-                throw new StorageDeviceException("Error closing statement "
-                        + "while attempting update of object"
-                        + sqle2.getMessage());
-            } finally {
-                st = null;
-                logger.debug("Exiting delete(String)");
-            }
+            release(conn, autoCommit);
+            invalidateResultCache();
+            logger.debug("Exiting delete(String)");
         }
     }
 
+    /**
+     * Advance the epoch of the result cache, if any, once the tables have
+     * changed (or failed to).
+     */
+    private void invalidateResultCache() {
+        if (m_resultCache != null) {
+            m_resultCache.invalidate();
+        }
+    }
     public FieldSearchResult findObjects(String[] resultFields,
                                          int maxResults,
                                          FieldSearchQuery query)
             throws UnrecognizedFieldException, ObjectIntegrityException,
             RepositoryConfigurationException, StreamIOException,
             ServerException, StorageDeviceException {
-        closeAndForgetOldResults();
         int actualMax = maxResults;
         if (m_maxResults < maxResults) {
             actualMax = m_maxResults;
         }
-        try {
-            return stepAndRemember(new FieldSearchResultSQLImpl(m_cPool,
-                                                                m_repoReader,
-                                                                resultFields,
-                                                                actualMax,
-                                                                m_maxSecondsPerSession,
-                                                                query));
-        } catch (SQLException sqle) {
-            throw new StorageDeviceException("Error querying sql db: "
-                    + sqle.getMessage(), sqle);
+        String key = null;
+        long epoch = 0;
+        if (m_resultCache != null) {
+            key = FieldSearchResultCache.getKey(resultFields, actualMax, query);
+            // read before the query, so a page read across an update is
+            // not cached
+            epoch = m_resultCache.getEpoch();
+            FieldSearchResult cached = m_resultCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long start = System.currentTimeMillis();
+        FieldSearchResultSQLImpl result =
+                new FieldSearchResultSQLImpl(m_cPool,
+                                             m_repoReader,
+                                             resultFields,
+                                             actualMax,
+                                             m_maxSecondsPerSession,
+                                             m_tokenKey,
+                                             m_indexDCFields,
+                                             m_useTokenIndex,
+                                             query);
+        result.step();
+        if (m_resultCache != null) {
+            m_resultCache.put(key,
+                              epoch,
+                              result,
+                              System.currentTimeMillis() - start);
         }
+        return result;
     }
 
     public FieldSearchResult resumeFindObjects(String sessionToken)
             throws UnrecognizedFieldException, ObjectIntegrityException,
             RepositoryConfigurationException, StreamIOException,
             ServerException, UnknownSessionTokenException {
-        closeAndForgetOldResults();
-        FieldSearchResultSQLImpl result =
-                m_currentResults
-                .remove(sessionToken);
-        if (result == null) {
+        // the token holds all there is to know about the session
+        FieldSearchToken token =
+                FieldSearchToken.decode(sessionToken, m_tokenKey)
+                        .limit(m_maxResults, m_maxSecondsPerSession);
+        if (token.isExpired()) {
             throw new UnknownSessionTokenException("Session is expired "
                     + "or never existed.");
         }
-        return stepAndRemember(result);
+        FieldSearchResultSQLImpl result =
+                new FieldSearchResultSQLImpl(m_cPool,
+                                             m_repoReader,
+                                             m_maxSecondsPerSession,
+                                             m_tokenKey,
+                                             m_indexDCFields,
+                                             m_useTokenIndex,
+                                             token);
+        result.step();
+        return result;
     }
 
-    private FieldSearchResult stepAndRemember(FieldSearchResultSQLImpl result)
-            throws UnrecognizedFieldException, ObjectIntegrityException,
-            RepositoryConfigurationException, StreamIOException,
-            ServerException, UnrecognizedFieldException {
-        result.step();
-        if (result.getToken() != null) {
-            m_currentResults.put(result.getToken(), result);
+    /**
+     * Delete the rows of objects from all the FieldSearch tables.
+     *
+     * @param conn
+     *        the connection to use
+     * @param pids
+     *        the pids of the objects
+     */
+    private static void deleteRows(Connection conn, List<String> pids)
+            throws SQLException {
+        for (String table : TABLE_NAMES) {
+            PreparedStatement st =
+                    conn.prepareStatement("DELETE FROM " + table
+                            + " WHERE pid=?");
+            try {
+                for (String pid : pids) {
+                    st.setString(1, pid);
+                    st.addBatch();
+                }
+                st.executeBatch();
+            } finally {
+                st.close();
+            }
         }
-        return result;
     }
 
-    // erase and cleanup expired stuff
-    private void closeAndForgetOldResults() {
-        Iterator<FieldSearchResultSQLImpl> iter =
-                m_currentResults.values().iterator();
-        while (iter.hasNext()) {
-            FieldSearchResultSQLImpl r = iter.next();
-            if (r.isExpired()) {
-                logger.debug("listSession " + r.getToken()
-                        + " expired; will forget it.");
-                iter.remove();
+    /**
+     * Insert the rows of objects into all the FieldSearch tables. The
+     * doTokens rows hold the tokens of the string valued columns of the
+     * doFields row of each object; they are only written while queries use
+     * the token index.
+     *
+     * @param conn
+     *        the connection to use
+     * @param rows
+     *        the rows of the objects, whose earlier rows have been deleted
+     * @see TokenIndex
+     */
+    private void insertRows(Connection conn, List<FieldRows> rows)
+            throws SQLException {
+        String[] columns;
+        boolean[] numeric;
+        String[] displayColumns;
+        if (m_indexDCFields) {
+            columns = DB_COLUMN_NAMES;
+            numeric = s_dbColumnNumeric;
+            displayColumns = DISPLAY_COLUMN_NAMES;
+        } else {
+            columns = DB_COLUMN_NAMES_NODC;
+            numeric = s_dbColumnNumericNoDC;
+            displayColumns = DISPLAY_COLUMN_NAMES_NODC;
+        }
+        RowInserter fields = new RowInserter(conn, "doFields", columns, numeric);
+        RowInserter displayFields =
+                new RowInserter(conn,
+                                "doDisplayFields",
+                                displayColumns,
+                                s_displayColumnNumeric);
+        PreparedStatement dates = null;
+        PreparedStatement tokens = null;
+        try {
+            dates = conn.prepareStatement("INSERT INTO dcDates (pid, dcDate) "
+                    + "values (?, ?)");
+            if (m_useTokenIndex) {
+                tokens = conn.prepareStatement("INSERT INTO doTokens "
+                        + "(pid, field, token) VALUES (?, ?, ?)");
+            }
+            int dateCount = 0;
+            int tokenCount = 0;
+            for (FieldRows objectRows : rows) {
+                fields.add(objectRows.dbValues);
+                displayFields.add(objectRows.displayValues);
+                for (Long dcDate : objectRows.dcDates) {
+                    dates.setString(1, objectRows.pid);
+                    dates.setLong(2, dcDate);
+                    dates.addBatch();
+                    dateCount++;
+                }
+                for (int i = 0; tokens != null && i < columns.length; i++) {
+                    if (numeric[i]) {
+                        continue;
+                    }
+                    for (String token : TokenIndex
+                            .getTokens(objectRows.dbValues[i])) {
+                        tokens.setString(1, objectRows.pid);
+                        tokens.setString(2, columns[i]);
+                        tokens.setString(3, token);
+                        tokens.addBatch();
+                        tokenCount++;
+                    }
+                }
+            }
+            fields.execute();
+            displayFields.execute();
+            if (dateCount > 0) {
+                dates.executeBatch();
+            }
+            if (tokenCount > 0) {
+                tokens.executeBatch();
+            }
+        } finally {
+            fields.close();
+            displayFields.close();
+            if (dates != null) {
+                dates.close();
+            }
+            if (tokens != null) {
+                tokens.close();
+            }
+        }
+    }
+
+    private static void rollback(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.rollback();
+            } catch (SQLException sqle) {
+                logger.warn("Unable to roll back FieldSearch changes", sqle);
             }
         }
     }
 
+    /**
+     * Restore the auto-commit mode of a connection and return it to the pool.
+     */
+    private void release(Connection conn, boolean autoCommit) {
+        if (conn != null) {
+            try {
+                conn.setAutoCommit(autoCommit);
+            } catch (SQLException sqle) {
+                logger.warn("Unable to restore auto-commit mode", sqle);
+            }
+            m_cPool.free(conn);
+        }
+    }
     /**
      * Get the string that should be inserted for a repeating-value column,
      * given a list of values. Turn each value to lowercase and separate them
@@ -394,6 +660,72 @@ public class FieldSearchSQLImpl
         return out.toString();
     }
 
+    /**
+     * Get the string that should be inserted for a repeating-value column of
+     * the doDisplayFields table. Values are kept as given, and separated by
+     * newlines. Backslashes and newlines within a value are escaped with a
+     * backslash. If the list is empty, return null.
+     *
+     * @param dcFields
+     *        a list of dublin core values
+     * @return String the string to insert
+     * @see #parseDisplayValue(String)
+     */
+    static String getDisplayValue(List<DCField> dcFields) {
+        if (dcFields.size() == 0) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder();
+        for (DCField dcField : dcFields) {
+            if (out.length() > 0) {
+                out.append(DISPLAY_VALUE_SEPARATOR);
+            }
+            String value = dcField.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\') {
+                    out.append("\\\\");
+                } else if (c == DISPLAY_VALUE_SEPARATOR) {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Split a repeating-value column of the doDisplayFields table into its
+     * values.
+     *
+     * @param dbValue
+     *        the column value, possibly null
+     * @return the values, in their original order
+     * @see #getDisplayValue(List)
+     */
+    static List<DCField> parseDisplayValue(String dbValue) {
+        List<DCField> values = new ArrayList<DCField>();
+        if (dbValue == null) {
+            return values;
+        }
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < dbValue.length(); i++) {
+            char c = dbValue.charAt(i);
+            if (c == '\\' && i + 1 < dbValue.length()) {
+                char next = dbValue.charAt(++i);
+                value.append(next == 'n' ? DISPLAY_VALUE_SEPARATOR : next);
+            } else if (c == DISPLAY_VALUE_SEPARATOR) {
+                values.add(new DCField(value.toString()));
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(new DCField(value.toString()));
+        return values;
+    }
+
     // same as above, but for case sensitive repeating values
     private static String getDbValueCaseSensitive(List<String> dcItem) {
         if (dcItem.size() == 0) {
@@ -408,4 +740,119 @@ public class FieldSearchSQLImpl
         out.append(" .");
         return out.toString();
     }
+
+    /**
+     * The values of the rows of one object.
+     */
+    private static class FieldRows {
+
+        final String pid;
+
+        final String[] dbValues;
+
+        final String[] displayValues;
+
+        /** The dc:date values that can be treated as timestamps. */
+        final List<Long> dcDates;
+
+        FieldRows(String pid,
+                  String[] dbValues,
+                  String[] displayValues,
+                  List<Long> dcDates) {
+            this.pid = pid;
+            this.dbValues = dbValues;
+            this.displayValues = displayValues;
+            this.dcDates = dcDates;
+        }
+    }
+
+    /**
+     * Inserts rows into a table in batches. As in SQLUtility, null values are
+     * written as NULL in the statement rather than bound, so a statement is
+     * prepared for each combination of null columns that occurs.
+     */
+    private static class RowInserter {
+
+        private final Connection m_conn;
+
+        private final String m_table;
+
+        private final String[] m_columns;
+
+        private final boolean[] m_numeric;
+
+        private final Map<String, PreparedStatement> m_statements =
+                new LinkedHashMap<String, PreparedStatement>();
+
+        RowInserter(Connection conn,
+                    String table,
+                    String[] columns,
+                    boolean[] numeric) {
+            m_conn = conn;
+            m_table = table;
+            m_columns = columns;
+            m_numeric = numeric;
+        }
+
+        /**
+         * Add a row to the batch of the statement for its null columns.
+         */
+        void add(String[] values) throws SQLException {
+            StringBuilder sql = new StringBuilder();
+            sql.append("INSERT INTO " + m_table + " (");
+            for (int i = 0; i < m_columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(m_columns[i]);
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < m_columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(values[i] == null ? "NULL" : "?");
+            }
+            sql.append(")");
+            PreparedStatement st = m_statements.get(sql.toString());
+            if (st == null) {
+                st = m_conn.prepareStatement(sql.toString());
+                m_statements.put(sql.toString(), st);
+            }
+            int varIndex = 0;
+            for (int i = 0; i < m_columns.length; i++) {
+                if (values[i] != null) {
+                    varIndex++;
+                    if (m_numeric[i]) {
+                        try {
+                            st.setLong(varIndex, Long.parseLong(values[i]));
+                        } catch (NumberFormatException e) {
+                            throw new SQLException("Value specified for "
+                                    + m_columns[i] + ", '" + values[i]
+                                    + "' was specified as numeric, but is not");
+                        }
+                    } else {
+                        st.setString(varIndex, values[i]);
+                    }
+                }
+            }
+            st.addBatch();
+        }
+
+        void execute() throws SQLException {
+            for (PreparedStatement st : m_statements.values()) {
+                st.executeBatch();
+            }
+        }
+
+        void close() {
+            for (PreparedStatement st : m_statements.values()) {
+                try {
+                    st.close();
+                } catch (SQLException sqle) {
+                    logger.warn("Unable to close statement", sqle);
+                }
+            }
+        }
+    }
 }
@@ -4,12 +4,14 @@
  */
 package org.fcrepo.server.search;
 
+import java.util.List;
 import java.util.Map;
 
 import org.fcrepo.server.Module;
 import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.ConnectionPoolNotFoundException;
 import org.fcrepo.server.errors.ModuleInitializationException;
+import org.fcrepo.server.errors.ModuleShutdownException;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.ConnectionPool;
 import org.fcrepo.server.storage.ConnectionPoolManager;
@@ -92,6 +94,48 @@ public class FieldSearchSQLModule
             }
         }
 
+        //
+        // get useTokenIndex parameter (default to false if unspecified)
+        //
+        boolean useTokenIndex = false;
+        String useTokenIndexValue = getParameter("useTokenIndex");
+        if (useTokenIndexValue != null) {
+            String val = useTokenIndexValue.trim().toLowerCase();
+            if (val.equals("true") || val.equals("yes")) {
+                useTokenIndex = true;
+            } else if (!val.equals("false") && !val.equals("no")) {
+                throw new ModuleInitializationException("useTokenIndex param "
+                        + "was not a boolean", getRole());
+            }
+        }
+
+        //
+        // get resultCacheSize and resultCacheSeconds parameters (optional,
+        // defaults = 0 [no cache], 30)
+        //
+        int resultCacheSize = 0;
+        int resultCacheSeconds = 30;
+        try {
+            if (getParameter("resultCacheSize") != null) {
+                resultCacheSize =
+                        Integer.parseInt(getParameter("resultCacheSize"));
+            }
+            if (getParameter("resultCacheSeconds") != null) {
+                resultCacheSeconds =
+                        Integer.parseInt(getParameter("resultCacheSeconds"));
+            }
+        } catch (NumberFormatException nfe) {
+            throw new ModuleInitializationException("resultCacheSize and "
+                    + "resultCacheSeconds must be integers.", getRole());
+        }
+        if (resultCacheSize < 0
+                || resultCacheSize > 0
+                && (resultCacheSeconds < 1 || resultCacheSeconds >= maxSecondsPerSession)) {
+            throw new ModuleInitializationException("resultCacheSize must not "
+                    + "be negative, and resultCacheSeconds must be positive "
+                    + "and less than maxSecondsPerSession.", getRole());
+        }
+
         //
         // get connectionPool from ConnectionPoolManager
         //
@@ -137,7 +181,33 @@ public class FieldSearchSQLModule
                                        doManager,
                                        maxResults,
                                        maxSecondsPerSession,
-                                       indexDCFields);
+                                       indexDCFields,
+                                       useTokenIndex);
+        if (resultCacheSize > 0) {
+            m_wrappedFieldSearch
+                    .setResultCache(new FieldSearchResultCache(resultCacheSize,
+                                                               1000L * resultCacheSeconds));
+        }
+        m_wrappedFieldSearch.setTokenKey(FieldSearchToken
+                .getKey(getParameter("sessionTokenSecret")));
+    }
+
+    @Override
+    public void shutdownModule() throws ModuleShutdownException {
+        if (m_wrappedFieldSearch != null
+                && m_wrappedFieldSearch.getResultCache() != null) {
+            logger.info(m_wrappedFieldSearch.getResultCache().toString());
+        }
+    }
+
+    /**
+     * Get the cache of first pages of results, whose hit ratio and saved
+     * query time tell how well it does.
+     *
+     * @return the cache, or null if results aren't cached
+     */
+    public FieldSearchResultCache getResultCache() {
+        return m_wrappedFieldSearch.getResultCache();
     }
 
     @Override
@@ -150,6 +220,10 @@ public class FieldSearchSQLModule
         m_wrappedFieldSearch.update(reader);
     }
 
+    public void update(List<DOReader> readers) throws ServerException {
+        m_wrappedFieldSearch.update(readers);
+    }
+
     public boolean delete(String pid) throws ServerException {
         return m_wrappedFieldSearch.delete(pid);
     }
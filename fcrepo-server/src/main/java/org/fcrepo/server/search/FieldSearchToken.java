@@ -0,0 +1,401 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.errors.UnknownSessionTokenException;
+
+
+/**
+ * The session token of an in-progress FieldSearchSQLImpl search.
+ * <p>
+ * A token holds everything needed to get the next page of results: the
+ * query, the requested fields and page size, and the last pid and sort field
+ * value returned so far. Results are ordered by the sort field and pid, so
+ * the next page is simply the first results that follow those. No state is
+ * kept on the server between pages, so tokens remain valid across restarts
+ * and on any server sharing the same database and key, until they expire.
+ * </p>
+ * <p>
+ * The string form of a token is URL-safe, and ends with an HMAC of the rest
+ * computed with a key known only to the server, so that a client can't alter
+ * the query, page size or expiration date of a token it was given.
+ * </p>
+ */
+public class FieldSearchToken {
+
+    private static final byte VERSION = 3;
+
+    private static final String MAC_ALGORITHM = "HmacSHA1";
+
+    private static final int MAC_LENGTH = 20;
+
+    private final FieldSearchQuery m_query;
+
+    private final String[] m_resultFields;
+
+    private final int m_maxResults;
+
+    private final String m_lastPID;
+
+    private final String m_lastSortValue;
+
+    private final long m_completeListSize;
+
+    private final long m_cursor;
+
+    private final Date m_expirationDate;
+
+    /**
+     * Creates a token.
+     *
+     * @param query
+     *        the query
+     * @param resultFields
+     *        the fields to return
+     * @param maxResults
+     *        the number of results per page
+     * @param lastPID
+     *        the last pid that has been returned
+     * @param cursor
+     *        the number of results that have been returned
+     * @param expirationDate
+     *        when the token stops being valid
+     */
+    public FieldSearchToken(FieldSearchQuery query,
+                            String[] resultFields,
+                            int maxResults,
+                            String lastPID,
+                            long cursor,
+                            Date expirationDate) {
+        this(query,
+             resultFields,
+             maxResults,
+             lastPID,
+             null,
+             cursor,
+             -1,
+             expirationDate);
+    }
+
+    /**
+     * Creates a token for sorted or counted results.
+     *
+     * @param query
+     *        the query, including its sort field
+     * @param resultFields
+     *        the fields to return
+     * @param maxResults
+     *        the number of results per page
+     * @param lastPID
+     *        the last pid that has been returned
+     * @param lastSortValue
+     *        the sort field value of the last result, as held in the
+     *        database, or null if it has none or the results are in pid
+     *        order
+     * @param cursor
+     *        the number of results that have been returned
+     * @param completeListSize
+     *        the number of results, or -1 if they have not been counted
+     * @param expirationDate
+     *        when the token stops being valid
+     */
+    public FieldSearchToken(FieldSearchQuery query,
+                            String[] resultFields,
+                            int maxResults,
+                            String lastPID,
+                            String lastSortValue,
+                            long cursor,
+                            long completeListSize,
+                            Date expirationDate) {
+        m_query = query;
+        m_resultFields = resultFields;
+        m_maxResults = maxResults;
+        m_lastPID = lastPID;
+        m_lastSortValue = lastSortValue;
+        m_cursor = cursor;
+        m_completeListSize = completeListSize;
+        m_expirationDate = expirationDate;
+    }
+
+    public FieldSearchQuery getQuery() {
+        return m_query;
+    }
+
+    public String[] getResultFields() {
+        return m_resultFields;
+    }
+
+    public int getMaxResults() {
+        return m_maxResults;
+    }
+
+    public String getLastPID() {
+        return m_lastPID;
+    }
+
+    public String getLastSortValue() {
+        return m_lastSortValue;
+    }
+
+    public long getCursor() {
+        return m_cursor;
+    }
+
+    public long getCompleteListSize() {
+        return m_completeListSize;
+    }
+
+    public Date getExpirationDate() {
+        return m_expirationDate;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() > m_expirationDate.getTime();
+    }
+
+    /**
+     * Gets this token with its page size and expiration date brought within
+     * the given limits, which may be lower than when it was issued.
+     *
+     * @param maxResults
+     *        the maximum number of results per page
+     * @param maxSeconds
+     *        the maximum number of seconds from now until the token expires
+     * @return the token, or a copy of it within the limits
+     */
+    public FieldSearchToken limit(int maxResults, int maxSeconds) {
+        long latest = System.currentTimeMillis() + 1000L * maxSeconds;
+        if (m_maxResults <= maxResults
+                && m_expirationDate.getTime() <= latest) {
+            return this;
+        }
+        return new FieldSearchToken(m_query,
+                                    m_resultFields,
+                                    Math.min(m_maxResults, maxResults),
+                                    m_lastPID,
+                                    m_lastSortValue,
+                                    m_cursor,
+                                    m_completeListSize,
+                                    new Date(Math.min(m_expirationDate
+                                            .getTime(), latest)));
+    }
+
+    /**
+     * Gets a new random key to sign tokens with, for a server whose tokens
+     * need not be valid on other servers or after a restart.
+     */
+    public static byte[] newKey() {
+        byte[] key = new byte[MAC_LENGTH];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Gets the key to sign tokens with.
+     *
+     * @param secret
+     *        a configured secret, shared by the servers that should accept
+     *        each other's tokens, or null
+     * @return the key derived from the secret, or a new random key if there
+     *         is none
+     */
+    public static byte[] getKey(String secret) {
+        if (secret == null || secret.length() == 0) {
+            return newKey();
+        }
+        try {
+            return secret.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * Gets the string form of this token.
+     *
+     * @param key
+     *        the key to sign the token with
+     */
+    public String encode(byte[] key) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeLong(m_expirationDate.getTime());
+            out.writeLong(m_cursor);
+            out.writeLong(m_completeListSize);
+            out.writeInt(m_maxResults);
+            out.writeUTF(m_lastPID);
+            out.writeBoolean(m_lastSortValue != null);
+            if (m_lastSortValue != null) {
+                out.writeUTF(m_lastSortValue);
+            }
+            out.writeInt(m_resultFields.length);
+            for (String field : m_resultFields) {
+                out.writeUTF(field);
+            }
+            out.writeInt(m_query.getType());
+            if (m_query.getType() == FieldSearchQuery.TERMS_TYPE) {
+                out.writeUTF(m_query.getTerms());
+            } else {
+                List<Condition> conditions = m_query.getConditions();
+                out.writeInt(conditions.size());
+                for (Condition condition : conditions) {
+                    out.writeUTF(condition.getProperty());
+                    out.writeUTF(condition.getOperator().getAbbreviation());
+                    out.writeUTF(condition.getValue());
+                }
+            }
+            out.writeUTF(m_query.getSortField());
+            out.writeBoolean(m_query.isDescending());
+            out.writeBoolean(m_query.isCountRequested());
+            out.flush();
+            byte[] data = bytes.toByteArray();
+            out.write(sign(key, data, data.length));
+            out.flush();
+        } catch (IOException e) {
+            // only a query string of more than 64K could cause this
+            throw new IllegalArgumentException("Unable to encode session token",
+                                               e);
+        }
+        return Base64.encodeBase64URLSafeString(bytes.toByteArray());
+    }
+
+    /**
+     * Parses the string form of a token.
+     *
+     * @param token
+     *        the string form of the token
+     * @param key
+     *        the key the token was signed with
+     * @return the token
+     * @throws UnknownSessionTokenException
+     *         if the string is not a valid token, or was not signed with the
+     *         key
+     */
+    public static FieldSearchToken decode(String token, byte[] key)
+            throws UnknownSessionTokenException {
+        if (token == null) {
+            throw new UnknownSessionTokenException("No session token given");
+        }
+        byte[] bytes = Base64.decodeBase64(token);
+        int length = bytes.length - MAC_LENGTH;
+        if (length < 1) {
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid: " + token);
+        }
+        byte[] mac = new byte[MAC_LENGTH];
+        System.arraycopy(bytes, length, mac, 0, MAC_LENGTH);
+        if (!MessageDigest.isEqual(mac, sign(key, bytes, length))) {
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid: " + token);
+        }
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+        try {
+            if (in.readByte() != VERSION) {
+                throw new IOException("Unsupported token version");
+            }
+            Date expirationDate = new Date(in.readLong());
+            long cursor = in.readLong();
+            long completeListSize = in.readLong();
+            int maxResults = in.readInt();
+            String lastPID = in.readUTF();
+            String lastSortValue = null;
+            if (in.readBoolean()) {
+                lastSortValue = in.readUTF();
+            }
+            String[] resultFields = new String[checkSize(in.readInt())];
+            for (int i = 0; i < resultFields.length; i++) {
+                resultFields[i] = in.readUTF();
+            }
+            FieldSearchQuery query;
+            int type = in.readInt();
+            if (type == FieldSearchQuery.TERMS_TYPE) {
+                query = new FieldSearchQuery(in.readUTF());
+            } else if (type == FieldSearchQuery.CONDITIONS_TYPE) {
+                int size = checkSize(in.readInt());
+                List<Condition> conditions = new ArrayList<Condition>(size);
+                for (int i = 0; i < size; i++) {
+                    conditions.add(new Condition(in.readUTF(),
+                                                 in.readUTF(),
+                                                 in.readUTF()));
+                }
+                query = new FieldSearchQuery(conditions);
+            } else {
+                throw new IOException("Unknown query type: " + type);
+            }
+            String sortField = in.readUTF();
+            if (!FieldSearchQuery.isSortField(sortField)) {
+                throw new IOException("Unknown sort field: " + sortField);
+            }
+            query.setSortField(sortField, in.readBoolean());
+            query.setCountRequested(in.readBoolean());
+            if (in.available() > 0 || maxResults < 1 || cursor < 0
+                    || completeListSize < -1) {
+                throw new IOException("Inconsistent token");
+            }
+            return new FieldSearchToken(query,
+                                        resultFields,
+                                        maxResults,
+                                        lastPID,
+                                        lastSortValue,
+                                        cursor,
+                                        completeListSize,
+                                        expirationDate);
+        } catch (IOException e) {
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid: " + token);
+        } catch (ServerException e) {
+            // an invalid operator or value in the conditions
+            throw new UnknownSessionTokenException("Session token is not "
+                    + "valid: " + token);
+        }
+    }
+
+    /**
+     * Gets the HMAC of the first length bytes of data.
+     */
+    private static byte[] sign(byte[] key, byte[] data, int length) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+            mac.update(data, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            // every Java platform supports HmacSHA1
+            throw new RuntimeException("Unable to sign session token", e);
+        }
+    }
+
+    private static int checkSize(int size) throws IOException {
+        if (size < 0 || size > Short.MAX_VALUE) {
+            throw new IOException("Bad size: " + size);
+        }
+        return size;
+    }
+
+}
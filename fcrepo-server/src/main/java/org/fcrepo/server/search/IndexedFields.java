@@ -0,0 +1,397 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.fcrepo.server.errors.ObjectIntegrityException;
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.utilities.DCField;
+import org.fcrepo.server.utilities.DCFields;
+import org.fcrepo.utilities.DateUtility;
+
+
+/**
+ * The fields of one object, as held by a FieldSearchIndex.
+ * <p>
+ * Values are held as given, so results can be built from them. The forms
+ * that searches are matched against are the same as those of the doFields
+ * table used by FieldSearchSQLImpl: the pid as given, the other properties
+ * in lowercase, and each dublin core field as the lowercase values, each
+ * preceded by a space, followed by " .".
+ * </p>
+ */
+class IndexedFields {
+
+    /** The ObjectFields constants of the dublin core fields, in order. */
+    static final int[] DC_FIELDS =
+            new int[] {ObjectFields.TITLE, ObjectFields.CREATOR,
+                    ObjectFields.SUBJECT, ObjectFields.DESCRIPTION,
+                    ObjectFields.PUBLISHER, ObjectFields.CONTRIBUTOR,
+                    ObjectFields.DATE, ObjectFields.TYPE, ObjectFields.FORMAT,
+                    ObjectFields.IDENTIFIER, ObjectFields.SOURCE,
+                    ObjectFields.LANGUAGE, ObjectFields.RELATION,
+                    ObjectFields.COVERAGE, ObjectFields.RIGHTS};
+
+    /** The ObjectFields constants of the string valued fields. */
+    static final int[] STRING_FIELDS;
+
+    static {
+        STRING_FIELDS = new int[4 + DC_FIELDS.length];
+        STRING_FIELDS[0] = ObjectFields.PID;
+        STRING_FIELDS[1] = ObjectFields.LABEL;
+        STRING_FIELDS[2] = ObjectFields.STATE;
+        STRING_FIELDS[3] = ObjectFields.OWNERID;
+        System.arraycopy(DC_FIELDS, 0, STRING_FIELDS, 4, DC_FIELDS.length);
+    }
+
+    private final String m_pid;
+
+    private final String m_label;
+
+    private final String m_state;
+
+    private final String m_ownerId;
+
+    private final long m_cDate;
+
+    private final long m_mDate;
+
+    /** When the DC datastream was created, or 0 if there is none. */
+    private final long m_dcmDate;
+
+    /** The values of each dublin core field, in DC_FIELDS order. */
+    private final List<List<String>> m_dcValues;
+
+    /** The dc:date values that can be read as dates. */
+    private final long[] m_dcDates;
+
+    IndexedFields(String pid,
+                  String label,
+                  String state,
+                  String ownerId,
+                  long cDate,
+                  long mDate,
+                  long dcmDate,
+                  List<List<String>> dcValues) {
+        m_pid = pid;
+        m_label = label;
+        m_state = state;
+        m_ownerId = ownerId;
+        m_cDate = cDate;
+        m_mDate = mDate;
+        m_dcmDate = dcmDate;
+        m_dcValues = dcValues;
+        List<String> dates = m_dcValues.get(dcIndex(ObjectFields.DATE));
+        List<Long> wellFormedDates = new ArrayList<Long>(dates.size());
+        for (String value : dates) {
+            Date date = DateUtility.parseDateLoose(value);
+            if (date != null) {
+                wellFormedDates.add(date.getTime());
+            }
+        }
+        m_dcDates = new long[wellFormedDates.size()];
+        for (int i = 0; i < m_dcDates.length; i++) {
+            m_dcDates[i] = wellFormedDates.get(i);
+        }
+    }
+
+    /**
+     * Get the fields of the object of a reader.
+     *
+     * @param reader
+     *        the reader
+     * @param indexDCFields
+     *        whether the values of the DC datastream should be included
+     */
+    static IndexedFields getFields(DOReader reader, boolean indexDCFields)
+            throws ServerException {
+        // as in FieldSearchSQLImpl.update
+        Date cDate = reader.getCreateDate();
+        if (cDate == null) { // should never happen, but if it does, don't die
+            cDate = new Date();
+        }
+        Date mDate = reader.getLastModDate();
+        if (mDate == null) { // should never happen, but if it does, don't die
+            mDate = new Date();
+        }
+        Datastream dcmd = null;
+        try {
+            dcmd = reader.GetDatastream("DC", null);
+        } catch (ClassCastException cce) {
+            throw new ObjectIntegrityException("Object "
+                    + reader.GetObjectPID()
+                    + " has a DC datastream, but it's not inline XML.");
+        }
+        List<List<String>> dcValues =
+                new ArrayList<List<String>>(DC_FIELDS.length);
+        if (dcmd != null && indexDCFields) {
+            InputStream in = dcmd.getContentStream();
+            DCFields dc = new DCFields(in);
+            addValues(dcValues, dc.titles());
+            addValues(dcValues, dc.creators());
+            addValues(dcValues, dc.subjects());
+            addValues(dcValues, dc.descriptions());
+            addValues(dcValues, dc.publishers());
+            addValues(dcValues, dc.contributors());
+            addValues(dcValues, dc.dates());
+            addValues(dcValues, dc.types());
+            addValues(dcValues, dc.formats());
+            addValues(dcValues, dc.identifiers());
+            addValues(dcValues, dc.sources());
+            addValues(dcValues, dc.languages());
+            addValues(dcValues, dc.relations());
+            addValues(dcValues, dc.coverages());
+            addValues(dcValues, dc.rights());
+        } else {
+            for (int i = 0; i < DC_FIELDS.length; i++) {
+                dcValues.add(Collections.<String> emptyList());
+            }
+        }
+        return new IndexedFields(reader.GetObjectPID(),
+                                 reader.GetObjectLabel(),
+                                 reader.GetObjectState(),
+                                 reader.getOwnerId(),
+                                 cDate.getTime(),
+                                 mDate.getTime(),
+                                 dcmd == null ? 0 : dcmd.DSCreateDT.getTime(),
+                                 dcValues);
+    }
+
+    private static void addValues(List<List<String>> dcValues,
+                                  List<DCField> fields) {
+        List<String> values = new ArrayList<String>(fields.size());
+        for (DCField field : fields) {
+            values.add(field.getValue());
+        }
+        dcValues.add(values);
+    }
+
+    private static int dcIndex(int field) {
+        return field - ObjectFields.TITLE;
+    }
+
+    String getPid() {
+        return m_pid;
+    }
+
+    /**
+     * Get the value of a date field.
+     *
+     * @param field
+     *        CDATE, MDATE or DCMDATE
+     * @return the date, in milliseconds; 0 if the object has no DC datastream
+     */
+    long getDate(int field) {
+        switch (field) {
+            case ObjectFields.CDATE:
+                return m_cDate;
+            case ObjectFields.MDATE:
+                return m_mDate;
+            case ObjectFields.DCMDATE:
+                return m_dcmDate;
+            default:
+                throw new IllegalArgumentException("Not a date field: "
+                        + field);
+        }
+    }
+
+    /**
+     * Get the dc:date values that can be read as dates, in milliseconds.
+     */
+    long[] getDCDates() {
+        return m_dcDates;
+    }
+
+    /**
+     * Get the form of a string valued field that searches are matched
+     * against.
+     *
+     * @param field
+     *        one of STRING_FIELDS
+     * @return the value, or null if the field has no value
+     */
+    String getSearchValue(int field) {
+        switch (field) {
+            case ObjectFields.PID:
+                return m_pid;
+            case ObjectFields.LABEL:
+                return toLowerCase(m_label);
+            case ObjectFields.STATE:
+                return toLowerCase(m_state);
+            case ObjectFields.OWNERID:
+                return toLowerCase(m_ownerId);
+            default:
+                List<String> values = m_dcValues.get(dcIndex(field));
+                if (values.size() == 0) {
+                    return null;
+                }
+                StringBuilder out = new StringBuilder();
+                for (String value : values) {
+                    out.append(" ");
+                    out.append(value.toLowerCase());
+                }
+                out.append(" .");
+                return out.toString();
+        }
+    }
+
+    private static String toLowerCase(String value) {
+        return value == null ? null : value.toLowerCase();
+    }
+
+    /**
+     * Add the number of fields each token of this object occurs in.
+     *
+     * @param tokens
+     *        the map to add the tokens to
+     * @see TokenIndex
+     */
+    void addTokens(Map<String, Integer> tokens) {
+        for (int field : STRING_FIELDS) {
+            for (String token : TokenIndex.getTokens(getSearchValue(field))) {
+                Integer count = tokens.get(token);
+                tokens.put(token, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Get the result for this object.
+     *
+     * @param fields
+     *        the ObjectFields constants of the fields to include
+     */
+    ObjectFields getObjectFields(int[] fields) {
+        ObjectFields f = new ObjectFields();
+        for (int field : fields) {
+            switch (field) {
+                case ObjectFields.PID:
+                    f.setPid(m_pid);
+                    break;
+                case ObjectFields.LABEL:
+                    f.setLabel(m_label);
+                    break;
+                case ObjectFields.STATE:
+                    f.setState(m_state);
+                    break;
+                case ObjectFields.OWNERID:
+                    f.setOwnerId(m_ownerId);
+                    break;
+                case ObjectFields.CDATE:
+                    f.setCDate(new Date(m_cDate));
+                    break;
+                case ObjectFields.MDATE:
+                    f.setMDate(new Date(m_mDate));
+                    break;
+                case ObjectFields.DCMDATE:
+                    if (m_dcmDate != 0) {
+                        f.setDCMDate(new Date(m_dcmDate));
+                    }
+                    break;
+                default:
+                    List<DCField> values = f.dcFields(field);
+                    for (String value : m_dcValues.get(dcIndex(field))) {
+                        values.add(new DCField(value));
+                    }
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Write these fields.
+     *
+     * @see #read(DataInput)
+     */
+    void write(DataOutput out) throws IOException {
+        writeString(out, m_pid);
+        writeString(out, m_label);
+        writeString(out, m_state);
+        writeString(out, m_ownerId);
+        out.writeLong(m_cDate);
+        out.writeLong(m_mDate);
+        out.writeLong(m_dcmDate);
+        for (List<String> values : m_dcValues) {
+            out.writeInt(values.size());
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    /**
+     * Read fields written by {@link #write(DataOutput)}.
+     */
+    static IndexedFields read(DataInput in) throws IOException {
+        String pid = readString(in);
+        String label = readString(in);
+        String state = readString(in);
+        String ownerId = readString(in);
+        long cDate = in.readLong();
+        long mDate = in.readLong();
+        long dcmDate = in.readLong();
+        List<List<String>> dcValues =
+                new ArrayList<List<String>>(DC_FIELDS.length);
+        for (int i = 0; i < DC_FIELDS.length; i++) {
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Bad value count: " + size);
+            }
+            List<String> values = new ArrayList<String>(size);
+            for (int j = 0; j < size; j++) {
+                values.add(readString(in));
+            }
+            dcValues.add(values);
+        }
+        if (pid == null) {
+            throw new IOException("No pid");
+        }
+        return new IndexedFields(pid,
+                                 label,
+                                 state,
+                                 ownerId,
+                                 cDate,
+                                 mDate,
+                                 dcmDate,
+                                 dcValues);
+    }
+
+    // unlike writeUTF, allows null and values longer than 64K
+    private static void writeString(DataOutput out, String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        } else if (length < -1) {
+            throw new IOException("Bad string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import java.util.Date;
+import java.util.List;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -98,54 +99,12 @@ public class ObjectFields
     public ObjectFields(String[] fieldNames)
             throws UnrecognizedFieldException {
         for (String s : fieldNames) {
-            if (s.equalsIgnoreCase("pid")) {
-                m_want[PID] = true;
-            } else if (s.equalsIgnoreCase("label")) {
-                m_want[LABEL] = true;
-            } else if (s.equalsIgnoreCase("state")) {
-                m_want[STATE] = true;
-            } else if (s.equalsIgnoreCase("ownerId")) {
-                m_want[OWNERID] = true;
-            } else if (s.equalsIgnoreCase("cDate")) {
-                m_want[CDATE] = true;
-            } else if (s.equalsIgnoreCase("mDate")) {
-                m_want[MDATE] = true;
-            } else if (s.equalsIgnoreCase("title")) {
-                m_want[TITLE] = true;
-            } else if (s.equalsIgnoreCase("creator")) {
-                m_want[CREATOR] = true;
-            } else if (s.equalsIgnoreCase("subject")) {
-                m_want[SUBJECT] = true;
-            } else if (s.equalsIgnoreCase("description")) {
-                m_want[DESCRIPTION] = true;
-            } else if (s.equalsIgnoreCase("publisher")) {
-                m_want[PUBLISHER] = true;
-            } else if (s.equalsIgnoreCase("contributor")) {
-                m_want[CONTRIBUTOR] = true;
-            } else if (s.equalsIgnoreCase("date")) {
-                m_want[DATE] = true;
-            } else if (s.equalsIgnoreCase("type")) {
-                m_want[TYPE] = true;
-            } else if (s.equalsIgnoreCase("format")) {
-                m_want[FORMAT] = true;
-            } else if (s.equalsIgnoreCase("identifier")) {
-                m_want[IDENTIFIER] = true;
-            } else if (s.equalsIgnoreCase("source")) {
-                m_want[SOURCE] = true;
-            } else if (s.equalsIgnoreCase("language")) {
-                m_want[LANGUAGE] = true;
-            } else if (s.equalsIgnoreCase("relation")) {
-                m_want[RELATION] = true;
-            } else if (s.equalsIgnoreCase("coverage")) {
-                m_want[COVERAGE] = true;
-            } else if (s.equalsIgnoreCase("rights")) {
-                m_want[RIGHTS] = true;
-            } else if (s.equalsIgnoreCase("dcmDate")) {
-                m_want[DCMDATE] = true;
-            } else {
+            int field = getField(s);
+            if (field < 0) {
                 throw new UnrecognizedFieldException("Unrecognized field: '"
                         + s + "'");
             }
+            m_want[field] = true;
         }
     }
 
@@ -175,6 +134,108 @@ public class ObjectFields
         }
     }
 
+    /**
+     * Get the field constant for a field name, as given in a search request.
+     *
+     * @param name
+     *        the field name, which is not case sensitive
+     * @return the field constant, or -1 if the name is not recognized
+     */
+    public static int getField(String name) {
+        if (name.equalsIgnoreCase("pid")) {
+            return PID;
+        } else if (name.equalsIgnoreCase("label")) {
+            return LABEL;
+        } else if (name.equalsIgnoreCase("state")) {
+            return STATE;
+        } else if (name.equalsIgnoreCase("ownerId")) {
+            return OWNERID;
+        } else if (name.equalsIgnoreCase("cDate")) {
+            return CDATE;
+        } else if (name.equalsIgnoreCase("mDate")) {
+            return MDATE;
+        } else if (name.equalsIgnoreCase("title")) {
+            return TITLE;
+        } else if (name.equalsIgnoreCase("creator")) {
+            return CREATOR;
+        } else if (name.equalsIgnoreCase("subject")) {
+            return SUBJECT;
+        } else if (name.equalsIgnoreCase("description")) {
+            return DESCRIPTION;
+        } else if (name.equalsIgnoreCase("publisher")) {
+            return PUBLISHER;
+        } else if (name.equalsIgnoreCase("contributor")) {
+            return CONTRIBUTOR;
+        } else if (name.equalsIgnoreCase("date")) {
+            return DATE;
+        } else if (name.equalsIgnoreCase("type")) {
+            return TYPE;
+        } else if (name.equalsIgnoreCase("format")) {
+            return FORMAT;
+        } else if (name.equalsIgnoreCase("identifier")) {
+            return IDENTIFIER;
+        } else if (name.equalsIgnoreCase("source")) {
+            return SOURCE;
+        } else if (name.equalsIgnoreCase("language")) {
+            return LANGUAGE;
+        } else if (name.equalsIgnoreCase("relation")) {
+            return RELATION;
+        } else if (name.equalsIgnoreCase("coverage")) {
+            return COVERAGE;
+        } else if (name.equalsIgnoreCase("rights")) {
+            return RIGHTS;
+        } else if (name.equalsIgnoreCase("dcmDate")) {
+            return DCMDATE;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the list of values of a dublin core field.
+     *
+     * @param field
+     *        a field constant between TITLE and RIGHTS
+     * @return the list of values, which may be modified
+     */
+    List<DCField> dcFields(int field) {
+        switch (field) {
+            case TITLE:
+                return titles();
+            case CREATOR:
+                return creators();
+            case SUBJECT:
+                return subjects();
+            case DESCRIPTION:
+                return descriptions();
+            case PUBLISHER:
+                return publishers();
+            case CONTRIBUTOR:
+                return contributors();
+            case DATE:
+                return dates();
+            case TYPE:
+                return types();
+            case FORMAT:
+                return formats();
+            case IDENTIFIER:
+                return identifiers();
+            case SOURCE:
+                return sources();
+            case LANGUAGE:
+                return languages();
+            case RELATION:
+                return relations();
+            case COVERAGE:
+                return coverages();
+            case RIGHTS:
+                return rights();
+            default:
+                throw new IllegalArgumentException("Not a dublin core field: "
+                        + field);
+        }
+    }
+
     @Override
     public void startElement(String uri,
                              String localName,
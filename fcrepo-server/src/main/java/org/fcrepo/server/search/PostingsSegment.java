@@ -0,0 +1,466 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * An immutable file of postings, sorted by token, written by a
+ * FieldSearchIndex.
+ * <p>
+ * Each token is followed by its postings: the pid, the sequence number of
+ * the version of the object they were taken from, and the number of fields
+ * of that version the token occurs in. Postings of versions that have since
+ * been replaced or deleted are left in the file; readers skip them, and
+ * they are dropped when segments are merged. A footer holds every
+ * {@value #INDEX_INTERVAL}th token and its offset, so that only that sparse
+ * index is held in memory, and a lookup reads at most that many tokens
+ * before the one it is after.
+ * </p>
+ * <p>
+ * A segment holds the postings of the versions with sequence numbers in a
+ * range, which is part of its file name.
+ * </p>
+ */
+class PostingsSegment {
+
+    private static final int MAGIC = 0x46535053; // FSPS
+
+    private static final int VERSION = 1;
+
+    /** The number of tokens between entries of the sparse index. */
+    static final int INDEX_INTERVAL = 128;
+
+    private static final Pattern NAME =
+            Pattern.compile("postings-([0-9]+)-([0-9]+)\\.seg");
+
+    private final File m_file;
+
+    private final long m_minSeq;
+
+    private final long m_maxSeq;
+
+    private final RandomAccessFile m_raf;
+
+    private final FileChannel m_channel;
+
+    /** Where the postings end and the footer begins. */
+    private final long m_end;
+
+    private final String[] m_indexTokens;
+
+    private final long[] m_indexOffsets;
+
+    /**
+     * Open a segment file.
+     *
+     * @throws IOException
+     *         if it can't be read, or is not a complete segment
+     */
+    PostingsSegment(File file) throws IOException {
+        Matcher m = NAME.matcher(file.getName());
+        if (!m.matches()) {
+            throw new IOException("Not a postings segment: " + file.getPath());
+        }
+        m_file = file;
+        m_minSeq = Long.parseLong(m.group(1));
+        m_maxSeq = Long.parseLong(m.group(2));
+        m_raf = new RandomAccessFile(file, "r");
+        m_channel = m_raf.getChannel();
+        try {
+            DataInputStream in =
+                    new DataInputStream(new ChannelInputStream(m_channel,
+                                                               0,
+                                                               8));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a postings segment: "
+                        + file.getPath());
+            }
+            long length = m_channel.size();
+            in = new DataInputStream(new ChannelInputStream(m_channel,
+                                                            length - 8,
+                                                            length));
+            m_end = in.readLong();
+            if (m_end < 8 || m_end > length - 12) {
+                throw new IOException("Bad footer in " + file.getPath());
+            }
+            in = new DataInputStream(new BufferedInputStream(new ChannelInputStream(m_channel,
+                                                                                   m_end,
+                                                                                   length - 8)));
+            int count = in.readInt();
+            m_indexTokens = new String[count];
+            m_indexOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                m_indexTokens[i] = in.readUTF();
+                m_indexOffsets[i] = in.readLong();
+            }
+        } catch (IOException e) {
+            m_raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the name of the file of a segment.
+     */
+    static String getName(long minSeq, long maxSeq) {
+        return "postings-" + minSeq + "-" + maxSeq + ".seg";
+    }
+
+    /**
+     * Tell whether a file name is that of a segment.
+     */
+    static boolean isSegment(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    File getFile() {
+        return m_file;
+    }
+
+    long getMinSeq() {
+        return m_minSeq;
+    }
+
+    long getMaxSeq() {
+        return m_maxSeq;
+    }
+
+    long getLength() {
+        return m_end;
+    }
+
+    /**
+     * Read the postings of the tokens from a token, inclusive, to another,
+     * exclusive.
+     *
+     * @param to
+     *        the end of the range, or null to read to the end
+     */
+    void read(String from, String to, Visitor visitor) throws IOException {
+        // the last indexed token before the range, if any
+        int low = 0;
+        int high = m_indexTokens.length - 1;
+        long start = 8;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (m_indexTokens[mid].compareTo(from) <= 0) {
+                start = m_indexOffsets[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        Cursor cursor = new Cursor(start);
+        while (cursor.next()) {
+            String token = cursor.getToken();
+            if (to != null && token.compareTo(to) >= 0) {
+                break;
+            }
+            if (token.compareTo(from) >= 0) {
+                visitor.visit(token, cursor.getPostings());
+            }
+        }
+    }
+
+    /**
+     * Get a cursor over all tokens, in order.
+     */
+    Cursor cursor() {
+        return new Cursor(8);
+    }
+
+    void close() throws IOException {
+        m_raf.close();
+    }
+
+    /**
+     * Delete the segment file. The segment must be closed.
+     */
+    void delete() {
+        if (!m_file.delete()) {
+            m_file.deleteOnExit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return m_file.getName();
+    }
+
+    /**
+     * A posting: the number of fields of one version of an object a token
+     * occurs in.
+     */
+    static class Posting {
+
+        final String pid;
+
+        final long seq;
+
+        final int count;
+
+        Posting(String pid, long seq, int count) {
+            this.pid = pid;
+            this.seq = seq;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Receives the postings of tokens.
+     */
+    interface Visitor {
+
+        void visit(String token, List<Posting> postings) throws IOException;
+    }
+
+    /**
+     * Reads the tokens of a segment in order.
+     */
+    class Cursor {
+
+        private final DataInputStream m_in;
+
+        private String m_token;
+
+        private List<Posting> m_postings;
+
+        Cursor(long start) {
+            m_in =
+                    new DataInputStream(new BufferedInputStream(new ChannelInputStream(m_channel,
+                                                                                       start,
+                                                                                       m_end)));
+        }
+
+        /**
+         * Move to the next token.
+         *
+         * @return false if there are no more.
+         */
+        boolean next() throws IOException {
+            m_in.mark(1);
+            if (m_in.read() == -1) {
+                m_token = null;
+                m_postings = null;
+                return false;
+            }
+            m_in.reset();
+            m_token = m_in.readUTF();
+            int count = m_in.readInt();
+            if (count < 1) {
+                throw new IOException("Bad posting count " + count + " in "
+                        + m_file.getPath());
+            }
+            m_postings = new ArrayList<Posting>(count);
+            for (int i = 0; i < count; i++) {
+                String pid = m_in.readUTF();
+                m_postings.add(new Posting(pid, m_in.readLong(), m_in
+                        .readInt()));
+            }
+            return true;
+        }
+
+        String getToken() {
+            return m_token;
+        }
+
+        List<Posting> getPostings() {
+            return m_postings;
+        }
+    }
+
+    /**
+     * Writes a new segment, token by token in order, to a temporary file
+     * that is renamed once it is complete.
+     */
+    static class Writer {
+
+        private final File m_target;
+
+        private final File m_temp;
+
+        private final FileOutputStream m_fileOut;
+
+        private final CountingOutputStream m_counter;
+
+        private final DataOutputStream m_out;
+
+        private final List<String> m_indexTokens = new ArrayList<String>();
+
+        private final List<Long> m_indexOffsets = new ArrayList<Long>();
+
+        private int m_tokens;
+
+        private String m_lastToken;
+
+        Writer(File directory, long minSeq, long maxSeq) throws IOException {
+            m_target = new File(directory, getName(minSeq, maxSeq));
+            m_temp = new File(directory, m_target.getName() + ".tmp");
+            m_fileOut = new FileOutputStream(m_temp);
+            m_counter =
+                    new CountingOutputStream(new BufferedOutputStream(m_fileOut));
+            m_out = new DataOutputStream(m_counter);
+            m_out.writeInt(MAGIC);
+            m_out.writeInt(VERSION);
+        }
+
+        /**
+         * Add the postings of a token, which must come after the last one
+         * added.
+         */
+        void add(String token, List<Posting> postings) throws IOException {
+            if (postings.isEmpty()) {
+                return;
+            }
+            if (m_lastToken != null && token.compareTo(m_lastToken) <= 0) {
+                throw new IllegalArgumentException("Token out of order: "
+                        + token);
+            }
+            if (m_tokens++ % INDEX_INTERVAL == 0) {
+                m_indexTokens.add(token);
+                m_indexOffsets.add(m_counter.getCount());
+            }
+            m_out.writeUTF(token);
+            m_out.writeInt(postings.size());
+            for (Posting posting : postings) {
+                m_out.writeUTF(posting.pid);
+                m_out.writeLong(posting.seq);
+                m_out.writeInt(posting.count);
+            }
+            m_lastToken = token;
+        }
+
+        /**
+         * Write the footer, force the file to disk and give it its name.
+         *
+         * @return the new segment
+         */
+        PostingsSegment finish() throws IOException {
+            try {
+                m_out.flush();
+                long end = m_counter.getCount();
+                m_out.writeInt(m_indexTokens.size());
+                for (int i = 0; i < m_indexTokens.size(); i++) {
+                    m_out.writeUTF(m_indexTokens.get(i));
+                    m_out.writeLong(m_indexOffsets.get(i));
+                }
+                m_out.writeLong(end);
+                m_out.flush();
+                m_fileOut.getChannel().force(true);
+            } finally {
+                m_out.close();
+            }
+            if (m_target.exists() && !m_target.delete()
+                    || !m_temp.renameTo(m_target)) {
+                m_temp.delete();
+                throw new IOException("Unable to create " + m_target.getPath());
+            }
+            return new PostingsSegment(m_target);
+        }
+
+        /**
+         * Give up writing the segment.
+         */
+        void abort() {
+            try {
+                m_out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            m_temp.delete();
+        }
+    }
+
+    /**
+     * Reads a range of a file channel with positional reads, so that many
+     * can read the same channel at once.
+     */
+    static class ChannelInputStream
+            extends InputStream {
+
+        private final FileChannel m_channel;
+
+        private long m_position;
+
+        private final long m_end;
+
+        ChannelInputStream(FileChannel channel, long start, long end) {
+            m_channel = channel;
+            m_position = start;
+            m_end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (m_position >= m_end) {
+                return -1;
+            }
+            len = (int) Math.min(len, m_end - m_position);
+            int n = m_channel.read(ByteBuffer.wrap(b, off, len), m_position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of file");
+            }
+            m_position += n;
+            return n;
+        }
+    }
+
+    /**
+     * Counts the bytes written through it.
+     */
+    private static class CountingOutputStream
+            extends FilterOutputStream {
+
+        private long m_count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            m_count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            m_count += len;
+        }
+
+        long getCount() {
+            return m_count;
+        }
+    }
+
+}
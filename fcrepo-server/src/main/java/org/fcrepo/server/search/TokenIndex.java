@@ -0,0 +1,194 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * Tokenizes field values for the doTokens table, and finds the tokens a
+ * field must contain to match a search pattern.
+ * <p>
+ * The tokens of a value are the parts of the value that are delimited by
+ * spaces, exactly as stored in doFields. A search pattern, as given to
+ * FieldSearchResultSQLImpl, matches a doFields value with <code>LIKE</code>;
+ * if the pattern contains a word that must appear in the value as a whole
+ * token (or at the start of a token), only rows whose pid has that token in
+ * doTokens can match. Adding that condition to the query lets the database
+ * find candidate rows through the token index instead of scanning doFields,
+ * while the <code>LIKE</code> condition still decides the result.
+ * </p>
+ */
+public class TokenIndex {
+
+    /** The maximum length of a token in doTokens; longer ones are cut. */
+    public static final int MAX_TOKEN_LENGTH = 255;
+
+    /**
+     * Get the distinct tokens of a value, as they should be stored in
+     * doTokens.
+     *
+     * @param value
+     *        the value, as stored in doFields, possibly null
+     * @param tokens
+     *        the set to add the tokens to
+     */
+    public static void addTokens(String value, Set<String> tokens) {
+        if (value == null) {
+            return;
+        }
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(' ', start);
+            if (end == -1) {
+                end = value.length();
+            }
+            if (end > start) {
+                tokens.add(cut(value.substring(start, end)));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Get the distinct tokens of a value.
+     *
+     * @see #addTokens(String, Set)
+     */
+    public static Set<String> getTokens(String value) {
+        Set<String> tokens = new LinkedHashSet<String>();
+        addTokens(value, tokens);
+        return tokens;
+    }
+
+    /**
+     * Find the most selective token condition for a search pattern.
+     * <p>
+     * The pattern is the value of a search condition, with <code>*</code>
+     * and <code>?</code> wildcards, as it is compared with the (lowercase
+     * where applicable) field. Unless the pattern starts with a wildcard, its
+     * first word starts a token: dublin core fields are matched with a space
+     * before the pattern, other fields are matched from their start.
+     * Likewise, unless it ends with a wildcard, its last word ends a token.
+     * </p>
+     *
+     * @param pattern
+     *        the search pattern
+     * @return the condition, or null if there is no token that a matching
+     *         value must contain
+     */
+    public static TokenCondition getCondition(String pattern) {
+        if (pattern.indexOf('\\') != -1) {
+            // escaped characters are rare; don't bother
+            return null;
+        }
+        TokenCondition best = null;
+        String[] words = pattern.split(" ", -1);
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            if (word.length() == 0) {
+                continue;
+            }
+            int wildcard = indexOfWildcard(word);
+            if (wildcard == 0) {
+                // nothing is known about the start of the token
+                continue;
+            }
+            // the word starts a token, as it follows a space or starts
+            // the pattern (which, if it started with a wildcard, would
+            // have been handled above)
+            TokenCondition candidate;
+            if (wildcard == -1) {
+                // the word also ends a token: it is followed by a space,
+                // or ends the pattern (which does not end with a wildcard)
+                candidate = new TokenCondition(cut(word), false);
+            } else {
+                String prefix = word.substring(0, wildcard);
+                if (prefix.length() >= MAX_TOKEN_LENGTH) {
+                    // the stored token is cut to exactly this
+                    candidate = new TokenCondition(cut(prefix), false);
+                } else if (prefix.indexOf('%') != -1
+                        || prefix.indexOf('_') != -1) {
+                    // would have to be escaped in LIKE
+                    continue;
+                } else {
+                    candidate = new TokenCondition(prefix, true);
+                }
+            }
+            if (best == null || candidate.isBetterThan(best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static int indexOfWildcard(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c == '*' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String cut(String token) {
+        if (token.length() > MAX_TOKEN_LENGTH) {
+            return token.substring(0, MAX_TOKEN_LENGTH);
+        }
+        return token;
+    }
+
+    /**
+     * A condition on doTokens.token: either equality with a token, or the
+     * token starting with a prefix.
+     */
+    public static class TokenCondition {
+
+        private final String m_value;
+
+        private final boolean m_prefix;
+
+        TokenCondition(String value, boolean prefix) {
+            m_value = value;
+            m_prefix = prefix;
+        }
+
+        /**
+         * Get the token, or the prefix of the token.
+         */
+        public String getValue() {
+            return m_value;
+        }
+
+        public boolean isPrefix() {
+            return m_prefix;
+        }
+
+        /**
+         * Get the SQL condition on the given column, with a single parameter
+         * to be set to {@link #getParameter()}.
+         */
+        public String toSql(String column) {
+            return m_prefix ? column + " LIKE ?" : column + " = ?";
+        }
+
+        /**
+         * Get the parameter value for the SQL condition.
+         */
+        public String getParameter() {
+            return m_prefix ? m_value + "%" : m_value;
+        }
+
+        boolean isBetterThan(TokenCondition other) {
+            if (m_prefix != other.m_prefix) {
+                return !m_prefix;
+            }
+            return m_value.length() > other.m_value.length();
+        }
+    }
+
+}
@@ -26,6 +26,8 @@ public class ContentManagerParams {
     private String protocol;
     private boolean bypassBackend = false;
     private Context context;
+    private int timeoutSecs = -1;
+    private int sockTimeoutSecs = -1;
     
     
     public ContentManagerParams(){
@@ -91,5 +93,23 @@ public class ContentManagerParams {
     public Context getContext() {
         return context;
     }
+
+    /**
+     * Sets the connection and socket timeouts of an HTTP request, overriding
+     * those of the server's web client configuration; a negative value
+     * leaves the configured timeout in effect.
+     */
+    public void setTimeouts(int timeoutSecs, int sockTimeoutSecs) {
+        this.timeoutSecs = timeoutSecs;
+        this.sockTimeoutSecs = sockTimeoutSecs;
+    }
+
+    public int getTimeoutSecs() {
+        return timeoutSecs;
+    }
+
+    public int getSockTimeoutSecs() {
+        return sockTimeoutSecs;
+    }
 }
 
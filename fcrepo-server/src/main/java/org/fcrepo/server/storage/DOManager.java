@@ -113,4 +113,13 @@ public interface DOManager
      */
     public String getRepositoryHash() throws ServerException;
 
+    /**
+     * Get the in-memory graph of selected relationships between objects,
+     * which is kept up to date as objects are committed. Callers must check
+     * that it is ready, and otherwise look the relationships up another way.
+     *
+     * @return the graph, or null if it is not configured.
+     */
+    public RelationshipGraph getRelationshipGraph();
+
 }
@@ -14,15 +14,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -32,8 +35,10 @@ import java.util.regex.Pattern;
 
 import org.fcrepo.common.Constants;
 import org.fcrepo.common.Models;
+import org.fcrepo.common.rdf.SimpleURIReference;
 import org.fcrepo.server.Context;
 import org.fcrepo.server.Module;
+import org.fcrepo.server.ReadOnlyContext;
 import org.fcrepo.server.RecoveryContext;
 import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.ConnectionPoolNotFoundException;
@@ -56,6 +61,8 @@ import org.fcrepo.server.search.FieldSearch;
 import org.fcrepo.server.search.FieldSearchQuery;
 import org.fcrepo.server.search.FieldSearchResult;
 import org.fcrepo.server.storage.lowlevel.ICheckable;
+import org.fcrepo.server.storage.lowlevel.ICopyable;
+import org.fcrepo.server.storage.lowlevel.IListable;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.translation.DOTranslationUtility;
 import org.fcrepo.server.storage.translation.DOTranslator;
@@ -74,8 +81,10 @@ import org.fcrepo.server.utilities.StreamUtility;
 import org.fcrepo.server.validation.DOObjectValidator;
 import org.fcrepo.server.validation.DOValidator;
 import org.fcrepo.server.validation.ValidationUtility;
+import org.jrdf.graph.Triple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.trippi.TripleIterator;
 
 /**
  * Manages the reading and writing of digital objects by instantiating an
@@ -164,6 +173,16 @@ implements DOManager {
 
     private Map<String, ReentrantLock> m_pidLocks;
 
+    private RelationshipGraph m_relationshipGraph;
+
+    private final ServiceBindingCache m_serviceBindingCache =
+            new ServiceBindingCache();
+
+    private static final List<String> DEFAULT_GRAPH_PREDICATES =
+            Arrays.asList(Constants.MODEL.HAS_MODEL.uri,
+                    Constants.RELS_EXT.IS_MEMBER_OF.uri,
+                    Constants.RELS_EXT.uri + "isMemberOfCollection");
+
     /**
      * Creates a new DefaultDOManager.
      */
@@ -293,6 +312,23 @@ implements DOManager {
                         "Bad value for ingestValidationLevel", getRole());
             }
         }
+
+        // in-memory graph of selected relationships
+        String relationshipGraph = getParameter("relationshipGraph");
+        if (relationshipGraph != null &&
+                relationshipGraph.trim().equalsIgnoreCase("true")) {
+            List<String> predicates = DEFAULT_GRAPH_PREDICATES;
+            String graphPredicates =
+                    getParameter("relationshipGraphPredicates");
+            if (graphPredicates != null &&
+                    graphPredicates.trim().length() > 0) {
+                predicates =
+                        Arrays.asList(graphPredicates.trim().split("[\\s,]+"));
+            }
+            m_relationshipGraph = new RelationshipGraph(predicates);
+            logger.info("Keeping relationships through {} in memory",
+                    predicates);
+        }
     }
 
     protected void initRetainPID() {
@@ -439,6 +475,84 @@ implements DOManager {
 
         /* Load the service deployment cache from the registry */
         initializeCModelDeploymentCache();
+
+        if (m_relationshipGraph != null) {
+            Thread loader = new Thread("RelationshipGraph-loader") {
+
+                @Override
+                public void run() {
+                    loadRelationshipGraph();
+                }
+            };
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RelationshipGraph getRelationshipGraph() {
+        return m_relationshipGraph;
+    }
+
+    /**
+     * Loads the relationship graph from the Resource Index or, if it is off,
+     * by reading every object.
+     */
+    private void loadRelationshipGraph() {
+        long started = System.currentTimeMillis();
+        try {
+            if (m_resourceIndex.getIndexLevel() != ResourceIndex.INDEX_LEVEL_OFF) {
+                for (String predicate : m_relationshipGraph.getPredicates()) {
+                    TripleIterator triples =
+                            m_resourceIndex.findTriples(null,
+                                    new SimpleURIReference(new URI(predicate)),
+                                    null, 0);
+                    try {
+                        while (triples.hasNext()) {
+                            Triple triple = triples.next();
+                            m_relationshipGraph.loadRelationship(
+                                    triple.getSubject().stringValue(),
+                                    predicate,
+                                    triple.getObject().stringValue());
+                        }
+                    } finally {
+                        triples.close();
+                    }
+                }
+            } else if (m_permanentStore instanceof IListable) {
+                Context context = ReadOnlyContext.EMPTY;
+                Iterator<String> pids =
+                        ((IListable) m_permanentStore).listObjects();
+                while (pids.hasNext()) {
+                    String pid = pids.next();
+                    try {
+                        for (RelationshipTuple tuple : getReader(false,
+                                context, pid).getRelationships()) {
+                            if (!tuple.isLiteral) {
+                                m_relationshipGraph.loadRelationship(
+                                        tuple.subject, tuple.predicate,
+                                        tuple.object);
+                            }
+                        }
+                    } catch (ServerException e) {
+                        logger.warn("Relationships of " + pid +
+                                " not added to the relationship graph", e);
+                    }
+                }
+            } else {
+                logger.warn("The relationship graph can't be loaded without" +
+                        " the Resource Index or a listable object store");
+                return;
+            }
+            m_relationshipGraph.finishLoading();
+            logger.info("Loaded {} in {}ms", m_relationshipGraph,
+                    System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            logger.error("Error loading the relationship graph; it won't" +
+                    " be used", e);
+        }
     }
     
     @Override
@@ -741,7 +855,8 @@ implements DOManager {
             return new SimpleServiceDeploymentReader(context, this,
                     m_translator, m_defaultExportFormat,
                     m_defaultStorageFormat, m_storageCharacterEncoding,
-                    m_permanentStore.retrieveObject(pid));
+                    m_permanentStore.retrieveObject(pid),
+                    m_serviceBindingCache);
         }
     }
 
@@ -1088,6 +1203,24 @@ implements DOManager {
     public void doCommit(boolean cachedObjectRequired, Context context,
             DigitalObject obj, String logMessage, boolean remove)
             throws ServerException {
+        doCommit(cachedObjectRequired, context, obj, logMessage, remove, null);
+    }
+
+    /**
+     * Finalizes an ingest/update/remove of a digital object, as
+     * {@link #doCommit(boolean, Context, DigitalObject, String, boolean)},
+     * given which datastreams were changed. When an existing object is
+     * modified, only the Resource Index triples of its properties and of
+     * those datastreams are generated again.
+     *
+     * @param changedDatastreams
+     *        the IDs of the datastreams that were added, modified or
+     *        removed, or null if they are not known
+     */
+    public void doCommit(boolean cachedObjectRequired, Context context,
+            DigitalObject obj, String logMessage, boolean remove,
+            Set<String> changedDatastreams)
+            throws ServerException {
 
         String pid = obj.getPid();
 
@@ -1127,6 +1260,11 @@ implements DOManager {
                             // if it's a url, we need to grab content for this
                             // version
                             if (URL_PROTOCOL.matcher(dmc.DSLocation).matches()) {
+                                if (dmc.DSLocation
+                                        .startsWith(DatastreamManagedContent.COPY_SCHEME)
+                                        && copyManagedContent(obj, dmc, internalId)) {
+                                    continue;
+                                }
                                 MIMETypedStream mimeTypedStream;
                                 if (dmc.DSLocation
                                         .startsWith(DatastreamManagedContent.UPLOADED_SCHEME)) {
@@ -1334,6 +1472,10 @@ implements DOManager {
                     if (obj.isNew()) {
                         m_resourceIndex.addObject(new SimpleDOReader(null,
                                 null, null, null, null, obj));
+                    } else if (changedDatastreams != null) {
+                        m_resourceIndex.modifyObject(getReader(false, null, obj
+                                .getPid()), new SimpleDOReader(null, null,
+                                null, null, null, obj), changedDatastreams);
                     } else {
                         m_resourceIndex.modifyObject(getReader(false, null, obj
                                 .getPid()), new SimpleDOReader(null, null,
@@ -1366,6 +1508,15 @@ implements DOManager {
                     m_readerCache.remove(pid);
                 }
 
+                // INVALIDATE SERVICE BINDING CACHE:
+                m_serviceBindingCache.remove(pid);
+
+                // RELATIONSHIP GRAPH:
+                if (m_relationshipGraph != null) {
+                    m_relationshipGraph.setRelationships(pid,
+                            obj.getRelationships());
+                }
+
                 // REGISTRY:
                 /*
                  * update systemVersion in doRegistry (add one), and update
@@ -1568,6 +1719,14 @@ implements DOManager {
             m_readerCache.remove(pid);
         }
 
+        // INVALIDATE SERVICE BINDING CACHE:
+        m_serviceBindingCache.remove(pid);
+
+        // RELATIONSHIP GRAPH:
+        if (m_relationshipGraph != null) {
+            m_relationshipGraph.removeObject(pid);
+        }
+
         // REGISTRY:
         // Remove digital object from the registry
         try {
@@ -1662,6 +1821,38 @@ implements DOManager {
         }
     }
 
+    /**
+     * Copies the pre-existing content referenced by a <code>copy://</code>
+     * location within the low level store, if the store supports it, and
+     * points the datastream version at the new internal location.
+     *
+     * @return <code>true</code> if the content was copied;
+     *         <code>false</code> if the caller must stream the content into
+     *         the store itself.
+     */
+    private boolean copyManagedContent(DigitalObject obj, Datastream dmc,
+            String internalId) throws ServerException {
+        if (!(m_permanentStore instanceof ICopyable)) {
+            return false;
+        }
+        Map<String, String> dsHints =
+                m_hintProvider.getHintsForAboutToBeStoredDatastream(obj,
+                        dmc.DatastreamID);
+        try {
+            dmc.DSSize =
+                    ((ICopyable) m_permanentStore).copyDatastream(
+                            dmc.DSLocation.substring(7), internalId, dsHints);
+        } catch (ObjectAlreadyInLowlevelStorageException oailse) {
+            // a copy can only create new content; let the caller replace it
+            return false;
+        }
+        logger.info("Copied managed datastream content from " +
+                dmc.DSLocation + " to internal id: " + internalId);
+        dmc.DSLocation = internalId;
+        dmc.DSLocationType = Datastream.DS_LOCATION_TYPE_INTERNAL;
+        return true;
+    }
+
     /**
      * Checks the object registry for the given object.
      */
@@ -5,14 +5,17 @@
 package org.fcrepo.server.storage;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Map;
 
 import javax.activation.MimetypesFileTypeMap;
 
 import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
 import org.fcrepo.common.http.HttpInputStream;
 import org.fcrepo.common.http.WebClient;
 import org.fcrepo.common.http.WebClientConfiguration;
@@ -21,6 +24,7 @@ import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.GeneralException;
 import org.fcrepo.server.errors.HttpServiceNotFoundException;
 import org.fcrepo.server.errors.ModuleInitializationException;
+import org.fcrepo.server.errors.ModuleShutdownException;
 import org.fcrepo.server.errors.authorization.AuthzException;
 import org.fcrepo.server.security.Authorization;
 import org.fcrepo.server.security.BackendPolicies;
@@ -61,6 +65,8 @@ public class DefaultExternalContentManager
 
     private WebClient m_http;
 
+    private ExternalContentCache m_cache;
+
     /**
      * Creates a new DefaultExternalContentManager.
      *
@@ -112,6 +118,8 @@ public class DefaultExternalContentManager
 
             m_http = new WebClient(m_httpconfig);
 
+            m_cache = createCache();
+
         } catch (Throwable th) {
             throw new ModuleInitializationException("[DefaultExternalContentManager] "
                                                             + "An external content manager "
@@ -125,6 +133,55 @@ public class DefaultExternalContentManager
         }
     }
 
+    /**
+     * Creates the cache of external content given by the cacheBytes,
+     * cacheMaxEntryBytes, cacheDir and cacheHosts parameters.
+     *
+     * @return the cache, or null if caching is off.
+     */
+    private ExternalContentCache createCache() throws IOException {
+        String bytes = getParameter("cacheBytes");
+        long cacheBytes =
+                bytes == null || bytes.length() == 0 ? 0 : Long
+                        .parseLong(bytes);
+        String hosts = getParameter("cacheHosts");
+        if (cacheBytes <= 0 || hosts == null || hosts.trim().length() == 0) {
+            return null;
+        }
+        String maxEntry = getParameter("cacheMaxEntryBytes");
+        long maxEntryBytes =
+                maxEntry == null || maxEntry.length() == 0 ? 10485760 : Long
+                        .parseLong(maxEntry);
+        String dir = getParameter("cacheDir");
+        if (dir == null || dir.length() == 0) {
+            dir = "work/externalContentCache";
+        }
+        File cacheDir = new File(dir);
+        if (!cacheDir.isAbsolute()) {
+            cacheDir = new File(getServer().getHomeDir(), dir);
+        }
+        logger.info("Caching up to {} bytes of external content from {} in {}",
+                    new Object[] {cacheBytes, hosts.trim(), cacheDir});
+        return new ExternalContentCache(cacheDir, cacheBytes, maxEntryBytes,
+                                        Arrays.asList(hosts.trim()
+                                                .split("\\s+")));
+    }
+
+    @Override
+    public void shutdownModule() throws ModuleShutdownException {
+        if (m_cache != null) {
+            logger.info(m_cache.toString());
+        }
+        if (m_http != null) {
+            for (Map.Entry<String, String> route : m_http
+                    .getRouteStatistics().entrySet()) {
+                logger.info("HTTP client route " + route.getKey() + ": "
+                        + route.getValue());
+            }
+        }
+        super.shutdownModule();
+    }
+
     /*
      * Retrieves the external content.
      * Currently the protocols <code>file</code> and
@@ -162,26 +219,104 @@ public class DefaultExternalContentManager
      * Get a MIMETypedStream for the given URL. If user or password are
      * <code>null</code>, basic authentication will not be attempted.
      */
-    private MIMETypedStream get(String url, String user, String pass, String knownMimeType)
+    private MIMETypedStream get(String url, String user, String pass,
+                                String knownMimeType, int timeoutSecs,
+                                int sockTimeoutSecs)
             throws GeneralException {
         logger.debug("DefaultExternalContentManager.get(" + url + ")");
         try {
-            HttpInputStream response = m_http.get(url, true, user, pass);
-            String mimeType =
-                    response.getResponseHeaderValue("Content-Type",
-                                                    knownMimeType);
-            long length = Long.parseLong(response.getResponseHeaderValue("Content-Length","-1"));
-            Property[] headerArray =
-                    toPropertyArray(response.getResponseHeaders());
-            if (mimeType == null || mimeType.equals("")) {
-                mimeType = DEFAULT_MIMETYPE;
+            HttpInputStream response =
+                    m_http.get(url, true, user, pass, timeoutSecs,
+                               sockTimeoutSecs);
+            return toMIMETypedStream(response, knownMimeType);
+        } catch (Exception e) {
+            throw new GeneralException("Error getting " + url, e);
+        }
+    }
+
+    /**
+     * Gets content from the cache if it's fresh there, or if the origin says
+     * it hasn't been modified, and otherwise gets it from the origin, adding
+     * it to the cache if the origin allows.
+     */
+    private MIMETypedStream getCached(String url, String user, String pass,
+                                      String knownMimeType, int timeoutSecs,
+                                      int sockTimeoutSecs)
+            throws GeneralException {
+        String key = ExternalContentCache.getKey(url, user);
+        ExternalContentCache.Entry cached = m_cache.get(key);
+        if (cached != null && cached.isFresh()) {
+            MIMETypedStream content = m_cache.open(key, cached);
+            if (content != null) {
+                logger.debug("Serving fresh cached content of {}", url);
+                return content;
+            }
+            cached = null;
+        }
+        if (cached == null) {
+            try {
+                return m_cache.put(key, get(url, user, pass, knownMimeType,
+                                            timeoutSecs, sockTimeoutSecs));
+            } catch (IOException e) {
+                throw new GeneralException("Error caching " + url, e);
+            }
+        }
+        try {
+            Property[] conditions = cached.getConditions();
+            Header[] headers = new Header[conditions.length];
+            for (int i = 0; i < conditions.length; i++) {
+                headers[i] =
+                        new BasicHeader(conditions[i].name,
+                                        conditions[i].value);
             }
-            return new MIMETypedStream(mimeType, response, headerArray, length);
+            HttpInputStream response =
+                    m_http.get(url, false, user, pass, timeoutSecs,
+                               sockTimeoutSecs, headers);
+            int status = response.getStatusCode();
+            if (status == 304) {
+                Property[] header =
+                        toPropertyArray(response.getResponseHeaders());
+                response.close();
+                MIMETypedStream content =
+                        m_cache.open(key, m_cache.revalidated(key, cached,
+                                                              header));
+                if (content != null) {
+                    logger.debug("Serving revalidated cached content of {}",
+                                 url);
+                    return content;
+                }
+                return m_cache.put(key, get(url, user, pass, knownMimeType,
+                                            timeoutSecs, sockTimeoutSecs));
+            } else if (status != 200) {
+                response.close();
+                if (status == 404 || status == 410) {
+                    m_cache.remove(key);
+                }
+                throw new IOException("Request failed [" + status + " "
+                        + response.getStatusText() + "]");
+            }
+            return m_cache.put(key, toMIMETypedStream(response, knownMimeType));
+        } catch (GeneralException e) {
+            throw e;
         } catch (Exception e) {
             throw new GeneralException("Error getting " + url, e);
         }
     }
 
+    private static MIMETypedStream toMIMETypedStream(HttpInputStream response,
+                                                     String knownMimeType) {
+        String mimeType =
+                response.getResponseHeaderValue("Content-Type",
+                                                knownMimeType);
+        long length = Long.parseLong(response.getResponseHeaderValue("Content-Length","-1"));
+        Property[] headerArray =
+                toPropertyArray(response.getResponseHeaders());
+        if (mimeType == null || mimeType.equals("")) {
+            mimeType = DEFAULT_MIMETYPE;
+        }
+        return new MIMETypedStream(mimeType, response, headerArray, length);
+    }
+
     /**
      * Convert the given HTTP <code>Headers</code> to an array of
      * <code>Property</code> objects.
@@ -285,7 +420,8 @@ public class DefaultExternalContentManager
         String url = params.getUrl();
         // in case host is 'local.fedora.server', and has not been normalized (e.g. on validating datastream add)
         url = DOTranslationUtility.makeAbsoluteURLs(url);
-        if (ServerUtility.isURLFedoraServer(url) && !params.isBypassBackend()) {
+        boolean local = ServerUtility.isURLFedoraServer(url);
+        if (local && !params.isBypassBackend()) {
             BackendSecuritySpec m_beSS;
             BackendSecurity m_beSecurity =
                     (BackendSecurity) getServer()
@@ -321,7 +457,13 @@ public class DefaultExternalContentManager
             }
 
         }
-        return get(url, username, password, params.getMimeType());
+        if (m_cache != null && !local && m_cache.isCacheable(url)) {
+            return getCached(url, username, password, params.getMimeType(),
+                             params.getTimeoutSecs(),
+                             params.getSockTimeoutSecs());
+        }
+        return get(url, username, password, params.getMimeType(),
+                   params.getTimeoutSecs(), params.getSockTimeoutSecs());
     }
 
 /**
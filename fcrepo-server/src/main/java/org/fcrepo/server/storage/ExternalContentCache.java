@@ -0,0 +1,412 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.fcrepo.server.storage.types.MIMETypedStream;
+import org.fcrepo.server.storage.types.Property;
+import org.fcrepo.utilities.DiskCache;
+
+
+/**
+ * A disk-backed HTTP cache of external content, for the hosts it is allowed
+ * to cache content from.
+ * <p>
+ * Responses are kept as the origin allows: those marked no-store or private
+ * aren't kept; the others are fresh for as long as their Cache-Control
+ * max-age, or their Expires header, says. A response that isn't fresh, or
+ * that is marked no-cache, is revalidated with a conditional request if it
+ * has an ETag or Last-Modified header, and isn't kept if it has neither.
+ * </p>
+ * <p>
+ * Responses are keyed by URL and the user they were requested as, and kept
+ * in a {@link DiskCache}, which deletes the least recently used once their
+ * total size exceeds the limit, and deletes the responses left in the
+ * directory by an earlier cache when it is created.
+ * </p>
+ */
+public class ExternalContentCache {
+
+    private static final String HTTP_DATE = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /** Response headers that aren't kept with a response. */
+    private static final Set<String> HOP_BY_HOP = new HashSet<String>();
+    static {
+        for (String name : new String[] {"connection", "keep-alive",
+                "proxy-authenticate", "proxy-authorization", "te",
+                "trailers", "transfer-encoding", "upgrade", "set-cookie"}) {
+            HOP_BY_HOP.add(name);
+        }
+    }
+
+    private final DiskCache<Response> m_cache;
+
+    private final Set<String> m_hosts;
+
+    private final boolean m_allHosts;
+
+    private long m_revalidations;
+
+    /**
+     * Creates a cache, deleting any responses left in its directory.
+     *
+     * @param dir
+     *        the directory in which to keep the responses
+     * @param maxBytes
+     *        the total size of the responses to keep
+     * @param maxEntryBytes
+     *        the size of the largest response to keep
+     * @param hosts
+     *        the hosts whose content may be cached; "*" allows any host, and
+     *        a name starting with "." allows any host in that domain
+     * @throws IOException
+     *         if the directory can't be created.
+     */
+    public ExternalContentCache(File dir,
+                                long maxBytes,
+                                long maxEntryBytes,
+                                Collection<String> hosts) throws IOException {
+        m_cache =
+                new DiskCache<Response>(dir, "content", maxBytes, maxEntryBytes);
+        m_hosts = new HashSet<String>();
+        for (String host : hosts) {
+            m_hosts.add(host.toLowerCase());
+        }
+        m_allHosts = m_hosts.contains("*");
+    }
+
+    /**
+     * Tells whether content from the given URL may be cached, which it may
+     * if its host is allowed.
+     */
+    public boolean isCacheable(String url) {
+        String host;
+        try {
+            host = new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        if (m_allHosts || m_hosts.contains(host)) {
+            return true;
+        }
+        for (int dot = host.indexOf('.'); dot >= 0; dot =
+                host.indexOf('.', dot + 1)) {
+            if (m_hosts.contains(host.substring(dot))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the key of a URL requested as the given user, if any.
+     */
+    public static String getKey(String url, String user) {
+        return DiskCache.getKey((user == null ? "" : user) + "\n" + url);
+    }
+
+    /**
+     * Gets a cached response.
+     *
+     * @return the response, or null if there is none.
+     */
+    public Entry get(String key) {
+        DiskCache.Entry<Response> stored = m_cache.get(key);
+        return stored == null ? null : new Entry(stored);
+    }
+
+    /**
+     * Reads a cached response that is fresh, or has been revalidated.
+     *
+     * @return the response, or null if it can no longer be read.
+     */
+    public MIMETypedStream open(String key, Entry entry) {
+        InputStream in = m_cache.open(key, entry.m_stored);
+        if (in == null) {
+            return null;
+        }
+        Response response = entry.m_stored.getValue();
+        return new MIMETypedStream(response.mimeType, in, response.header,
+                                   entry.m_stored.getSize());
+    }
+
+    /**
+     * Updates a cached response with the headers of a 304 Not Modified
+     * response, which give its new freshness and validators.
+     *
+     * @return the updated response.
+     */
+    public Entry revalidated(String key, Entry entry, Property[] header) {
+        List<Property> merged = new ArrayList<Property>();
+        Response response = entry.m_stored.getValue();
+        for (Property old : response.header) {
+            if (getHeader(header, old.name) == null) {
+                merged.add(old);
+            }
+        }
+        for (Property property : header) {
+            if (property.name != null
+                    && !HOP_BY_HOP.contains(property.name.toLowerCase())
+                    && !property.name.equalsIgnoreCase("Content-Length")) {
+                merged.add(property);
+            }
+        }
+        Property[] mergedHeader = merged.toArray(new Property[merged.size()]);
+        long expires = getExpiry(mergedHeader, System.currentTimeMillis());
+        synchronized (this) {
+            m_revalidations++;
+        }
+        return new Entry(m_cache.setValue(key, entry.m_stored,
+                                          new Response(response.mimeType,
+                                                       mergedHeader,
+                                                       Math.max(expires, 0))));
+    }
+
+    /**
+     * Adds a 200 OK response to the cache if the origin allows it to be kept
+     * and it isn't too large.
+     *
+     * @param key
+     *        the key of the URL
+     * @param response
+     *        the response, which will have been read
+     * @return the response to send instead.
+     */
+    public MIMETypedStream put(String key, MIMETypedStream response)
+            throws IOException {
+        Property[] header = getStoredHeader(response.header);
+        long expires = getExpiry(header, System.currentTimeMillis());
+        boolean validatable =
+                getHeader(header, "ETag") != null
+                        || getHeader(header, "Last-Modified") != null;
+        if (expires < 0 || expires == 0 && !validatable
+                || "*".equals(getHeader(header, "Vary"))) {
+            return response;
+        }
+        DiskCache.Content content =
+                m_cache.put(key,
+                            response.getStream(),
+                            new Response(response.MIMEType, header, expires));
+        if (!content.isCached()) {
+            return new MIMETypedStream(response.MIMEType,
+                                       content.getStream(),
+                                       response.header,
+                                       response.getSize());
+        }
+        return new MIMETypedStream(response.MIMEType,
+                                   content.getStream(),
+                                   header,
+                                   content.getSize());
+    }
+
+    /**
+     * Gets the headers of a response that are kept with it.
+     */
+    private static Property[] getStoredHeader(Property[] header) {
+        List<Property> stored = new ArrayList<Property>();
+        if (header != null) {
+            for (Property property : header) {
+                if (property.name != null
+                        && !HOP_BY_HOP.contains(property.name.toLowerCase())) {
+                    stored.add(property);
+                }
+            }
+        }
+        return stored.toArray(new Property[stored.size()]);
+    }
+
+    /**
+     * Gets when a response stops being fresh.
+     *
+     * @return the time, 0 if it must be revalidated whenever it is used, or
+     *         -1 if it may not be kept.
+     */
+    static long getExpiry(Property[] header, long now) {
+        String cacheControl = getHeader(header, "Cache-Control");
+        long maxAge = -1;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store")
+                        || directive.startsWith("private")) {
+                    return -1;
+                } else if (directive.startsWith("no-cache")) {
+                    return 0;
+                } else if (directive.startsWith("s-maxage=")) {
+                    maxAge = parseSeconds(directive.substring(9));
+                    break;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring(8));
+                }
+            }
+        }
+        if (maxAge >= 0) {
+            return maxAge == 0 ? 0 : now + maxAge * 1000;
+        }
+        Date expires = parseDate(getHeader(header, "Expires"));
+        if (expires != null) {
+            Date date = parseDate(getHeader(header, "Date"));
+            long lifetime =
+                    expires.getTime() - (date == null ? now : date.getTime());
+            return lifetime > 0 ? now + lifetime : 0;
+        }
+        return 0;
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Date parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value.trim());
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    static String getHeader(Property[] header, String name) {
+        if (header != null) {
+            for (Property property : header) {
+                if (name.equalsIgnoreCase(property.name)) {
+                    return property.value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a cached response, such as one whose origin no longer has it.
+     */
+    public void remove(String key) {
+        m_cache.remove(key);
+    }
+
+    public int getEntryCount() {
+        return m_cache.getEntryCount();
+    }
+
+    /**
+     * Gets the total size of the cached responses.
+     */
+    public long getBytes() {
+        return m_cache.getBytes();
+    }
+
+    /**
+     * Gets the number of responses served from the cache, including those
+     * that were revalidated.
+     */
+    public long getHits() {
+        return m_cache.getHits();
+    }
+
+    /**
+     * Gets the number of responses the origin said were not modified.
+     */
+    public synchronized long getRevalidations() {
+        return m_revalidations;
+    }
+
+    public long getMisses() {
+        return m_cache.getMisses();
+    }
+
+    public long getEvictions() {
+        return m_cache.getEvictions();
+    }
+
+    @Override
+    public String toString() {
+        return "External content cache: " + m_cache.getEntryCount()
+                + " responses, " + m_cache.getBytes() + " of "
+                + m_cache.getMaxBytes() + " bytes, " + m_cache.getHits()
+                + " hits (" + getRevalidations() + " revalidated), "
+                + m_cache.getMisses() + " misses, " + m_cache.getEvictions()
+                + " evictions";
+    }
+
+    /**
+     * The type, headers and freshness of a cached response.
+     */
+    private static class Response {
+
+        final String mimeType;
+
+        final Property[] header;
+
+        /** When it stops being fresh, or 0 if it must be revalidated. */
+        final long expires;
+
+        Response(String mimeType, Property[] header, long expires) {
+            this.mimeType = mimeType;
+            this.header = header;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    public static class Entry {
+
+        private final DiskCache.Entry<Response> m_stored;
+
+        Entry(DiskCache.Entry<Response> stored) {
+            m_stored = stored;
+        }
+
+        public boolean isFresh() {
+            return m_stored.getValue().expires > System.currentTimeMillis();
+        }
+
+        /**
+         * Gets the headers of a conditional request for the response.
+         */
+        public Property[] getConditions() {
+            Property[] header = m_stored.getValue().header;
+            List<Property> conditions = new ArrayList<Property>();
+            String eTag = getHeader(header, "ETag");
+            if (eTag != null) {
+                conditions.add(new Property("If-None-Match", eTag));
+            }
+            String lastModified = getHeader(header, "Last-Modified");
+            if (lastModified != null) {
+                conditions.add(new Property("If-Modified-Since",
+                                            lastModified));
+            }
+            return conditions.toArray(new Property[conditions.size()]);
+        }
+    }
+
+}
@@ -13,6 +13,7 @@ import java.net.URL;
 import java.net.URLEncoder;
 
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -151,9 +152,16 @@ public class GSearchDOManager
                          Context context,
                          DigitalObject obj,
                          String logMessage,
-                         boolean remove) throws ServerException {
-
-        super.doCommit(cachedObjectRequired, context, obj, logMessage, remove);
+                         boolean remove,
+                         Set<String> changedDatastreams)
+            throws ServerException {
+
+        super.doCommit(cachedObjectRequired,
+                       context,
+                       obj,
+                       logMessage,
+                       remove,
+                       changedDatastreams);
 
         // determine the url we need to invoke
         StringBuffer url = new StringBuffer();
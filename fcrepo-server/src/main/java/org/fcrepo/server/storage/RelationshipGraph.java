@@ -0,0 +1,399 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.server.storage.types.RelationshipTuple;
+
+
+/**
+ * An in-memory index of the relationships between objects through a few
+ * predicates, such as hasModel and isMemberOf.
+ * <p>
+ * Each object URI is given an int ID by a dictionary, and for each predicate
+ * the graph keeps arrays of the IDs each object is related to, and of the IDs
+ * related to it, so both directions can be looked up without reading an
+ * object or querying the triplestore. IDs are never reused, so the URIs of
+ * purged objects stay in the dictionary.
+ * </p>
+ * <p>
+ * The graph is loaded once, while the repository may already be changing:
+ * relationships found by {@link #loadRelationship(String, String, String)}
+ * are ignored for any object whose relationships have been set since loading
+ * began, since those are newer. Until {@link #finishLoading()} is called, the
+ * graph is not ready and lookups return null, so callers must find the
+ * relationships some other way.
+ * </p>
+ */
+public class RelationshipGraph {
+
+    private static final String FEDORA_URI = Constants.FEDORA.uri;
+
+    private static final int[] NONE = new int[0];
+
+    private final String[] m_predicates;
+
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> m_ids = new HashMap<String, Integer>();
+
+    private final List<String> m_uris = new ArrayList<String>();
+
+    /** For each predicate and object ID, the IDs it is related to. */
+    private int[][][] m_out;
+
+    /**
+     * For each predicate and object ID, the IDs related to it, in an array
+     * that may be longer than m_inSize.
+     */
+    private int[][][] m_in;
+
+    private int[][] m_inSize;
+
+    private long m_relationships;
+
+    /** The IDs whose relationships were set while loading, or null. */
+    private Set<Integer> m_setWhileLoading = new HashSet<Integer>();
+
+    /**
+     * Creates a graph, which is not ready until it has been loaded.
+     *
+     * @param predicates
+     *        the URIs of the predicates to index.
+     */
+    public RelationshipGraph(Collection<String> predicates) {
+        if (predicates.isEmpty()) {
+            throw new IllegalArgumentException("No predicates to index");
+        }
+        m_predicates = predicates.toArray(new String[predicates.size()]);
+        m_out = new int[m_predicates.length][16][];
+        m_in = new int[m_predicates.length][16][];
+        m_inSize = new int[m_predicates.length][16];
+    }
+
+    /**
+     * Gets the URIs of the indexed predicates.
+     */
+    public List<String> getPredicates() {
+        return Collections.unmodifiableList(Arrays.asList(m_predicates));
+    }
+
+    public boolean isIndexed(String predicate) {
+        return indexOf(predicate) >= 0;
+    }
+
+    /**
+     * Tells whether the graph has been loaded.
+     */
+    public boolean isReady() {
+        m_lock.readLock().lock();
+        try {
+            return m_setWhileLoading == null;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a relationship found while loading the graph, unless the subject's
+     * relationships have been set since loading began. Relationships through
+     * other predicates, or to anything but a Fedora object, are ignored.
+     */
+    public void loadRelationship(String subject,
+                                 String predicate,
+                                 String object) {
+        int p = indexOf(predicate);
+        if (p < 0 || !isObjectURI(subject) || !isObjectURI(object)) {
+            return;
+        }
+        m_lock.writeLock().lock();
+        try {
+            int s = getId(subject);
+            if (m_setWhileLoading != null && m_setWhileLoading.contains(s)) {
+                return;
+            }
+            int o = getId(object);
+            int[] out = m_out[p][s] == null ? NONE : m_out[p][s];
+            for (int id : out) {
+                if (id == o) {
+                    return;
+                }
+            }
+            out = Arrays.copyOf(out, out.length + 1);
+            out[out.length - 1] = o;
+            m_out[p][s] = out;
+            addIn(p, o, s);
+            m_relationships++;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the graph as loaded.
+     */
+    public void finishLoading() {
+        m_lock.writeLock().lock();
+        try {
+            m_setWhileLoading = null;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the relationships of an object with those of the given tuples
+     * that are about the object itself, through an indexed predicate, to
+     * another Fedora object.
+     *
+     * @param pid
+     *        the PID or URI of the object.
+     * @param tuples
+     *        the object's relationships.
+     */
+    public void setRelationships(String pid, Set<RelationshipTuple> tuples) {
+        String subject = toURI(pid);
+        List<List<String>> objects =
+                new ArrayList<List<String>>(m_predicates.length);
+        for (int p = 0; p < m_predicates.length; p++) {
+            objects.add(new ArrayList<String>());
+        }
+        for (RelationshipTuple tuple : tuples) {
+            int p = indexOf(tuple.predicate);
+            if (p >= 0 && subject.equals(tuple.subject) && !tuple.isLiteral
+                    && isObjectURI(tuple.object)
+                    && !objects.get(p).contains(tuple.object)) {
+                objects.get(p).add(tuple.object);
+            }
+        }
+        m_lock.writeLock().lock();
+        try {
+            int s = getId(subject);
+            if (m_setWhileLoading != null) {
+                m_setWhileLoading.add(s);
+            }
+            for (int p = 0; p < m_predicates.length; p++) {
+                int[] out = m_out[p][s];
+                if (out != null) {
+                    for (int o : out) {
+                        removeIn(p, o, s);
+                    }
+                    m_relationships -= out.length;
+                }
+                out = new int[objects.get(p).size()];
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = getId(objects.get(p).get(i));
+                    addIn(p, out[i], s);
+                }
+                m_out[p][s] = out.length == 0 ? null : out;
+                m_relationships += out.length;
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the relationships of a purged object. Relationships of other
+     * objects to it are kept, since they are still asserted.
+     */
+    public void removeObject(String pid) {
+        Set<RelationshipTuple> none = Collections.emptySet();
+        setRelationships(pid, none);
+    }
+
+    /**
+     * Gets the URIs of the objects an object is related to.
+     *
+     * @param pid
+     *        the PID or URI of the object.
+     * @param predicate
+     *        the URI of the predicate.
+     * @return the URIs, or null if the graph isn't ready or doesn't index
+     *         the predicate.
+     */
+    public List<String> getObjects(String pid, String predicate) {
+        int p = indexOf(predicate);
+        if (p < 0) {
+            return null;
+        }
+        m_lock.readLock().lock();
+        try {
+            if (m_setWhileLoading != null) {
+                return null;
+            }
+            Integer s = m_ids.get(toURI(pid));
+            if (s == null || m_out[p][s] == null) {
+                return Collections.emptyList();
+            }
+            return getURIs(m_out[p][s], m_out[p][s].length);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the URIs of the objects related to an object, such as the
+     * members of a collection.
+     *
+     * @param predicate
+     *        the URI of the predicate.
+     * @param pid
+     *        the PID or URI of the object.
+     * @return the URIs, or null if the graph isn't ready or doesn't index
+     *         the predicate.
+     */
+    public List<String> getSubjects(String predicate, String pid) {
+        int p = indexOf(predicate);
+        if (p < 0) {
+            return null;
+        }
+        m_lock.readLock().lock();
+        try {
+            if (m_setWhileLoading != null) {
+                return null;
+            }
+            Integer o = m_ids.get(toURI(pid));
+            if (o == null || m_in[p][o] == null) {
+                return Collections.emptyList();
+            }
+            return getURIs(m_in[p][o], m_inSize[p][o]);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the URIs of the content models of an object, as
+     * {@link DOReader#getContentModels()} would. Every object has at least
+     * one, so an empty list means the object is not known to the graph.
+     *
+     * @return the URIs, or null if the graph isn't ready or doesn't index
+     *         hasModel.
+     */
+    public List<String> getContentModels(String pid) {
+        return getObjects(pid, Constants.MODEL.HAS_MODEL.uri);
+    }
+
+    /**
+     * Gets the number of objects in the dictionary.
+     */
+    public int size() {
+        m_lock.readLock().lock();
+        try {
+            return m_uris.size();
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    public long getRelationshipCount() {
+        m_lock.readLock().lock();
+        try {
+            return m_relationships;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        m_lock.readLock().lock();
+        try {
+            return "Relationship graph: " + m_uris.size() + " objects, "
+                    + m_relationships + " relationships through "
+                    + Arrays.toString(m_predicates)
+                    + (m_setWhileLoading == null ? "" : " (loading)");
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    private int indexOf(String predicate) {
+        for (int p = 0; p < m_predicates.length; p++) {
+            if (m_predicates[p].equals(predicate)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isObjectURI(String uri) {
+        return uri != null && uri.startsWith(FEDORA_URI)
+                && uri.indexOf('/', FEDORA_URI.length()) < 0;
+    }
+
+    private static String toURI(String pid) {
+        return pid.startsWith(FEDORA_URI) ? pid : FEDORA_URI + pid;
+    }
+
+    /**
+     * Gets the ID of a URI, adding it to the dictionary if necessary. The
+     * write lock must be held.
+     */
+    private int getId(String uri) {
+        Integer id = m_ids.get(uri);
+        if (id == null) {
+            id = m_uris.size();
+            m_ids.put(uri, id);
+            m_uris.add(uri);
+            if (id == m_out[0].length) {
+                int capacity = id * 2;
+                for (int p = 0; p < m_predicates.length; p++) {
+                    m_out[p] = Arrays.copyOf(m_out[p], capacity);
+                    m_in[p] = Arrays.copyOf(m_in[p], capacity);
+                    m_inSize[p] = Arrays.copyOf(m_inSize[p], capacity);
+                }
+            }
+        }
+        return id;
+    }
+
+    private void addIn(int p, int o, int s) {
+        int[] in = m_in[p][o];
+        int size = m_inSize[p][o];
+        if (in == null) {
+            in = new int[2];
+        } else if (size == in.length) {
+            in = Arrays.copyOf(in, size * 2);
+        }
+        in[size] = s;
+        m_in[p][o] = in;
+        m_inSize[p][o] = size + 1;
+    }
+
+    private void removeIn(int p, int o, int s) {
+        int[] in = m_in[p][o];
+        int size = m_inSize[p][o];
+        for (int i = 0; i < size; i++) {
+            if (in[i] == s) {
+                in[i] = in[size - 1];
+                m_inSize[p][o] = size - 1;
+                return;
+            }
+        }
+    }
+
+    private List<String> getURIs(int[] ids, int count) {
+        List<String> uris = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            uris.add(m_uris.get(ids[i]));
+        }
+        return uris;
+    }
+
+}
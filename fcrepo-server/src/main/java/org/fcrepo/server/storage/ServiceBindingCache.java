@@ -0,0 +1,95 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fcrepo.server.storage.types.Datastream;
+
+
+/**
+ * A cache of the parsed binding metadata of service deployments: the method
+ * definitions, operation bindings and datastream input specs that are
+ * otherwise parsed from the WSDL, METHODMAP and DSINPUTSPEC datastreams
+ * whenever a deployment is used.
+ * <p>
+ * Each value is keyed by the deployment's PID and the versions of the
+ * datastreams it was parsed from, so a value is never used for another
+ * version of a datastream. The values of a deployment are also removed when
+ * the deployment is modified or purged, so those of versions that are no
+ * longer current don't accumulate.
+ * </p>
+ * <p>
+ * Values are shared by every reader of a deployment, so they must not be
+ * modified.
+ * </p>
+ */
+public class ServiceBindingCache {
+
+    /** For each deployment PID, the values by key. */
+    private final ConcurrentMap<String, ConcurrentMap<String, Object>> m_cache =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Object>>();
+
+    /**
+     * Gets the key of a value parsed from the given datastreams.
+     *
+     * @param kind
+     *        what the value is, such as "bindings"
+     * @param sources
+     *        the versions of the datastreams it was parsed from
+     */
+    public static String getKey(String kind, Datastream... sources) {
+        StringBuilder key = new StringBuilder(kind);
+        for (Datastream ds : sources) {
+            key.append(' ').append(ds.DatastreamID).append('/')
+                    .append(ds.DSVersionID);
+            if (ds.DSCreateDT != null) {
+                key.append('/').append(ds.DSCreateDT.getTime());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets a value.
+     *
+     * @return the value, or null if it isn't cached.
+     */
+    public Object get(String pid, String key) {
+        ConcurrentMap<String, Object> values = m_cache.get(pid);
+        return values == null ? null : values.get(key);
+    }
+
+    public void put(String pid, String key, Object value) {
+        ConcurrentMap<String, Object> values = m_cache.get(pid);
+        if (values == null) {
+            values = new ConcurrentHashMap<String, Object>();
+            ConcurrentMap<String, Object> existing =
+                    m_cache.putIfAbsent(pid, values);
+            if (existing != null) {
+                values = existing;
+            }
+        }
+        values.put(key, value);
+    }
+
+    /**
+     * Removes the values of an object, which has been modified or purged.
+     * Nothing is cached for objects that aren't deployments, so this is cheap
+     * for any object.
+     */
+    public void remove(String pid) {
+        m_cache.remove(pid);
+    }
+
+    /**
+     * Gets the number of deployments with cached values.
+     */
+    public int size() {
+        return m_cache.size();
+    }
+
+}
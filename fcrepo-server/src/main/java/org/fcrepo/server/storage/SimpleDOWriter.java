@@ -13,7 +13,9 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.Triple;
@@ -87,6 +89,9 @@ public class SimpleDOWriter
 
     private boolean m_committed = false;
 
+    /** The IDs of the datastreams that were added, modified or removed. */
+    private final Set<String> m_changedDatastreams = new HashSet<String>();
+
     public SimpleDOWriter(Context context,
                           DefaultDOManager mgr,
                           DOTranslator translator,
@@ -120,6 +125,7 @@ public class SimpleDOWriter
         for (Datastream ds : m_obj.datastreams(datastreamID)) {
             ds.DSState = dsState;
         }
+        m_changedDatastreams.add(datastreamID);
     }
 
     public void setDatastreamVersionable(String datastreamID,
@@ -170,6 +176,7 @@ public class SimpleDOWriter
         assertNotPendingRemoval();
         // use this call to handle versionable
         m_obj.addDatastreamVersion(datastream, addNewVersion);
+        m_changedDatastreams.add(datastream.DatastreamID);
     }
 
     /**
@@ -227,6 +234,9 @@ public class SimpleDOWriter
         for (Datastream toRemove : removeList) {
             m_obj.removeDatastreamVersion(toRemove);
         }
+        if (!removeList.isEmpty()) {
+            m_changedDatastreams.add(id);
+        }
 
         // finally, return the dates of each deleted item
         Date[] deletedDates = new Date[removeList.size()];
@@ -512,7 +522,8 @@ public class SimpleDOWriter
                        m_context,
                        m_obj,
                        logMessage,
-                       m_pendingRemoval);
+                       m_pendingRemoval,
+                       m_changedDatastreams);
         m_committed = true;
         invalidate();
     }
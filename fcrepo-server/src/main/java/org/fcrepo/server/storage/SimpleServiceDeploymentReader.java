@@ -22,6 +22,7 @@ import org.fcrepo.server.errors.StreamIOException;
 import org.fcrepo.server.errors.UnsupportedTranslationException;
 import org.fcrepo.server.storage.service.ServiceMapper;
 import org.fcrepo.server.storage.translation.DOTranslator;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
 import org.fcrepo.server.storage.types.DeploymentDSBindSpec;
 import org.fcrepo.server.storage.types.DigitalObject;
 import org.fcrepo.server.storage.types.MethodDef;
@@ -40,6 +41,8 @@ public class SimpleServiceDeploymentReader
 
     private final ServiceMapper serviceMapper;
 
+    private final ServiceBindingCache bindingCache;
+
     public SimpleServiceDeploymentReader(Context context,
                              RepositoryReader repoReader,
                              DOTranslator translator,
@@ -49,6 +52,30 @@ public class SimpleServiceDeploymentReader
                              InputStream serializedObject)
             throws ObjectIntegrityException, StreamIOException,
             UnsupportedTranslationException, ServerException {
+        this(context,
+             repoReader,
+             translator,
+             exportFormat,
+             storageFormat,
+             encoding,
+             serializedObject,
+             null);
+    }
+
+    /**
+     * Constructs a reader that gets the parsed binding metadata from the
+     * given cache, if it has been parsed before, and adds it if not.
+     */
+    public SimpleServiceDeploymentReader(Context context,
+                             RepositoryReader repoReader,
+                             DOTranslator translator,
+                             String exportFormat,
+                             String storageFormat,
+                             String encoding,
+                             InputStream serializedObject,
+                             ServiceBindingCache bindingCache)
+            throws ObjectIntegrityException, StreamIOException,
+            UnsupportedTranslationException, ServerException {
         super(context,
               repoReader,
               translator,
@@ -57,6 +84,7 @@ public class SimpleServiceDeploymentReader
               encoding,
               serializedObject);
         serviceMapper = new ServiceMapper(GetObjectPID());
+        this.bindingCache = bindingCache;
     }
 
     /**
@@ -71,13 +99,21 @@ public class SimpleServiceDeploymentReader
                              DigitalObject obj) {
         super(context, repoReader, translator, exportFormat, encoding, obj);
         serviceMapper = new ServiceMapper(GetObjectPID());
+        bindingCache = null;
     }
 
     public MethodDef[] getServiceMethods(Date versDateTime)
             throws DatastreamNotFoundException, ObjectIntegrityException,
             RepositoryConfigurationException, GeneralException {
-        return serviceMapper
-                .getMethodDefs(new InputSource(new ByteArrayInputStream(getMethodMapDatastream(versDateTime).xmlContent)));
+        DatastreamXMLMetadata mmap = getMethodMapDatastream(versDateTime);
+        String key = ServiceBindingCache.getKey("methods", mmap);
+        MethodDef[] methods = (MethodDef[]) getCached(key);
+        if (methods == null) {
+            methods = serviceMapper
+                    .getMethodDefs(new InputSource(new ByteArrayInputStream(mmap.xmlContent)));
+            putCached(key, methods);
+        }
+        return methods;
     }
 
     public MethodParmDef[] getServiceMethodParms(String methodName,
@@ -89,16 +125,33 @@ public class SimpleServiceDeploymentReader
     public MethodDefOperationBind[] getServiceMethodBindings(Date versDateTime)
             throws DatastreamNotFoundException, ObjectIntegrityException,
             RepositoryConfigurationException, GeneralException {
-        return serviceMapper
-                .getMethodDefBindings(new InputSource(new ByteArrayInputStream(getWSDLDatastream(versDateTime).xmlContent)),
-                                      new InputSource(new ByteArrayInputStream(getMethodMapDatastream(versDateTime).xmlContent)));
+        DatastreamXMLMetadata wsdl = getWSDLDatastream(versDateTime);
+        DatastreamXMLMetadata mmap = getMethodMapDatastream(versDateTime);
+        String key = ServiceBindingCache.getKey("bindings", wsdl, mmap);
+        MethodDefOperationBind[] bindings =
+                (MethodDefOperationBind[]) getCached(key);
+        if (bindings == null) {
+            bindings = serviceMapper
+                    .getMethodDefBindings(new InputSource(new ByteArrayInputStream(wsdl.xmlContent)),
+                                          new InputSource(new ByteArrayInputStream(mmap.xmlContent)));
+            putCached(key, bindings);
+        }
+        return bindings;
     }
 
     public DeploymentDSBindSpec getServiceDSInputSpec(Date versDateTime)
             throws DatastreamNotFoundException, ObjectIntegrityException,
             RepositoryConfigurationException, GeneralException {
-        return serviceMapper
-                .getDSInputSpec(new InputSource(new ByteArrayInputStream(getDSInputSpecDatastream(versDateTime).xmlContent)));
+        DatastreamXMLMetadata dsInputSpec =
+                getDSInputSpecDatastream(versDateTime);
+        String key = ServiceBindingCache.getKey("dsInputSpec", dsInputSpec);
+        DeploymentDSBindSpec spec = (DeploymentDSBindSpec) getCached(key);
+        if (spec == null) {
+            spec = serviceMapper
+                    .getDSInputSpec(new InputSource(new ByteArrayInputStream(dsInputSpec.xmlContent)));
+            putCached(key, spec);
+        }
+        return spec;
     }
 
     public InputStream getServiceMethodsXML(Date versDateTime)
@@ -106,6 +159,19 @@ public class SimpleServiceDeploymentReader
         return new ByteArrayInputStream(getMethodMapDatastream(versDateTime).xmlContent);
     }
 
+    private Object getCached(String key) {
+        if (bindingCache == null) {
+            return null;
+        }
+        return bindingCache.get(GetObjectPID(), key);
+    }
+
+    private void putCached(String key, Object value) {
+        if (bindingCache != null) {
+            bindingCache.put(GetObjectPID(), key, value);
+        }
+    }
+
     /**
      * Get the parms out of a particular service method definition.
      * 
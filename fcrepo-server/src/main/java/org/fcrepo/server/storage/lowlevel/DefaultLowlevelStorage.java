@@ -24,7 +24,7 @@ import org.slf4j.LoggerFactory;
  * @author Bill Niebel
  */
 public class DefaultLowlevelStorage
-        implements ILowlevelStorage, IListable, ISizable, ICheckable {
+        implements ILowlevelStorage, IListable, ISizable, ICheckable, ICopyable {
 
     private static final Logger logger =
             LoggerFactory.getLogger(DefaultLowlevelStorage.class);
@@ -152,6 +152,13 @@ public class DefaultLowlevelStorage
         return datastreamStore.getSize(dsKey);
     }
 
+    //ICopyable methods
+    @Override
+    public long copyDatastream(String sourceKey, String targetKey,
+            Map<String, String> hints) throws LowlevelStorageException {
+        return datastreamStore.copy(sourceKey, targetKey);
+    }
+
     // ICheckable methods
     @Override
     public boolean objectExists(String objectKey) {
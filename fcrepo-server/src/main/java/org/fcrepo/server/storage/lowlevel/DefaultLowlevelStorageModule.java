@@ -25,7 +25,7 @@ import org.fcrepo.server.storage.ConnectionPoolManager;
  */
 public class DefaultLowlevelStorageModule
         extends Module
-        implements ILowlevelStorage, IListable, ISizable, ICheckable {
+        implements ILowlevelStorage, IListable, ISizable, ICheckable, ICopyable {
 
     private DefaultLowlevelStorage m_llstore;
 
@@ -189,6 +189,14 @@ public class DefaultLowlevelStorageModule
         return m_llstore.getDatastreamSize(dsKey);
     }
     
+    // ICopyable methods
+
+    @Override
+    public long copyDatastream(String sourceKey, String targetKey,
+            Map<String, String> hints) throws LowlevelStorageException {
+        return m_llstore.copyDatastream(sourceKey, targetKey, hints);
+    }
+
     // ICheckable methods
     @Override
     public boolean objectExists(String objectKey) {
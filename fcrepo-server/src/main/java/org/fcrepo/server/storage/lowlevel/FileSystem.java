@@ -31,6 +31,16 @@ public abstract class FileSystem {
 
     public abstract void delete(File file) throws LowlevelStorageException;
 
+    /**
+     * Copies the content of an existing file to a new file. Implementations
+     * that can do better than reading and re-writing the content (for
+     * instance by letting the operating system perform the copy) should
+     * override this method.
+     */
+    public void copy(File source, File target) throws LowlevelStorageException {
+        write(target, read(source));
+    }
+
     public abstract String[] list(File directory);
 
     public abstract boolean isDirectory(File file);
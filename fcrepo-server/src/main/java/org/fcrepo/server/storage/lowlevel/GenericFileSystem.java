@@ -16,6 +16,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import java.nio.channels.FileChannel;
+
 import java.util.Map;
 
 import org.fcrepo.server.errors.LowlevelStorageException;
@@ -201,6 +203,67 @@ public class GenericFileSystem
         return fileInputStream;
     }
 
+    /**
+     * Copies the file using {@link FileChannel#transferTo}, which lets the
+     * operating system move the bytes directly between the two files
+     * instead of passing them through a user-space buffer.
+     */
+    @Override
+    public void copy(File source, File target) throws LowlevelStorageException {
+        if (!source.exists()) {
+            throw new LowlevelStorageException(true, "file "
+                    + getPath(source) + "doesn't exist for copying");
+        }
+        File containingDirectories = target.getParentFile();
+        if (containingDirectories != null && !containingDirectories.exists()
+                && !containingDirectories.mkdirs()) {
+            throw new LowlevelStorageException(true,
+                    "GenericFileSystem.copy(): couldn't make directories for ["
+                            + getPath(target) + "]");
+        }
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        boolean successful = false;
+        try {
+            in = new FileInputStream(source);
+            out = new FileOutputStream(target);
+            FileChannel src = in.getChannel();
+            FileChannel dst = out.getChannel();
+            long size = src.size();
+            long position = 0;
+            while (position < size) {
+                position += src.transferTo(position, size - position, dst);
+            }
+            out.close();
+            out = null;
+            successful = true;
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true, "couldn't copy file "
+                    + getPath(source) + " to " + getPath(target), e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close file for reading "
+                            + source.getPath(), e);
+                }
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close file for writing "
+                            + target.getPath(), e);
+                }
+            }
+            if (!successful && target.exists() && !target.delete()) {
+                logger.warn("Could not delete partial copy {}",
+                        target.getPath());
+            }
+        }
+    }
+
     @Override
     public final void delete(File file) throws LowlevelStorageException {
         file.delete();
@@ -0,0 +1,44 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.util.Map;
+
+import org.fcrepo.server.errors.LowlevelStorageException;
+
+/**
+ * Interface for {@link ILowlevelStorage} implementations that are
+ * capable of copying the content of one datastream version to another
+ * without the content passing through the caller. This allows managed
+ * content referenced by a <code>copy://</code> location to be duplicated
+ * within the store rather than being read back and re-written.
+ *
+ * @since Fedora 3.7.2
+ */
+public interface ICopyable {
+
+    /**
+     * Copies the content of an existing datastream version to a new
+     * datastream version.
+     *
+     * @param sourceKey the $pid "+" $dsId "+" $dsVersionId string that
+     *        identifies the datastream version to copy from.
+     * @param targetKey the $pid "+" $dsId "+" $dsVersionId string that
+     *        identifies the new datastream version.
+     * @param dsStorageHints a map of hints for datastream storage
+     * @return the size of the new datastream version in bytes
+     * @throws org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException if the target
+     *         datastream version already exists.
+     * @throws org.fcrepo.server.errors.ObjectNotInLowlevelStorageException if the source datastream
+     *         version does not exist.
+     * @throws LowlevelStorageException if the content cannot be copied for
+     *         any other reason.
+     */
+    public long copyDatastream(String sourceKey,
+                               String targetKey,
+                               Map<String, String> dsStorageHints)
+            throws LowlevelStorageException;
+
+}
@@ -30,6 +30,7 @@ import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
 import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
 import org.fcrepo.server.storage.lowlevel.ICheckable;
+import org.fcrepo.server.storage.lowlevel.ICopyable;
 import org.fcrepo.server.storage.lowlevel.IListable;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.lowlevel.ISizable;
@@ -47,7 +48,7 @@ import org.slf4j.LoggerFactory;
  * @author Chris Wilper
  */
 public class AkubraLowlevelStorage
-        implements ILowlevelStorage, IListable, ISizable, ICheckable {
+        implements ILowlevelStorage, IListable, ISizable, ICheckable, ICopyable {
 
     private static final Logger logger =
             LoggerFactory.getLogger(AkubraLowlevelStorage.class);
@@ -203,6 +204,15 @@ public class AkubraLowlevelStorage
         return getSize(datastreamStore, dsKey);
     }
     
+    //
+    // ICopyable methods
+    //
+    @Override
+    public long copyDatastream(String sourceKey, String targetKey,
+            Map<String, String> hints) throws LowlevelStorageException {
+        return copy(datastreamStore, sourceKey, targetKey, hints);
+    }
+
     //
     // ICheckable methods
     //
@@ -240,6 +250,54 @@ public class AkubraLowlevelStorage
         }
     }
 
+    /**
+     * Copies one blob to another using a single connection, so the store
+     * only has to resolve both blobs once and the new blob can be created
+     * with its final size known in advance.
+     */
+    private static long copy(BlobStore store,
+                             String sourceKey,
+                             String targetKey,
+                             Map<String, String> hints)
+            throws LowlevelStorageException {
+        BlobStoreConnection connection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        Blob target = null;
+        boolean copied = false;
+        try {
+            URI sourceId = getBlobId(sourceKey);
+            URI targetId = getBlobId(targetKey);
+            connection = getConnection(store, hints);
+            Blob source = getBlob(connection, sourceId, null);
+            target = getBlob(connection, targetId, hints);
+            long size = source.getSize();
+            in = openInputStream(source);
+            out = openOutputStream(target, size, false);
+            IOUtils.copyLarge(in, out);
+            // a store may only commit the blob on close, so a failure to
+            // close is a failure to copy
+            out.close();
+            copied = true;
+            return size;
+        } catch (MissingBlobException e) {
+            throw new ObjectNotInLowlevelStorageException("Object not found in low-level storage: " + sourceKey);
+        } catch (DuplicateBlobException e) {
+            throw new ObjectAlreadyInLowlevelStorageException(targetKey, e);
+        } catch (IOException e) {
+            logger.error(e.toString(),e);
+            throw new FaultException("System error copying blob", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+            if (!copied && out != null) {
+                // the target was created here, so don't leave it half written
+                IOUtils.closeQuietly(out);
+                deleteQuietly(target);
+            }
+            closeConnection(connection);
+        }
+    }
+
     private static void audit(BlobStore store) {
         // N/A: Akubra does not trigger consistency checks of a store's
         // internal index. If necessary, such a check must be done out-of-band.
@@ -540,6 +598,16 @@ public class AkubraLowlevelStorage
         }
     }
 
+    private static void deleteQuietly(Blob blob) {
+        try {
+            if (blob.exists()) {
+                blob.delete();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete partial copy " + blob.getId(), e);
+        }
+    }
+
     private static Iterator<URI> listBlobIds(BlobStoreConnection connection) {
         try {
             return connection.listBlobIds(null); // all
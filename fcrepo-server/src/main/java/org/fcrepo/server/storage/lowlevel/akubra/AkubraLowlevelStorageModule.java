@@ -14,6 +14,7 @@ import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.ModuleInitializationException;
 import org.fcrepo.server.storage.lowlevel.ICheckable;
+import org.fcrepo.server.storage.lowlevel.ICopyable;
 import org.fcrepo.server.storage.lowlevel.IListable;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.lowlevel.ISizable;
@@ -38,7 +39,7 @@ import org.springframework.beans.factory.annotation.Required;
  */
 public class AkubraLowlevelStorageModule
         extends Module
-        implements ILowlevelStorage, IListable, ISizable, ICheckable {
+        implements ILowlevelStorage, IListable, ISizable, ICheckable, ICopyable {
 
     private AkubraLowlevelStorage m_impl;
 
@@ -140,6 +141,13 @@ public class AkubraLowlevelStorageModule
         return m_impl.getDatastreamSize(dsKey);
     }
 
+    // ICopyable methods
+
+    public long copyDatastream(String sourceKey, String targetKey,
+            Map<String, String> hints) throws LowlevelStorageException {
+        return m_impl.copyDatastream(sourceKey, targetKey, hints);
+    }
+
     // ICheckable methods
     @Override
     public boolean objectExists(String objectKey)
@@ -132,6 +132,35 @@ public class Store {
         return file.length();
     }
 
+    /**
+     * copy content of an item already in lowlevel store to a new item not
+     * already in lowlevel store, letting the file system do the copying
+     * @return size - size of the new item
+     */
+    public final long copy(String sourcePid, String targetPid)
+            throws LowlevelStorageException {
+        if (pathRegistry.exists(targetPid)){
+            throw new ObjectAlreadyInLowlevelStorageException(targetPid);
+        }
+        File source = getFile(sourcePid);
+
+        String filePath = pathAlgorithm.get(targetPid);
+        if (filePath == null || filePath.equals("")) { //guard against algorithm implementation
+            throw new LowlevelStorageException(true,
+                    "null path from algorithm for pid " + targetPid);
+        }
+        File target = new File(filePath);
+        fileSystem.copy(source, target);
+        try {
+            pathRegistry.put(targetPid, filePath);
+        } catch (LowlevelStorageException e) {
+            // an unregistered copy would only be found by a rebuild
+            fileSystem.delete(target);
+            throw e;
+        }
+        return target.length();
+    }
+
     /**
      * replace into low-level store content of Fedora object already in
      * lowlevel store
@@ -163,6 +163,10 @@ class MmapParser
             methodMapMethod.wsdlMessageName = attrs.getValue("wsdlMsgName");
             methodMapMethod.wsdlOutputMessageName =
                     attrs.getValue("wsdlMsgOutput");
+            // an xsd:boolean, so "1" is true too
+            String cacheable = attrs.getValue("cacheable");
+            methodMapMethod.cacheable =
+                    "true".equals(cacheable) || "1".equals(cacheable);
             tmp_parms = new Vector();
             wsdlMsgPartToParmDefTbl = new Hashtable();
         } else if (inMethod) {
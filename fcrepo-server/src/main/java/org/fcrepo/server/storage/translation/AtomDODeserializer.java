@@ -135,37 +135,53 @@ public class AtomDODeserializer
                             String encoding,
                             int transContext) throws ObjectIntegrityException,
             StreamIOException, UnsupportedEncodingException {
-        if (m_format.equals(ATOM_ZIP1_1)) {
-            try {
-                m_tempDir = FileUtils.createTempDir("atomzip", null);
-                m_zin = new ZipInputStream(new BufferedInputStream(in));
-                ZipEntry entry;
-                while ((entry = m_zin.getNextEntry()) != null) {
-                    FileUtils.copy(m_zin, new FileOutputStream(new File(m_tempDir, entry.getName())));
+        try {
+            if (m_format.equals(ATOM_ZIP1_1)) {
+                try {
+                    m_tempDir = FileUtils.createTempDir("atomzip", null);
+                    m_zin = new ZipInputStream(new BufferedInputStream(in));
+                    ZipEntry entry;
+                    while ((entry = m_zin.getNextEntry()) != null) {
+                        FileUtils.copy(m_zin, new FileOutputStream(new File(m_tempDir, entry.getName())));
+                    }
+                    in = new FileInputStream(new File(m_tempDir, "atommanifest.xml"));
+                } catch (FileNotFoundException e) {
+                    throw new StreamIOException(e.getMessage(), e);
+                } catch (IOException e) {
+                    throw new StreamIOException(e.getMessage(), e);
                 }
-                in = new FileInputStream(new File(m_tempDir, "atommanifest.xml"));
-            } catch (FileNotFoundException e) {
-                throw new StreamIOException(e.getMessage(), e);
-            } catch (IOException e) {
-                throw new StreamIOException(e.getMessage(), e);
             }
+
+            Parser parser = abdera.getParser();
+            Document<Feed> feedDoc = parser.parse(in);
+            m_feed = feedDoc.getRoot();
+            m_xpath = abdera.getXPath();
+
+            m_obj = obj;
+            m_encoding = encoding;
+            m_transContext = transContext;
+            addObjectProperties();
+            addDatastreams();
+
+            DOTranslationUtility.normalizeDatastreams(m_obj,
+                                                      m_transContext,
+                                                      m_encoding);
+            FileUtils.delete(m_tempDir);
+        } finally {
+            release();
         }
+    }
 
-        Parser parser = abdera.getParser();
-        Document<Feed> feedDoc = parser.parse(in);
-        m_feed = feedDoc.getRoot();
-        m_xpath = abdera.getXPath();
-
-        m_obj = obj;
-        m_encoding = encoding;
-        m_transContext = transContext;
-        addObjectProperties();
-        addDatastreams();
-
-        DOTranslationUtility.normalizeDatastreams(m_obj,
-                                                  m_transContext,
-                                                  m_encoding);
-        FileUtils.delete(m_tempDir);
+    /**
+     * Clears the feed and object of the last call, which would otherwise stay
+     * reachable from this pooled instance.
+     */
+    private void release() {
+        m_obj = null;
+        m_feed = null;
+        m_xpath = null;
+        m_zin = null;
+        m_tempDir = null;
     }
 
     /**
@@ -122,39 +122,54 @@ public class AtomDOSerializer
                           String encoding,
                           int transContext) throws ObjectIntegrityException,
             StreamIOException, UnsupportedEncodingException {
-        m_obj = obj;
-        m_encoding = (encoding == null || encoding == "") ? "UTF-8" : encoding;
-        m_transContext = transContext;
-        m_pid = PID.getInstance(m_obj.getPid());
-        m_feed = abdera.newFeed();
-
-        if (m_format.equals(ATOM_ZIP1_1)) {
-            m_zout = new ZipOutputStream(out);
-        }
+        try {
+            m_obj = obj;
+            m_encoding = (encoding == null || encoding == "") ? "UTF-8" : encoding;
+            m_transContext = transContext;
+            m_pid = PID.getInstance(m_obj.getPid());
+            m_feed = abdera.newFeed();
+
+            if (m_format.equals(ATOM_ZIP1_1)) {
+                m_zout = new ZipOutputStream(out);
+            }
 
-        addObjectProperties();
-        m_feed
-                .setIcon("http://www.fedora-commons.org/images/logo_vertical_transparent_200_251.png");
-        addDatastreams();
+            addObjectProperties();
+            m_feed
+                    .setIcon("http://www.fedora-commons.org/images/logo_vertical_transparent_200_251.png");
+            addDatastreams();
 
-        if (m_format.equals(ATOM_ZIP1_1)) {
-            try {
-                m_zout.putNextEntry(new ZipEntry("atommanifest.xml"));
-                m_feed.writeTo("prettyxml", m_zout);
-                m_zout.closeEntry();
-                m_zout.close();
-            } catch (IOException e) {
-                throw new StreamIOException(e.getMessage(), e);
-            }
-        } else {
-            try {
-                m_feed.writeTo("prettyxml", out);
-            } catch (IOException e) {
-                throw new StreamIOException(e.getMessage(), e);
+            if (m_format.equals(ATOM_ZIP1_1)) {
+                try {
+                    m_zout.putNextEntry(new ZipEntry("atommanifest.xml"));
+                    m_feed.writeTo("prettyxml", m_zout);
+                    m_zout.closeEntry();
+                    m_zout.close();
+                } catch (IOException e) {
+                    throw new StreamIOException(e.getMessage(), e);
+                }
+            } else {
+                try {
+                    m_feed.writeTo("prettyxml", out);
+                } catch (IOException e) {
+                    throw new StreamIOException(e.getMessage(), e);
+                }
             }
+        } finally {
+            release();
         }
     }
 
+    /**
+     * Clears the object and feed of the last call, which would otherwise stay
+     * reachable from this pooled instance.
+     */
+    private void release() {
+        m_obj = null;
+        m_pid = null;
+        m_feed = null;
+        m_zout = null;
+    }
+
     private void addObjectProperties() throws ObjectIntegrityException {
         String state = DOTranslationUtility.getStateAttribute(m_obj);
         String ownerId = m_obj.getOwnerId();
@@ -15,6 +15,7 @@ import java.io.OutputStream;
 import java.util.Date;
 import java.util.Iterator;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.fcrepo.common.Constants;
@@ -79,7 +80,13 @@ public class ConvertObjectSerialization {
         m_outExt = outExt;
     }
 
-    private boolean convert(InputStream source, OutputStream destination) {
+    /**
+     * Converts a single object. The destination stream is not necessarily
+     * closed.
+     *
+     * @return <code>true</code> if the object was converted.
+     */
+    boolean convert(InputStream source, OutputStream destination) {
         DigitalObject obj = new BasicDigitalObject();
         try {
             m_deserializer.deserialize(source,
@@ -118,7 +125,11 @@ public class ConvertObjectSerialization {
                                     OutputStream destination)
             throws Exception {
         XMLSerializer ser = new XMLSerializer(destination, fmt);
-        Document doc = factory.newDocumentBuilder().parse(source);
+        DocumentBuilder builder;
+        synchronized (factory) {
+            builder = factory.newDocumentBuilder();
+        }
+        Document doc = builder.parse(source);
         ser.serialize(doc);
         destination.close();
     }
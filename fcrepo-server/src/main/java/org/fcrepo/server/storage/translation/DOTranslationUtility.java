@@ -20,7 +20,9 @@ import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import javax.xml.stream.XMLEventReader;
@@ -221,8 +223,25 @@ public abstract class DOTranslationUtility
 
     private static boolean m_serverOnRedirectPort443 = false;
 
-    private static XMLInputFactory m_xmlInputFactory =
-            XMLInputFactory.newInstance();
+    // Byte-level equivalents of makeAbsoluteURLs and makeFedoraLocalURLs,
+    // used for inline XML
+    private static LocalURLRewriter s_absoluteURLRewriter;
+
+    private static LocalURLRewriter s_fedoraLocalURLRewriter;
+
+    private static final LocalURLRewriter s_asIsRewriter =
+            new LocalURLRewriter(new LinkedHashMap<String, String>());
+
+    // XMLInputFactory is not guaranteed to be thread-safe, so each thread
+    // keeps its own rather than contending for a shared one
+    private static final ThreadLocal<XMLInputFactory> m_xmlInputFactory =
+            new ThreadLocal<XMLInputFactory>() {
+
+                @Override
+                protected XMLInputFactory initialValue() {
+                    return XMLInputFactory.newInstance();
+                }
+            };
 
     // initialize static class with stuff that's used by all DO Serializerers
     static {
@@ -292,6 +311,27 @@ public abstract class DOTranslationUtility
         s_concreteLocalUrlAppContextNoPort =
             Pattern.compile("https?://(localhost|" + fedoraServerHost
                             + ")/(" + fedoraAppServerContext + "|fedora)/");
+
+        Map<String, String> absolute = new LinkedHashMap<String, String>();
+        absolute.put(s_fedoraLocalAppContextPattern.pattern(),
+                     s_hostContextInfo);
+        absolute.put(s_fedoraLocalPattern.pattern(), s_hostInfo);
+        s_absoluteURLRewriter = new LocalURLRewriter(absolute);
+
+        String port = (m_serverOnPort80 || m_serverOnRedirectPort443)
+                ? "" : ":" + fedoraServerPort;
+        Map<String, String> local = new LinkedHashMap<String, String>();
+        for (String scheme : new String[] {"http://", "https://"}) {
+            for (String host : new String[] {"localhost", fedoraServerHost}) {
+                String hostInfo = scheme + host + port + "/";
+                local.put(hostInfo + fedoraAppServerContext + "/",
+                          s_fedoraLocalAppContextPattern.pattern());
+                local.put(hostInfo + "fedora/",
+                          s_fedoraLocalAppContextPattern.pattern());
+                local.put(hostInfo, s_fedoraLocalPattern.pattern());
+            }
+        }
+        s_fedoraLocalURLRewriter = new LocalURLRewriter(local);
     }
 
     /**
@@ -562,6 +602,81 @@ public abstract class DOTranslationUtility
         return xml;
     }
 
+    /**
+     * Byte-level equivalent of {@link #normalizeInlineXML(String, int)} for
+     * UTF-8 encoded inline XML. URLs are rewritten in a single pass over the
+     * bytes, and the content is only copied if it actually contains a URL to
+     * rewrite.
+     *
+     * @param xml
+     *        UTF-8 encoded contents of an inline XML datastream
+     * @param transContext
+     *        Integer value indicating the serialization or deserialization
+     *        context, as for {@link #normalizeInlineXML(String, int)}.
+     * @return the inline XML contents with appropriate conversions, or
+     *         <code>xml</code> itself if no conversion was needed.
+     */
+    public static byte[] normalizeInlineXML(byte[] xml, int transContext) {
+        LocalURLRewriter rewriter = getInlineXMLRewriter(transContext);
+        if (rewriter == null) {
+            return xml;
+        }
+        return rewriter.rewrite(xml);
+    }
+
+    /**
+     * Writes UTF-8 encoded inline XML to a writer, with leading and trailing
+     * whitespace removed and URLs normalized for the translation context as
+     * by {@link #normalizeInlineXML(String, int)}. The content is decoded
+     * directly into the writer rather than going through intermediate
+     * strings.
+     *
+     * @param xml
+     *        UTF-8 encoded contents of an inline XML datastream
+     * @param writer
+     *        PrintWriter to write XML content to.
+     * @param transContext
+     *        Integer value indicating the serialization or deserialization
+     *        context.
+     */
+    protected static void appendNormalizedInlineXML(byte[] xml,
+                                                    PrintWriter writer,
+                                                    int transContext) {
+        int start = 0;
+        int end = xml.length;
+        // same as String.trim(); whitespace is single-byte in UTF-8
+        while (start < end && (xml[start] & 0xFF) <= 0x20) {
+            start++;
+        }
+        while (end > start && (xml[end - 1] & 0xFF) <= 0x20) {
+            end--;
+        }
+        LocalURLRewriter rewriter = getInlineXMLRewriter(transContext);
+        if (rewriter == null) {
+            rewriter = s_asIsRewriter;
+        }
+        try {
+            rewriter.rewrite(xml, start, end - start, writer);
+        } catch (IOException wontHappen) {
+            // PrintWriter does not throw IOExceptions
+            throw new RuntimeException(wontHappen);
+        }
+    }
+
+    private static LocalURLRewriter getInlineXMLRewriter(int transContext) {
+        if (transContext == DESERIALIZE_INSTANCE
+                || transContext == SERIALIZE_EXPORT_PUBLIC) {
+            // MAKE ABSOLUTE REPO URLs
+            return s_absoluteURLRewriter;
+        } else if (transContext == SERIALIZE_EXPORT_MIGRATE
+                || transContext == SERIALIZE_STORAGE_INTERNAL
+                || transContext == SERIALIZE_EXPORT_ARCHIVE) {
+            // MAKE FEDORA LOCAL REPO URLs
+            return s_fedoraLocalURLRewriter;
+        }
+        return null;
+    }
+
     /**
      * Check for null values in attributes and set them to empty string so
      * 'null' does not appear in XML attribute values. This helps in XML
@@ -734,6 +849,12 @@ public abstract class DOTranslationUtility
             return;
         }
         if (obj.hasContentModel( Models.SERVICE_DEPLOYMENT_3_0)) {
+            // inline XML is held as UTF-8, so it can be rewritten in place
+            // unless it has to be re-encoded anyway
+            boolean utf8 =
+                    Charset.isSupported(characterEncoding)
+                            && Charset.forName(characterEncoding).name()
+                                    .equals("UTF-8");
             Iterator<String> datastreams = obj.datastreamIdIterator();
             while (datastreams.hasNext()) {
                 String dsid = datastreams.next();
@@ -751,12 +872,18 @@ public abstract class DOTranslationUtility
                         if (logger.isDebugEnabled())
                             logger.debug(obj.getPid() + " : normalising URLs in "
                                 + dsid);
-                        xd.xmlContent =
-                                DOTranslationUtility
-                                        .normalizeInlineXML(new String(xd.xmlContent,
-                                                                       "UTF-8"),
-                                                            transContext)
-                                        .getBytes(characterEncoding);
+                        if (utf8) {
+                            xd.xmlContent =
+                                    normalizeInlineXML(xd.xmlContent,
+                                                       transContext);
+                        } else {
+                            xd.xmlContent =
+                                    DOTranslationUtility
+                                            .normalizeInlineXML(new String(xd.xmlContent,
+                                                                           "UTF-8"),
+                                                                transContext)
+                                            .getBytes(characterEncoding);
+                        }
                         xd.DSSize = xd.xmlContent.length;
                     }
                 }
@@ -994,10 +1121,8 @@ public abstract class DOTranslationUtility
      */
     protected static List<AuditRecord> getAuditRecords(InputStream auditTrail)
             throws XMLStreamException {
-        XMLEventReader eventReader;
-        synchronized (m_xmlInputFactory) {
-            eventReader = m_xmlInputFactory.createXMLEventReader(auditTrail);
-        }
+        XMLEventReader eventReader =
+                m_xmlInputFactory.get().createXMLEventReader(auditTrail);
         List<AuditRecord> records = getAuditRecords(eventReader);
         eventReader.close();
         return records;
@@ -1005,10 +1130,8 @@ public abstract class DOTranslationUtility
 
     protected static List<AuditRecord> getAuditRecords(Reader auditTrail)
             throws XMLStreamException {
-        XMLEventReader eventReader;
-        synchronized (m_xmlInputFactory) {
-            eventReader = m_xmlInputFactory.createXMLEventReader(auditTrail);
-        }
+        XMLEventReader eventReader =
+                m_xmlInputFactory.get().createXMLEventReader(auditTrail);
         List<AuditRecord> records = getAuditRecords(eventReader);
         eventReader.close();
         return records;
@@ -8,6 +8,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.fcrepo.server.errors.ObjectIntegrityException;
@@ -22,6 +23,13 @@ import org.slf4j.LoggerFactory;
 /**
  * A threadsafe <code>DOTranslator</code> that uses a map of serializers and a
  * map of deserializers to do its job.
+ * <p>
+ * The configured serializers and deserializers are prototypes. Each thread
+ * keeps its own instance per format, obtained from the prototype's
+ * <code>getInstance()</code> the first time it is needed and reused after
+ * that, so parsers and other per-instance state are not rebuilt for every
+ * object that is read or written. An instance that fails is discarded.
+ * </p>
  *
  * @author Chris Wilper
  */
@@ -37,6 +45,26 @@ public class DOTranslatorImpl
     /** The DODeserializer map, keyed by format string. */
     private final Map<String, DODeserializer> m_deserializers;
 
+    /** Idle DOSerializer instances of the current thread, keyed by format. */
+    private final ThreadLocal<Map<String, DOSerializer>> m_serializerPool =
+            new ThreadLocal<Map<String, DOSerializer>>() {
+
+                @Override
+                protected Map<String, DOSerializer> initialValue() {
+                    return new HashMap<String, DOSerializer>();
+                }
+            };
+
+    /** Idle DODeserializer instances of the current thread, keyed by format. */
+    private final ThreadLocal<Map<String, DODeserializer>> m_deserializerPool =
+            new ThreadLocal<Map<String, DODeserializer>>() {
+
+                @Override
+                protected Map<String, DODeserializer> initialValue() {
+                    return new HashMap<String, DODeserializer>();
+                }
+            };
+
     /**
      * Creates an instance.
      *
@@ -71,8 +99,15 @@ public class DOTranslatorImpl
                 throw new UnsupportedTranslationException("No deserializer exists for format: "
                         + format);
             }
-            DODeserializer newDes = des.getInstance();
+            // take the instance out of the pool while it is in use, so a
+            // nested call on this thread gets its own
+            Map<String, DODeserializer> pool = m_deserializerPool.get();
+            DODeserializer newDes = pool.remove(format);
+            if (newDes == null) {
+                newDes = des.getInstance();
+            }
             newDes.deserialize(in, obj, encoding, transContext);
+            pool.put(format, newDes);
         } catch (UnsupportedEncodingException uee) {
             throw new UnsupportedTranslationException("Deserializer for format: "
                     + format + " does not support encoding: " + encoding);
@@ -95,8 +130,13 @@ public class DOTranslatorImpl
                 throw new UnsupportedTranslationException("No serializer exists for format: "
                         + format);
             }
-            DOSerializer newSer = ser.getInstance();
+            Map<String, DOSerializer> pool = m_serializerPool.get();
+            DOSerializer newSer = pool.remove(format);
+            if (newSer == null) {
+                newSer = ser.getInstance();
+            }
             newSer.serialize(obj, out, encoding, transContext);
+            pool.put(format, newSer);
         } catch (UnsupportedEncodingException uee) {
             throw new UnsupportedTranslationException("Serializer for format: "
                     + format + " does not support encoding: " + encoding);
@@ -0,0 +1,1150 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.storage.translation;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import java.text.ParseException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.fcrepo.common.Constants;
+
+import org.fcrepo.server.errors.ObjectIntegrityException;
+import org.fcrepo.server.errors.StreamIOException;
+import org.fcrepo.server.errors.ValidationException;
+import org.fcrepo.server.storage.types.AuditRecord;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamManagedContent;
+import org.fcrepo.server.storage.types.DatastreamReferencedContent;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.utilities.StreamUtility;
+import org.fcrepo.server.validation.ValidationUtility;
+
+import org.fcrepo.utilities.Base64;
+import org.fcrepo.utilities.DateUtility;
+
+
+/**
+ * Deserializes objects in FOXML 1.1 format using a StAX pull parser.
+ * <p>
+ * This produces the same <code>DigitalObject</code> as
+ * {@link FOXML1_1DODeserializer}, but avoids most of its per-element
+ * allocation. The serialized object is decoded once into a character buffer
+ * that is kept per thread, and the content of each inline XML datastream is
+ * copied from that buffer as a single character range rather than being
+ * re-encoded from parser events. Namespace declarations are only added
+ * to the copied range where an element relies on a prefix that was declared
+ * outside of its <code>xmlContent</code> element.
+ * </p>
+ * <p>
+ * An instance holds the state of the object it is reading, and is not
+ * locked, so it must only be used by one thread at a time; the
+ * {@link DOTranslatorImpl} keeps one per thread.
+ * </p>
+ * <p>
+ * It is not configured by default; to use it, set the
+ * <code>deserializer_info:fedora/fedora-system:FOXML-1.1</code> parameter of
+ * the DOTranslator module to this class.
+ * </p>
+ */
+public class FOXML1_1StaxDODeserializer
+        implements DODeserializer, Constants {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(FOXML1_1StaxDODeserializer.class);
+
+    /** Per-thread buffers larger than this are not kept between parses. */
+    private static final int MAX_RETAINED_CHARS = 1024 * 1024;
+
+    private static final ThreadLocal<ParseBuffers> s_buffers =
+            new ThreadLocal<ParseBuffers>() {
+                @Override
+                protected ParseBuffers initialValue() {
+                    return new ParseBuffers();
+                }
+            };
+
+    private static final Pattern metsPattern =
+            Pattern.compile("info:fedora/fedora-system:format/xml.mets.");
+
+    /** The current translation context. */
+    private int m_transContext;
+
+    /** The object to deserialize to. */
+    private DigitalObject m_obj;
+
+    private String m_characterEncoding;
+
+    private boolean m_rootElementFound;
+
+    // per-parse buffers, borrowed from the current thread
+    private ParseBuffers m_buffers;
+
+    // temporary variables for datastream processing
+    private String m_dsId;
+
+    private boolean m_dsVersionable;
+
+    private String m_dsVersId;
+
+    private Date m_dsCreateDate;
+
+    private String m_dsState;
+
+    private String[] m_dsAltIds;
+
+    private String m_dsFormatURI;
+
+    private String m_dsLabel;
+
+    private long m_dsSize;
+
+    private String m_dsLocationType;
+
+    private String m_dsLocation;
+
+    private String m_dsMimeType;
+
+    private String m_dsControlGrp;
+
+    private String m_dsInfoType; // for METS backward compatibility
+
+    private String m_dsOtherInfoType; // for METS backward compatibility
+
+    private int m_dsMDClass; // for METS backward compatibility
+
+    private String m_dsChecksumType;
+
+    private String m_dsChecksum;
+
+    /**
+     * Creates a deserializer that reads FOXML 1.1.
+     */
+    public FOXML1_1StaxDODeserializer() {
+    }
+
+    //---
+    // DODeserializer implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    public DODeserializer getInstance() {
+        return new FOXML1_1StaxDODeserializer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void deserialize(InputStream in,
+                            DigitalObject obj,
+                            String encoding,
+                            int transContext)
+            throws ObjectIntegrityException, StreamIOException,
+            UnsupportedEncodingException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Deserializing " + FOXML1_1.uri
+                    + " with StAX for transContext: " + transContext);
+        }
+
+        try {
+            m_obj = obj;
+            m_obj.setLabel("");
+            m_obj.setOwnerId("");
+            m_characterEncoding = encoding;
+            m_transContext = transContext;
+            initialize();
+
+            m_buffers = s_buffers.get();
+            try {
+                m_buffers.read(in);
+                XMLStreamReader reader =
+                        m_buffers.factory.createXMLStreamReader(
+                                new CharArrayReader(m_buffers.chars,
+                                                    0,
+                                                    m_buffers.length));
+                try {
+                    parse(reader);
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException ioe) {
+                throw new StreamIOException("low-level stream io problem occurred "
+                        + "while StAX was parsing this object.", ioe);
+            } catch (XMLStreamException xse) {
+                throw new ObjectIntegrityException("FOXML IO stream was bad : "
+                        + xse.getMessage(), xse);
+            } finally {
+                m_buffers.release();
+                m_buffers = null;
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close FOXML input stream", e);
+                }
+            }
+            logger.debug("Just finished parse.");
+
+            if (!m_rootElementFound) {
+                throw new ObjectIntegrityException("FOXML1_1StaxDODeserializer: Input stream is not valid FOXML."
+                        + " The digitalObject root element was not detected.");
+            }
+
+            DOTranslationUtility.normalizeDatastreams(m_obj, m_transContext, m_characterEncoding);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Forgets the object of the last call once it is done.
+     */
+    private void release() {
+        m_obj = null;
+        initialize();
+    }
+
+    //---
+    // Parsing
+    //---
+
+    private void parse(XMLStreamReader reader) throws XMLStreamException,
+            ObjectIntegrityException, StreamIOException,
+            UnsupportedEncodingException {
+        TagScanner tags = m_buffers.tags;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Tag tag = tags.next();
+                if (FOXML.uri.equals(reader.getNamespaceURI())) {
+                    if (reader.getLocalName().equals("xmlContent")) {
+                        readXMLContent(reader, tag);
+                    } else if (reader.getLocalName().equals("binaryContent")) {
+                        readBinaryContent(reader);
+                    } else {
+                        startFOXMLElement(reader);
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                tags.end();
+                if (FOXML.uri.equals(reader.getNamespaceURI())) {
+                    endFOXMLElement(reader.getLocalName());
+                }
+            }
+        }
+    }
+
+    private void startFOXMLElement(XMLStreamReader reader)
+            throws ObjectIntegrityException {
+        String localName = reader.getLocalName();
+        if (localName.equals("digitalObject")) {
+            m_rootElementFound = true;
+            m_obj.setPid(grab(reader, "PID"));
+        } else if (localName.equals("property")
+                || localName.equals("extproperty")) {
+            String name = grab(reader, "NAME");
+            String value = grab(reader, "VALUE");
+            if (name.equals(MODEL.STATE.uri)) {
+                try {
+                    m_obj.setState(DOTranslationUtility
+                            .readStateAttribute(value));
+                } catch (ParseException e) {
+                    throw new ObjectIntegrityException("Could not read state", e);
+                }
+            } else if (name.equals(MODEL.LABEL.uri)) {
+                m_obj.setLabel(value);
+            } else if (name.equals(MODEL.OWNER.uri)) {
+                m_obj.setOwnerId(value);
+            } else if (name.equals(MODEL.CREATED_DATE.uri)) {
+                m_obj.setCreateDate(DateUtility.convertStringToDate(value));
+            } else if (name.equals(VIEW.LAST_MODIFIED_DATE.uri)) {
+                m_obj.setLastModDate(DateUtility.convertStringToDate(value));
+            } else {
+                m_obj.setExtProperty(name, value);
+            }
+        } else if (localName.equals("datastream")) {
+            m_dsId = grab(reader, "ID");
+            m_dsState = grab(reader, "STATE");
+            m_dsControlGrp = grab(reader, "CONTROL_GROUP");
+            String versionable = grab(reader, "VERSIONABLE");
+            // If dsVersionable is null or missing, default to true.
+            if (versionable.equals("")) {
+                m_dsVersionable = true;
+            } else {
+                m_dsVersionable = Boolean.valueOf(versionable).booleanValue();
+            }
+            // Never allow the AUDIT datastream to be versioned
+            // since it naturally represents a system-controlled
+            // view of changes over time.
+            if (m_dsId.equals("AUDIT")) {
+                m_dsVersionable = false;
+            }
+        } else if (localName.equals("datastreamVersion")) {
+            m_dsVersId = grab(reader, "ID");
+            m_dsLabel = grab(reader, "LABEL");
+            m_dsCreateDate =
+                    DateUtility.convertStringToDate(grab(reader, "CREATED"));
+            String altIDsString = grab(reader, "ALT_IDS");
+            if (altIDsString.length() == 0) {
+                m_dsAltIds = new String[0];
+            } else {
+                m_dsAltIds = altIDsString.split(" ");
+            }
+            m_dsFormatURI = grab(reader, "FORMAT_URI");
+            if (m_dsFormatURI.length() == 0) {
+                m_dsFormatURI = null;
+            }
+            checkMETSFormat(m_dsFormatURI);
+            m_dsMimeType = grab(reader, "MIMETYPE");
+            String sizeString = grab(reader, "SIZE");
+            if (!sizeString.equals("")) {
+                try {
+                    m_dsSize = Long.parseLong(sizeString);
+                } catch (NumberFormatException nfe) {
+                    throw new ObjectIntegrityException("If specified, a datastream's "
+                            + "SIZE attribute must be an xsd:long.");
+                }
+            } else {
+                m_dsSize = -1;
+            }
+            m_dsChecksumType = (Datastream.autoChecksum)
+                    ? Datastream.getDefaultChecksumType()
+                    : Datastream.CHECKSUMTYPE_DISABLED;
+            m_dsChecksum = Datastream.CHECKSUM_NONE;
+        } else if (localName.equals("contentDigest")) {
+            m_dsChecksumType = grab(reader, "TYPE");
+            m_dsChecksum = grab(reader, "DIGEST");
+        } else if (localName.equals("contentLocation")) {
+            String dsLocation = grab(reader, "REF");
+            if (dsLocation.equals("")) {
+                throw new ObjectIntegrityException("REF attribute must be specified in contentLocation element");
+            }
+            if (m_dsControlGrp.equalsIgnoreCase("E")
+                    || m_dsControlGrp.equalsIgnoreCase("R")) {
+                ValidationUtility.validateURL(dsLocation, m_dsControlGrp);
+                m_dsLocationType = Datastream.DS_LOCATION_TYPE_URL;
+                m_dsLocation = dsLocation;
+                instantiateDatastream(new DatastreamReferencedContent());
+            } else if (m_dsControlGrp.equalsIgnoreCase("M")) {
+                // For Managed Content the URL is only checked when we are
+                // parsing a NEW ingest file because the URL is replaced with
+                // an internal identifier once the repository has sucked in
+                // the content for storage.
+                if (m_obj.isNew()) {
+                    ValidationUtility.validateURL(dsLocation, m_dsControlGrp);
+                    m_dsLocationType = Datastream.DS_LOCATION_TYPE_URL;
+                } else {
+                    m_dsLocationType = Datastream.DS_LOCATION_TYPE_INTERNAL;
+                }
+                m_dsLocation = dsLocation;
+                instantiateDatastream(new DatastreamManagedContent());
+            }
+        }
+    }
+
+    private void endFOXMLElement(String localName) {
+        if (localName.equals("datastreamVersion")) {
+            // reinitialize datastream version-level attributes...
+            m_dsVersId = "";
+            m_dsLabel = "";
+            m_dsCreateDate = null;
+            m_dsAltIds = new String[0];
+            m_dsFormatURI = "";
+            m_dsMimeType = "";
+            m_dsSize = -1;
+        } else if (localName.equals("datastream")) {
+            // reinitialize datastream attributes ...
+            m_dsId = "";
+            m_dsVersionable = true;
+            m_dsState = "";
+            m_dsInfoType = "";
+            m_dsOtherInfoType = "";
+            m_dsMDClass = 0;
+        }
+    }
+
+    /**
+     * Reads a foxml:xmlContent element, leaving the reader positioned on its
+     * end tag. The AUDIT datastream is read into audit records; any other
+     * content is copied from the character buffer as-is.
+     */
+    private void readXMLContent(XMLStreamReader reader, Tag xmlContentTag)
+            throws XMLStreamException, ObjectIntegrityException,
+            UnsupportedEncodingException {
+        TagScanner tags = m_buffers.tags;
+        boolean audit = m_dsVersId.equals("AUDIT.0");
+        int contentStart = xmlContentTag.end;
+        int contentEnd = contentStart;
+        InlineNamespaces namespaces = m_buffers.namespaces;
+        namespaces.clear();
+        StringBuilder text = m_buffers.text;
+        AuditRecord auditRec = null;
+        String processType = "";
+        int depth = 0;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Tag tag = tags.next();
+                depth++;
+                text.setLength(0);
+                if (audit) {
+                    String localName = reader.getLocalName();
+                    if (localName.equals("record")) {
+                        auditRec = new AuditRecord();
+                        auditRec.id = grab(reader, "ID");
+                    } else if (localName.equals("process")) {
+                        processType = grab(reader, "type");
+                    }
+                } else {
+                    namespaces.startElement(reader, tag);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                Tag tag = tags.end();
+                if (depth == 0) {
+                    // the end of the foxml:xmlContent element itself, or
+                    // of the element's only tag if it was written empty
+                    contentEnd = tag.empty ? contentStart : tag.start;
+                    break;
+                }
+                depth--;
+                if (audit) {
+                    auditRec =
+                            endAuditElement(reader.getLocalName(), auditRec,
+                                            processType, text.toString());
+                    if (auditRec == null) {
+                        processType = "";
+                    }
+                } else {
+                    namespaces.endElement();
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                if (audit) {
+                    text.append(reader.getTextCharacters(),
+                                reader.getTextStart(),
+                                reader.getTextLength());
+                }
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                throw new ObjectIntegrityException("Unterminated xmlContent "
+                        + "element in datastream " + m_dsId);
+            }
+        }
+        // the matching end_element event has been consumed here
+        if (FOXML.uri.equals(reader.getNamespaceURI())) {
+            endFOXMLElement(reader.getLocalName());
+        }
+        if (audit || m_dsId.equals("AUDIT")) {
+            // Audit datastream is re-created from the audit records
+            return;
+        }
+        DatastreamXMLMetadata ds = new DatastreamXMLMetadata();
+        ds.xmlContent =
+                namespaces.copy(m_buffers.chars,
+                                contentStart,
+                                contentEnd,
+                                m_characterEncoding);
+        instantiateXMLDatastream(ds);
+    }
+
+    private AuditRecord endAuditElement(String localName,
+                                        AuditRecord auditRec,
+                                        String processType,
+                                        String text) {
+        if (auditRec == null) {
+            return null;
+        }
+        if (localName.equals("action")) {
+            auditRec.action = text;
+        } else if (localName.equals("componentID")) {
+            auditRec.componentID = text;
+        } else if (localName.equals("responsibility")) {
+            auditRec.responsibility = text;
+        } else if (localName.equals("date")) {
+            auditRec.date = DateUtility.convertStringToDate(text);
+        } else if (localName.equals("justification")) {
+            auditRec.justification = text;
+        } else if (localName.equals("record")) {
+            auditRec.processType = processType;
+            m_obj.getAuditRecords().add(auditRec);
+            return null;
+        }
+        return auditRec;
+    }
+
+    /**
+     * Reads a foxml:binaryContent element, leaving the reader positioned on
+     * its end tag.
+     */
+    private void readBinaryContent(XMLStreamReader reader)
+            throws XMLStreamException, ObjectIntegrityException,
+            StreamIOException {
+        StringBuilder text = m_buffers.text;
+        text.setLength(0);
+        int event = reader.next();
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                // remove all spaces and newlines
+                char[] chars = reader.getTextCharacters();
+                int end = reader.getTextStart() + reader.getTextLength();
+                for (int i = reader.getTextStart(); i < end; i++) {
+                    if (!Character.isWhitespace(chars[i])) {
+                        text.append(chars[i]);
+                    }
+                }
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new ObjectIntegrityException("binaryContent element "
+                        + "may not contain other elements");
+            }
+            event = reader.next();
+        }
+        m_buffers.tags.end();
+        if (!m_dsControlGrp.equalsIgnoreCase("M")) {
+            return;
+        }
+        File tempFile = null;
+        FileOutputStream os = null;
+        try {
+            tempFile = File.createTempFile("binary-datastream", null);
+            os = new FileOutputStream(tempFile);
+            os.write(Base64.decode(text.toString()));
+        } catch (IOException ioe) {
+            throw new StreamIOException("Error writing to temporary file created for binary content");
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close temporary file for binary content", e);
+                }
+            }
+        }
+        m_dsLocationType = Datastream.DS_LOCATION_TYPE_INTERNAL;
+        m_dsLocation =
+                DatastreamManagedContent.TEMP_SCHEME
+                        + tempFile.getAbsolutePath();
+        instantiateDatastream(new DatastreamManagedContent());
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    private static String grab(XMLStreamReader reader, String name) {
+        // a null namespace matches both qualified and unqualified attributes
+        String ret = reader.getAttributeValue(null, name);
+        // set null attribute value to empty string since it's
+        // generally helpful in the code to avoid null pointer exception
+        // when operations are performed on attributes values.
+        if (ret == null) {
+            ret = "";
+        }
+        return ret;
+    }
+
+    private void instantiateDatastream(Datastream ds)
+            throws ObjectIntegrityException {
+
+        ds.DatastreamID = m_dsId;
+        ds.DatastreamAltIDs = m_dsAltIds;
+        ds.DSVersionable = m_dsVersionable;
+        ds.DSFormatURI = m_dsFormatURI;
+        ds.DSVersionID = m_dsVersId;
+        ds.DSLabel = m_dsLabel;
+        ds.DSCreateDT = m_dsCreateDate;
+        ds.DSMIME = m_dsMimeType;
+        ds.DSControlGrp = m_dsControlGrp;
+        ds.DSState = m_dsState;
+        if (m_dsControlGrp.equals("M"))
+            ds.DSSize = m_dsSize; // X datastreams have their own instantiator; E and R don't have (persisted) SIZE
+        ds.DSLocation = m_dsLocation;
+        ds.DSLocationType = m_dsLocationType;
+        ds.DSInfoType = ""; // METS legacy
+        ds.DSChecksumType = m_dsChecksumType;
+        logger.debug(
+                "instantiate datastream: dsid = {} checksumType = {} checksum = {}",
+                m_dsId, m_dsChecksumType, m_dsChecksum);
+        checkChecksum(ds);
+
+        // Normalize the dsLocation for the deserialization context
+        ds.DSLocation =
+                (DOTranslationUtility.normalizeDSLocationURLs(m_obj.getPid(),
+                                                              ds,
+                                                              m_transContext)).DSLocation;
+
+        m_obj.addDatastreamVersion(ds, true);
+    }
+
+    private void instantiateXMLDatastream(DatastreamXMLMetadata ds)
+            throws ObjectIntegrityException {
+
+        ds.DatastreamID = m_dsId;
+        ds.DatastreamAltIDs = m_dsAltIds;
+        ds.DSVersionable = m_dsVersionable;
+        ds.DSFormatURI = m_dsFormatURI;
+        ds.DSVersionID = m_dsVersId;
+        ds.DSLabel = m_dsLabel;
+        ds.DSCreateDT = m_dsCreateDate;
+        if (m_dsMimeType == null || m_dsMimeType.equals("")) {
+            ds.DSMIME = "text/xml";
+        } else {
+            ds.DSMIME = m_dsMimeType;
+        }
+        ds.DSControlGrp = "X";
+        ds.DSState = m_dsState;
+        ds.DSLocation = m_obj.getPid() + "+" + m_dsId + "+" + m_dsVersId;
+        ds.DSLocationType = m_dsLocationType;
+        ds.DSInfoType = m_dsInfoType; // METS legacy
+        ds.DSMDClass = m_dsMDClass; // METS legacy
+        //LOOK! this sets bytes, not characters.  Do we want to set this?
+        ds.DSSize = ds.xmlContent.length;
+        logger.debug(
+                "instantiate XML datastream: dsid = {} checksumType = {} checksum = {}",
+                m_dsId, m_dsChecksumType, m_dsChecksum);
+        ds.DSChecksumType = m_dsChecksumType;
+        checkChecksum(ds);
+        m_obj.addDatastreamVersion(ds, true);
+    }
+
+    private void checkChecksum(Datastream ds) throws ValidationException {
+        if (m_obj.isNew()) {
+            if (m_dsChecksum != null && !m_dsChecksum.equals("")
+                    && !m_dsChecksum.equals(Datastream.CHECKSUM_NONE)) {
+                String tmpChecksum = ds.getChecksum();
+                logger.debug("checksum = " + tmpChecksum);
+                if (!m_dsChecksum.equals(tmpChecksum)) {
+                    throw new ValidationException("Checksum Mismatch: "
+                            + tmpChecksum);
+                }
+            }
+            ds.DSChecksumType = ds.getChecksumType();
+        }
+        ds.DSChecksum = m_dsChecksum;
+    }
+
+    private void checkMETSFormat(String formatURI) {
+        if (formatURI != null && !formatURI.equals("")) {
+            Matcher m = metsPattern.matcher(formatURI);
+            if (m.lookingAt()) {
+                int index = m.end();
+                StringTokenizer st =
+                        new StringTokenizer(formatURI.substring(index), ".");
+                String mdClass = st.nextToken();
+                if (st.hasMoreTokens()) {
+                    m_dsInfoType = st.nextToken();
+                }
+                if (st.hasMoreTokens()) {
+                    m_dsOtherInfoType = st.nextToken();
+                }
+                if (mdClass.equals("techMD")) {
+                    m_dsMDClass = 1;
+                } else if (mdClass.equals("sourceMD")) {
+                    m_dsMDClass = 2;
+                } else if (mdClass.equals("rightsMD")) {
+                    m_dsMDClass = 3;
+                } else if (mdClass.equals("digiprovMD")) {
+                    m_dsMDClass = 4;
+                } else if (mdClass.equals("descMD")) {
+                    m_dsMDClass = 5;
+                }
+                if (m_dsInfoType.equals("OTHER")) {
+                    m_dsInfoType = m_dsOtherInfoType;
+                }
+            }
+        }
+    }
+
+    private void initialize() {
+        m_rootElementFound = false;
+        m_dsId = "";
+        m_dsVersionable = true;
+        m_dsVersId = "";
+        m_dsCreateDate = null;
+        m_dsState = "";
+        m_dsAltIds = new String[0];
+        m_dsFormatURI = "";
+        m_dsSize = -1;
+        m_dsLocationType = "";
+        m_dsLocation = "";
+        m_dsMimeType = "";
+        m_dsControlGrp = "";
+        m_dsInfoType = "";
+        m_dsOtherInfoType = "";
+        m_dsMDClass = 0;
+        m_dsLabel = "";
+        m_dsChecksumType = "";
+        m_dsChecksum = "";
+    }
+
+    //---
+    // Per-thread parse state
+    //---
+
+    /**
+     * Buffers and parser configuration that are reused by all parses on a
+     * thread.
+     */
+    private static class ParseBuffers {
+
+        final XMLInputFactory factory;
+
+        final TagScanner tags = new TagScanner();
+
+        final InlineNamespaces namespaces = new InlineNamespaces();
+
+        final StringBuilder text = new StringBuilder();
+
+        final byte[] prolog = new byte[256];
+
+        char[] chars = new char[8192];
+
+        int length;
+
+        ParseBuffers() {
+            factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,
+                                Boolean.TRUE);
+            factory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        }
+
+        /**
+         * Decodes the whole stream into the character buffer, honouring the
+         * encoding declared by the document. A byte order mark is dropped,
+         * as the StAX parser rejects any character before the prolog.
+         */
+        void read(InputStream in) throws IOException {
+            PushbackInputStream pin =
+                    new PushbackInputStream(in, prolog.length);
+            int n = 0;
+            int r;
+            while (n < prolog.length
+                    && (r = pin.read(prolog, n, prolog.length - n)) != -1) {
+                n += r;
+            }
+            int bom = getBOMLength(prolog, n);
+            String charset = detectEncoding(prolog, bom, n);
+            pin.unread(prolog, bom, n - bom);
+            Reader reader = new InputStreamReader(pin, charset);
+            length = 0;
+            while ((r = reader.read(chars, length, chars.length - length)) != -1) {
+                length += r;
+                if (length == chars.length) {
+                    char[] bigger = new char[chars.length * 2];
+                    System.arraycopy(chars, 0, bigger, 0, length);
+                    chars = bigger;
+                }
+            }
+            tags.reset(chars, length);
+        }
+
+        void release() {
+            if (chars.length > MAX_RETAINED_CHARS) {
+                chars = new char[8192];
+            }
+            if (text.capacity() > MAX_RETAINED_CHARS) {
+                text.setLength(0);
+                text.trimToSize();
+            }
+            length = 0;
+            tags.reset(chars, 0);
+            namespaces.clear();
+        }
+
+        /**
+         * Gets the length of the UTF-8 or UTF-16 byte order mark the given
+         * bytes start with, or 0 if they don't start with one.
+         */
+        static int getBOMLength(byte[] b, int n) {
+            if (n >= 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB
+                    && (b[2] & 0xFF) == 0xBF) {
+                return 3;
+            }
+            if (n >= 2 && ((b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF
+                    || (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE)) {
+                return 2;
+            }
+            return 0;
+        }
+
+        /**
+         * Determines the character encoding from the byte order mark of the
+         * given length or the encoding pseudo-attribute of the XML
+         * declaration that follows it, defaulting to UTF-8.
+         */
+        static String detectEncoding(byte[] b, int bom, int n) {
+            if (bom == 2) {
+                return (b[0] & 0xFF) == 0xFE ? "UTF-16BE" : "UTF-16LE";
+            }
+            if (bom == 3) {
+                return "UTF-8";
+            }
+            // the declaration itself is ASCII-compatible in any other case
+            String decl;
+            try {
+                decl = new String(b, 0, n, "ISO-8859-1");
+            } catch (UnsupportedEncodingException wontHappen) {
+                return "UTF-8";
+            }
+            if (decl.startsWith("<?xml")) {
+                int end = decl.indexOf("?>");
+                if (end > 0) {
+                    decl = decl.substring(0, end);
+                }
+                int i = decl.indexOf("encoding");
+                if (i > 0) {
+                    i = decl.indexOf('=', i) + 1;
+                    while (i > 0 && i < decl.length()
+                            && Character.isWhitespace(decl.charAt(i))) {
+                        i++;
+                    }
+                    if (i > 0 && i < decl.length()) {
+                        char quote = decl.charAt(i);
+                        int close = decl.indexOf(quote, i + 1);
+                        if ((quote == '"' || quote == '\'') && close > i) {
+                            String name = decl.substring(i + 1, close);
+                            if (Charset.isSupported(name)) {
+                                return name;
+                            }
+                        }
+                    }
+                }
+            }
+            return "UTF-8";
+        }
+    }
+
+    /**
+     * The position of an element tag in the character buffer.
+     */
+    private static class Tag {
+
+        /** Offset of the opening '&lt;'. */
+        int start;
+
+        /** Offset just past the closing '&gt;'. */
+        int end;
+
+        /** Whether this is an empty-element tag. */
+        boolean empty;
+    }
+
+    /**
+     * Walks the element tags of the character buffer in document order, in
+     * step with the element events reported by the StAX parser. Comments,
+     * CDATA sections, processing instructions and document type
+     * declarations are skipped, so every start tag found corresponds to a
+     * START_ELEMENT event, and every end tag (or empty-element tag) to an
+     * END_ELEMENT event. This gives exact character offsets regardless of
+     * how the StAX implementation reports its locations.
+     */
+    private static class TagScanner {
+
+        private final List<Tag> m_stack = new ArrayList<Tag>();
+
+        private final Tag m_endTag = new Tag();
+
+        private char[] m_chars;
+
+        private int m_length;
+
+        private int m_pos;
+
+        private int m_depth;
+
+        void reset(char[] chars, int length) {
+            m_chars = chars;
+            m_length = length;
+            m_pos = 0;
+            m_depth = 0;
+        }
+
+        /** Finds the start tag of the next START_ELEMENT event. */
+        Tag next() throws XMLStreamException {
+            Tag tag;
+            if (m_depth == m_stack.size()) {
+                tag = new Tag();
+                m_stack.add(tag);
+            } else {
+                tag = m_stack.get(m_depth);
+            }
+            scan(tag);
+            if (m_chars[tag.start + 1] == '/') {
+                throw new XMLStreamException("Unexpected end tag at offset "
+                        + tag.start);
+            }
+            m_depth++;
+            return tag;
+        }
+
+        /**
+         * Finds the end tag of the next END_ELEMENT event. For an
+         * empty-element tag this is the start tag itself.
+         */
+        Tag end() throws XMLStreamException {
+            m_depth--;
+            Tag open = m_stack.get(m_depth);
+            if (open.empty) {
+                return open;
+            }
+            scan(m_endTag);
+            return m_endTag;
+        }
+
+        private void scan(Tag tag) throws XMLStreamException {
+            while (true) {
+                int lt = indexOf('<', m_pos);
+                if (lt < 0) {
+                    throw new XMLStreamException("No more tags after offset "
+                            + m_pos);
+                }
+                if (startsWith(lt, "<!--")) {
+                    m_pos = skipPast(lt + 4, "-->");
+                } else if (startsWith(lt, "<![CDATA[")) {
+                    m_pos = skipPast(lt + 9, "]]>");
+                } else if (startsWith(lt, "<?")) {
+                    m_pos = skipPast(lt + 2, "?>");
+                } else if (startsWith(lt, "<!")) {
+                    m_pos = skipDeclaration(lt + 2);
+                } else {
+                    int i = lt + 1;
+                    char quote = 0;
+                    while (i < m_length) {
+                        char c = m_chars[i];
+                        if (quote != 0) {
+                            if (c == quote) {
+                                quote = 0;
+                            }
+                        } else if (c == '"' || c == '\'') {
+                            quote = c;
+                        } else if (c == '>') {
+                            break;
+                        }
+                        i++;
+                    }
+                    if (i >= m_length) {
+                        throw new XMLStreamException("Unterminated tag at offset "
+                                + lt);
+                    }
+                    tag.start = lt;
+                    tag.end = i + 1;
+                    tag.empty = m_chars[i - 1] == '/';
+                    m_pos = tag.end;
+                    return;
+                }
+            }
+        }
+
+        private int skipDeclaration(int from) throws XMLStreamException {
+            int i = from;
+            int brackets = 0;
+            char quote = 0;
+            while (i < m_length) {
+                char c = m_chars[i];
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '[') {
+                    brackets++;
+                } else if (c == ']') {
+                    brackets--;
+                } else if (c == '>' && brackets == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+            throw new XMLStreamException("Unterminated declaration at offset "
+                    + from);
+        }
+
+        private int indexOf(char c, int from) {
+            for (int i = from; i < m_length; i++) {
+                if (m_chars[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(int at, String s) {
+            if (at + s.length() > m_length) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (m_chars[at + i] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int skipPast(int from, String s) throws XMLStreamException {
+            for (int i = from; i + s.length() <= m_length; i++) {
+                if (startsWith(i, s)) {
+                    return i + s.length();
+                }
+            }
+            throw new XMLStreamException("Expected " + s + " after offset "
+                    + from);
+        }
+    }
+
+    /**
+     * Tracks the namespace prefixes declared within the current xmlContent
+     * element, and records where declarations must be inserted so that the
+     * copied inline XML is a standalone chunk.
+     */
+    private static class InlineNamespaces {
+
+        /** Prefixes declared inside the inline XML, as a stack of scopes. */
+        private final List<String> m_declared = new ArrayList<String>();
+
+        private final List<Integer> m_scopes = new ArrayList<Integer>();
+
+        /** Pending insertions: buffer offsets and declaration text. */
+        private final List<Integer> m_insertAt = new ArrayList<Integer>();
+
+        private final List<String> m_insertText = new ArrayList<String>();
+
+        private final Map<String, String> m_needed =
+                new HashMap<String, String>();
+
+        void clear() {
+            m_declared.clear();
+            m_scopes.clear();
+            m_insertAt.clear();
+            m_insertText.clear();
+        }
+
+        void startElement(XMLStreamReader reader, Tag tag) {
+            m_scopes.add(Integer.valueOf(m_declared.size()));
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                m_declared.add(prefix == null ? "" : prefix);
+            }
+            m_needed.clear();
+            need(reader.getPrefix(), reader.getNamespaceURI());
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String prefix = reader.getAttributePrefix(i);
+                // the xml prefix is bound by definition
+                if (prefix != null && prefix.length() > 0
+                        && !prefix.equals("xml")) {
+                    need(prefix, reader.getAttributeNamespace(i));
+                }
+            }
+            if (m_needed.isEmpty()) {
+                return;
+            }
+            StringBuilder decls = new StringBuilder();
+            for (Map.Entry<String, String> entry : m_needed.entrySet()) {
+                String prefix = entry.getKey();
+                decls.append(" xmlns");
+                if (prefix.length() > 0) {
+                    decls.append(':').append(prefix);
+                }
+                decls.append("=\"");
+                decls.append(StreamUtility.enc(entry.getValue()));
+                decls.append('"');
+                m_declared.add(prefix);
+            }
+            String qName = reader.getPrefix() == null
+                    || reader.getPrefix().length() == 0
+                    ? reader.getLocalName()
+                    : reader.getPrefix() + ":" + reader.getLocalName();
+            m_insertAt.add(Integer.valueOf(tag.start + 1 + qName.length()));
+            m_insertText.add(decls.toString());
+        }
+
+        void endElement() {
+            int scope = m_scopes.remove(m_scopes.size() - 1).intValue();
+            while (m_declared.size() > scope) {
+                m_declared.remove(m_declared.size() - 1);
+            }
+        }
+
+        private void need(String prefix, String uri) {
+            if (prefix == null) {
+                prefix = "";
+            }
+            if (uri == null || uri.length() == 0) {
+                // unprefixed and not in a namespace; nothing to declare
+                return;
+            }
+            if (!m_declared.contains(prefix)) {
+                m_needed.put(prefix, uri);
+            }
+        }
+
+        /**
+         * Encodes the given range of the buffer, with any pending namespace
+         * declarations inserted.
+         */
+        byte[] copy(char[] chars, int start, int end, String encoding)
+                throws UnsupportedEncodingException {
+            if (!Charset.isSupported(encoding)) {
+                throw new UnsupportedEncodingException(encoding);
+            }
+            Charset charset = Charset.forName(encoding);
+            if (m_insertAt.isEmpty()) {
+                return toBytes(charset.encode(CharBuffer.wrap(chars,
+                                                              start,
+                                                              end - start)));
+            }
+            StringBuilder out =
+                    new StringBuilder(end - start + 64 * m_insertAt.size());
+            int pos = start;
+            for (int i = 0; i < m_insertAt.size(); i++) {
+                int at = m_insertAt.get(i).intValue();
+                out.append(chars, pos, at - pos);
+                out.append(m_insertText.get(i));
+                pos = at;
+            }
+            out.append(chars, pos, end - pos);
+            return toBytes(charset.encode(CharBuffer.wrap(out)));
+        }
+
+        private static byte[] toBytes(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+}
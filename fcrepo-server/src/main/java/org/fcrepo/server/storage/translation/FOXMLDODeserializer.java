@@ -250,29 +250,44 @@ public class FOXMLDODeserializer
                 + transContext);
         }
 
-        m_obj = obj;
-        m_obj.setLabel("");
-        m_obj.setOwnerId("");
-        m_characterEncoding = encoding;
-        m_transContext = transContext;
-        initialize();
         try {
-            m_parser.parse(in, this);
-        } catch (IOException ioe) {
-            throw new StreamIOException("low-level stream io problem occurred "
-                    + "while sax was parsing this object.");
-        } catch (SAXException se) {
-            throw new ObjectIntegrityException("FOXML IO stream was bad : "
-                    + se.getMessage(), se);
-        }
-        logger.debug("Just finished parse.");
+            m_obj = obj;
+            m_obj.setLabel("");
+            m_obj.setOwnerId("");
+            m_characterEncoding = encoding;
+            m_transContext = transContext;
+            initialize();
+            try {
+                m_parser.parse(in, this);
+            } catch (IOException ioe) {
+                throw new StreamIOException("low-level stream io problem occurred "
+                        + "while sax was parsing this object.");
+            } catch (SAXException se) {
+                throw new ObjectIntegrityException("FOXML IO stream was bad : "
+                        + se.getMessage(), se);
+            }
+            logger.debug("Just finished parse.");
+
+            if (!m_rootElementFound) {
+                throw new ObjectIntegrityException("FOXMLDODeserializer: Input stream is not valid FOXML."
+                        + " The digitalObject root element was not detected.");
+            }
 
-        if (!m_rootElementFound) {
-            throw new ObjectIntegrityException("FOXMLDODeserializer: Input stream is not valid FOXML."
-                    + " The digitalObject root element was not detected.");
+            DOTranslationUtility.normalizeDatastreams(m_obj, m_transContext, m_characterEncoding);
+        } finally {
+            release();
         }
+    }
 
-        DOTranslationUtility.normalizeDatastreams(m_obj, m_transContext, m_characterEncoding);
+    /**
+     * Drops the references to the object just translated and to its content,
+     * so an instance kept for reuse does not hold on to them while idle.
+     */
+    private void release() {
+        m_obj = null;
+        m_elementContent = null;
+        m_binaryContentTempFile = null;
+        initialize();
     }
 
     //---
@@ -466,9 +466,9 @@ public class FOXMLDOSerializer
             // FIXME! We need a more efficient way than to search
             // the whole block of inline XML. We really only want to
             // look at service URLs in the XML.
-            writer.print(DOTranslationUtility
-                    .normalizeInlineXML(new String(ds.xmlContent, "UTF-8")
-                            .trim(), m_transContext));
+            DOTranslationUtility.appendNormalizedInlineXML(ds.xmlContent,
+                                                           writer,
+                                                           m_transContext);
         } else {
             DOTranslationUtility.appendXMLStream(ds.getContentStream(),
                                                  writer,
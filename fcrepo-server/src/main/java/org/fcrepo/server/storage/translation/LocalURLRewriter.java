@@ -0,0 +1,273 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.translation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Rewrites URLs that refer to the local repository in UTF-8 encoded inline
+ * XML, working directly on the encoded bytes.
+ * <p>
+ * The search strings are literal and ASCII-only, so they can never match
+ * within a multi-byte UTF-8 sequence. They are held in a byte trie and, at
+ * each position, the longest search string found is replaced. This gives the
+ * same result as applying the longer (application context) patterns before
+ * the shorter (host only) ones, as the regular expression based methods in
+ * {@link DOTranslationUtility} do, but in a single pass and without decoding
+ * the content. When nothing matches, no copy of the content is made.
+ * </p>
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ * </p>
+ */
+public class LocalURLRewriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Root node of the trie. */
+    private final Node m_root = new Node();
+
+    /** Whether a search string may start with the given byte. */
+    private final boolean[] m_startBytes = new boolean[256];
+
+    private final List<byte[]> m_replacements = new ArrayList<byte[]>();
+
+    private final List<String> m_replacementStrings = new ArrayList<String>();
+
+    /**
+     * Creates a rewriter.
+     *
+     * @param replacements
+     *        the strings to search for, mapped to their replacements. Search
+     *        strings must be non-empty and consist of ASCII characters only.
+     */
+    public LocalURLRewriter(Map<String, String> replacements) {
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            String search = entry.getKey();
+            if (search.length() == 0) {
+                throw new IllegalArgumentException("Search string is empty");
+            }
+            Node node = m_root;
+            for (int i = 0; i < search.length(); i++) {
+                char c = search.charAt(i);
+                if (c > 0x7F) {
+                    throw new IllegalArgumentException("Search string is not ASCII: "
+                            + search);
+                }
+                node = node.child((byte) c, true);
+            }
+            m_startBytes[search.charAt(0)] = true;
+            node.replacement = m_replacements.size();
+            node.depth = search.length();
+            m_replacements.add(entry.getValue().getBytes(UTF8));
+            m_replacementStrings.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Rewrites the given content.
+     *
+     * @param in
+     *        UTF-8 encoded content.
+     * @return the rewritten content, or <code>in</code> itself if there was
+     *         nothing to rewrite.
+     */
+    public byte[] rewrite(byte[] in) {
+        int first = find(in, 0, in.length);
+        if (first < 0) {
+            return in;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(in.length + 64);
+        try {
+            rewrite(in, 0, in.length, first, out);
+        } catch (IOException wontHappen) {
+            throw new RuntimeException(wontHappen);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a rewritten range of the given content to a stream.
+     *
+     * @param in
+     *        UTF-8 encoded content.
+     * @param off
+     *        offset of the first byte to read.
+     * @param len
+     *        number of bytes to read.
+     * @param out
+     *        the stream to write the (UTF-8 encoded) result to.
+     */
+    public void rewrite(byte[] in, int off, int len, OutputStream out)
+            throws IOException {
+        int first = find(in, off, off + len);
+        if (first < 0) {
+            out.write(in, off, len);
+        } else {
+            rewrite(in, off, off + len, first, out);
+        }
+    }
+
+    /**
+     * Writes a rewritten range of the given content to a character stream.
+     * Unchanged ranges are decoded straight into the writer.
+     *
+     * @param in
+     *        UTF-8 encoded content.
+     * @param off
+     *        offset of the first byte to read.
+     * @param len
+     *        number of bytes to read.
+     * @param out
+     *        the writer to write the result to.
+     */
+    public void rewrite(byte[] in, int off, int len, Writer out)
+            throws IOException {
+        int end = off + len;
+        CharsetDecoder decoder =
+                UTF8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(Math.min(len + 1, 4096));
+        int pos = off;
+        int match = find(in, pos, end);
+        while (match >= 0) {
+            Node node = longestMatch(in, match, end);
+            decode(decoder, in, pos, match, chars, out);
+            out.write(m_replacementStrings.get(node.replacement));
+            pos = match + node.depth;
+            match = find(in, pos, end);
+        }
+        decode(decoder, in, pos, end, chars, out);
+    }
+
+    private void rewrite(byte[] in, int off, int end, int match, OutputStream out)
+            throws IOException {
+        int pos = off;
+        while (match >= 0) {
+            Node node = longestMatch(in, match, end);
+            out.write(in, pos, match - pos);
+            out.write(m_replacements.get(node.replacement));
+            pos = match + node.depth;
+            match = find(in, pos, end);
+        }
+        out.write(in, pos, end - pos);
+    }
+
+    /**
+     * Finds the offset of the first match in the given range, or -1.
+     */
+    private int find(byte[] in, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (m_startBytes[in[i] & 0xFF] && longestMatch(in, i, end) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the trie node of the longest search string starting at the
+     * given offset, or null.
+     */
+    private Node longestMatch(byte[] in, int start, int end) {
+        Node node = m_root;
+        Node found = null;
+        for (int i = start; i < end; i++) {
+            node = node.child(in[i], false);
+            if (node == null) {
+                break;
+            }
+            if (node.replacement >= 0) {
+                found = node;
+            }
+        }
+        return found;
+    }
+
+    private static void decode(CharsetDecoder decoder,
+                               byte[] in,
+                               int from,
+                               int to,
+                               CharBuffer chars,
+                               Writer out) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        // ranges always start and end on character boundaries
+        decoder.reset();
+        ByteBuffer bytes = ByteBuffer.wrap(in, from, to - from);
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, true);
+            flush(chars, out);
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            flush(chars, out);
+        }
+        flush(chars, out);
+    }
+
+    private static void flush(CharBuffer chars, Writer out) throws IOException {
+        chars.flip();
+        out.write(chars.array(), 0, chars.limit());
+        chars.clear();
+    }
+
+    /**
+     * A trie node. Child nodes are kept in a small parallel array, as each
+     * node only has a handful of children.
+     */
+    private static class Node {
+
+        byte[] labels = new byte[0];
+
+        Node[] children = new Node[0];
+
+        /** Index of the replacement if a search string ends here, or -1. */
+        int replacement = -1;
+
+        /** Length of the search string ending here. */
+        int depth;
+
+        Node child(byte label, boolean create) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == label) {
+                    return children[i];
+                }
+            }
+            if (!create) {
+                return null;
+            }
+            byte[] newLabels = new byte[labels.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, labels.length);
+            newLabels[labels.length] = label;
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, children.length);
+            Node child = new Node();
+            newChildren[children.length] = child;
+            labels = newLabels;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -268,53 +268,72 @@ public class METSFedoraExtDODeserializer
         logger.debug("Deserializing " + m_format.uri + " for transContext: "
                 + transContext);
 
-        // initialize sax for this parse
-        try {
-            m_parser = spf.newSAXParser();
-        } catch (Exception e) {
-            throw new RuntimeException("Error initializing SAX parser", e);
+        // initialize sax the first time this instance parses; the parser
+        // is reused by later parses
+        if (m_parser == null) {
+            try {
+                synchronized (spf) {
+                    m_parser = spf.newSAXParser();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("Error initializing SAX parser", e);
+            }
         }
 
-        m_obj = obj;
-        m_obj.setOwnerId("");
-        m_obj.setLabel("");
-        m_characterEncoding = encoding;
-        m_transContext = transContext;
-        initialize();
         try {
-            m_parser.parse(in, this);
-        } catch (IOException ioe) {
-            throw new StreamIOException("Low-level stream IO problem occurred "
-                    + "while SAX parsing this object.");
-        } catch (SAXException se) {
-            throw new ObjectIntegrityException("METS stream was bad : "
-                    + se.getMessage());
-        }
-        if (!m_rootElementFound) {
-            throw new ObjectIntegrityException("METS root element not found");
-        }
+            m_obj = obj;
+            m_obj.setOwnerId("");
+            m_obj.setLabel("");
+            m_characterEncoding = encoding;
+            m_transContext = transContext;
+            initialize();
+            try {
+                m_parser.parse(in, this);
+            } catch (IOException ioe) {
+                throw new StreamIOException("Low-level stream IO problem occurred "
+                        + "while SAX parsing this object.");
+            } catch (SAXException se) {
+                throw new ObjectIntegrityException("METS stream was bad : "
+                        + se.getMessage());
+            }
+            if (!m_rootElementFound) {
+                throw new ObjectIntegrityException("METS root element not found");
+            }
 
-        // POST-PROCESSING...
-        // convert audit records to contain component ids
-        convertAudits();
-        // preserve ADMID and DMDID relationships in a RELS-INT
-        // datastream, if one does not already exist.
-        createRelsInt();
-
-        DOTranslationUtility.normalizeDatastreams(m_obj,
-                                                  m_transContext,
-                                                  m_characterEncoding);
-
-        if (m_format.equals(METS_EXT1_0)) {
-            // DISSEMINATORS... put disseminators in the instantiated digital
-            // object
-            Iterator<Disseminator> dissemIter = m_dissems.values().iterator();
-            while (dissemIter.hasNext()) {
-                Disseminator diss = dissemIter.next();
-                m_obj.disseminators(diss.dissID).add(diss);
+            // POST-PROCESSING...
+            // convert audit records to contain component ids
+            convertAudits();
+            // preserve ADMID and DMDID relationships in a RELS-INT
+            // datastream, if one does not already exist.
+            createRelsInt();
+
+            DOTranslationUtility.normalizeDatastreams(m_obj,
+                                                      m_transContext,
+                                                      m_characterEncoding);
+
+            if (m_format.equals(METS_EXT1_0)) {
+                // DISSEMINATORS... put disseminators in the instantiated digital
+                // object
+                Iterator<Disseminator> dissemIter = m_dissems.values().iterator();
+                while (dissemIter.hasNext()) {
+                    Disseminator diss = dissemIter.next();
+                    m_obj.disseminators(diss.dissID).add(diss);
+                }
             }
+        } finally {
+            release();
         }
+    }
 
+    /**
+     * Forgets the object, disseminator and content of the last call once it
+     * is done.
+     */
+    private void release() {
+        m_obj = null;
+        m_diss = null;
+        m_binaryContentTempFile = null;
+        initialize();
     }
 
     //---
@@ -1241,6 +1260,10 @@ public class METSFedoraExtDODeserializer
         // temporary variables and state variables
         m_rootElementFound = false;
         m_inXMLMetadata = false;
+        m_readingContent = false;
+        m_readingBinaryContent = false;
+        m_elementContent = null;
+        hasRels = false;
         m_prefixMap = new HashMap<String, String>();
         m_localPrefixMap = new HashMap<String, String>();
         m_prefixList = new ArrayList<String>();
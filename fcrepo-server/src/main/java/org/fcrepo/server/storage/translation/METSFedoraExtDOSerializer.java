@@ -378,9 +378,9 @@ public class METSFedoraExtDOSerializer
             if (obj.hasContentModel(SERVICE_DEPLOYMENT_3_0)
                     && ds.DatastreamID.equals("SERVICE-PROFILE")
                     || ds.DatastreamID.equals("WSDL")) {
-                writer.print(DOTranslationUtility
-                        .normalizeInlineXML(new String(ds.xmlContent, "UTF-8")
-                                .trim(), m_transContext));
+                DOTranslationUtility.appendNormalizedInlineXML(ds.xmlContent,
+                                                               writer,
+                                                               m_transContext);
             } else {
                 DOTranslationUtility.appendXMLStream(ds.getContentStream(),
                                                      writer,
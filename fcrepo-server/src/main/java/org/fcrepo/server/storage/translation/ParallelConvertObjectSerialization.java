@@ -0,0 +1,376 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.translation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.utilities.LogConfig;
+import org.trippi.io.TripleIteratorFactory;
+
+
+/**
+ * Converts a directory tree of objects from one serialization format to
+ * another using several threads.
+ * <p>
+ * This works like {@link ConvertObjectSerialization}, which it uses to do
+ * the conversion of each object, but is meant for converting whole
+ * repositories: source files are converted concurrently, each by a
+ * converter belonging to the worker thread. Each result is written to a
+ * temporary file which is then renamed into place, so a destination file
+ * is always complete. A destination file that is at least as new as its
+ * source is not converted again, which allows an interrupted run to be
+ * resumed by running it again. Progress and throughput are reported
+ * periodically.
+ * </p>
+ * <p>
+ * The source may also be a low level object store, whose files have no
+ * extension; use an input extension of <code>*</code> to convert every
+ * file.
+ * </p>
+ *
+ * @since 3.7.2
+ */
+public class ParallelConvertObjectSerialization {
+
+    /** Input extension that matches all files. */
+    public static final String ANY_EXTENSION = "*";
+
+    /** Suffix of files that are still being written. */
+    private static final String PART_SUFFIX = ".part";
+
+    /** Seconds between progress reports. */
+    private static final int REPORT_INTERVAL = 10;
+
+    private final Class<DODeserializer> m_deserializer;
+
+    private final Class<DOSerializer> m_serializer;
+
+    private final boolean m_pretty;
+
+    private final String m_inExt;
+
+    private final String m_outExt;
+
+    private final int m_threads;
+
+    private final ThreadLocal<ConvertObjectSerialization> m_converter =
+            new ThreadLocal<ConvertObjectSerialization>() {
+
+                @Override
+                protected ConvertObjectSerialization initialValue() {
+                    return new ConvertObjectSerialization(m_deserializer,
+                                                          m_serializer,
+                                                          m_pretty,
+                                                          m_inExt,
+                                                          m_outExt);
+                }
+            };
+
+    private final AtomicLong m_converted = new AtomicLong();
+
+    private final AtomicLong m_skipped = new AtomicLong();
+
+    private final AtomicLong m_failed = new AtomicLong();
+
+    private final AtomicLong m_bytesRead = new AtomicLong();
+
+    public ParallelConvertObjectSerialization(Class<DODeserializer> deserializer,
+                                              Class<DOSerializer> serializer,
+                                              boolean pretty,
+                                              String inExt,
+                                              String outExt,
+                                              int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        m_deserializer = deserializer;
+        m_serializer = serializer;
+        m_pretty = pretty;
+        m_inExt = inExt;
+        m_outExt = outExt;
+        m_threads = threads;
+    }
+
+    /**
+     * Converts all matching files below the source directory, writing the
+     * results to the same relative paths below the destination directory.
+     * Hidden directories (directories starting with a ".") are skipped.
+     *
+     * @param source
+     *        the source directory.
+     * @param destination
+     *        the destination directory, created if necessary.
+     * @return <code>true</code> if all files were converted or skipped;
+     *         <code>false</code> if any failed.
+     * @throws InterruptedException
+     *         if interrupted while waiting for the conversions to finish.
+     */
+    public boolean convert(File source, File destination)
+            throws InterruptedException {
+        // the caller submits files no faster than the workers convert them
+        ThreadPoolExecutor workers =
+                new ThreadPoolExecutor(m_threads,
+                                       m_threads,
+                                       0L,
+                                       TimeUnit.MILLISECONDS,
+                                       new ArrayBlockingQueue<Runnable>(m_threads * 4),
+                                       new ThreadPoolExecutor.CallerRunsPolicy());
+        final long start = System.currentTimeMillis();
+        ScheduledExecutorService reporter =
+                Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(new Runnable() {
+
+            public void run() {
+                report(start);
+            }
+        }, REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.SECONDS);
+        boolean result;
+        try {
+            result = submit(source, destination, workers);
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            reporter.shutdownNow();
+        }
+        report(start);
+        return result && m_failed.get() == 0;
+    }
+
+    /**
+     * Returns the number of files converted so far.
+     */
+    public long getConvertedCount() {
+        return m_converted.get();
+    }
+
+    /**
+     * Returns the number of files skipped so far because they had already
+     * been converted.
+     */
+    public long getSkippedCount() {
+        return m_skipped.get();
+    }
+
+    /**
+     * Returns the number of files that could not be converted so far.
+     */
+    public long getFailedCount() {
+        return m_failed.get();
+    }
+
+    private boolean submit(File source,
+                           File destination,
+                           ThreadPoolExecutor workers) {
+        if (source.getName().startsWith(".")) {
+            // skip "hidden" directories
+            return true;
+        }
+        boolean result = true;
+        if (destination.exists()) {
+            result = destination.isDirectory();
+        } else {
+            result = destination.mkdirs();
+        }
+        if (!result) {
+            System.out.println("ERROR: Unable to create directory "
+                    + destination.getPath());
+            return false;
+        }
+        File[] children = source.listFiles();
+        if (children == null) {
+            System.out.println("ERROR: Unable to list directory "
+                    + source.getPath());
+            return false;
+        }
+        for (File element : children) {
+            String inName = element.getName();
+            if (element.isDirectory()) {
+                result = submit(element, new File(destination, inName), workers)
+                        && result;
+            } else if (accept(inName)) {
+                final File in = element;
+                final File out = new File(destination, getOutName(inName));
+                workers.execute(new Runnable() {
+
+                    public void run() {
+                        convertFile(in, out);
+                    }
+                });
+            }
+        }
+        return result;
+    }
+
+    private boolean accept(String inName) {
+        if (inName.endsWith(PART_SUFFIX)) {
+            return false;
+        }
+        if (m_inExt.equals(ANY_EXTENSION)) {
+            return !inName.startsWith(".");
+        }
+        return inName.endsWith("." + m_inExt);
+    }
+
+    private String getOutName(String inName) {
+        if (m_inExt.equals(ANY_EXTENSION)) {
+            return m_outExt.equals(ANY_EXTENSION)
+                    ? inName : inName + "." + m_outExt;
+        }
+        return inName.substring(0, inName.lastIndexOf('.') + 1) + m_outExt;
+    }
+
+    private void convertFile(File source, File destination) {
+        if (destination.exists()
+                && destination.lastModified() >= source.lastModified()) {
+            // converted by an earlier run
+            m_skipped.incrementAndGet();
+            return;
+        }
+        File part = new File(destination.getParentFile(),
+                             destination.getName() + PART_SUFFIX);
+        boolean converted = false;
+        try {
+            InputStream in =
+                    new BufferedInputStream(new FileInputStream(source));
+            try {
+                OutputStream out =
+                        new BufferedOutputStream(new FileOutputStream(part));
+                try {
+                    converted = m_converter.get().convert(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (converted) {
+                // File.renameTo does not replace an existing file everywhere
+                if (destination.exists() && !destination.delete()) {
+                    converted = false;
+                } else {
+                    converted = part.renameTo(destination);
+                }
+            }
+        } catch (Throwable t) {
+            // even an Error fails only this file: it would otherwise kill
+            // the worker, or the whole run when the caller ran the task,
+            // and leave the file neither converted nor counted as failed
+            t.printStackTrace();
+            converted = false;
+        }
+        if (converted) {
+            m_converted.incrementAndGet();
+            m_bytesRead.addAndGet(source.length());
+        } else {
+            part.delete();
+            m_failed.incrementAndGet();
+            System.out.println("ERROR: Failed to convert " + source.getPath());
+        }
+    }
+
+    private void report(long start) {
+        long converted = m_converted.get();
+        double seconds =
+                Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        System.out.println(String.format("Converted %d objects (%.1f/s, %.2f MB/s),"
+                                                 + " skipped %d, failed %d",
+                                         converted,
+                                         converted / seconds,
+                                         m_bytesRead.get() / seconds
+                                                 / (1024 * 1024),
+                                         m_skipped.get(),
+                                         m_failed.get()));
+    }
+
+    /**
+     * Command-line utility to convert objects from one format to another
+     * using several threads.
+     *
+     * @param args command-line args.
+     */
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        LogConfig.initMinimal();
+        if (args.length < 4 || args.length > 8) {
+            die("Expected 4 to 8 arguments", true);
+        }
+        File sourceDir = new File(args[0]);
+        if (!sourceDir.isDirectory()) {
+            die("Not a directory: " + sourceDir.getPath(), false);
+        }
+        File destDir = new File(args[1]);
+
+        Class<DODeserializer> deserializer = (Class<DODeserializer>) Class.forName(args[2]);
+        Class<DOSerializer> serializer = (Class<DOSerializer>) Class.forName(args[3]);
+
+        // So DOTranslationUtility works...
+        System.setProperty("fedora.hostname", "localhost");
+        System.setProperty("fedora.port", "8080");
+        System.setProperty("fedora.appServerContext", Constants.FEDORA_DEFAULT_APP_CONTEXT);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 4) {
+            try {
+                threads = Integer.parseInt(args[4]);
+            } catch (NumberFormatException e) {
+                die("Not a number of threads: " + args[4], true);
+            }
+        }
+
+        boolean pretty = args.length > 5 && args[5].equals("true");
+
+        String inExt = "xml";
+        if (args.length > 6) inExt = args[6];
+
+        String outExt = "xml";
+        if (args.length > 7) outExt = args[7];
+
+        ParallelConvertObjectSerialization converter =
+                new ParallelConvertObjectSerialization(deserializer,
+                                                       serializer,
+                                                       pretty,
+                                                       inExt,
+                                                       outExt,
+                                                       threads);
+        boolean success = converter.convert(sourceDir, destDir);
+
+        TripleIteratorFactory.defaultInstance().shutdown();
+        if (!success) {
+            System.exit(1);
+        }
+    }
+
+    private static void die(String message, boolean showUsage) {
+        System.out.println("ERROR: " + message);
+        if (showUsage) {
+            System.out.println("Usage: ParallelConvertObjectSerialization srcDir dstDir deserClass serClass");
+            System.out.println("                                          [threads] [pretty] [inExt] [outExt]");
+            System.out.println("Where: srcDir     : source directory or object store");
+            System.out.println("       dstDir     : destination directory (created if necessary)");
+            System.out.println("       deserClass : DODeserializer class name");
+            System.out.println("       serClass   : DOSerializer class name");
+            System.out.println("       threads    : number of conversion threads, default is the number of processors");
+            System.out.println("       pretty     : if true and output is xml, it will be pretty-printed");
+            System.out.println("       inExt      : extension for input files, default is xml; * for all files");
+            System.out.println("       outExt     : extension for output files, default is xml; * to keep names");
+            System.out.println("Files already converted by an earlier run are skipped.");
+        }
+        System.exit(1);
+    }
+}
@@ -33,4 +33,7 @@ public class DatastreamMediation {
     public boolean callSSL = false;
 
     public boolean callbackSSL = false;
+
+    /** When the location was registered, in milliseconds since the epoch. */
+    public long registeredTime = 0;
 }
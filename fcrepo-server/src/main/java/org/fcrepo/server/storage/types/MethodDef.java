@@ -15,6 +15,12 @@ public class MethodDef {
 
     public MethodParmDef[] methodParms = new MethodParmDef[0];
 
+    /**
+     * Whether the method's results depend only on its inputs, so they may be
+     * cached.
+     */
+    public boolean cacheable = false;
+
     public MethodDef() {
     }
 
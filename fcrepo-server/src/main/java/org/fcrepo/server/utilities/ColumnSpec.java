@@ -21,6 +21,8 @@ public class ColumnSpec {
 
     private final String m_indexName;
 
+    private final String m_indexColumns;
+
     private final boolean m_isUnique;
 
     private final boolean m_isNotNull;
@@ -42,12 +44,46 @@ public class ColumnSpec {
                       String foreignTableName,
                       String foreignColumnName,
                       String onDeleteAction) {
+        this(name,
+             type,
+             binary,
+             defaultValue,
+             isAutoIncremented,
+             indexName,
+             null,
+             isUnique,
+             isNotNull,
+             foreignTableName,
+             foreignColumnName,
+             onDeleteAction);
+    }
+
+    /**
+     * Creates a column whose index, if it has one, also covers other columns.
+     *
+     * @param indexColumns
+     *        a comma-separated list of the columns that follow this one in
+     *        its index, or null if the index is on this column alone
+     */
+    public ColumnSpec(String name,
+                      String type,
+                      boolean binary,
+                      String defaultValue,
+                      boolean isAutoIncremented,
+                      String indexName,
+                      String indexColumns,
+                      boolean isUnique,
+                      boolean isNotNull,
+                      String foreignTableName,
+                      String foreignColumnName,
+                      String onDeleteAction) {
         m_name = name;
         m_type = type;
         m_binary = binary;
         m_defaultValue = defaultValue;
         m_isAutoIncremented = isAutoIncremented;
         m_indexName = indexName;
+        m_indexColumns = indexColumns;
         m_isUnique = isUnique;
         m_isNotNull = isNotNull;
         m_foreignTableName = foreignTableName;
@@ -91,6 +127,17 @@ public class ColumnSpec {
         return m_indexName;
     }
 
+    /**
+     * Gets the comma-separated columns of this column's index, starting with
+     * this column.
+     */
+    public String getIndexColumns() {
+        if (m_indexColumns == null) {
+            return m_name;
+        }
+        return m_name + ", " + m_indexColumns;
+    }
+
     public boolean isAutoIncremented() {
         return m_isAutoIncremented;
     }
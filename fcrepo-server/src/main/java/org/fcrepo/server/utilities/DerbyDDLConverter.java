@@ -168,7 +168,7 @@ public class DerbyDDLConverter
 
         if (cs.getIndexName() != null) {
             out.append("CREATE INDEX " + ts.getName() + "_" + cs.getName()
-                    + " ON " + ts.getName() + " (" + cs.getName() + ")");
+                    + " ON " + ts.getName() + " (" + cs.getIndexColumns() + ")");
         }
 
         return out.toString();
@@ -81,7 +81,7 @@ public class MsSQLDDLConverter
             }
             if (cs.getIndexName() != null) {
                 list.add("CREATE INDEX " + cs.getIndexName() + " ON " 
-                        + spec.getName() + " (" + cs.getName() + ")");
+                        + spec.getName() + " (" + cs.getIndexColumns() + ")");
             }
             if (cs.getForeignTableName() != null) {
                 if (!end.toString().equals("")) {
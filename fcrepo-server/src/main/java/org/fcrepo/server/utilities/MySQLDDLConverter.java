@@ -76,7 +76,7 @@ public class MySQLDDLConverter
                 end.append("  KEY ");
                 end.append(cs.getIndexName());
                 end.append(" (");
-                end.append(cs.getName());
+                end.append(cs.getIndexColumns());
                 end.append(")");
             }
             if (cs.getForeignTableName() != null) {
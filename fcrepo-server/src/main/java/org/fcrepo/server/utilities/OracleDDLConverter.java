@@ -106,7 +106,7 @@ public class OracleDDLConverter
             }
             if (cs.getIndexName() != null) {
                 l.add("CREATE INDEX " + spec.getName() + "_" + cs.getName()
-                      + " ON " + spec.getName() + " (" + cs.getName() + ")");
+                      + " ON " + spec.getName() + " (" + cs.getIndexColumns() + ")");
             }
             if (cs.getForeignTableName() != null) {
                 if (!end.toString().equals("")) {
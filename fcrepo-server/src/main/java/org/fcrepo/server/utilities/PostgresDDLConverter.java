@@ -80,7 +80,7 @@ public class PostgresDDLConverter
 
             if (cs.getIndexName() != null) {
                 l.add("CREATE INDEX " + spec.getName() + "_" + cs.getName()
-                        + " ON " + spec.getName() + " (" + cs.getName() + ")");
+                        + " ON " + spec.getName() + " (" + cs.getIndexColumns() + ")");
             }
 
             if (cs.getForeignTableName() != null) {
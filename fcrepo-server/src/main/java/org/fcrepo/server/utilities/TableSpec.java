@@ -102,6 +102,7 @@ public class TableSpec {
      *                type=&quot;<i>typeSpec</i>&quot;
      *                autoIncrement=&quot;<i>isAutoIncremented</i>&quot;
      *                index=&quot;<i>indexName</i>&quot;
+     *                indexColumns=&quot;<i>indexColumns</i>&quot;
      *                notNull=&quot;<i>isNotNull</i>&quot;
      *                unique=&quot;<i>isUnique</i>&quot;
      *                default=&quot;<i>defaultValue</i>&quot;
@@ -128,6 +129,9 @@ public class TableSpec {
      * RDBMS-specific. NUMERIC will generally work.
      * <li> <b>indexName</b> - Specifies that an index should be created on
      * this column and provides the column name.
+     * <li> <b>indexColumns</b> - Optionally lists, comma-separated, other
+     * columns that follow this one in its index. An index on a column and
+     * the pid, for instance, serves queries ordered by both.
      * <li> <b>isNotNull</b> - (true|false) Whether input should be limited to
      * actual values.
      * <li> <b>isUnique</b> - (true|false) Whether input should be limited such
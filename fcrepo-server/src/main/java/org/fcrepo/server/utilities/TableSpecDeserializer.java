@@ -42,6 +42,8 @@ public class TableSpecDeserializer
 
     private String m_column_index;
 
+    private String m_column_indexColumns;
+
     private boolean m_column_notNull;
 
     private boolean m_column_unique;
@@ -97,6 +99,7 @@ public class TableSpecDeserializer
             }
             m_column_autoIncrement = getBoolean(a, "autoIncrement");
             m_column_index = a.getValue("index");
+            m_column_indexColumns = a.getValue("indexColumns");
             m_column_notNull = getBoolean(a, "notNull");
             m_column_unique = getBoolean(a, "unique");
             m_column_default = a.getValue("default");
@@ -157,6 +160,7 @@ public class TableSpecDeserializer
                                         m_column_default,
                                         m_column_autoIncrement,
                                         m_column_index,
+                                        m_column_indexColumns,
                                         m_column_unique,
                                         m_column_notNull,
                                         m_column_foreignKey_foreignTableName,
@@ -168,6 +172,7 @@ public class TableSpecDeserializer
             m_column_default = null;
             m_column_autoIncrement = false;
             m_column_index = null;
+            m_column_indexColumns = null;
             m_column_unique = false;
             m_column_notNull = false;
             m_column_foreignKey_foreignTableName = null;
@@ -0,0 +1,48 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.File;
+
+
+/**
+ * A Rebuilder that can be given objects by several threads at once, and that
+ * can make the objects it has been given durable, so that an interrupted
+ * rebuild can be resumed.
+ *
+ * <p>Rebuild reads and deserializes objects with {@link #getThreadCount()}
+ * threads, each of which calls addObject. Periodically, it waits until every
+ * object listed so far has been added, calls {@link #checkpoint()}, and then
+ * records its position in the checkpoint file. When the rebuilder is resuming,
+ * the objects before that position are not given to it again, except those
+ * that failed to be added, which are tried again first.
+ */
+public interface ParallelRebuilder
+        extends Rebuilder {
+
+    /**
+     * Get the number of threads that should add objects. This is called after
+     * start.
+     */
+    public int getThreadCount();
+
+    /**
+     * Get the file in which the progress of the rebuild is recorded, or null
+     * if it cannot be resumed.
+     */
+    public File getCheckpointFile();
+
+    /**
+     * Returns true if start kept what was rebuilt before, so the rebuild
+     * should continue from the checkpoint file. This is called after start.
+     */
+    public boolean isResuming();
+
+    /**
+     * Make every object added so far durable.
+     */
+    public void checkpoint() throws Exception;
+
+}
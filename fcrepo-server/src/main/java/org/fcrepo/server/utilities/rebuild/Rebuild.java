@@ -12,10 +12,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
@@ -59,6 +65,18 @@ public class Rebuild implements Constants, Runnable {
 
     private static final String listableInterface = IListable.class.getName();
 
+    /** How many objects are rebuilt in parallel between checkpoints. */
+    private static final int CHECKPOINT_INTERVAL = 10000;
+
+    /** How often, in milliseconds, progress is reported. */
+    private static final long PROGRESS_INTERVAL = 10000;
+
+    /** How many listed objects may wait for each worker thread. */
+    private static final int QUEUED_PER_THREAD = 100;
+
+    /** Queued to tell a worker thread to stop; compared by identity. */
+    private static final String NO_MORE_OBJECTS = new String();
+
     private final Rebuilder m_rebuilder;
 
     private final Map<String, String> m_options;
@@ -129,6 +147,11 @@ public class Rebuild implements Constants, Runnable {
                                 " with impl " + llstore.getClass().getName());
                     }
                     Iterator<String> pids = ((IListable) llstore).listObjects();
+                    if (m_rebuilder instanceof ParallelRebuilder) {
+                        rebuildInParallel((ParallelRebuilder) m_rebuilder,
+                                llstore, pids);
+                        return;
+                    }
                     int total = 0;
                     int errors = 0;
                     DODeserializer deser = new FOXML1_1DODeserializer();
@@ -176,6 +199,146 @@ public class Rebuild implements Constants, Runnable {
         }
     }
 
+    /**
+     * Adds the listed objects with the rebuilder's worker threads, reporting
+     * progress and throughput, and recording checkpoints if the rebuilder
+     * has a checkpoint file.
+     */
+    private void rebuildInParallel(final ParallelRebuilder rebuilder,
+            final ILowlevelStorage llstore, Iterator<String> pids)
+            throws Exception {
+        RebuildCheckpoint checkpoint = null;
+        if (rebuilder.getCheckpointFile() != null) {
+            checkpoint = new RebuildCheckpoint(rebuilder.getCheckpointFile());
+        }
+        long position = 0;
+        String pid = null;
+        if (checkpoint != null && rebuilder.isResuming() && checkpoint.load()) {
+            while (position < checkpoint.getPosition() && pids.hasNext()) {
+                pid = pids.next();
+                position++;
+            }
+            if (position < checkpoint.getPosition()
+                    || !checkpoint.getPID().equals(pid)) {
+                throw new Exception("The objects are no longer listed in the"
+                        + " order they were when " + rebuilder
+                                .getCheckpointFile() + " was written, so"
+                        + " the rebuild can't be resumed.");
+            }
+            System.out.println("Resuming after object #" + position + ": "
+                    + pid);
+        }
+        final long startPosition = position;
+        // objects that failed before the checkpoint are tried again first
+        List<String> retries = Collections.emptyList();
+        if (startPosition > 0) {
+            retries = checkpoint.getFailedPIDs();
+            if (!retries.isEmpty()) {
+                System.out.println("Retrying " + retries.size()
+                        + " objects that failed before the checkpoint");
+            }
+        }
+
+        int threads = rebuilder.getThreadCount();
+        final BlockingQueue<String> queue =
+                new ArrayBlockingQueue<String>(threads * QUEUED_PER_THREAD);
+        final Progress progress = new Progress();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread("Rebuild-worker-" + (i + 1)) {
+
+                @Override
+                public void run() {
+                    DODeserializer deser = new FOXML1_1DODeserializer();
+                    try {
+                        String pid;
+                        while ((pid = queue.take()) != NO_MORE_OBJECTS) {
+                            boolean added = false;
+                            try {
+                                added = addObject(rebuilder, llstore, deser,
+                                        pid);
+                            } catch (Throwable th) {
+                                System.out.println("WARNING: Skipped " + pid
+                                        + " due to error: ");
+                                th.printStackTrace();
+                            } finally {
+                                progress.objectDone(pid, added);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        logger.warn(getName() + " interrupted");
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        System.out.println("Adding objects with " + threads + " threads...");
+
+        long started = System.currentTimeMillis();
+        long lastReport = started;
+        long lastCompleted = 0;
+        try {
+            for (String retry : retries) {
+                queue.put(retry);
+            }
+            while (pids.hasNext()) {
+                pid = pids.next();
+                position++;
+                queue.put(pid);
+                if (checkpoint != null && position % CHECKPOINT_INTERVAL == 0) {
+                    progress.awaitCompleted(position - startPosition
+                            + retries.size());
+                    rebuilder.checkpoint();
+                    checkpoint.save(position, pid, progress.getFailed());
+                    logger.info("Checkpoint after object #" + position + ": "
+                            + pid);
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= PROGRESS_INTERVAL) {
+                    long completed = progress.getCompleted();
+                    System.out.println("Added " + (startPosition + completed)
+                            + " objects (" + getRate(completed
+                                    - lastCompleted, now - lastReport)
+                            + " objects/s, " + getRate(completed, now
+                                    - started) + " objects/s overall), "
+                            + progress.getErrors() + " errors");
+                    lastReport = now;
+                    lastCompleted = completed;
+                }
+            }
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                queue.put(NO_MORE_OBJECTS);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        rebuilder.checkpoint();
+        if (checkpoint != null) {
+            checkpoint.delete();
+        }
+
+        long completed = progress.getCompleted();
+        System.out.println("Added " + completed + " objects in "
+                + (System.currentTimeMillis() - started) / 1000 + "s ("
+                + getRate(completed, System.currentTimeMillis() - started)
+                + " objects/s).");
+        if (progress.getErrors() == 0) {
+            System.out.println("SUCCESS: " + position + " objects rebuilt.");
+        } else {
+            System.out.println("WARNING: " + progress.getErrors() + " of "
+                    + position + " objects failed to rebuild due to errors:");
+            for (String failed : progress.getFailed()) {
+                System.out.println("  " + failed);
+            }
+        }
+    }
+
+    private static long getRate(long count, long millis) {
+        return millis == 0 ? count : count * 1000 / millis;
+    }
+
     private boolean addObject(Rebuilder rebuilder, ILowlevelStorage llstore,
             DODeserializer deser, String pid) {
         InputStream in = null;
@@ -481,4 +644,47 @@ public class Rebuild implements Constants, Runnable {
         }
     }
 
+    /**
+     * Counts the objects the worker threads have finished with.
+     */
+    private static class Progress {
+
+        private long m_completed;
+
+        private long m_errors;
+
+        private final Set<String> m_failed = new LinkedHashSet<String>();
+
+        public synchronized void objectDone(String pid, boolean added) {
+            m_completed++;
+            if (!added) {
+                m_errors++;
+                m_failed.add(pid);
+            }
+            notifyAll();
+        }
+
+        public synchronized void awaitCompleted(long count)
+                throws InterruptedException {
+            while (m_completed < count) {
+                wait();
+            }
+        }
+
+        public synchronized long getCompleted() {
+            return m_completed;
+        }
+
+        public synchronized long getErrors() {
+            return m_errors;
+        }
+
+        /**
+         * Gets the PIDs of the objects that failed so far.
+         */
+        public synchronized List<String> getFailed() {
+            return new ArrayList<String>(m_failed);
+        }
+    }
+
 }
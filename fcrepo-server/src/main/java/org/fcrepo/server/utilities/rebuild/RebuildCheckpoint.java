@@ -0,0 +1,159 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+
+/**
+ * The progress of a rebuild, kept in a file so that an interrupted rebuild can
+ * be resumed.
+ *
+ * <p>The progress is the number of objects, in the order the low-level store
+ * lists them, that have been rebuilt, and the PID of the last of them. The
+ * PID is used to check that the store still lists the objects in the same
+ * order.
+ *
+ * <p>It also holds the PIDs of the objects before that position that could
+ * not be rebuilt, so that a resumed rebuild can try them again rather than
+ * leave them out.
+ */
+public class RebuildCheckpoint {
+
+    private static final String POSITION = "position";
+
+    private static final String PID = "pid";
+
+    private static final String FAILED = "failed";
+
+    private final File m_file;
+
+    private long m_position;
+
+    private String m_pid;
+
+    private List<String> m_failed = Collections.emptyList();
+
+    public RebuildCheckpoint(File file) {
+        m_file = file;
+    }
+
+    /**
+     * Reads the checkpoint file.
+     *
+     * @return false if there is no checkpoint file.
+     * @throws IOException
+     *         if the file can't be read or is not a checkpoint.
+     */
+    public boolean load() throws IOException {
+        if (!m_file.exists()) {
+            return false;
+        }
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(m_file);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        String position = props.getProperty(POSITION);
+        m_pid = props.getProperty(PID);
+        if (position == null || m_pid == null) {
+            throw new IOException("Not a rebuild checkpoint: " + m_file);
+        }
+        try {
+            m_position = Long.parseLong(position);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad position in rebuild checkpoint "
+                    + m_file + ": " + position);
+        }
+        String failed = props.getProperty(FAILED, "").trim();
+        if (failed.length() == 0) {
+            m_failed = Collections.emptyList();
+        } else {
+            m_failed = Arrays.asList(failed.split(" +"));
+        }
+        return true;
+    }
+
+    /**
+     * Records the progress. The file is replaced only once the new one has
+     * been written, so an interruption leaves the previous checkpoint.
+     *
+     * @param position
+     *        the number of objects that have been rebuilt.
+     * @param pid
+     *        the PID of the last of them.
+     * @param failed
+     *        the PIDs of those that could not be rebuilt.
+     */
+    public void save(long position, String pid, Collection<String> failed)
+            throws IOException {
+        Properties props = new Properties();
+        props.setProperty(POSITION, Long.toString(position));
+        props.setProperty(PID, pid);
+        // PIDs have no spaces
+        StringBuilder failedList = new StringBuilder();
+        for (String failedPID : failed) {
+            if (failedList.length() > 0) {
+                failedList.append(' ');
+            }
+            failedList.append(failedPID);
+        }
+        props.setProperty(FAILED, failedList.toString());
+        File temp = new File(m_file.getPath() + ".new");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            props.store(out, "Rebuild checkpoint");
+        } finally {
+            out.close();
+        }
+        // renameTo won't replace the old file on all platforms
+        if (!temp.renameTo(m_file)
+                && !(m_file.delete() && temp.renameTo(m_file))) {
+            throw new IOException("Unable to replace rebuild checkpoint "
+                    + m_file);
+        }
+        m_position = position;
+        m_pid = pid;
+        m_failed = new ArrayList<String>(failed);
+    }
+
+    /**
+     * Deletes the checkpoint file, once the rebuild is complete.
+     */
+    public void delete() {
+        m_file.delete();
+    }
+
+    public long getPosition() {
+        return m_position;
+    }
+
+    public String getPID() {
+        return m_pid;
+    }
+
+    /**
+     * Gets the PIDs of the objects before the position that failed to be
+     * rebuilt.
+     */
+    public List<String> getFailedPIDs() {
+        return m_failed;
+    }
+
+}
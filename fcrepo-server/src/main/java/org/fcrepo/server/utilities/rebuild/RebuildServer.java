@@ -41,7 +41,8 @@ public class RebuildServer
      */
     public static String[] REBUILDERS =
         new String[] {"org.fcrepo.server.resourceIndex.ResourceIndexRebuilder",
-    "org.fcrepo.server.utilities.rebuild.SQLRebuilder"};
+    "org.fcrepo.server.utilities.rebuild.SQLRebuilder",
+    "org.fcrepo.server.search.FieldSearchIndexRebuilder"};
 
     /**
      * @param rootConfigElement
@@ -74,6 +74,9 @@ public class SQLRebuilder
     public static final String DBSPEC_LOCATION =
             "org/fcrepo/server/storage/resources/DefaultDOManager.dbspec";
 
+    /** How many objects are added to the FieldSearch indexes at once. */
+    private static final int FIELD_SEARCH_BATCH_SIZE = 100;
+
     private ServerConfiguration m_serverConfig;
 
     private Server m_server;
@@ -84,6 +87,10 @@ public class SQLRebuilder
     
     private long m_now = -1;
 
+    /** Readers of objects not yet added to the FieldSearch indexes. */
+    private final List<DOReader> m_fieldSearchBatch =
+            new ArrayList<DOReader>(FIELD_SEARCH_BATCH_SIZE);
+
     /**
      * Get a short phrase describing what the user can do with this rebuilder.
      */
@@ -406,8 +413,10 @@ public class SQLRebuilder
                     manager.getReader(Server.USE_DEFINITIVE_STORE,
                                       m_context,
                                       obj.getPid());
-            logger.info("COMMIT: Updating FieldSearch indexes...");
-            fieldSearch.update(reader);
+            m_fieldSearchBatch.add(reader);
+            if (m_fieldSearchBatch.size() >= FIELD_SEARCH_BATCH_SIZE) {
+                updateFieldSearch(fieldSearch);
+            }
 
         } catch (ServerException se) {
             System.out.println("Error while replicating: "
@@ -420,6 +429,34 @@ public class SQLRebuilder
         }
     }
 
+    /**
+     * Add the batched objects to the FieldSearch indexes. If that fails,
+     * they are added one at a time, so that only the objects in error are
+     * left out.
+     */
+    private void updateFieldSearch(FieldSearch fieldSearch) {
+        logger.info("COMMIT: Updating FieldSearch indexes for "
+                + m_fieldSearchBatch.size() + " objects...");
+        try {
+            fieldSearch.update(m_fieldSearchBatch);
+        } catch (ServerException e) {
+            logger.warn("Error updating FieldSearch indexes for a batch of "
+                    + "objects; updating them one at a time", e);
+            for (DOReader reader : m_fieldSearchBatch) {
+                try {
+                    fieldSearch.update(reader);
+                } catch (ServerException se) {
+                    System.out.println("Error while replicating: "
+                            + se.getClass().getName() + ": "
+                            + se.getMessage());
+                    se.printStackTrace();
+                }
+            }
+        } finally {
+            m_fieldSearchBatch.clear();
+        }
+    }
+
     /**
      * Adds a new object.
      */
@@ -516,6 +553,10 @@ public class SQLRebuilder
         if (m_now == -1) {
             throw new RuntimeException("Called finish() without calling start()");
         }
+        if (!m_fieldSearchBatch.isEmpty()) {
+            updateFieldSearch((FieldSearch) m_server
+                    .getModule("org.fcrepo.server.search.FieldSearch"));
+        }
         finishStatus(m_now);
     }
 
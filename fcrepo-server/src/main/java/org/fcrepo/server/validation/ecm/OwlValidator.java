@@ -3,7 +3,9 @@ package org.fcrepo.server.validation.ecm;
 import org.fcrepo.server.Context;
 import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.storage.DOManager;
 import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.RelationshipGraph;
 import org.fcrepo.server.storage.RepositoryReader;
 import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.RelationshipTuple;
@@ -234,8 +236,7 @@ public class OwlValidator {
         }
         List<String> targetContentModels;
 
-        DOReader targetReader = doMgr.getReader(false, context, targetPid);
-        targetContentModels = targetReader.getContentModels();
+        targetContentModels = getContentModels(context, targetPid);
 
         for (String targetContentModel : targetContentModels) {
             targetContentModel = targetContentModel+"#" +dsname+"class";
@@ -245,6 +246,24 @@ public class OwlValidator {
 
     }
 
+    /**
+     * Gets the content models of an object from the relationship graph, if
+     * it knows them, rather than by reading the object.
+     */
+    private List<String> getContentModels(Context context, String pid)
+            throws ServerException {
+        if (doMgr instanceof DOManager) {
+            RelationshipGraph graph = ((DOManager) doMgr).getRelationshipGraph();
+            if (graph != null) {
+                List<String> contentModels = graph.getContentModels(pid);
+                if (contentModels != null && !contentModels.isEmpty()) {
+                    return contentModels;
+                }
+            }
+        }
+        return doMgr.getReader(false, context, pid).getContentModels();
+    }
+
     private void checkSomeValuesFrom(String subject, Set<RelationshipTuple> relations,
                                      RestrictionVisitor restrictionVisitor, Validation validation, Context context)
             throws ServerException {
@@ -29,8 +29,10 @@ import java.sql.SQLWarning;
 import java.sql.Time;
 import java.sql.Timestamp;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 
 import java.math.BigDecimal;
 
@@ -52,6 +54,8 @@ public class MockPreparedStatement
     /** Don't forget, first parameter is 1, not 0, so indexes are off by 1. */
     private final Object[] parameters;
 
+    private final List<Object[]> batch = new ArrayList<Object[]>();
+
     private boolean closed;
 
     private boolean executed;
@@ -70,6 +74,7 @@ public class MockPreparedStatement
 
     public void reset() {
         Arrays.fill(parameters, null);
+        batch.clear();
         closed = false;
         executed = false;
     }
@@ -82,6 +87,11 @@ public class MockPreparedStatement
         return parameters.clone();
     }
 
+    /** The parameters of each statement added to the batch. */
+    public List<Object[]> getBatch() {
+        return new ArrayList<Object[]>(batch);
+    }
+
     /** Insure that a closed statement doesn't do anything else. */
     private void checkClosed() {
         if (closed) {
@@ -136,14 +146,24 @@ public class MockPreparedStatement
         parameters[convertIndex(parameterIndex)] = x;
     }
 
+    public void addBatch() throws SQLException {
+        checkClosed();
+        batch.add(parameters.clone());
+        Arrays.fill(parameters, null);
+    }
+
+    public int[] executeBatch() throws SQLException {
+        checkClosed();
+        int[] counts = new int[batch.size()];
+        Arrays.fill(counts, 1);
+        batch.clear();
+        return counts;
+    }
+
     // ----------------------------------------------------------------------
     // Un-implemented methods
     // ----------------------------------------------------------------------
 
-    public void addBatch() throws SQLException {
-        throw new RuntimeException("MockPreparedStatement.addBatch not implemented");
-    }
-
     public void clearParameters() throws SQLException {
         throw new RuntimeException("MockPreparedStatement.clearParameters not implemented");
     }
@@ -314,10 +334,6 @@ public class MockPreparedStatement
         throw new RuntimeException("MockPreparedStatement.execute not implemented");
     }
 
-    public int[] executeBatch() throws SQLException {
-        throw new RuntimeException("MockPreparedStatement.executeBatch not implemented");
-    }
-
     public ResultSet executeQuery(String arg0) throws SQLException {
         throw new RuntimeException("MockPreparedStatement.executeQuery not implemented");
     }
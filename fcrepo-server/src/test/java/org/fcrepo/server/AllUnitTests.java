@@ -11,10 +11,12 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses( {
         BasicServerTest.class,
+        org.fcrepo.server.access.dissemination.AllUnitTests.class,
         org.fcrepo.server.config.AllUnitTests.class,
         org.fcrepo.server.journal.AllUnitTests.class,
         org.fcrepo.server.messaging.AllUnitTests.class,
         org.fcrepo.server.proxy.AllUnitTests.class,
+        org.fcrepo.server.resourceIndex.AllUnitTests.class,
         org.fcrepo.server.search.AllUnitTests.class,
         org.fcrepo.server.security.AllUnitTests.class,
         org.fcrepo.server.storage.AllUnitTests.class,
@@ -0,0 +1,138 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.access.dissemination;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import org.fcrepo.common.http.RouteConfiguration;
+import org.fcrepo.server.errors.BackendUnavailableException;
+import org.fcrepo.server.storage.ContentManagerParams;
+import org.fcrepo.server.storage.types.MIMETypedStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for BackendServiceLimiter.
+ */
+public class BackendServiceLimiterTest {
+
+    private static final String URL = "http://images.example.org/scale?w=100";
+
+    private static final String BACKEND = "images.example.org:80";
+
+    @Test
+    public void testLimitHeldUntilClosed() throws Exception {
+        BackendServiceLimiter limiter =
+                new BackendServiceLimiter(new BackendServiceLimiter.Limits(2,
+                                                                          -1,
+                                                                          -1),
+                                          0);
+        MIMETypedStream first = limiter.call(params(URL), CALL);
+        MIMETypedStream second = limiter.call(params(URL), CALL);
+        assertEquals(2, limiter.getCallsInProgress(BACKEND));
+        try {
+            limiter.call(params(URL), CALL);
+            fail("Call beyond the backend's limit should have been rejected");
+        } catch (BackendUnavailableException e) {
+        }
+        assertEquals(1, limiter.getRejectedCalls(BACKEND));
+
+        // other backends have their own limits
+        limiter.call(params("http://other.example.org:8080/x"), CALL).close();
+
+        first.close();
+        first.close();
+        assertEquals(1, limiter.getCallsInProgress(BACKEND));
+        limiter.call(params(URL), CALL).close();
+        second.close();
+        assertEquals(0, limiter.getCallsInProgress(BACKEND));
+    }
+
+    @Test
+    public void testOverrides() throws Exception {
+        BackendServiceLimiter limiter =
+                new BackendServiceLimiter(new BackendServiceLimiter.Limits(0,
+                                                                          5,
+                                                                          60),
+                                          0);
+        limiter.setLimits(BACKEND, new BackendServiceLimiter.Limits(1, 2, 10));
+        ContentManagerParams params = params(URL);
+        MIMETypedStream response = limiter.call(params, CALL);
+        assertEquals(2, params.getTimeoutSecs());
+        assertEquals(10, params.getSockTimeoutSecs());
+        try {
+            limiter.call(params(URL), CALL);
+            fail("Call beyond the backend's limit should have been rejected");
+        } catch (BackendUnavailableException e) {
+        }
+        response.close();
+
+        params = params("http://other.example.org/x");
+        limiter.call(params, CALL).close();
+        assertEquals(5, params.getTimeoutSecs());
+        assertEquals(60, params.getSockTimeoutSecs());
+    }
+
+    @Test
+    public void testRouteOverrides() {
+        BackendServiceLimiter.Limits defaults =
+                new BackendServiceLimiter.Limits(0, 5, 60);
+        BackendServiceLimiter.Limits limits =
+                defaults.withOverrides(new RouteConfiguration(3, -1, 10));
+        assertEquals(3, limits.maxCalls);
+        assertEquals(5, limits.timeoutSecs);
+        assertEquals(10, limits.sockTimeoutSecs);
+
+        limits = defaults.withOverrides(new RouteConfiguration());
+        assertEquals(0, limits.maxCalls);
+        assertEquals(60, limits.sockTimeoutSecs);
+    }
+
+    @Test
+    public void testReleasedOnFailure() throws Exception {
+        BackendServiceLimiter limiter =
+                new BackendServiceLimiter(new BackendServiceLimiter.Limits(1,
+                                                                          -1,
+                                                                          -1),
+                                          0);
+        try {
+            limiter.call(params(URL), new BackendServiceLimiter.Call() {
+
+                public MIMETypedStream call(ContentManagerParams params)
+                        throws Exception {
+                    throw new IllegalStateException("backend failed");
+                }
+            });
+            fail("Failure of the call should have been thrown");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(0, limiter.getCallsInProgress(BACKEND));
+    }
+
+    private static final BackendServiceLimiter.Call CALL =
+            new BackendServiceLimiter.Call() {
+
+                public MIMETypedStream call(ContentManagerParams params) {
+                    return new MIMETypedStream("text/plain",
+                                               new ByteArrayInputStream(new byte[10]),
+                                               null,
+                                               10);
+                }
+            };
+
+    private static ContentManagerParams params(String url) {
+        return new ContentManagerParams(url);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackendServiceLimiterTest.class);
+    }
+}
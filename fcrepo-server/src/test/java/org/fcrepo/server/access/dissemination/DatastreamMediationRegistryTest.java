@@ -0,0 +1,68 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.access.dissemination;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import org.fcrepo.server.storage.types.DatastreamMediation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for DatastreamMediationRegistry.
+ */
+public class DatastreamMediationRegistryTest {
+
+    @Test
+    public void testRegisterAndResolve() {
+        DatastreamMediationRegistry registry =
+                new DatastreamMediationRegistry(60000);
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            DatastreamMediation dm = new DatastreamMediation();
+            String id = registry.register(dm);
+            assertTrue(id.matches("[0-9a-f]{32}"));
+            assertEquals(id, dm.mediatedDatastreamID);
+            assertSame(dm, registry.get(id));
+            ids.add(id);
+        }
+        assertEquals(1000, ids.size());
+
+        String id = ids.iterator().next();
+        registry.remove(id);
+        assertNull(registry.get(id));
+        assertEquals(999, registry.size());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        DatastreamMediationRegistry registry =
+                new DatastreamMediationRegistry(100);
+        String first = registry.register(new DatastreamMediation());
+        String second = registry.register(new DatastreamMediation());
+        Thread.sleep(150);
+        // an expired registration can't be resolved, even before it's removed
+        assertNull(registry.get(first));
+        Thread.sleep(50);
+        // registering removes the expired buckets
+        String third = registry.register(new DatastreamMediation());
+        assertEquals(1, registry.size());
+        assertNull(registry.get(second));
+        assertTrue(registry.get(third) != null);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DatastreamMediationRegistryTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.access.dissemination;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.storage.types.DisseminationBindingInfo;
+import org.fcrepo.server.storage.types.MIMETypedStream;
+import org.fcrepo.server.storage.types.Property;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for DisseminationCache.
+ */
+public class DisseminationCacheTest {
+
+    private static final Date MODIFIED = new Date(1000000000000L);
+
+    private File m_dir;
+
+    @Before
+    public void setUp() throws IOException {
+        m_dir = File.createTempFile("disseminationCache", "");
+        m_dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        DisseminationCache cache = new DisseminationCache(m_dir, 100, 100);
+        String key = key("demo:1", "a");
+        assertNull(cache.get(key));
+
+        MIMETypedStream result =
+                cache.put(key, MODIFIED, stream("text/plain", "hello"));
+        assertEquals("hello", read(result));
+        assertEquals("\"" + key + "\"", header(result, "ETag"));
+        assertEquals("Sun, 09 Sep 2001 01:46:40 GMT",
+                     header(result, "Last-Modified"));
+
+        MIMETypedStream cached = cache.get(key);
+        assertNotNull(cached);
+        assertEquals("text/plain", cached.MIMEType);
+        assertEquals(5, cached.getSize());
+        assertEquals("hello", read(cached));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        DisseminationCache cache = new DisseminationCache(m_dir, 10, 10);
+        String a = key("demo:1", "a");
+        String b = key("demo:1", "b");
+        String c = key("demo:1", "c");
+        read(cache.put(a, MODIFIED, stream("text/plain", "aaaa")));
+        read(cache.put(b, MODIFIED, stream("text/plain", "bbbb")));
+        read(cache.get(a));
+        read(cache.put(c, MODIFIED, stream("text/plain", "cccc")));
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(8, cache.getBytes());
+
+        // too large to cache, but still sent whole
+        String d = key("demo:1", "d");
+        assertEquals("dddddddddddd",
+                     read(cache.put(d, MODIFIED, stream("text/plain",
+                                                        "dddddddddddd"))));
+        assertNull(cache.get(d));
+    }
+
+    @Test
+    public void testOnlyOwnFilesDeleted() throws IOException {
+        DisseminationCache cache = new DisseminationCache(m_dir, 100, 100);
+        read(cache.put(key("demo:1", "a"), MODIFIED, stream("text/plain",
+                                                            "aaaa")));
+        File other = new File(m_dir, "other.txt");
+        other.createNewFile();
+        assertEquals(2, m_dir.listFiles().length);
+
+        new DisseminationCache(m_dir, 100, 100);
+        assertEquals(1, m_dir.listFiles().length);
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void testKeys() {
+        assertFalse(key("demo:1", "a").equals(key("demo:2", "a")));
+        DisseminationBindingInfo external = new DisseminationBindingInfo();
+        external.dsControlGroupType = "E";
+        assertFalse(DisseminationCache
+                .isCacheable(new DisseminationBindingInfo[] {external}));
+        assertTrue(DisseminationCache
+                .isCacheable(new DisseminationBindingInfo[0]));
+    }
+
+    private static String key(String pid, String parm) {
+        Map<String, String> parms = new HashMap<String, String>();
+        parms.put("parm", parm);
+        return DisseminationCache.getKey(pid, MODIFIED, "demo:sdef",
+                                         "demo:sdep", MODIFIED, "method",
+                                         parms,
+                                         new DisseminationBindingInfo[0]);
+    }
+
+    private static MIMETypedStream stream(String mimeType, String content) {
+        return new MIMETypedStream(mimeType,
+                                   new ByteArrayInputStream(content.getBytes()),
+                                   new Property[0],
+                                   content.length());
+    }
+
+    private static String header(MIMETypedStream stream, String name) {
+        for (Property property : stream.header) {
+            if (property.name.equals(name)) {
+                return property.value;
+            }
+        }
+        return null;
+    }
+
+    private static String read(MIMETypedStream stream) throws IOException {
+        InputStream in = stream.getStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+        } finally {
+            stream.close();
+        }
+        return out.toString();
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DisseminationCacheTest.class);
+    }
+}
@@ -0,0 +1,28 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.resourceIndex;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses( {TestTripleUpdateBuffer.class, TestQueryResultCache.class,
+        TestQueryPage.class, TestDatastreamTripleGenerator.class})
+public class AllUnitTests {
+
+    // Supports legacy tests runners
+    public static junit.framework.Test suite() throws Exception {
+
+        junit.framework.TestSuite suite =
+                new junit.framework.TestSuite(AllUnitTests.class.getName());
+        suite.addTest(TestTripleUpdateBuffer.suite());
+        suite.addTest(TestQueryResultCache.suite());
+        suite.addTest(TestQueryPage.suite());
+        suite.addTest(TestDatastreamTripleGenerator.suite());
+
+        return suite;
+    }
+}
@@ -0,0 +1,411 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.resourceIndex;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.net.URI;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.jrdf.graph.GraphElementFactory;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TriplestoreConnector;
+import org.trippi.TriplestoreWriter;
+
+import org.fcrepo.common.Models;
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.SimpleDOReader;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.ObjectBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that the triples of an object generated in parts are the same as
+ * those generated for the whole object, and that modifying an object with a
+ * set of changed datastreams updates the same triples as regenerating them
+ * all.
+ */
+public class TestDatastreamTripleGenerator {
+
+    private static final String PID_1 = "test:1";
+
+    private static final Date DATE = new Date(1000000000000L);
+
+    private static final String HAS_MODEL =
+            "<fedora-model:hasModel"
+                    + " xmlns:fedora-model=\"info:fedora/fedora-system:def/model#\""
+                    + " rdf:resource=\"%s\"/>";
+
+    static {
+        Datastream.defaultChecksumType = "DISABLED";
+    }
+
+    private final DatastreamTripleGenerator m_generator =
+            new ModelBasedTripleGenerator();
+
+    private final Set<Triple> m_added = new HashSet<Triple>();
+
+    private final Set<Triple> m_deleted = new HashSet<Triple>();
+
+    private ResourceIndex m_ri;
+
+    @Before
+    public void setUp() {
+        TriplestoreWriter writer =
+                (TriplestoreWriter) Proxy
+                        .newProxyInstance(getClass().getClassLoader(),
+                                          new Class[] {TriplestoreWriter.class},
+                                          new InvocationHandler() {
+
+                                              public Object invoke(Object proxy,
+                                                                   Method method,
+                                                                   Object[] args)
+                                                      throws Throwable {
+                                                  return write(method, args);
+                                              }
+                                          });
+        GraphElementFactory factory =
+                (GraphElementFactory) Proxy
+                        .newProxyInstance(getClass().getClassLoader(),
+                                          new Class[] {GraphElementFactory.class},
+                                          new InvocationHandler() {
+
+                                              public Object invoke(Object proxy,
+                                                                   Method method,
+                                                                   Object[] args)
+                                                      throws Throwable {
+                                                  return create(method, args);
+                                              }
+                                          });
+        TriplestoreConnector connector = mock(TriplestoreConnector.class);
+        when(connector.getWriter()).thenReturn(writer);
+        when(connector.getElementFactory()).thenReturn(factory);
+        m_ri = new ResourceIndexImpl(connector,
+                                     m_generator,
+                                     ResourceIndex.INDEX_LEVEL_ON,
+                                     false);
+    }
+
+    @Test
+    public void testPartsOfDataObject() throws Exception {
+        assertParts(getObject(Models.FEDORA_OBJECT_3_0));
+    }
+
+    @Test
+    public void testPartsOfContentModel() throws Exception {
+        assertParts(getObject(Models.FEDORA_OBJECT_3_0,
+                              Models.CONTENT_MODEL_3_0));
+    }
+
+    @Test
+    public void testPartsWithoutRelsExt() throws Exception {
+        DigitalObject obj = getObject(Models.FEDORA_OBJECT_3_0);
+        for (Datastream ds : obj.datastreams("RELS-EXT")) {
+            obj.removeDatastreamVersion(ds);
+        }
+        assertParts(obj);
+    }
+
+    @Test
+    public void testModifyDC() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        ObjectBuilder.addXDatastream(modified,
+                                     "DC",
+                                     ObjectBuilder
+                                             .getDC("<dc:title>changed</dc:title>"));
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0), modified, "DC");
+    }
+
+    @Test
+    public void testAddDatastream() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        ObjectBuilder.addRDatastream(modified, "DS3");
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0), modified, "DS3");
+    }
+
+    @Test
+    public void testRemoveDatastream() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        for (Datastream ds : modified.datastreams("DS2")) {
+            modified.removeDatastreamVersion(ds);
+        }
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0), modified, "DS2");
+    }
+
+    @Test
+    public void testModifyDatastreamState() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        for (Datastream ds : modified.datastreams("DS1")) {
+            ds.DSState = "I";
+        }
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0), modified, "DS1");
+    }
+
+    @Test
+    public void testModifyRelsInt() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        ObjectBuilder.addXDatastream(modified,
+                                     "RELS-INT",
+                                     ObjectBuilder
+                                             .getRELSINT(PID_1,
+                                                         "<foo:rel>a</foo:rel>",
+                                                         "<foo:other rdf:resource=\"info:fedora/test:3\"/>"));
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0),
+                          modified,
+                          "RELS-INT");
+    }
+
+    @Test
+    public void testModifyRelsExt() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        addRelsExt(modified,
+                   "<foo:rel rdf:resource=\"info:fedora/test:3\"/>",
+                   Models.FEDORA_OBJECT_3_0);
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0),
+                          modified,
+                          "RELS-EXT");
+    }
+
+    @Test
+    public void testModifyContentModels() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        addRelsExt(modified,
+                   "<foo:rel rdf:resource=\"info:fedora/test:2\"/>",
+                   Models.FEDORA_OBJECT_3_0,
+                   Models.CONTENT_MODEL_3_0);
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0),
+                          modified,
+                          "RELS-EXT");
+    }
+
+    @Test
+    public void testModifyObjectProperties() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        modified.setLabel("changed");
+        modified.setState("I");
+        modified.setLastModDate(new Date(DATE.getTime() + 1000));
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0), modified);
+    }
+
+    @Test
+    public void testModifySeveralDatastreams() throws Exception {
+        DigitalObject modified = getObject(Models.FEDORA_OBJECT_3_0);
+        ObjectBuilder.addXDatastream(modified,
+                                     "DC",
+                                     ObjectBuilder
+                                             .getDC("<dc:title>changed</dc:title>"));
+        ObjectBuilder.addMDatastream(modified, "DS1");
+        ObjectBuilder.addEDatastream(modified, "DS4");
+        modified.setLastModDate(new Date(DATE.getTime() + 1000));
+        assertSameUpdates(getObject(Models.FEDORA_OBJECT_3_0),
+                          modified,
+                          "DC",
+                          "DS1",
+                          "DS4");
+    }
+
+    /**
+     * Asserts that the parts of the object's triples are disjoint, and that
+     * together they are all of them.
+     */
+    private void assertParts(DigitalObject obj) throws Exception {
+        DOReader reader = getReader(obj);
+        Set<String> ids = new HashSet<String>(Arrays.asList("RELS-EXT",
+                                                            "RELS-INT"));
+        Iterator<String> iter = obj.datastreamIdIterator();
+        while (iter.hasNext()) {
+            ids.add(iter.next());
+        }
+        Set<Triple> union =
+                new HashSet<Triple>(m_generator
+                        .getTriplesForObjectProperties(reader));
+        int count = union.size();
+        for (String id : ids) {
+            Set<Triple> part = m_generator.getTriplesForDatastream(reader, id);
+            union.addAll(part);
+            count += part.size();
+            assertEquals("Triples of " + id + " are also in another part",
+                         count,
+                         union.size());
+        }
+        Set<Triple> all = m_generator.getTriplesForObject(reader);
+        assertTrue(all.size() > 0);
+        assertEquals(all, union);
+    }
+
+    /**
+     * Asserts that modifying an object with the given changed datastreams
+     * adds and deletes the same triples as regenerating all of them, which
+     * turn the triples of the original into those of the modified object.
+     */
+    private void assertSameUpdates(DigitalObject original,
+                                   DigitalObject modified,
+                                   String... changed) throws Exception {
+        DOReader oldReader = getReader(original);
+        DOReader newReader = getReader(modified);
+
+        m_ri.modifyObject(oldReader, newReader);
+        Set<Triple> added = new HashSet<Triple>(m_added);
+        Set<Triple> deleted = new HashSet<Triple>(m_deleted);
+        assertTrue("Modification changed no triples",
+                   added.size() + deleted.size() > 0);
+        m_added.clear();
+        m_deleted.clear();
+
+        m_ri.modifyObject(oldReader,
+                          newReader,
+                          new HashSet<String>(Arrays.asList(changed)));
+        assertEquals("Added triples differ", added, m_added);
+        assertEquals("Deleted triples differ", deleted, m_deleted);
+
+        // the generators' predicates are only equal to themselves, so the
+        // triples given to the writer are compared by their string forms
+        Set<String> triples =
+                toStrings(m_generator.getTriplesForObject(oldReader));
+        triples.removeAll(toStrings(m_deleted));
+        triples.addAll(toStrings(m_added));
+        assertEquals(toStrings(m_generator.getTriplesForObject(newReader)),
+                     triples);
+    }
+
+    /**
+     * Gets an object with the given models, DC, RELS-EXT, RELS-INT and
+     * datastreams of each kind, all dated alike so that two objects built
+     * by this method have the same triples.
+     */
+    private static DigitalObject getObject(URIReference... models) {
+        DigitalObject obj =
+                ObjectBuilder.getTestObject(PID_1,
+                                            models,
+                                            "A",
+                                            "someOwnerId",
+                                            "label",
+                                            DATE,
+                                            DATE);
+        ObjectBuilder.addXDatastream(obj,
+                                     "DC",
+                                     ObjectBuilder
+                                             .getDC("<dc:title>title</dc:title>\n"
+                                                     + "<dc:identifier>"
+                                                     + PID_1
+                                                     + "</dc:identifier>"));
+        addRelsExt(obj, "<foo:rel rdf:resource=\"info:fedora/test:2\"/>", models);
+        ObjectBuilder.addXDatastream(obj,
+                                     "RELS-INT",
+                                     ObjectBuilder
+                                             .getRELSINT(PID_1,
+                                                         "<foo:rel>a</foo:rel>",
+                                                         "<foo:rel>b</foo:rel>"));
+        ObjectBuilder.addEDatastream(obj, "DS1");
+        ObjectBuilder.addMDatastream(obj, "DS2");
+        Iterator<String> ids = obj.datastreamIdIterator();
+        while (ids.hasNext()) {
+            for (Datastream ds : obj.datastreams(ids.next())) {
+                ds.DSCreateDT = DATE;
+            }
+        }
+        return obj;
+    }
+
+    private static void addRelsExt(DigitalObject obj,
+                                   String relationships,
+                                   URIReference... models) {
+        StringBuilder content = new StringBuilder(relationships);
+        for (URIReference model : models) {
+            content.append('\n').append(String.format(HAS_MODEL,
+                                                      model.getURI()));
+        }
+        ObjectBuilder.addXDatastream(obj,
+                                     "RELS-EXT",
+                                     ObjectBuilder.getRELSEXT(PID_1, content
+                                             .toString()));
+    }
+
+    private static Set<String> toStrings(Set<Triple> triples) {
+        Set<String> strings = new HashSet<String>();
+        for (Triple triple : triples) {
+            strings.add(RDFUtil.toString(triple));
+        }
+        return strings;
+    }
+
+    private static DOReader getReader(DigitalObject obj) {
+        return new SimpleDOReader(null, null, null, null, null, obj);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object write(Method method, Object[] args) throws Exception {
+        String name = method.getName();
+        if (name.equals("add") || name.equals("delete")) {
+            Set<Triple> target = name.equals("add") ? m_added : m_deleted;
+            if (args[0] instanceof TripleIterator) {
+                TripleIterator triples = (TripleIterator) args[0];
+                while (triples.hasNext()) {
+                    target.add(triples.next());
+                }
+            } else if (args[0] instanceof Triple) {
+                target.add((Triple) args[0]);
+            } else {
+                target.addAll((Collection<Triple>) args[0]);
+            }
+        }
+        return null;
+    }
+
+    private static Object create(Method method, Object[] args)
+            throws Exception {
+        String name = method.getName();
+        if (name.equals("createResource")) {
+            return new SimpleURIReference((URI) args[0]);
+        } else if (name.equals("createLiteral")) {
+            if (args.length == 1) {
+                return new SimpleLiteral((String) args[0]);
+            } else if (args[1] instanceof URI) {
+                return new SimpleLiteral((String) args[0], (URI) args[1]);
+            } else {
+                return new SimpleLiteral((String) args[0], (String) args[1]);
+            }
+        } else if (name.equals("createTriple")) {
+            return new SimpleTriple((SubjectNode) args[0],
+                                    (PredicateNode) args[1],
+                                    (ObjectNode) args[2]);
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestDatastreamTripleGenerator.class);
+    }
+}
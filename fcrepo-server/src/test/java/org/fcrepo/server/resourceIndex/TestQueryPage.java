@@ -0,0 +1,236 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.resourceIndex;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.Test;
+
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+import org.fcrepo.server.validation.MockTripleIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for QueryPage.
+ */
+public class TestQueryPage {
+
+    private static final String KEY =
+            QueryResultCache.getKey("triples", null, "spo", "* * *", null,
+                                    null, "N-Triples", null);
+
+    @Test
+    public void testPages() throws Exception {
+        List<Triple> triples = triples(5);
+
+        QueryPage page = new QueryPage(0, 2, 0);
+        assertEquals(3, page.getLimit(0));
+        assertEquals(triples.subList(0, 2), read(page, triples));
+        assertTrue(page.hasMore());
+        String cursor = page.getCursor(KEY);
+        assertEquals(2, QueryPage.parseCursor(cursor, KEY));
+
+        page = new QueryPage(QueryPage.parseCursor(cursor, KEY), 2, 0);
+        assertEquals(triples.subList(2, 4), read(page, triples));
+        cursor = page.getCursor(KEY);
+
+        page = new QueryPage(QueryPage.parseCursor(cursor, KEY), 2, 0);
+        assertEquals(triples.subList(4, 5), read(page, triples));
+        assertFalse(page.hasMore());
+        assertNull(page.getCursor(KEY));
+    }
+
+    @Test
+    public void testLimit() {
+        // the query's own limit is kept if it ends the page
+        assertEquals(5, new QueryPage(0, 10, 0).getLimit(5));
+        assertEquals(7, new QueryPage(4, 2, 0).getLimit(0));
+        assertEquals(0, new QueryPage(0, 0, 1000).getLimit(0));
+        // the end of a page beyond the last int is no limit at all
+        assertEquals(Integer.MAX_VALUE,
+                     new QueryPage(QueryPage.MAX_OFFSET, Integer.MAX_VALUE, 0)
+                             .getLimit(0));
+        assertEquals(5, new QueryPage(10, Integer.MAX_VALUE, 0).getLimit(5));
+    }
+
+    @Test
+    public void testCursorBeyondMaxOffset() throws Exception {
+        QueryPage page = new QueryPage(0, 1, 0);
+        read(page, triples(2));
+        String checksum = page.getCursor(KEY).substring(1);
+        assertEquals(QueryPage.MAX_OFFSET,
+                     QueryPage.parseCursor(QueryPage.MAX_OFFSET + checksum, KEY));
+        for (String offset : new String[] {
+                Integer.toString(QueryPage.MAX_OFFSET + 1),
+                Long.toString(Integer.MAX_VALUE + 1L), "-1"}) {
+            try {
+                QueryPage.parseCursor(offset + checksum, KEY);
+                fail("Cursor with offset " + offset
+                        + " should have been rejected");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testCursorForOtherQuery() throws Exception {
+        QueryPage page = new QueryPage(0, 1, 0);
+        read(page, triples(2));
+        String cursor = page.getCursor(KEY);
+        String otherKey =
+                QueryResultCache.getKey("triples", null, "spo", "* * *",
+                                        null, null, "RDF/XML", null);
+        try {
+            QueryPage.parseCursor(cursor, otherKey);
+            fail("Cursor of another query should have been rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final boolean[] closed = new boolean[1];
+        TripleIterator slow = new MockTripleIterator(triples(10)) {
+
+            @Override
+            public Triple next() throws TrippiException {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                return super.next();
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        QueryPage page = new QueryPage(0, 0, 50);
+        TripleIterator iter = page.getPage(slow);
+        try {
+            while (iter.hasNext()) {
+                iter.next();
+            }
+            fail("Query should have exceeded its time budget");
+        } catch (TrippiException e) {
+        }
+        assertTrue(page.isTimedOut());
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void testStalledQuery() throws Exception {
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        QueryPage page = new QueryPage(0, 0, 50);
+        long start = System.currentTimeMillis();
+        try {
+            page.findTriples(new Callable<TripleIterator>() {
+
+                public TripleIterator call() throws Exception {
+                    // a triplestore that ignores interruption
+                    while (release.getCount() > 0) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                    return new MockTripleIterator(triples(1)) {
+
+                        @Override
+                        public void close() {
+                            closed.countDown();
+                        }
+                    };
+                }
+            });
+            fail("Query should have exceeded its time budget");
+        } catch (TrippiException e) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(page.isTimedOut());
+        // the results are closed once the query finally returns them
+        release.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueryWithinBudget() throws Exception {
+        final List<Triple> triples = triples(5);
+        QueryPage page = new QueryPage(1, 2, 5000);
+        TripleIterator iter =
+                page.findTriples(new Callable<TripleIterator>() {
+
+                    public TripleIterator call() {
+                        return new MockTripleIterator(triples);
+                    }
+                });
+        List<Triple> read = new ArrayList<Triple>();
+        while (iter.hasNext()) {
+            read.add(iter.next());
+        }
+        iter.close();
+        assertEquals(triples.subList(1, 3), read);
+        assertFalse(page.isTimedOut());
+    }
+
+    @Test
+    public void testNextCursor() {
+        assertEquals(12, QueryPage.parseCursor(new QueryPage(10, 2, 0)
+                .getNextCursor(KEY), KEY));
+        assertNull(new QueryPage(10, 0, 1000).getNextCursor(KEY));
+    }
+
+    private static List<Triple> read(QueryPage page, List<Triple> triples)
+            throws TrippiException {
+        TripleIterator iter = page.getPage(new MockTripleIterator(triples));
+        List<Triple> read = new ArrayList<Triple>();
+        try {
+            while (iter.hasNext()) {
+                read.add(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return read;
+    }
+
+    private static List<Triple> triples(int count) {
+        List<Triple> triples = new ArrayList<Triple>();
+        for (int i = 0; i < count; i++) {
+            triples.add(new SimpleTriple(new SimpleURIReference(URI
+                    .create("info:fedora/demo:" + i)), new SimpleURIReference(URI
+                    .create("urn:test:p")), new SimpleURIReference(URI
+                    .create("urn:test:o"))));
+        }
+        return triples;
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestQueryPage.class);
+    }
+}
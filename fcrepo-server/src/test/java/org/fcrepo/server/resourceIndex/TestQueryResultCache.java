@@ -0,0 +1,101 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.resourceIndex;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for QueryResultCache.
+ */
+public class TestQueryResultCache {
+
+    @Test
+    public void testNormalize() {
+        assertEquals("select $s from <#ri> where $s <p> 'a  b'",
+                     QueryResultCache.normalize("  select $s\n  from <#ri>"
+                             + "\twhere  $s <p> 'a  b' "));
+        assertEquals("$s <p> \"a \\\"  b\"",
+                     QueryResultCache.normalize("$s  <p> \"a \\\"  b\""));
+        assertFalse(getKey("$s <p> $o", "10").equals(getKey("$s <p> $o",
+                                                           "20")));
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        QueryResultCache cache = new QueryResultCache(1000, 60000);
+        String key = getKey("$s <p> $o", "10");
+        assertNull(cache.get(key));
+        cache.put(key, cache.getEpoch(), "text/plain", "result".getBytes(), 40);
+        QueryResultCache.Result result =
+                cache.get(getKey(" $s  <p>\n$o ", "10"));
+        assertNotNull(result);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.writeTo(out);
+        assertEquals("result", out.toString());
+        assertEquals("text/plain", result.getMediaType());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(40, cache.getSavedMillis());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        QueryResultCache cache = new QueryResultCache(1000, 60000);
+        long epoch = cache.getEpoch();
+        cache.put("a", epoch, "text/plain", new byte[10], 1);
+        cache.invalidate();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getBytes());
+        // run before the invalidation, so not cached
+        cache.put("a", epoch, "text/plain", new byte[10], 1);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testEvictionBySize() throws Exception {
+        QueryResultCache cache = new QueryResultCache(1000, 60000);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, 0, "text/plain", new byte[100], 1);
+        }
+        assertEquals(1000, cache.getBytes());
+        cache.get("k0");
+        cache.put("k10", 0, "text/plain", new byte[100], 1);
+        // k1 was the least recently used
+        assertNull(cache.get("k1"));
+        assertNotNull(cache.get("k0"));
+        assertNotNull(cache.get("k10"));
+        assertEquals(1000, cache.getBytes());
+
+        // larger than a tenth of the cache
+        cache = new QueryResultCache(1000, 60000);
+        cache.put("a", 0, "text/plain", new byte[101], 1);
+        assertNull(cache.get("a"));
+    }
+
+    private static String getKey(String query, String limit) {
+        return QueryResultCache.getKey("tuples",
+                                       null,
+                                       "itql",
+                                       query,
+                                       limit,
+                                       null,
+                                       "CSV",
+                                       null);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestQueryResultCache.class);
+    }
+}
@@ -0,0 +1,170 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.resourceIndex;
+
+import java.io.IOException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.trippi.TripleUpdate;
+import org.trippi.TriplestoreWriter;
+
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for TripleUpdateBuffer.
+ */
+public class TestTripleUpdateBuffer {
+
+    private static final List<Triple> NONE = Collections.emptyList();
+
+    private final List<String> m_calls = new ArrayList<String>();
+
+    private boolean m_failing;
+
+    private TripleUpdateBuffer m_buffer;
+
+    @Before
+    public void setUp() {
+        TriplestoreWriter writer =
+                (TriplestoreWriter) Proxy
+                        .newProxyInstance(getClass().getClassLoader(),
+                                          new Class[] {TriplestoreWriter.class},
+                                          new InvocationHandler() {
+
+                                              public Object invoke(Object proxy,
+                                                                   Method method,
+                                                                   Object[] args)
+                                                      throws Throwable {
+                                                  return write(method, args);
+                                              }
+                                          });
+        // large enough that only the tests flush
+        m_buffer = new TripleUpdateBuffer(writer, 1000, 60000, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_failing = false;
+        m_buffer.close();
+    }
+
+    @Test
+    public void testCancelledUpdates() throws Exception {
+        m_buffer.update(NONE, Arrays.asList(triple("demo:1", "a"),
+                                            triple("demo:1", "b")));
+        m_buffer.update(Arrays.asList(triple("demo:1", "a")), NONE);
+        m_buffer.update(Arrays.asList(triple("demo:1", "c")),
+                        Arrays.asList(triple("demo:1", "c")));
+        assertEquals(1, m_buffer.size());
+        assertEquals(4, m_buffer.getCancelledUpdates());
+
+        m_buffer.flush();
+        assertEquals(Arrays.asList("add [" + triple("demo:1", "b") + "]",
+                                   "flushBuffer"), m_calls);
+        assertEquals(0, m_buffer.size());
+        assertEquals(1, m_buffer.getFlushCount());
+        assertEquals(1, m_buffer.getFlushedUpdates());
+    }
+
+    @Test
+    public void testFindUpdates() throws Exception {
+        m_buffer.update(Arrays.asList(triple("demo:1", "a")),
+                        Arrays.asList(triple("demo:1/DS1", "b"),
+                                      triple("demo:10", "c")));
+        assertEquals(2, m_buffer.getPendingUpdates("demo:1"));
+        assertEquals(1, m_buffer.getPendingUpdates("demo:10"));
+
+        List<TripleUpdate> updates =
+                m_buffer.findUpdates(triple("demo:1", "a").getSubject(),
+                                     null,
+                                     null,
+                                     TripleUpdate.DELETE);
+        assertEquals(1, updates.size());
+        assertEquals(0, m_buffer.findUpdates(triple("demo:1", "a")
+                .getSubject(), null, null, TripleUpdate.ADD).size());
+        assertEquals(3, m_buffer.findUpdates(null, null, null, -1).size());
+    }
+
+    @Test
+    public void testAwaitFlush() throws Exception {
+        long first = m_buffer.update(NONE, Arrays.asList(triple("demo:1", "a")));
+        long second =
+                m_buffer.update(Arrays.asList(triple("demo:2", "a")), NONE);
+        m_buffer.awaitFlush(first);
+        // both were written by the same flush
+        assertEquals(Arrays.asList("delete [" + triple("demo:2", "a") + "]",
+                                   "add [" + triple("demo:1", "a") + "]",
+                                   "flushBuffer"), m_calls);
+        m_buffer.awaitFlush(second);
+        assertEquals(1, m_buffer.getFlushCount());
+    }
+
+    @Test
+    public void testFailedFlush() throws Exception {
+        m_buffer.update(NONE, Arrays.asList(triple("demo:1", "a")));
+        m_failing = true;
+        try {
+            m_buffer.flush();
+            fail("Flush should have failed");
+        } catch (IOException e) {
+        }
+        assertEquals(1, m_buffer.size());
+
+        // a later delete replaces the add, which may have been written
+        m_buffer.update(Arrays.asList(triple("demo:1", "a")), NONE);
+        m_failing = false;
+        m_calls.clear();
+        m_buffer.flush();
+        assertEquals(Arrays.asList("delete [" + triple("demo:1", "a") + "]",
+                                   "flushBuffer"), m_calls);
+        assertEquals(0, m_buffer.getCancelledUpdates());
+    }
+
+    private Object write(Method method, Object[] args) throws IOException {
+        if (m_failing) {
+            throw new IOException("Triplestore unavailable");
+        }
+        if (args == null) {
+            m_calls.add(method.getName());
+        } else {
+            m_calls.add(method.getName() + " " + args[0]);
+        }
+        return null;
+    }
+
+    private static Triple triple(String subject, String object) {
+        return new SimpleTriple(new SimpleURIReference(URI
+                .create("info:fedora/" + subject)), new SimpleURIReference(URI
+                .create("urn:test:p")), new SimpleURIReference(URI
+                .create("urn:test:" + object)));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestTripleUpdateBuffer.class);
+    }
+}
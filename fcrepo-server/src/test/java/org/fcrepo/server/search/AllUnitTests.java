@@ -9,7 +9,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {TestFieldSearchSQLImpl.class})
+@Suite.SuiteClasses( {TestFieldSearchIndexImpl.class,
+        TestFieldSearchResultCache.class, TestFieldSearchSQLImpl.class,
+        TestFieldSearchToken.class, TestTokenIndex.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -17,7 +19,11 @@ public class AllUnitTests {
 
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
+        suite.addTest(TestFieldSearchIndexImpl.suite());
+        suite.addTest(TestFieldSearchResultCache.suite());
         suite.addTest(TestFieldSearchSQLImpl.suite());
+        suite.addTest(TestFieldSearchToken.suite());
+        suite.addTest(TestTokenIndex.suite());
 
         return suite;
     }
@@ -88,6 +88,8 @@ public class FieldSearchSQLImplIntegrationTest {
         Connection conn = cPool.getReadWriteConnection();
         executeUpdate(conn, "DROP TABLE doFields", true);
         executeUpdate(conn, "DROP TABLE dcDates", true);
+        executeUpdate(conn, "DROP TABLE doDisplayFields", true);
+        executeUpdate(conn, "DROP TABLE doTokens", true);
         executeUpdate(conn, "CREATE TABLE doFields (\n"
             + "pid VARCHAR(64) NOT NULL,\n"
             + "label VARCHAR(255) NOT NULL,\n"
@@ -118,6 +120,35 @@ public class FieldSearchSQLImplIntegrationTest {
             + "dcDate BIGINT NOT NULL)", false);
         executeUpdate(conn,
                "CREATE INDEX dcDates_pid ON dcDates (pid)", false);
+        executeUpdate(conn, "CREATE TABLE doDisplayFields (\n"
+            + "pid VARCHAR(64) NOT NULL,\n"
+            + "label VARCHAR(255),\n"
+            + "ownerId VARCHAR(64),\n"
+            + "dcTitle CLOB,\n"
+            + "dcCreator CLOB,\n"
+            + "dcSubject CLOB,\n"
+            + "dcDescription CLOB,\n"
+            + "dcPublisher CLOB,\n"
+            + "dcContributor CLOB,\n"
+            + "dcDate CLOB,\n"
+            + "dcType CLOB,\n"
+            + "dcFormat CLOB,\n"
+            + "dcIdentifier CLOB,\n"
+            + "dcSource CLOB,\n"
+            + "dcLanguage CLOB,\n"
+            + "dcRelation CLOB,\n"
+            + "dcCoverage CLOB,\n"
+            + "dcRights CLOB)", false);
+        executeUpdate(conn,
+               "CREATE INDEX doDisplayFields_pid ON doDisplayFields (pid)", false);
+        executeUpdate(conn, "CREATE TABLE doTokens (\n"
+            + "pid VARCHAR(64) NOT NULL,\n"
+            + "field VARCHAR(32) NOT NULL,\n"
+            + "token VARCHAR(255) NOT NULL)", false);
+        executeUpdate(conn,
+               "CREATE INDEX doTokens_pid ON doTokens (pid)", false);
+        executeUpdate(conn,
+               "CREATE INDEX doTokens_token ON doTokens (token)", false);
         cPool.free(conn);
     }
 
@@ -150,12 +181,20 @@ public class FieldSearchSQLImplIntegrationTest {
     private void init(int maxResults,
                       int maxSecondsPerSession,
                       boolean indexDCFields) throws Exception {
+        init(maxResults, maxSecondsPerSession, indexDCFields, false);
+    }
+
+    private void init(int maxResults,
+                      int maxSecondsPerSession,
+                      boolean indexDCFields,
+                      boolean useTokenIndex) throws Exception {
         m_repo = new MockRepositoryReader();
         m_impl = new FieldSearchSQLImpl(cPool,
                                         m_repo,
                                         maxResults,
                                         maxSecondsPerSession,
-                                        indexDCFields);
+                                        indexDCFields,
+                                        useTokenIndex);
     }
 
     @Test
@@ -209,6 +248,101 @@ public class FieldSearchSQLImplIntegrationTest {
         checkResults(expected, countResults(query, 1));
     }
 
+    @Test
+    public void testResultFieldsFromIndex() throws Exception {
+        init(maxResultsDefault, maxSecondsPerSessionDefault, true);
+
+        String pid1 = "test:1";
+        DigitalObject obj1 = getTestObject(pid1, "Mixed Case Label");
+        String dcContent = "<dc:title>First Title</dc:title>"
+                + "<dc:title>Second Title</dc:title>";
+        addXDatastream(obj1, "DC", getDC(dcContent));
+        setDates(obj1, new Date());
+        m_repo.putObject(obj1);
+        m_impl.update(m_repo.getReader(false, null, pid1));
+
+        // the result must come from the index, not the object
+        m_repo.deleteObject(pid1);
+
+        FieldSearchQuery query = new FieldSearchQuery(Condition.getConditions("title~first*"));
+        FieldSearchResult result =
+                m_impl.findObjects(new String[] {"pid", "label", "state", "title"},
+                                   10,
+                                   query);
+        assertEquals(1, result.objectFieldsList().size());
+        ObjectFields fields = result.objectFieldsList().get(0);
+        assertEquals(pid1, fields.getPid());
+        assertEquals("Mixed Case Label", fields.getLabel());
+        assertEquals(obj1.getState(), fields.getState());
+        assertEquals(2, fields.titles().size());
+        assertEquals("First Title", fields.titles().get(0).getValue());
+        assertEquals("Second Title", fields.titles().get(1).getValue());
+    }
+
+    @Test
+    public void testPagesInPidOrder() throws Exception {
+        init(maxResultsDefault, maxSecondsPerSessionDefault, true);
+
+        for (int i = 5; i > 0; i--) {
+            String pid = "test:" + i;
+            DigitalObject obj = getTestObject(pid, pid);
+            setDates(obj, new Date());
+            m_repo.putObject(obj);
+            m_impl.update(m_repo.getReader(false, null, pid));
+        }
+
+        FieldSearchQuery query = new FieldSearchQuery(Condition.getConditions("pid~test:*"));
+        checkResults(new int[] { 3, 5 }, countResults(query, 2));
+
+        FieldSearchResult page =
+                m_impl.findObjects(new String[] {"pid"}, 2, query);
+        page = m_impl.resumeFindObjects(page.getToken());
+        assertEquals(2, page.getCursor());
+        assertEquals("test:3", page.objectFieldsList().get(0).getPid());
+        assertEquals("test:4", page.objectFieldsList().get(1).getPid());
+    }
+
+    @Test
+    public void testTokenIndex() throws Exception {
+        init(maxResultsDefault, maxSecondsPerSessionDefault, true, true);
+
+        String[] titles = {"Quick Brown Fox", "Lazy Dog", "Quicker Fox"};
+        for (int i = 0; i < titles.length; i++) {
+            String pid = "Test:" + i;
+            DigitalObject obj = getTestObject(pid, "Label " + i);
+            addXDatastream(obj, "DC", getDC("<dc:title>" + titles[i]
+                    + "</dc:title>"));
+            setDates(obj, new Date());
+            m_repo.putObject(obj);
+            m_impl.update(m_repo.getReader(false, null, pid));
+        }
+
+        checkResults(new int[] { 1, 2 },
+                     countResults(new FieldSearchQuery("fox"), 10));
+        checkResults(new int[] { 1, 1 },
+                     countResults(new FieldSearchQuery("Brown"), 10));
+        checkResults(new int[] { 1, 2 },
+                     countResults(new FieldSearchQuery("*FOX*"), 10));
+        checkResults(new int[] { 1, 2 },
+                     countResults(new FieldSearchQuery("quick*"), 10));
+        checkResults(new int[] { 1, 1 },
+                     countResults(new FieldSearchQuery("Test:1"), 10));
+        checkResults(new int[] { 1, 1 },
+                     countResults(new FieldSearchQuery(Condition
+                             .getConditions("title~quick* brown fox")), 10));
+        checkResults(new int[] { 1, 3 },
+                     countResults(new FieldSearchQuery(Condition
+                             .getConditions("label~label*")), 10));
+        checkResults(new int[] { 1, 1 },
+                     countResults(new FieldSearchQuery(Condition
+                             .getConditions("label=label 2")), 10));
+
+        // once deleted, an object's tokens no longer match
+        m_impl.delete("Test:1");
+        checkResults(new int[] { 1, 0 },
+                     countResults(new FieldSearchQuery("lazy"), 10));
+    }
+
     // runs the query (all pages) and returns { pageCount, resultCount }
     private int[] countResults(FieldSearchQuery query,
                                int maxResultsPerPage) throws Exception {
@@ -221,7 +355,7 @@ public class FieldSearchSQLImplIntegrationTest {
             pageCount++;
             resultCount += page.objectFieldsList().size();
             if (page.getToken() != null) {
-                m_impl.resumeFindObjects(page.getToken());
+                page = m_impl.resumeFindObjects(page.getToken());
             } else {
                 page = null;
             }
@@ -0,0 +1,276 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.search;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.fcrepo.server.errors.QueryParseException;
+import org.fcrepo.server.errors.UnrecognizedFieldException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for FieldSearchIndexImpl and the FieldSearchIndex it searches.
+ */
+public class TestFieldSearchIndexImpl {
+
+    private static final String[] RESULT_FIELDS =
+            new String[] {"pid", "label", "title"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File m_directory;
+
+    private FieldSearchIndex m_index;
+
+    private FieldSearchIndexImpl m_fieldSearch;
+
+    @Before
+    public void setUp() throws Exception {
+        m_directory = folder.newFolder("fieldSearch");
+        m_index = new FieldSearchIndex(m_directory);
+        m_fieldSearch = new FieldSearchIndexImpl(m_index, 100, 100, true);
+        m_index.put(getFields("demo:1", "First Object", "Quick Brown Fox",
+                              "2006-10-15"));
+        m_index.put(getFields("demo:2", "Second Fox", "Fox fox fox",
+                              "1999-01-01"));
+        m_index.put(getFields("Demo:3", "Third Object", "Quicker Fox", null));
+        m_index.put(getFields("demo:4", "Fourth", null, null));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_index.close();
+    }
+
+    @Test
+    public void testFindAll() throws Exception {
+        FieldSearchResult result = find(new FieldSearchQuery("*"), 3);
+        assertEquals(Arrays.asList("Demo:3", "demo:1", "demo:2"),
+                     getPids(result));
+        assertEquals(4, result.getCompleteListSize());
+        assertNotNull(result.getToken());
+
+        result = m_fieldSearch.resumeFindObjects(result.getToken());
+        assertEquals(Arrays.asList("demo:4"), getPids(result));
+        assertEquals(3, result.getCursor());
+        assertEquals(4, result.getCompleteListSize());
+        assertNull(result.getToken());
+    }
+
+    @Test
+    public void testTermsAreRankedByRelevance() throws Exception {
+        FieldSearchResult result = find(new FieldSearchQuery("fox"), 10);
+        // demo:2 has fox in two fields, the others in one
+        assertEquals("demo:2", getPids(result).get(0));
+        assertEquals(3, result.getCompleteListSize());
+
+        result = find(new FieldSearchQuery("quick*"), 10);
+        assertEquals(Arrays.asList("Demo:3", "demo:1"), getPids(result));
+    }
+
+    @Test
+    public void testTermsMatchLikeTheDatabase() throws Exception {
+        // the pid is matched as given, the other fields in lowercase
+        assertEquals(Arrays.asList("Demo:3"),
+                     getPids(find(new FieldSearchQuery("Demo:3"), 10)));
+        assertEquals(Arrays.asList("demo:4"),
+                     getPids(find(new FieldSearchQuery("FOURTH"), 10)));
+        assertEquals(Arrays.asList("demo:4"),
+                     getPids(find(new FieldSearchQuery("*urth"), 10)));
+        assertTrue(getPids(find(new FieldSearchQuery("*orth"), 10))
+                .isEmpty());
+    }
+
+    @Test
+    public void testConditions() throws Exception {
+        assertEquals(Arrays.asList("Demo:3", "demo:1"),
+                     getPids(find(getQuery("title~quick*"), 10)));
+        assertEquals(Arrays.asList("demo:2"),
+                     getPids(find(getQuery("label='second fox'"), 10)));
+        assertEquals(Arrays.asList("demo:1"),
+                     getPids(find(getQuery("date>2000-01-01"), 10)));
+        assertEquals(Arrays.asList("demo:2"),
+                     getPids(find(getQuery("date~1999*"), 10)));
+        assertEquals(Arrays.asList("demo:1", "demo:2", "demo:4"),
+                     getPids(find(getQuery("pid~demo:*"), 10)));
+    }
+
+    @Test
+    public void testSortedResults() throws Exception {
+        FieldSearchQuery query = new FieldSearchQuery("*");
+        query.setSortField("label", false);
+        FieldSearchResult result = find(query, 3);
+        assertEquals(Arrays.asList("demo:1", "demo:4", "demo:2"),
+                     getPids(result));
+        result = m_fieldSearch.resumeFindObjects(result.getToken());
+        assertEquals(Arrays.asList("Demo:3"), getPids(result));
+
+        query = new FieldSearchQuery("fox");
+        query.setSortField("label", true);
+        assertEquals(Arrays.asList("Demo:3", "demo:2", "demo:1"),
+                     getPids(find(query, 10)));
+    }
+
+    @Test(expected = QueryParseException.class)
+    public void testEqualsOnRepeatingField() throws Exception {
+        find(getQuery("title=fox"), 10);
+    }
+
+    @Test(expected = UnrecognizedFieldException.class)
+    public void testUnrecognizedResultField() throws Exception {
+        m_fieldSearch.findObjects(new String[] {"bogus"},
+                                  10,
+                                  new FieldSearchQuery("*"));
+    }
+
+    @Test
+    public void testChangesArePersistent() throws Exception {
+        m_index.put(getFields("demo:1", "Changed", "Slow", null));
+        assertTrue(m_index.remove("demo:2"));
+        assertFalse(m_index.remove("demo:2"));
+        m_index.close();
+
+        m_index = new FieldSearchIndex(m_directory);
+        m_fieldSearch = new FieldSearchIndexImpl(m_index, 100, 100, true);
+        FieldSearchResult result = find(new FieldSearchQuery("*"), 10);
+        assertEquals(Arrays.asList("Demo:3", "demo:1", "demo:4"),
+                     getPids(result));
+        assertEquals("Changed", result.objectFieldsList().get(1).getLabel());
+        assertEquals(Arrays.asList("Demo:3"),
+                     getPids(find(new FieldSearchQuery("fox"), 10)));
+    }
+
+    @Test
+    public void testPostingsSegments() throws Exception {
+        // a tiny cache and buffer, so postings go to many merged segments
+        m_index.close();
+        m_index = new FieldSearchIndex(m_directory, 2, 5);
+        m_fieldSearch = new FieldSearchIndexImpl(m_index, 100, 100, true);
+        for (int i = 5; i < 50; i++) {
+            m_index.put(getFields("demo:" + i, "Object " + i,
+                                  i % 2 == 0 ? "Even Fox" : "Odd Badger",
+                                  null));
+        }
+        m_index.put(getFields("demo:6", "Changed", "Slow", null));
+        assertTrue(m_index.remove("demo:8"));
+        int segments = 0;
+        for (String name : m_directory.list()) {
+            if (name.endsWith(".seg")) {
+                segments++;
+            }
+        }
+        assertTrue(segments > 0 && segments < 8);
+
+        // the even objects but the changed and removed ones
+        assertEquals(20, find(new FieldSearchQuery("even"), 100)
+                .getCompleteListSize());
+        assertEquals(Arrays.asList("demo:6"),
+                     getPids(find(new FieldSearchQuery("slow"), 10)));
+        assertEquals(Arrays.asList("demo:30", "demo:31"),
+                     getPids(find(getQuery("label~'object 3*' "
+                             + "cDate>1970-01-01"), 2)));
+
+        m_index.close();
+        m_index = new FieldSearchIndex(m_directory, 2, 5);
+        m_fieldSearch = new FieldSearchIndexImpl(m_index, 100, 100, true);
+        assertEquals(23, find(new FieldSearchQuery("odd"), 100)
+                .getCompleteListSize());
+        assertEquals(20, find(new FieldSearchQuery("even"), 100)
+                .getCompleteListSize());
+        assertEquals(48, find(new FieldSearchQuery("*"), 100)
+                .getCompleteListSize());
+        assertEquals(Arrays.asList("demo:2"),
+                     getPids(find(getQuery("title~'fox fox*'"), 10)));
+    }
+
+    @Test
+    public void testPostingsRecoveredFromLog() throws Exception {
+        // the index is not closed, so its postings never reach a segment
+        FieldSearchIndex reopened = new FieldSearchIndex(m_directory);
+        try {
+            FieldSearchIndexImpl fieldSearch =
+                    new FieldSearchIndexImpl(reopened, 100, 100, true);
+            FieldSearchResult result =
+                    fieldSearch.findObjects(RESULT_FIELDS,
+                                            10,
+                                            new FieldSearchQuery("quick*"));
+            assertEquals(Arrays.asList("Demo:3", "demo:1"), getPids(result));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        m_index.clear();
+        assertTrue(getPids(find(new FieldSearchQuery("*"), 10)).isEmpty());
+        assertTrue(getPids(find(new FieldSearchQuery("fox"), 10)).isEmpty());
+    }
+
+    private FieldSearchResult find(FieldSearchQuery query, int maxResults)
+            throws Exception {
+        return m_fieldSearch.findObjects(RESULT_FIELDS, maxResults, query);
+    }
+
+    private static FieldSearchQuery getQuery(String conditions)
+            throws Exception {
+        return new FieldSearchQuery(Condition.getConditions(conditions));
+    }
+
+    private static List<String> getPids(FieldSearchResult result) {
+        List<String> pids = new ArrayList<String>();
+        for (ObjectFields fields : result.objectFieldsList()) {
+            pids.add(fields.getPid());
+        }
+        return pids;
+    }
+
+    private static IndexedFields getFields(String pid,
+                                           String label,
+                                           String title,
+                                           String date) {
+        List<List<String>> dcValues = new ArrayList<List<String>>();
+        for (int i = 0; i < IndexedFields.DC_FIELDS.length; i++) {
+            dcValues.add(new ArrayList<String>());
+        }
+        if (title != null) {
+            dcValues.get(0).add(title);
+        }
+        if (date != null) {
+            dcValues.get(6).add(date);
+        }
+        return new IndexedFields(pid,
+                                 label,
+                                 "A",
+                                 "fedoraAdmin",
+                                 1000,
+                                 2000,
+                                 title == null ? 0 : 3000,
+                                 dcValues);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestFieldSearchIndexImpl.class);
+    }
+}
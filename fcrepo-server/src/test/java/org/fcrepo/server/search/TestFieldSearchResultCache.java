@@ -0,0 +1,136 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.search;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for FieldSearchResultCache.
+ */
+public class TestFieldSearchResultCache {
+
+    private static final String[] FIELDS = new String[] {"pid", "title"};
+
+    @Test
+    public void testKeyIgnoresConditionOrder() throws Exception {
+        String key = getKey("title~foo* pid~demo:*", FIELDS, 10);
+        assertEquals(key, getKey("pid~demo:* title~foo*", FIELDS, 10));
+        assertFalse(key.equals(getKey("title~foo* pid~demo:*", FIELDS, 20)));
+        assertFalse(key.equals(getKey("title~foo* pid~demo:*",
+                                      new String[] {"pid"},
+                                      10)));
+
+        FieldSearchQuery sorted =
+                new FieldSearchQuery(Condition
+                        .getConditions("title~foo* pid~demo:*"));
+        sorted.setSortField("mDate", true);
+        assertFalse(key.equals(FieldSearchResultCache.getKey(FIELDS,
+                                                             10,
+                                                             sorted)));
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        FieldSearchResultCache cache = new FieldSearchResultCache(10, 60000);
+        assertNull(cache.get("a"));
+        cache.put("a", cache.getEpoch(), getResult("demo:1"), 40);
+        FieldSearchResult result = cache.get("a");
+        assertNotNull(result);
+        assertEquals("demo:1", result.objectFieldsList().get(0).getPid());
+        assertNotNull(cache.get("a"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(80, cache.getSavedMillis());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        FieldSearchResultCache cache = new FieldSearchResultCache(10, 60000);
+        long epoch = cache.getEpoch();
+        cache.put("a", epoch, getResult("demo:1"), 1);
+        cache.invalidate();
+        assertNull(cache.get("a"));
+        // read before the invalidation, so not cached
+        cache.put("a", epoch, getResult("demo:1"), 1);
+        assertNull(cache.get("a"));
+        cache.put("a", cache.getEpoch(), getResult("demo:1"), 1);
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        FieldSearchResultCache cache = new FieldSearchResultCache(2, 60000);
+        cache.put("a", 0, getResult("demo:1"), 1);
+        cache.put("b", 0, getResult("demo:2"), 1);
+        cache.get("a");
+        cache.put("c", 0, getResult("demo:3"), 1);
+        // b was the least recently used
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        FieldSearchResultCache cache = new FieldSearchResultCache(2, -1);
+        cache.put("a", 0, getResult("demo:1"), 1);
+        assertNull(cache.get("a"));
+    }
+
+    private static String getKey(String conditions,
+                                 String[] fields,
+                                 int maxResults) throws Exception {
+        return FieldSearchResultCache
+                .getKey(fields,
+                        maxResults,
+                        new FieldSearchQuery(Condition
+                                .getConditions(conditions)));
+    }
+
+    private static FieldSearchResult getResult(final String pid) {
+        return new FieldSearchResult() {
+
+            public List<ObjectFields> objectFieldsList() {
+                ObjectFields fields = new ObjectFields();
+                fields.setPid(pid);
+                List<ObjectFields> list = new ArrayList<ObjectFields>();
+                list.add(fields);
+                return list;
+            }
+
+            public String getToken() {
+                return null;
+            }
+
+            public long getCursor() {
+                return -1;
+            }
+
+            public long getCompleteListSize() {
+                return 1;
+            }
+
+            public Date getExpirationDate() {
+                return null;
+            }
+        };
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestFieldSearchResultCache.class);
+    }
+}
@@ -21,7 +21,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,6 +39,7 @@ import org.fcrepo.server.config.DatastoreConfiguration;
 import org.fcrepo.server.errors.InconsistentTableSpecException;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.ConnectionPool;
+import org.fcrepo.server.storage.DOReader;
 import org.fcrepo.server.storage.MockDOReader;
 import org.fcrepo.server.storage.MockRepositoryReader;
 import org.fcrepo.server.storage.MockServiceDeploymentReader;
@@ -44,6 +47,7 @@ import org.fcrepo.server.storage.ServiceDeploymentReader;
 import org.fcrepo.server.storage.types.BasicDigitalObject;
 import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
 import org.fcrepo.server.storage.types.DeploymentDSBindSpec;
+import org.fcrepo.server.utilities.DCField;
 import org.fcrepo.server.utilities.SQLUtility;
 import org.fcrepo.server.utilities.TableCreatingConnection;
 import org.fcrepo.server.utilities.TableSpec;
@@ -87,6 +91,10 @@ public class TestFieldSearchSQLImpl {
             "somePid", "myLabel", "A", "theOwner", new Date(
                     12345), new Date(67890), new Date(0), null);
 
+    private static final ObjectData OTHER_OBJECT_WITH_NO_DC = new ObjectData(
+            "otherPid", "otherLabel", "A", "theOwner", new Date(
+                    12345), new Date(67890), new Date(0), null);
+
     private static final ObjectData OBJECT_WITH_DC = new ObjectData("somePid",
             "myLabel", "A", "theOwner", new Date(12345),
             new Date(67890), new Date(10000), DC_PAYLOAD_NO_DATES);
@@ -118,6 +126,8 @@ public class TestFieldSearchSQLImpl {
 
     private int expectedDateDeletes;
 
+    private int expectedTokenInserts;
+
     @Before
     public void registerMockDriver() {
         try {
@@ -150,13 +160,17 @@ public class TestFieldSearchSQLImpl {
     @Before
     public void clearExpectedValues() {
         this.expectedDateInserts = 0;
-        this.expectedDateDeletes = 0;
+        // dates of earlier versions are always deleted
+        this.expectedDateDeletes = 1;
+        // somepid, mylabel, a, theowner
+        this.expectedTokenInserts = 4;
     }
 
     @Test
     public void noDC() throws ServerException {
-        setSqlUtilityInstance(new UpdatingMockSqlUtility(SHORT_FIELDS,
-                OBJECT_WITH_NO_DC.getShortFieldValueList()));
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(SHORT_FIELDS, OBJECT_WITH_NO_DC
+                .getShortFieldValueList());
         this.mockRepositoryReader = new UnusedMockRepositoryReader();
 
         updateRecord(OBJECT_WITH_NO_DC, false);
@@ -165,8 +179,9 @@ public class TestFieldSearchSQLImpl {
 
     @Test
     public void dcNoDatesShortFields() throws ServerException {
-        setSqlUtilityInstance(new UpdatingMockSqlUtility(SHORT_FIELDS,
-                OBJECT_WITH_DC.getShortFieldValueList()));
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(SHORT_FIELDS, OBJECT_WITH_DC
+                .getShortFieldValueList());
         this.mockRepositoryReader = new UnusedMockRepositoryReader();
 
         updateRecord(OBJECT_WITH_DC, false);
@@ -175,10 +190,11 @@ public class TestFieldSearchSQLImpl {
 
     @Test
     public void dcNoDatesLongFields() throws ServerException {
-        setSqlUtilityInstance(new UpdatingMockSqlUtility(LONG_FIELDS,
-                OBJECT_WITH_DC.getLongFieldValueList()));
-        this.expectedDateDeletes = 1;
-        this.expectedDateInserts = 0;
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(LONG_FIELDS, OBJECT_WITH_DC
+                .getLongFieldValueList());
+        // the dc values also have the token "." that ends every value
+        this.expectedTokenInserts = 4 + 4 + 3 + 3 + 7 + 3 + 2;
         this.mockRepositoryReader = new UnusedMockRepositoryReader();
 
         updateRecord(OBJECT_WITH_DC, true);
@@ -187,8 +203,9 @@ public class TestFieldSearchSQLImpl {
 
     @Test
     public void dcDatesShortFields() throws ServerException {
-        setSqlUtilityInstance(new UpdatingMockSqlUtility(SHORT_FIELDS,
-                OBJECT_WITH_DC_AND_DATES.getShortFieldValueList()));
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(SHORT_FIELDS, OBJECT_WITH_DC_AND_DATES
+                .getShortFieldValueList());
         this.mockRepositoryReader = new UnusedMockRepositoryReader();
 
         updateRecord(OBJECT_WITH_DC_AND_DATES, false);
@@ -197,18 +214,105 @@ public class TestFieldSearchSQLImpl {
 
     @Test
     public void dcDatesLongFields() throws ServerException {
-        setSqlUtilityInstance(new UpdatingMockSqlUtility(LONG_FIELDS,
-                OBJECT_WITH_DC_AND_DATES.getLongFieldValueList()));
-        this.expectedDateDeletes = 1;
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(LONG_FIELDS, OBJECT_WITH_DC_AND_DATES
+                .getLongFieldValueList());
         this.expectedDateInserts = 1;
+        this.expectedTokenInserts = 4 + 4 + 3 + 3 + 7 + 3 + 2 + 2;
         this.mockRepositoryReader = new UnusedMockRepositoryReader();
 
         updateRecord(OBJECT_WITH_DC_AND_DATES, true);
         checkExpectations();
     }
 
+    @Test
+    public void bulkUpdate() throws ServerException {
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(LONG_FIELDS, OBJECT_WITH_DC_AND_DATES
+                .getLongFieldValueList());
+        this.expectedDateDeletes = 2;
+        this.expectedDateInserts = 1;
+        this.expectedTokenInserts = 4 + 4 + 3 + 3 + 7 + 3 + 2 + 2 + 4;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        List<DOReader> readers = new ArrayList<DOReader>();
+        readers.add(getReader(OBJECT_WITH_DC_AND_DATES));
+        readers.add(getReader(OTHER_OBJECT_WITH_NO_DC));
+        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
+                this.mockRepositoryReader, 50, 50, true, true);
+        fssi.update(readers);
+        checkExpectations();
+        assertEquals("commits", 1, mockDriver.getCommits());
+    }
+
+    @Test
+    public void bulkUpdateKeepsLastReader() throws ServerException {
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(LONG_FIELDS, OBJECT_WITH_DC
+                .getLongFieldValueList());
+        // only the last version of somePid is indexed, and it has no dates
+        this.expectedDateDeletes = 2;
+        this.expectedTokenInserts = 4 + 4 + 3 + 3 + 7 + 3 + 2 + 4;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        List<DOReader> readers = new ArrayList<DOReader>();
+        readers.add(getReader(OBJECT_WITH_DC_AND_DATES));
+        readers.add(getReader(OTHER_OBJECT_WITH_NO_DC));
+        readers.add(getReader(OBJECT_WITH_DC));
+        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
+                this.mockRepositoryReader, 50, 50, true, true);
+        fssi.update(readers);
+        checkExpectations();
+        assertEquals("doFields rows", 2, mockDriver.getFieldRowCount());
+    }
+
+    @Test
+    public void noTokensUnlessUsed() throws ServerException {
+        setSqlUtilityInstance(new UnusedMockSqlUtility());
+        mockDriver.expectFields(LONG_FIELDS, OBJECT_WITH_DC_AND_DATES
+                .getLongFieldValueList());
+        this.expectedDateInserts = 1;
+        this.expectedTokenInserts = 0;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+
+        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
+                this.mockRepositoryReader, 50, 50, true, false);
+        fssi.update(getReader(OBJECT_WITH_DC_AND_DATES));
+        checkExpectations();
+    }
+
+    @Test
+    public void displayValueRoundTrip() {
+        List<DCField> values = new ArrayList<DCField>();
+        values.add(new DCField("Sandy's Reference Object"));
+        values.add(new DCField("Two\nLines \\ and a backslash"));
+        values.add(new DCField(""));
+        String dbValue = FieldSearchSQLImpl.getDisplayValue(values);
+        assertEquals("Sandy's Reference Object\nTwo\\nLines \\\\ and a backslash\n",
+                     dbValue);
+
+        List<DCField> parsed = FieldSearchSQLImpl.parseDisplayValue(dbValue);
+        assertEquals(values.size(), parsed.size());
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(values.get(i).getValue(), parsed.get(i).getValue());
+        }
+
+        assertEquals(null, FieldSearchSQLImpl
+                .getDisplayValue(new ArrayList<DCField>()));
+        assertEquals(0, FieldSearchSQLImpl.parseDisplayValue(null).size());
+    }
+
     private void updateRecord(ObjectData objectData, boolean longFields)
             throws ServerException {
+        // Create the test instance, maintaining the token index.
+        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
+                this.mockRepositoryReader, 50, 50, longFields, true);
+
+        // And do the update.
+        fssi.update(getReader(objectData));
+    }
+
+    private DOReader getReader(ObjectData objectData) {
         // Create a DC datastream if appropriate.
         DatastreamXMLMetadata dcmd = null;
         if (objectData.getDcPayload() != null) {
@@ -230,13 +334,7 @@ public class TestFieldSearchSQLImpl {
         if (dcmd != null) {
             theObject.addDatastreamVersion(dcmd, false);
         }
-
-        // Create the test instance.
-        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
-                this.mockRepositoryReader, 50, 50, longFields);
-
-        // And do the update.
-        fssi.update(new MockDOReader(theObject));
+        return new MockDOReader(theObject);
     }
 
     private void checkExpectations() {
@@ -244,7 +342,9 @@ public class TestFieldSearchSQLImpl {
 
         if (mockDriver instanceof MyMockDriver) {
             ((MyMockDriver) mockDriver).checkExpectations(
-                    expectedDateDeletes, expectedDateInserts);
+                    expectedDateDeletes, expectedDateInserts,
+                    expectedTokenInserts);
+            ((MyMockDriver) mockDriver).checkFields();
         }
 
         if (mockRepositoryReader instanceof SDepMockRepositoryReader) {
@@ -434,48 +534,6 @@ public class TestFieldSearchSQLImpl {
 
     }
 
-    private class UpdatingMockSqlUtility extends MockSqlUtility {
-        private final String[] expectedColumns;
-
-        private final String[] expectedValues;
-
-        private String[] actualColumns;
-
-        private String[] actualValues;
-
-        /**
-         * Write down some of what we expect to have happen.
-         *
-         * @param expectedColumns
-         * @param expectedValues
-         */
-        public UpdatingMockSqlUtility(String[] expectedColumns,
-                List<String> expectedValues) {
-            this.expectedColumns = expectedColumns;
-            this.expectedValues = expectedValues
-                    .toArray(new String[expectedValues.size()]);
-        }
-
-        /**
-         * If we get a replace call, store the columns and values for testing
-         * later. (If we get more then one call, only the last will be
-         * retained.)
-         */
-        @Override
-        protected void i_replaceInto(Connection conn, String table,
-                String[] columns, String[] values, String uniqueColumn,
-                boolean[] numeric) throws SQLException {
-            this.actualColumns = columns;
-            this.actualValues = values;
-        }
-
-        @Override
-        public void checkExpectations() {
-            assertEqualArrays("column names", expectedColumns, actualColumns);
-            assertEqualValues(expectedColumns, expectedValues, actualValues);
-        }
-    }
-
     private static class UpdatingMockConnection extends MockConnection {
         private MyMockDriver driver;
 
@@ -502,18 +560,20 @@ public class TestFieldSearchSQLImpl {
         public PreparedStatement prepareStatement(final String sql) throws SQLException {
         	return new MockPreparedStatement(sql) {
                 @Override
-                public int executeUpdate() throws SQLException {
-                    if (sql.trim().toLowerCase().startsWith("insert")) {
-                        driver.logInsert();
-                    }
-                    if (sql.trim().toLowerCase().startsWith("delete")) {
-                        driver.logDelete();
+                public int[] executeBatch() throws SQLException {
+                    for (Object[] parameters : getBatch()) {
+                        driver.logBatched(sql, parameters);
                     }
-                    return 1;
+                    return super.executeBatch();
                 }
         	};
         }
 
+        @Override
+        public void commit() throws SQLException {
+            driver.logCommit();
+        }
+
     }
 
     private static class UnusedMockRepositoryReader extends
@@ -557,10 +617,88 @@ public class TestFieldSearchSQLImpl {
         private int deleteCalls = 0;
 
         private int insertCalls = 0;
-        
+
+        private int tokenInsertCalls = 0;
+
+        private int commits = 0;
+
+        private int fieldRowCount = 0;
+
+        private String[] expectedColumns;
+
+        private String[] expectedValues;
+
+        /** The columns and values of the doFields rows, by pid. */
+        private final Map<String, String[]> fieldRows =
+                new HashMap<String, String[]>();
+
+        private String[] fieldColumns;
+
+        /**
+         * Write down the doFields row we expect to have inserted.
+         */
+        public void expectFields(String[] expectedColumns,
+                List<String> expectedValues) {
+            this.expectedColumns = expectedColumns;
+            this.expectedValues = expectedValues
+                    .toArray(new String[expectedValues.size()]);
+        }
+
+        /**
+         * Count one statement of a batch by its table. For doFields, store
+         * the columns and values for testing later; columns given as NULL
+         * have no parameter.
+         */
+        public void logBatched(String sql, Object[] parameters) {
+            String lowerSql = sql.trim().toLowerCase();
+            boolean insert = lowerSql.startsWith("insert");
+            if (lowerSql.indexOf("dotokens") != -1) {
+                if (insert) {
+                    logTokenInsert();
+                }
+            } else if (lowerSql.indexOf("dcdates") != -1) {
+                if (insert) {
+                    logInsert();
+                } else if (lowerSql.startsWith("delete")) {
+                    logDelete();
+                }
+            } else if (insert && lowerSql.startsWith("insert into dofields ")) {
+                int start = sql.indexOf('(');
+                int end = sql.indexOf(')');
+                fieldColumns = sql.substring(start + 1, end).split(", ");
+                String[] markers = sql.substring(sql.indexOf('(', end) + 1,
+                        sql.lastIndexOf(')')).split(", ");
+                String[] values = new String[markers.length];
+                int parameter = 0;
+                for (int i = 0; i < markers.length; i++) {
+                    if (markers[i].equals("?")) {
+                        values[i] = String.valueOf(parameters[parameter++]);
+                    }
+                }
+                fieldRows.put(values[0], values);
+                fieldRowCount++;
+            }
+        }
+
+        public void logCommit() {
+            commits++;
+        }
+
+        public int getCommits() {
+            return commits;
+        }
+
+        public int getFieldRowCount() {
+            return fieldRowCount;
+        }
+
         public void logInsert() {
             insertCalls++;
         }
+
+        public void logTokenInsert() {
+            tokenInsertCalls++;
+        }
         
         public void logDelete() {
             deleteCalls++;
@@ -569,6 +707,10 @@ public class TestFieldSearchSQLImpl {
         public void resetLog() {
             deleteCalls = 0;
             insertCalls = 0;
+            tokenInsertCalls = 0;
+            commits = 0;
+            fieldRowCount = 0;
+            fieldRows.clear();
         }
 
         @Override
@@ -577,9 +719,24 @@ public class TestFieldSearchSQLImpl {
             return new UpdatingMockConnection(this);
         }
 
-        public void checkExpectations(int expectedDeletes, int expectedInserts) {
+        public void checkExpectations(int expectedDeletes, int expectedInserts,
+                int expectedTokenInserts) {
             assertEquals("delete calls", expectedDeletes, deleteCalls);
             assertEquals("insert calls", expectedInserts, insertCalls);
+            assertEquals("token insert calls", expectedTokenInserts,
+                    tokenInsertCalls);
+        }
+
+        public void checkFields() {
+            if (expectedColumns == null) {
+                return;
+            }
+            assertEqualArrays("column names", expectedColumns, fieldColumns);
+            String[] actualValues = fieldRows.get(expectedValues[0]);
+            if (actualValues == null) {
+                fail("No doFields row for " + expectedValues[0]);
+            }
+            assertEqualValues(expectedColumns, expectedValues, actualValues);
         }
     }
     
@@ -0,0 +1,178 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.search;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import org.fcrepo.server.errors.UnknownSessionTokenException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for FieldSearchToken.
+ */
+public class TestFieldSearchToken {
+
+    private static final String[] FIELDS = new String[] {"pid", "title"};
+
+    private static final byte[] KEY = FieldSearchToken.getKey("secret");
+
+    @Test
+    public void testConditionsRoundTrip() throws Exception {
+        FieldSearchQuery query =
+                new FieldSearchQuery(Condition
+                        .getConditions("title~foo* date>=2001-01-01 pid~demo:*"));
+        Date expires = new Date(System.currentTimeMillis() + 60000);
+        String encoded =
+                new FieldSearchToken(query, FIELDS, 50, "demo:\u00e9", 100, expires)
+                        .encode(KEY);
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+
+        FieldSearchToken token = FieldSearchToken.decode(encoded, KEY);
+        assertEquals("demo:\u00e9", token.getLastPID());
+        assertEquals(100, token.getCursor());
+        assertEquals(50, token.getMaxResults());
+        assertEquals(expires, token.getExpirationDate());
+        assertFalse(token.isExpired());
+        assertArrayEquals(FIELDS, token.getResultFields());
+        assertEquals(FieldSearchQuery.CONDITIONS_TYPE, token.getQuery().getType());
+        assertEquals(3, token.getQuery().getConditions().size());
+        Condition date = token.getQuery().getConditions().get(1);
+        assertEquals("date", date.getProperty());
+        assertEquals(Operator.GREATER_OR_EQUAL, date.getOperator());
+        assertEquals("2001-01-01", date.getValue());
+    }
+
+    @Test
+    public void testTermsRoundTrip() throws Exception {
+        FieldSearchQuery query = new FieldSearchQuery("*sandy*");
+        String encoded =
+                new FieldSearchToken(query, FIELDS, 10, "demo:1", 10, new Date(0))
+                        .encode(KEY);
+        FieldSearchToken token = FieldSearchToken.decode(encoded, KEY);
+        assertEquals(FieldSearchQuery.TERMS_TYPE, token.getQuery().getType());
+        assertEquals("*sandy*", token.getQuery().getTerms());
+        assertTrue(token.isExpired());
+        assertEquals("pid", token.getQuery().getSortField());
+        assertFalse(token.getQuery().isCountRequested());
+        assertNull(token.getLastSortValue());
+        assertEquals(-1, token.getCompleteListSize());
+    }
+
+    @Test
+    public void testSortedRoundTrip() throws Exception {
+        FieldSearchQuery query = new FieldSearchQuery("*");
+        query.setSortField("mDate", true);
+        query.setCountRequested(true);
+        String encoded =
+                new FieldSearchToken(query,
+                                     FIELDS,
+                                     10,
+                                     "demo:1",
+                                     "1300000000000",
+                                     10,
+                                     42,
+                                     new Date()).encode(KEY);
+        FieldSearchToken token = FieldSearchToken.decode(encoded, KEY);
+        assertEquals("mDate", token.getQuery().getSortField());
+        assertTrue(token.getQuery().isDescending());
+        assertTrue(token.getQuery().isCountRequested());
+        assertEquals("1300000000000", token.getLastSortValue());
+        assertEquals(42, token.getCompleteListSize());
+    }
+
+    @Test
+    public void testInvalidTokens() throws Exception {
+        String encoded =
+                new FieldSearchToken(new FieldSearchQuery("*"),
+                                     FIELDS,
+                                     10,
+                                     "demo:1",
+                                     10,
+                                     new Date()).encode(KEY);
+        String[] invalid =
+                new String[] {"", "bogus", encoded.substring(0, encoded.length() - 4),
+                        encoded + "AAAA"};
+        for (String token : invalid) {
+            try {
+                FieldSearchToken.decode(token, KEY);
+                fail("Decoded invalid token: " + token);
+            } catch (UnknownSessionTokenException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testTamperedTokens() throws Exception {
+        FieldSearchToken original =
+                new FieldSearchToken(new FieldSearchQuery("*"),
+                                     FIELDS,
+                                     10,
+                                     "demo:1",
+                                     10,
+                                     new Date());
+        String encoded = original.encode(KEY);
+        try {
+            FieldSearchToken.decode(encoded, FieldSearchToken.newKey());
+            fail("Decoded token signed with another key");
+        } catch (UnknownSessionTokenException e) {
+        }
+        // the same token with a larger page size, signed with another key
+        String forged =
+                new FieldSearchToken(new FieldSearchQuery("*"),
+                                     FIELDS,
+                                     1000000,
+                                     "demo:1",
+                                     10,
+                                     new Date()).encode(FieldSearchToken
+                        .newKey());
+        try {
+            FieldSearchToken.decode(forged, KEY);
+            fail("Decoded forged token");
+        } catch (UnknownSessionTokenException e) {
+        }
+        char[] chars = encoded.toCharArray();
+        chars[10] = chars[10] == 'A' ? 'B' : 'A';
+        try {
+            FieldSearchToken.decode(new String(chars), KEY);
+            fail("Decoded altered token");
+        } catch (UnknownSessionTokenException e) {
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        Date expires = new Date(System.currentTimeMillis() + 3600000);
+        FieldSearchToken token =
+                new FieldSearchToken(new FieldSearchQuery("*"),
+                                     FIELDS,
+                                     50,
+                                     "demo:1",
+                                     10,
+                                     expires);
+        assertSame(token, token.limit(50, 7200));
+        FieldSearchToken limited = token.limit(20, 60);
+        assertEquals(20, limited.getMaxResults());
+        assertTrue(limited.getExpirationDate().getTime() <= System
+                .currentTimeMillis() + 60000);
+        assertEquals("demo:1", limited.getLastPID());
+        assertEquals(10, limited.getCursor());
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestFieldSearchToken.class);
+    }
+
+}
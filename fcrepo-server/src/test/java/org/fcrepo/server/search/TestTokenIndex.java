@@ -0,0 +1,89 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.fcrepo.server.search.TokenIndex.TokenCondition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for TokenIndex.
+ */
+public class TestTokenIndex {
+
+    @Test
+    public void testGetTokens() {
+        assertEquals(Arrays.asList("sandy's", "reference", "object", "."),
+                     new ArrayList<String>(TokenIndex
+                             .getTokens(" sandy's reference object .")));
+        assertEquals(Arrays.asList("a", "b"),
+                     new ArrayList<String>(TokenIndex.getTokens("a  b a")));
+        assertTrue(TokenIndex.getTokens(null).isEmpty());
+        assertTrue(TokenIndex.getTokens("   ").isEmpty());
+    }
+
+    @Test
+    public void testLongTokensAreCut() {
+        StringBuilder longToken = new StringBuilder();
+        for (int i = 0; i < TokenIndex.MAX_TOKEN_LENGTH + 10; i++) {
+            longToken.append('x');
+        }
+        String token =
+                TokenIndex.getTokens(longToken.toString()).iterator().next();
+        assertEquals(TokenIndex.MAX_TOKEN_LENGTH, token.length());
+
+        // a longer search word must match the cut token exactly
+        TokenCondition condition =
+                TokenIndex.getCondition(longToken.toString() + "*");
+        assertFalse(condition.isPrefix());
+        assertEquals(token, condition.getValue());
+    }
+
+    @Test
+    public void testExactTokenIsPreferred() {
+        TokenCondition condition =
+                TokenIndex.getCondition("quick* brown fox*");
+        assertFalse(condition.isPrefix());
+        assertEquals("brown", condition.getValue());
+        assertEquals("doTokens.token = ?",
+                     condition.toSql("doTokens.token"));
+        assertEquals("brown", condition.getParameter());
+    }
+
+    @Test
+    public void testLongestPrefixIsPreferred() {
+        TokenCondition condition = TokenIndex.getCondition("qu* brow?n*");
+        assertTrue(condition.isPrefix());
+        assertEquals("brow", condition.getValue());
+        assertEquals("doTokens.token LIKE ?",
+                     condition.toSql("doTokens.token"));
+        assertEquals("brow%", condition.getParameter());
+    }
+
+    @Test
+    public void testNoCondition() {
+        assertNull(TokenIndex.getCondition("*"));
+        assertNull(TokenIndex.getCondition("*fox"));
+        assertNull(TokenIndex.getCondition("*quick *fox"));
+        assertNull(TokenIndex.getCondition("fox\\*"));
+        assertNull(TokenIndex.getCondition("100%*"));
+        assertNull(TokenIndex.getCondition(""));
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestTokenIndex.class);
+    }
+
+}
@@ -10,8 +10,11 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses( {org.fcrepo.server.storage.DefaultDOManagerTest.class,
+                      org.fcrepo.server.storage.ExternalContentCacheTest.class,
+                      org.fcrepo.server.storage.RelationshipGraphTest.class,
+                      org.fcrepo.server.storage.ServiceBindingCacheTest.class,
                       org.fcrepo.server.storage.translation.AllUnitTests.class,
-                      org.fcrepo.server.storage.lowlevel.akubra.AllUnitTests.class})
+                      org.fcrepo.server.storage.lowlevel.AllUnitTests.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -20,8 +23,11 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
+        suite.addTest(org.fcrepo.server.storage.ExternalContentCacheTest.suite());
+        suite.addTest(org.fcrepo.server.storage.RelationshipGraphTest.suite());
+        suite.addTest(org.fcrepo.server.storage.ServiceBindingCacheTest.suite());
         suite.addTest(org.fcrepo.server.storage.translation.AllUnitTests.suite());
-        suite.addTest(org.fcrepo.server.storage.lowlevel.akubra.AllUnitTests.suite());
+        suite.addTest(org.fcrepo.server.storage.lowlevel.AllUnitTests.suite());
 
         return suite;
     }
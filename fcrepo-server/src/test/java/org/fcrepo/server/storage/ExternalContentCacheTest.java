@@ -0,0 +1,174 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.storage.types.MIMETypedStream;
+import org.fcrepo.server.storage.types.Property;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for ExternalContentCache.
+ */
+public class ExternalContentCacheTest {
+
+    private File m_dir;
+
+    private ExternalContentCache m_cache;
+
+    @Before
+    public void setUp() throws IOException {
+        m_dir = File.createTempFile("externalContentCache", "");
+        m_dir.delete();
+        m_cache =
+                new ExternalContentCache(m_dir, 100, 50, Arrays
+                        .asList("images.example.org", ".example.com"));
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testAllowedHosts() {
+        assertTrue(m_cache.isCacheable("http://images.example.org/a.jpg"));
+        assertTrue(m_cache.isCacheable("http://www.example.com/a.jpg"));
+        assertFalse(m_cache.isCacheable("http://example.org/a.jpg"));
+        assertFalse(m_cache.isCacheable("not a url"));
+    }
+
+    @Test
+    public void testExpiry() {
+        long now = 1000000000000L;
+        assertEquals(now + 60000, ExternalContentCache
+                .getExpiry(header("Cache-Control", "public, max-age=60"), now));
+        assertEquals(now + 10000, ExternalContentCache
+                .getExpiry(header("Cache-Control", "max-age=60, s-maxage=10"),
+                           now));
+        assertEquals(-1, ExternalContentCache
+                .getExpiry(header("Cache-Control", "no-store"), now));
+        assertEquals(0, ExternalContentCache
+                .getExpiry(header("Cache-Control", "no-cache"), now));
+        Property[] expires =
+                new Property[] {
+                        new Property("Date", "Sun, 09 Sep 2001 01:46:40 GMT"),
+                        new Property("Expires",
+                                     "Sun, 09 Sep 2001 01:47:40 GMT")};
+        assertEquals(now + 60000, ExternalContentCache.getExpiry(expires, now));
+        assertEquals(0, ExternalContentCache.getExpiry(new Property[0], now));
+    }
+
+    @Test
+    public void testFreshAndRevalidated() throws IOException {
+        String key = ExternalContentCache.getKey("http://images.example.org/a",
+                                                 null);
+        assertNull(m_cache.get(key));
+        MIMETypedStream response =
+                m_cache.put(key, response("hello", new Property("ETag",
+                                                                "\"v1\"")));
+        assertEquals("hello", read(response));
+
+        ExternalContentCache.Entry entry = m_cache.get(key);
+        assertNotNull(entry);
+        assertFalse(entry.isFresh());
+        Property[] conditions = entry.getConditions();
+        assertEquals(1, conditions.length);
+        assertEquals("If-None-Match", conditions[0].name);
+        assertEquals("\"v1\"", conditions[0].value);
+
+        entry = m_cache.revalidated(key, entry,
+                                    header("Cache-Control", "max-age=60"));
+        assertTrue(entry.isFresh());
+        assertEquals("hello", read(m_cache.open(key, entry)));
+        assertTrue(m_cache.get(key).isFresh());
+        assertEquals(1, m_cache.getRevalidations());
+    }
+
+    @Test
+    public void testNotKept() throws IOException {
+        String key = ExternalContentCache.getKey("http://images.example.org/b",
+                                                 null);
+        // no validators or freshness
+        assertEquals("hello", read(m_cache.put(key, response("hello"))));
+        assertNull(m_cache.get(key));
+        // too large, but still sent whole
+        String large = "0123456789012345678901234567890123456789012345678901";
+        assertEquals(large, read(m_cache.put(key, response(large,
+                new Property("Cache-Control", "max-age=60")))));
+        assertNull(m_cache.get(key));
+        // evicted once the cache is full
+        String keyA = ExternalContentCache.getKey("http://images.example.org/a",
+                                                  null);
+        String keyC = ExternalContentCache.getKey("http://images.example.org/c",
+                                                  null);
+        String forty = "0123456789012345678901234567890123456789";
+        for (String k : new String[] {keyA, key, keyC}) {
+            read(m_cache.put(k, response(forty, new Property("Cache-Control",
+                                                             "max-age=60"))));
+        }
+        assertNull(m_cache.get(keyA));
+        assertNotNull(m_cache.get(key));
+        assertNotNull(m_cache.get(keyC));
+        assertEquals(80, m_cache.getBytes());
+        assertEquals(1, m_cache.getEvictions());
+    }
+
+    private static Property[] header(String name, String value) {
+        return new Property[] {new Property(name, value)};
+    }
+
+    private static MIMETypedStream response(String content,
+                                            Property... header) {
+        return new MIMETypedStream("text/plain",
+                                   new ByteArrayInputStream(content.getBytes()),
+                                   header,
+                                   content.length());
+    }
+
+    private static String read(MIMETypedStream stream) throws IOException {
+        InputStream in = stream.getStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+        } finally {
+            stream.close();
+        }
+        return out.toString();
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalContentCacheTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.storage;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.server.storage.types.RelationshipTuple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for RelationshipGraph.
+ */
+public class RelationshipGraphTest {
+
+    private static final String HAS_MODEL = Constants.MODEL.HAS_MODEL.uri;
+
+    private static final String MEMBER_OF = Constants.RELS_EXT.IS_MEMBER_OF.uri;
+
+    private RelationshipGraph m_graph;
+
+    @Before
+    public void setUp() {
+        m_graph = new RelationshipGraph(Arrays.asList(HAS_MODEL, MEMBER_OF));
+    }
+
+    @Test
+    public void testNotReadyWhileLoading() {
+        m_graph.loadRelationship("info:fedora/demo:1", MEMBER_OF,
+                                 "info:fedora/demo:c");
+        assertFalse(m_graph.isReady());
+        assertNull(m_graph.getObjects("demo:1", MEMBER_OF));
+        m_graph.finishLoading();
+        assertTrue(m_graph.isReady());
+        assertEquals(Arrays.asList("info:fedora/demo:c"),
+                     m_graph.getObjects("demo:1", MEMBER_OF));
+        assertEquals(Arrays.asList("info:fedora/demo:1"),
+                     m_graph.getSubjects(MEMBER_OF, "info:fedora/demo:c"));
+        // not indexed
+        assertNull(m_graph.getObjects("demo:1", Constants.RELS_EXT.uri
+                + "isPartOf"));
+    }
+
+    @Test
+    public void testSetWhileLoading() {
+        m_graph.loadRelationship("info:fedora/demo:1", MEMBER_OF,
+                                 "info:fedora/demo:c");
+        m_graph.setRelationships("demo:2", tuples("demo:2",
+                                                  MEMBER_OF,
+                                                  "demo:d"));
+        // older than the relationships just set
+        m_graph.loadRelationship("info:fedora/demo:2", MEMBER_OF,
+                                 "info:fedora/demo:c");
+        m_graph.finishLoading();
+        assertEquals(Arrays.asList("info:fedora/demo:d"),
+                     m_graph.getObjects("demo:2", MEMBER_OF));
+        assertEquals(Arrays.asList("info:fedora/demo:1"),
+                     m_graph.getSubjects(MEMBER_OF, "demo:c"));
+    }
+
+    @Test
+    public void testSetAndRemove() {
+        m_graph.finishLoading();
+        Set<RelationshipTuple> tuples =
+                tuples("demo:1", MEMBER_OF, "demo:c");
+        tuples.addAll(tuples("demo:1", HAS_MODEL, "demo:m"));
+        tuples.addAll(tuples("demo:1", Constants.RELS_EXT.uri + "isPartOf",
+                             "demo:p"));
+        // about a datastream, so not indexed
+        tuples.add(new RelationshipTuple("info:fedora/demo:1/DS",
+                                         MEMBER_OF,
+                                         "info:fedora/demo:c",
+                                         false,
+                                         null));
+        m_graph.setRelationships("demo:1", tuples);
+        assertEquals(2, m_graph.getRelationshipCount());
+        assertEquals(Arrays.asList("info:fedora/demo:m"),
+                     m_graph.getContentModels("demo:1"));
+
+        m_graph.setRelationships("demo:1", tuples("demo:1",
+                                                  MEMBER_OF,
+                                                  "demo:d"));
+        assertEquals(0, m_graph.getSubjects(MEMBER_OF, "demo:c").size());
+        assertEquals(Arrays.asList("info:fedora/demo:1"),
+                     m_graph.getSubjects(MEMBER_OF, "demo:d"));
+        assertEquals(0, m_graph.getContentModels("demo:1").size());
+
+        m_graph.removeObject("demo:1");
+        assertEquals(0, m_graph.getSubjects(MEMBER_OF, "demo:d").size());
+        assertEquals(0, m_graph.getRelationshipCount());
+    }
+
+    @Test
+    public void testManyMembers() {
+        m_graph.finishLoading();
+        for (int i = 0; i < 1000; i++) {
+            m_graph.setRelationships("demo:" + i, tuples("demo:" + i,
+                                                         MEMBER_OF,
+                                                         "demo:c"));
+        }
+        m_graph.removeObject("demo:500");
+        List<String> members = m_graph.getSubjects(MEMBER_OF, "demo:c");
+        assertEquals(999, members.size());
+        assertFalse(members.contains("info:fedora/demo:500"));
+        assertEquals(1001, m_graph.size());
+    }
+
+    private static Set<RelationshipTuple> tuples(String subject,
+                                                 String predicate,
+                                                 String object) {
+        Set<RelationshipTuple> tuples = new HashSet<RelationshipTuple>();
+        tuples.add(new RelationshipTuple("info:fedora/" + subject,
+                                         predicate,
+                                         "info:fedora/" + object,
+                                         false,
+                                         null));
+        return tuples;
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RelationshipGraphTest.class);
+    }
+}
@@ -0,0 +1,67 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.storage;
+
+import java.util.Date;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for ServiceBindingCache.
+ */
+public class ServiceBindingCacheTest {
+
+    @Test
+    public void testKeysFollowVersions() {
+        DatastreamXMLMetadata wsdl = datastream("WSDL", "WSDL1.0", 1000);
+        DatastreamXMLMetadata mmap = datastream("METHODMAP", "METHODMAP1.0", 1000);
+        String key = ServiceBindingCache.getKey("bindings", wsdl, mmap);
+        assertEquals(key, ServiceBindingCache.getKey("bindings", wsdl, mmap));
+        assertFalse(key.equals(ServiceBindingCache.getKey("methods", mmap)));
+
+        DatastreamXMLMetadata newMmap =
+                datastream("METHODMAP", "METHODMAP1.1", 2000);
+        assertFalse(key.equals(ServiceBindingCache.getKey("bindings", wsdl,
+                                                          newMmap)));
+    }
+
+    @Test
+    public void testRemove() {
+        ServiceBindingCache cache = new ServiceBindingCache();
+        Object value = new Object();
+        cache.put("demo:sdep1", "methods", value);
+        cache.put("demo:sdep2", "methods", new Object());
+        assertSame(value, cache.get("demo:sdep1", "methods"));
+        assertNull(cache.get("demo:sdep1", "bindings"));
+
+        cache.remove("demo:sdep1");
+        assertNull(cache.get("demo:sdep1", "methods"));
+        assertEquals(1, cache.size());
+    }
+
+    private static DatastreamXMLMetadata datastream(String id,
+                                                    String versionId,
+                                                    long created) {
+        DatastreamXMLMetadata ds = new DatastreamXMLMetadata();
+        ds.DatastreamID = id;
+        ds.DSVersionID = versionId;
+        ds.DSCreateDT = new Date(created);
+        return ds;
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ServiceBindingCacheTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
+import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
+import org.fcrepo.utilities.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for copying datastreams in {@link DefaultLowlevelStorage},
+ * which the file store does through {@link FileSystem#copy(File, File)}.
+ */
+public class DefaultLowlevelStorageTest {
+
+    private static final String DS_KEY = "test:obj+DS+DS.0";
+
+    private static final String DS_KEY2 = "test:obj+DS+DS.1";
+
+    private File m_dir;
+
+    private DefaultLowlevelStorage m_storage;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = FileUtils.createTempDir("lowlevelStorage", null);
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(DefaultLowlevelStorage.OBJECT_STORE_BASE,
+                   new File(m_dir, "objects").getPath());
+        config.put(DefaultLowlevelStorage.DATASTREAM_STORE_BASE,
+                   new File(m_dir, "datastreams").getPath());
+        config.put(DefaultLowlevelStorage.FILESYSTEM,
+                   GenericFileSystem.class.getName());
+        config.put(DefaultLowlevelStorage.PATH_ALGORITHM,
+                   TimestampPathAlgorithm.class.getName());
+        config.put(DefaultLowlevelStorage.PATH_REGISTRY,
+                   MemoryPathRegistry.class.getName());
+        m_storage = new DefaultLowlevelStorage(config);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.delete(m_dir);
+    }
+
+    @Test
+    public void testCopyDatastream() throws Exception {
+        m_storage.addDatastream(DS_KEY, stream("ds-content"), null);
+        long size = m_storage.copyDatastream(DS_KEY, DS_KEY2, null);
+        assertEquals("ds-content".length(), size);
+        assertEquals(size, m_storage.getDatastreamSize(DS_KEY2));
+        assertEquals("ds-content", read(m_storage.retrieveDatastream(DS_KEY2)));
+        assertEquals("ds-content", read(m_storage.retrieveDatastream(DS_KEY)));
+    }
+
+    /** The copy is a file of its own. */
+    @Test
+    public void testCopyIsIndependent() throws Exception {
+        m_storage.addDatastream(DS_KEY, stream("ds-content"), null);
+        m_storage.copyDatastream(DS_KEY, DS_KEY2, null);
+        m_storage.replaceDatastream(DS_KEY, stream("replaced"), null);
+        m_storage.removeDatastream(DS_KEY);
+        assertEquals("ds-content", read(m_storage.retrieveDatastream(DS_KEY2)));
+    }
+
+    @Test(expected = ObjectNotInLowlevelStorageException.class)
+    public void testCopyNonExistingDatastream() throws Exception {
+        m_storage.copyDatastream(DS_KEY, DS_KEY2, null);
+    }
+
+    @Test
+    public void testCopyOntoExistingDatastream() throws Exception {
+        m_storage.addDatastream(DS_KEY, stream("ds-content"), null);
+        m_storage.addDatastream(DS_KEY2, stream("ds-content2"), null);
+        try {
+            m_storage.copyDatastream(DS_KEY, DS_KEY2, null);
+            fail("Expected the copy to fail");
+        } catch (ObjectAlreadyInLowlevelStorageException e) {
+            // expected
+        }
+        assertEquals("ds-content2", read(m_storage.retrieveDatastream(DS_KEY2)));
+    }
+
+    private static InputStream stream(String content) throws IOException {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A path registry kept in memory, in place of the database.
+     */
+    public static class MemoryPathRegistry
+            extends PathRegistry {
+
+        private final Hashtable<String, String> m_paths =
+                new Hashtable<String, String>();
+
+        public MemoryPathRegistry(Map<String, ?> configuration) {
+            super(configuration);
+        }
+
+        @Override
+        public boolean exists(String pid) {
+            return m_paths.containsKey(pid);
+        }
+
+        @Override
+        public String get(String pid) throws LowlevelStorageException {
+            String path = m_paths.get(pid);
+            if (path == null) {
+                throw new ObjectNotInLowlevelStorageException(pid);
+            }
+            return path;
+        }
+
+        @Override
+        public void put(String pid, String path) {
+            m_paths.put(pid, path);
+        }
+
+        @Override
+        public void remove(String pid) {
+            m_paths.remove(pid);
+        }
+
+        @Override
+        public void rebuild() {
+        }
+
+        @Override
+        public void auditFiles() {
+        }
+
+        @Override
+        public Enumeration<String> keys() {
+            return m_paths.keys();
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DefaultLowlevelStorageTest.class);
+    }
+}
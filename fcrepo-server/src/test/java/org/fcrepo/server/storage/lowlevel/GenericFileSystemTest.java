@@ -0,0 +1,127 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.lowlevel;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.errors.LowlevelStorageException;
+import org.fcrepo.utilities.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link GenericFileSystem#copy(File, File)}.
+ */
+public class GenericFileSystemTest {
+
+    private File m_dir;
+
+    private GenericFileSystem m_fileSystem;
+
+    @Before
+    public void setUp() throws IOException {
+        m_dir = FileUtils.createTempDir("genericFileSystem", null);
+        m_fileSystem = new GenericFileSystem(new HashMap<String, Object>());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.delete(m_dir);
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        File source = new File(m_dir, "source");
+        m_fileSystem.write(source, stream("content"));
+        File target = new File(m_dir, "target");
+        m_fileSystem.copy(source, target);
+        assertEquals("content", read(target));
+        assertEquals("content", read(source));
+    }
+
+    @Test
+    public void testCopyEmptyFile() throws Exception {
+        File source = new File(m_dir, "source");
+        m_fileSystem.write(source, stream(""));
+        File target = new File(m_dir, "target");
+        m_fileSystem.copy(source, target);
+        assertTrue(target.exists());
+        assertEquals(0, target.length());
+    }
+
+    /** A large file takes more than one transfer on some platforms. */
+    @Test
+    public void testCopyLargeFile() throws Exception {
+        byte[] content = new byte[5 * 1024 * 1024 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        File source = new File(m_dir, "source");
+        m_fileSystem.write(source, new ByteArrayInputStream(content));
+        File target = new File(m_dir, "target");
+        m_fileSystem.copy(source, target);
+        InputStream in = m_fileSystem.read(target);
+        try {
+            assertTrue(Arrays.equals(content, IOUtils.toByteArray(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testCopyMakesDirectories() throws Exception {
+        File source = new File(m_dir, "source");
+        m_fileSystem.write(source, stream("content"));
+        File target = new File(m_dir, "a/b/target");
+        m_fileSystem.copy(source, target);
+        assertEquals("content", read(target));
+    }
+
+    @Test
+    public void testCopyMissingFile() throws Exception {
+        File target = new File(m_dir, "target");
+        try {
+            m_fileSystem.copy(new File(m_dir, "source"), target);
+            fail("Expected a missing source to fail");
+        } catch (LowlevelStorageException e) {
+            // expected
+        }
+        assertFalse(target.exists());
+    }
+
+    private String read(File file) throws Exception {
+        InputStream in = m_fileSystem.read(file);
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream stream(String content) throws IOException {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GenericFileSystemTest.class);
+    }
+}
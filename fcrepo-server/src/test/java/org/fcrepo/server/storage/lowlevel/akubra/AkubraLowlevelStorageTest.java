@@ -43,6 +43,8 @@ public class AkubraLowlevelStorageTest {
     private static final String DS_CONTENT = "ds-content";
     private static final String DS_CONTENT2 = "ds-content2";
 
+    private static final String DS_KEY2 = OBJ_KEY + "+DS+DS.1";
+
     private AkubraLowlevelStorage instance;
     private AkubraLowlevelStorage safeInstance;
 
@@ -205,6 +207,33 @@ public class AkubraLowlevelStorageTest {
                      toString(instance.retrieveDatastream(DS_KEY)));
     }
 
+    /** Copying an existing datastream should succeed. */
+    @Test
+    public void testCopyExistingDatastream() throws Exception {
+        instance.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        long size = instance.copyDatastream(DS_KEY, DS_KEY2, null);
+        assertEquals(DS_CONTENT.length(), size);
+        assertEquals(2, toList(instance.listDatastreams()).size());
+        assertEquals(DS_CONTENT,
+                     toString(instance.retrieveDatastream(DS_KEY2)));
+        assertEquals(DS_CONTENT,
+                     toString(instance.retrieveDatastream(DS_KEY)));
+    }
+
+    /** Copying a non-existing datastream should fail. */
+    @Test (expected=ObjectNotInLowlevelStorageException.class)
+    public void testCopyNonExistingDatastream() throws Exception {
+        instance.copyDatastream(DS_KEY, DS_KEY2, null);
+    }
+
+    /** Copying onto an existing datastream should fail. */
+    @Test (expected=ObjectAlreadyInLowlevelStorageException.class)
+    public void testCopyOntoExistingDatastream() throws Exception {
+        instance.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        instance.addDatastream(DS_KEY2, toStream(DS_CONTENT2));
+        instance.copyDatastream(DS_KEY, DS_KEY2, null);
+    }
+
     /** Retrieving an existing object should succeed. */
     @Test
     public void testRetrieveExistingObject() throws Exception {
@@ -10,9 +10,11 @@ import org.junit.runners.Suite;
 
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {TestDOTranslatorImpl.class,
+@Suite.SuiteClasses( {TestDOTranslatorImpl.class, TestLocalURLRewriter.class,
+        TestParallelConvertObjectSerialization.class,
         TestFOXML1_0DOSerializer.class, TestFOXML1_0DODeserializer.class,
         TestFOXML1_1DOSerializer.class, TestFOXML1_1DODeserializer.class,
+        TestFOXML1_1StaxDODeserializer.class,
         TestMETSFedoraExt1_0DOSerializer.class,
         TestMETSFedoraExt1_0DODeserializer.class,
         TestMETSFedoraExt1_1DOSerializer.class,
@@ -29,12 +31,15 @@ public class AllUnitTests {
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
         suite.addTest(TestDOTranslatorImpl.suite());
+        suite.addTest(TestLocalURLRewriter.suite());
+        suite.addTest(TestParallelConvertObjectSerialization.suite());
 
         suite.addTest(TestFOXML1_0DOSerializer.suite());
         suite.addTest(TestFOXML1_0DODeserializer.suite());
 
         suite.addTest(TestFOXML1_1DOSerializer.suite());
         suite.addTest(TestFOXML1_1DODeserializer.suite());
+        suite.addTest(TestFOXML1_1StaxDODeserializer.suite());
 
         suite.addTest(TestMETSFedoraExt1_0DOSerializer.suite());
         suite.addTest(TestMETSFedoraExt1_0DODeserializer.suite());
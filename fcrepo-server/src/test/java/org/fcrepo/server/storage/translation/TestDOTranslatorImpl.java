@@ -8,14 +8,18 @@ package org.fcrepo.server.storage.translation;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import org.fcrepo.server.errors.ObjectIntegrityException;
+import org.fcrepo.server.errors.StreamIOException;
 import org.fcrepo.server.errors.UnsupportedTranslationException;
 import org.fcrepo.server.storage.translation.DODeserializer;
 import org.fcrepo.server.storage.translation.DOSerializer;
@@ -123,6 +127,65 @@ public class TestDOTranslatorImpl {
         }
     }
 
+    @Test
+    public void testSerializerReusedWithinThread() throws Exception {
+        final CountingDOSerializer prototype = new CountingDOSerializer();
+        Map<String, DOSerializer> serializers =
+                new HashMap<String, DOSerializer>();
+        serializers.put(FORMAT_1, prototype);
+        final DOTranslator trans =
+                new DOTranslatorImpl(serializers,
+                                     new HashMap<String, DODeserializer>());
+        final DigitalObject obj = new BasicDigitalObject();
+        obj.setPid(TEST_PID);
+
+        trans.serialize(obj, new ByteArrayOutputStream(), FORMAT_1, "UTF-8", 0);
+        trans.serialize(obj, new ByteArrayOutputStream(), FORMAT_1, "UTF-8", 0);
+        assertEquals(1, prototype.instances.get());
+
+        Thread other = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    trans.serialize(obj,
+                                    new ByteArrayOutputStream(),
+                                    FORMAT_1,
+                                    "UTF-8",
+                                    0);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        other.start();
+        other.join();
+        assertEquals(2, prototype.instances.get());
+    }
+
+    @Test
+    public void testFailedSerializerDiscarded() throws Exception {
+        CountingDOSerializer prototype = new CountingDOSerializer();
+        Map<String, DOSerializer> serializers =
+                new HashMap<String, DOSerializer>();
+        serializers.put(FORMAT_1, prototype);
+        DOTranslator trans =
+                new DOTranslatorImpl(serializers,
+                                     new HashMap<String, DODeserializer>());
+        DigitalObject obj = new BasicDigitalObject();
+
+        // a null pid makes the counting serializer fail
+        try {
+            trans.serialize(obj, new ByteArrayOutputStream(), FORMAT_1, "UTF-8", 0);
+            fail("Serialization should have failed");
+        } catch (ObjectIntegrityException e) {
+            // expected
+        }
+        obj.setPid(TEST_PID);
+        trans.serialize(obj, new ByteArrayOutputStream(), FORMAT_1, "UTF-8", 0);
+        assertEquals(2, prototype.instances.get());
+    }
+
     //---
     // Instance helpers
     //---
@@ -174,6 +237,39 @@ public class TestDOTranslatorImpl {
         }
     }
 
+    /**
+     * A serializer that counts how many instances were created from it.
+     */
+    private static class CountingDOSerializer
+            implements DOSerializer {
+
+        final AtomicInteger instances;
+
+        CountingDOSerializer() {
+            this(new AtomicInteger());
+        }
+
+        private CountingDOSerializer(AtomicInteger instances) {
+            this.instances = instances;
+        }
+
+        public DOSerializer getInstance() {
+            instances.incrementAndGet();
+            return new CountingDOSerializer(instances);
+        }
+
+        public void serialize(DigitalObject obj,
+                              OutputStream out,
+                              String encoding,
+                              int transContext)
+                throws ObjectIntegrityException, StreamIOException,
+                UnsupportedEncodingException {
+            if (obj.getPid() == null) {
+                throw new ObjectIntegrityException("No pid");
+            }
+        }
+    }
+
     // Supports legacy test runners
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(TestDOTranslatorImpl.class);
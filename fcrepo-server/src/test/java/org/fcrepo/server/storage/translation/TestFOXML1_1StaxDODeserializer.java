@@ -0,0 +1,131 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.storage.translation;
+
+import static org.fcrepo.common.Models.CONTENT_MODEL_3_0;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Iterator;
+
+import org.fcrepo.server.storage.types.BasicDigitalObject;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for FOXML1_1StaxDODeserializer.
+ */
+public class TestFOXML1_1StaxDODeserializer
+        extends TestFOXMLDODeserializer {
+
+    public TestFOXML1_1StaxDODeserializer() {
+        // superclass sets protected fields
+        // m_deserializer and m_serializer as given below
+        super(new FOXML1_1StaxDODeserializer(), new FOXML1_1DOSerializer());
+    }
+    
+    //---
+    // Tests
+    //---
+
+    @Test
+    public void testDeserializeSimpleCModelObject() {
+        doSimpleTest(CONTENT_MODEL_3_0);
+    }
+    
+    @Test
+    public void testDeserializeWithAutoChecksum() throws Exception {
+        Datastream.defaultChecksumType = "MD5";
+        Datastream.autoChecksum = true;
+        BasicDigitalObject obj=new BasicDigitalObject();
+        obj.setNew(true);
+        m_deserializer.deserialize(this.getClass().getClassLoader().getResourceAsStream("ecm/dataobject1.xml"), obj, "UTF-8", DOTranslationUtility.DESERIALIZE_INSTANCE);
+        for (Iterator<String> streams=obj.datastreamIdIterator();streams.hasNext();){
+            String id=streams.next();
+            for (Datastream version:obj.datastreams(id)){
+                assertEquals(Datastream.getDefaultChecksumType(), version.DSChecksumType);
+                assertEquals(32, version.getChecksum().length());
+            }
+        }
+    }
+
+    @Test
+    public void testDeserializeWithoutAutoChecksum() throws Exception {
+        Datastream.defaultChecksumType = Datastream.CHECKSUMTYPE_DISABLED;
+        Datastream.autoChecksum = false;
+        BasicDigitalObject obj=new BasicDigitalObject();
+        obj.setNew(true);
+        m_deserializer.deserialize(this.getClass().getClassLoader().getResourceAsStream("ecm/dataobject1.xml"), obj, "UTF-8", DOTranslationUtility.DESERIALIZE_INSTANCE);
+        for (Iterator<String> streams=obj.datastreamIdIterator();streams.hasNext();){
+            String id=streams.next();
+            for (Datastream version:obj.datastreams(id)){
+                assertEquals(version.DatastreamID, Datastream.CHECKSUMTYPE_DISABLED, version.DSChecksumType);
+                assertEquals(version.DatastreamID, Datastream.CHECKSUM_NONE, version.DSChecksum);
+            }
+        }
+    }
+
+    @Test
+    public void testDeserializeTwiceWithSameInstance() throws Exception {
+        Datastream.defaultChecksumType = Datastream.CHECKSUMTYPE_DISABLED;
+        Datastream.autoChecksum = false;
+        for (int i = 0; i < 2; i++) {
+            BasicDigitalObject obj = new BasicDigitalObject();
+            obj.setNew(true);
+            m_deserializer.deserialize(this.getClass().getClassLoader().getResourceAsStream("ecm/dataobject1.xml"), obj, "UTF-8", DOTranslationUtility.DESERIALIZE_INSTANCE);
+            assertTrue(obj.datastreamIdIterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testDeserializeWithUTF8ByteOrderMark() throws Exception {
+        Datastream.defaultChecksumType = Datastream.CHECKSUMTYPE_DISABLED;
+        Datastream.autoChecksum = false;
+        BasicDigitalObject obj = new BasicDigitalObject();
+        obj.setNew(true);
+        InputStream in = new SequenceInputStream(
+                new ByteArrayInputStream(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}),
+                this.getClass().getClassLoader().getResourceAsStream("ecm/dataobject1.xml"));
+        m_deserializer.deserialize(in, obj, "UTF-8", DOTranslationUtility.DESERIALIZE_INSTANCE);
+        assertTrue(obj.datastreamIdIterator().hasNext());
+    }
+
+    @Test
+    public void testDeserializeEmptyXMLContent() throws Exception {
+        String foxml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<foxml:digitalObject VERSION=\"1.1\" PID=\"" + TEST_PID + "\""
+                + " xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">"
+                + "<foxml:objectProperties><foxml:property"
+                + " NAME=\"info:fedora/fedora-system:def/model#state\""
+                + " VALUE=\"A\"/></foxml:objectProperties>"
+                + "<foxml:datastream ID=\"EMPTY\" STATE=\"A\""
+                + " CONTROL_GROUP=\"X\" VERSIONABLE=\"true\">"
+                + "<foxml:datastreamVersion ID=\"EMPTY.0\" MIMETYPE=\"text/xml\""
+                + " LABEL=\"empty\"><foxml:xmlContent/></foxml:datastreamVersion>"
+                + "<foxml:datastreamVersion ID=\"EMPTY.1\" MIMETYPE=\"text/xml\""
+                + " LABEL=\"empty\"><foxml:xmlContent></foxml:xmlContent>"
+                + "</foxml:datastreamVersion></foxml:datastream>"
+                + "</foxml:digitalObject>";
+        BasicDigitalObject obj = new BasicDigitalObject();
+        m_deserializer.deserialize(new ByteArrayInputStream(foxml.getBytes("UTF-8")),
+                                   obj, "UTF-8", DOTranslationUtility.DESERIALIZE_INSTANCE);
+        int versions = 0;
+        for (Datastream version : obj.datastreams("EMPTY")) {
+            assertEquals(0, ((DatastreamXMLMetadata) version).xmlContent.length);
+            versions++;
+        }
+        assertEquals(2, versions);
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestFOXML1_1StaxDODeserializer.class);
+    }
+
+}
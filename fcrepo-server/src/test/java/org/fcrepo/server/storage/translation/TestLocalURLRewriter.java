@@ -0,0 +1,91 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.storage.translation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for LocalURLRewriter.
+ */
+public class TestLocalURLRewriter {
+
+    private LocalURLRewriter m_rewriter;
+
+    @Before
+    public void setUp() {
+        Map<String, String> replacements = new LinkedHashMap<String, String>();
+        replacements.put("http://localhost:8080/fedora/",
+                         "http://local.fedora.server/fedora/");
+        replacements.put("http://localhost:8080/",
+                         "http://local.fedora.server/");
+        m_rewriter = new LocalURLRewriter(replacements);
+    }
+
+    @Test
+    public void testNoMatchReturnsSameArray() throws Exception {
+        byte[] in = "<a href=\"http://localhost:8081/x\"/>".getBytes("UTF-8");
+        assertSame(in, m_rewriter.rewrite(in));
+    }
+
+    @Test
+    public void testLongestMatchWins() throws Exception {
+        String in = "<a>http://localhost:8080/fedora/get/demo:1</a>"
+                + "<b>http://localhost:8080/saxon/</b>";
+        String expected = "<a>http://local.fedora.server/fedora/get/demo:1</a>"
+                + "<b>http://local.fedora.server/saxon/</b>";
+        assertEquals(expected,
+                     new String(m_rewriter.rewrite(in.getBytes("UTF-8")),
+                                "UTF-8"));
+    }
+
+    @Test
+    public void testMultiByteContentIsPreserved() throws Exception {
+        String in = "<t>\u00e9t\u00e9 \u4e2d http://localhost:8080/x \u00e9</t>";
+        String expected =
+                "<t>\u00e9t\u00e9 \u4e2d http://local.fedora.server/x \u00e9</t>";
+        byte[] bytes = in.getBytes("UTF-8");
+        assertEquals(expected, new String(m_rewriter.rewrite(bytes), "UTF-8"));
+
+        StringWriter writer = new StringWriter();
+        m_rewriter.rewrite(bytes, 0, bytes.length, writer);
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testRewriteRange() throws Exception {
+        byte[] bytes = "  http://localhost:8080/fedora/x  ".getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        m_rewriter.rewrite(bytes, 2, bytes.length - 4, out);
+        assertEquals("http://local.fedora.server/fedora/x",
+                     new String(out.toByteArray(), "UTF-8"));
+
+        StringWriter writer = new StringWriter();
+        m_rewriter.rewrite(bytes, 2, bytes.length - 4, writer);
+        assertEquals("http://local.fedora.server/fedora/x", writer.toString());
+    }
+
+    @Test
+    public void testPartialMatchAtEnd() throws Exception {
+        byte[] in = "<a>http://localhost:80".getBytes("UTF-8");
+        assertSame(in, m_rewriter.rewrite(in));
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestLocalURLRewriter.class);
+    }
+
+}
@@ -0,0 +1,154 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.storage.translation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.fcrepo.server.errors.ObjectIntegrityException;
+import org.fcrepo.server.errors.StreamIOException;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for ParallelConvertObjectSerialization.
+ */
+public class TestParallelConvertObjectSerialization {
+
+    private static final int OBJECTS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File m_source;
+
+    private File m_destination;
+
+    @Before
+    public void setUp() throws IOException {
+        m_source = folder.newFolder("source");
+        m_destination = new File(folder.getRoot(), "destination");
+        for (int i = 0; i < OBJECTS; i++) {
+            File dir = new File(m_source, "dir" + (i % 3));
+            dir.mkdirs();
+            write(new File(dir, "obj" + i + ".xml"), "format\ntest:" + i + "\n");
+        }
+        write(new File(m_source, "ignored.txt"), "format\ntest:x\n");
+    }
+
+    @Test
+    public void testConvertDirectory() throws Exception {
+        ParallelConvertObjectSerialization converter = getConverter("xml");
+        assertTrue(converter.convert(m_source, m_destination));
+        assertEquals(OBJECTS, converter.getConvertedCount());
+        assertEquals(0, converter.getFailedCount());
+
+        File out = new File(m_destination, "dir1/obj1.out");
+        assertTrue(out.exists());
+        assertEquals("test:1", FileUtils.readFileToString(out, "UTF-8").trim());
+        assertFalse(new File(m_destination, "ignored.out").exists());
+        assertFalse(new File(m_destination, "dir1/obj1.out.part").exists());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        assertTrue(getConverter("xml").convert(m_source, m_destination));
+
+        File in = new File(m_source, "dir2/obj2.xml");
+        File out = new File(m_destination, "dir2/obj2.out");
+        in.setLastModified(out.lastModified() + 10000);
+
+        ParallelConvertObjectSerialization converter = getConverter("xml");
+        assertTrue(converter.convert(m_source, m_destination));
+        assertEquals(1, converter.getConvertedCount());
+        assertEquals(OBJECTS - 1, converter.getSkippedCount());
+    }
+
+    @Test
+    public void testAnyExtension() throws Exception {
+        ParallelConvertObjectSerialization converter = getConverter("*");
+        assertTrue(converter.convert(m_source, m_destination));
+        assertEquals(OBJECTS + 1, converter.getConvertedCount());
+        assertTrue(new File(m_destination, "ignored.txt.out").exists());
+    }
+
+    @Test
+    public void testErrorFailsOnlyItsFile() throws Exception {
+        write(new File(m_source, "dir0/broken.xml"), "broken\ntest:b\n");
+        ParallelConvertObjectSerialization converter =
+                getConverter(BrokenDODeserializer.class, "xml");
+        assertFalse(converter.convert(m_source, m_destination));
+        assertEquals(OBJECTS, converter.getConvertedCount());
+        assertEquals(1, converter.getFailedCount());
+        assertFalse(new File(m_destination, "dir0/broken.out").exists());
+        assertFalse(new File(m_destination, "dir0/broken.out.part").exists());
+    }
+
+    private static ParallelConvertObjectSerialization getConverter(String inExt) {
+        return getConverter(MockDODeserializer.class, inExt);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ParallelConvertObjectSerialization getConverter(Class<?> deserializer,
+                                                                   String inExt) {
+        Class<?> serializer = MockDOSerializer.class;
+        return new ParallelConvertObjectSerialization((Class<DODeserializer>) deserializer,
+                                                      (Class<DOSerializer>) serializer,
+                                                      false,
+                                                      inExt,
+                                                      "out",
+                                                      4);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Fails with an Error, as a deserializer missing a class would, on
+     * objects whose format is "broken".
+     */
+    public static class BrokenDODeserializer
+            extends MockDODeserializer {
+
+        @Override
+        public void deserialize(InputStream in,
+                                DigitalObject obj,
+                                String encoding,
+                                int transContext) throws ObjectIntegrityException,
+                StreamIOException, UnsupportedEncodingException {
+            super.deserialize(in, obj, encoding, transContext);
+            if ("broken".equals(obj.getLabel())) {
+                throw new NoClassDefFoundError("Broken");
+            }
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestParallelConvertObjectSerialization.class);
+    }
+
+}
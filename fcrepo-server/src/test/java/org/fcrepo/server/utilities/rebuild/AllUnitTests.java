@@ -8,7 +8,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {SQLRebuilderTest.class})
+@Suite.SuiteClasses( {SQLRebuilderTest.class, RebuildCheckpointTest.class})
 public class AllUnitTests {
 
 }
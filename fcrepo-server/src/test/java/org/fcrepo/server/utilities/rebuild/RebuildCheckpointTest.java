@@ -0,0 +1,91 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class RebuildCheckpointTest {
+
+    private File m_file;
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile("rebuild", ".checkpoint");
+        m_file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        assertFalse(new RebuildCheckpoint(m_file).load());
+
+        new RebuildCheckpoint(m_file).save(10000, "demo:1",
+                Arrays.asList("demo:a"));
+        // a later checkpoint replaces the earlier one
+        new RebuildCheckpoint(m_file).save(20000, "demo:2",
+                Collections.<String>emptyList());
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_file);
+        assertTrue(checkpoint.load());
+        assertEquals(20000, checkpoint.getPosition());
+        assertEquals("demo:2", checkpoint.getPID());
+        assertTrue(checkpoint.getFailedPIDs().isEmpty());
+
+        checkpoint.delete();
+        assertFalse(m_file.exists());
+    }
+
+    @Test
+    public void testFailedPIDs() throws Exception {
+        List<String> failed = Arrays.asList("demo:3", "demo:10", "ns:x.y");
+        new RebuildCheckpoint(m_file).save(20000, "demo:2", failed);
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_file);
+        assertTrue(checkpoint.load());
+        assertEquals(failed, checkpoint.getFailedPIDs());
+    }
+
+    /** A checkpoint written before failures were recorded has none. */
+    @Test
+    public void testNoFailedPIDs() throws Exception {
+        FileWriter writer = new FileWriter(m_file);
+        writer.write("position=10000\npid=demo:1\n");
+        writer.close();
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_file);
+        assertTrue(checkpoint.load());
+        assertTrue(checkpoint.getFailedPIDs().isEmpty());
+    }
+
+    @Test
+    public void testNotACheckpoint() throws Exception {
+        FileWriter writer = new FileWriter(m_file);
+        writer.write("position=many\npid=demo:1\n");
+        writer.close();
+        try {
+            new RebuildCheckpoint(m_file).load();
+            fail("Loaded a checkpoint with a bad position");
+        } catch (IOException e) {
+        }
+    }
+
+}
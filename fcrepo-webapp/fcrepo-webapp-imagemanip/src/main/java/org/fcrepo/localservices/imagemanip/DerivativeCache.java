@@ -0,0 +1,193 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.localservices.imagemanip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.fcrepo.utilities.DiskCache;
+
+/**
+ * A bounded cache, on disk, of manipulated images.
+ * <p>
+ * A derivative is keyed by the URL of its source image, the validators (ETag
+ * and Last-Modified) the source was served with, and the manipulation that
+ * produced it, so a derivative of a source that has changed is never found;
+ * it ages out instead. The validators last seen for each source are kept so
+ * that the source can be requested conditionally, and need neither be
+ * downloaded nor decoded while it is unchanged. Derivatives are kept in a
+ * {@link DiskCache}, which removes the least recently used once the cache
+ * exceeds its size, and the derivatives left in the directory by an earlier
+ * cache when it is created. All methods are thread-safe.
+ * </p>
+ */
+public class DerivativeCache {
+
+    /** The number of sources whose validators are remembered. */
+    private static final int MAX_SOURCES = 10000;
+
+    private final DiskCache<String> derivatives;
+
+    private final LinkedHashMap<String, String[]> validators =
+            new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                    return size() > MAX_SOURCES;
+                }
+            };
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param dir
+     *        The directory of the cached derivatives, from which those of
+     *        an earlier cache are removed
+     * @param maxBytes
+     *        The maximum total size of the cached derivatives
+     */
+    public DerivativeCache(File dir, long maxBytes) throws IOException {
+        derivatives = new DiskCache<String>(dir, "derivative", maxBytes,
+                                            maxBytes);
+    }
+
+    /**
+     * Gets the key of a derivative.
+     *
+     * @param url
+     *        The URL of the source image
+     * @param validators
+     *        The ETag and Last-Modified values of the source, either of which
+     *        may be null
+     * @param manipulation
+     *        A canonical description of the manipulation
+     * @return The key
+     */
+    public static String getKey(String url,
+                                String[] validators,
+                                String manipulation) {
+        return DiskCache.getKey(url + "\n" + validators[0] + "\n"
+                + validators[1] + "\n" + manipulation);
+    }
+
+    /**
+     * Gets the ETag and Last-Modified values the source image at the given
+     * URL was last served with.
+     *
+     * @return The values, either of which may be null, or null if the source
+     *         hasn't been seen or had neither.
+     */
+    public synchronized String[] getValidators(String url) {
+        return validators.get(url);
+    }
+
+    /**
+     * Records the ETag and Last-Modified values the source image at the given
+     * URL was served with.
+     */
+    public synchronized void setValidators(String url,
+                                           String etag,
+                                           String lastModified) {
+        if (etag == null && lastModified == null) {
+            validators.remove(url);
+        } else {
+            validators.put(url, new String[] {etag, lastModified});
+        }
+    }
+
+    /**
+     * Gets a cached derivative.
+     *
+     * @return The derivative, or null if it isn't cached.
+     */
+    public Entry get(String key) {
+        DiskCache.Entry<String> entry = derivatives.get(key);
+        return entry == null ? null : new Entry(entry);
+    }
+
+    /**
+     * Opens a cached derivative. Once opened, it can be read to the end even
+     * if it is evicted meanwhile.
+     *
+     * @return The content, or null if the derivative is no longer cached.
+     */
+    public InputStream open(String key, Entry entry) {
+        return derivatives.open(key, entry.stored);
+    }
+
+    /**
+     * Creates a file in the cache's directory, to which a derivative can be
+     * written before it is added with {@link #put(String, File, String)}.
+     */
+    public File newFile() {
+        return derivatives.newFile();
+    }
+
+    /**
+     * Adds a derivative, removing the least recently used ones if the cache is
+     * then too large. A derivative larger than the cache is not added, and its
+     * file is removed.
+     *
+     * @param key
+     *        The key of the derivative
+     * @param file
+     *        A file created by {@link #newFile()}, holding the derivative
+     * @param mimeType
+     *        The MIME type of the derivative
+     */
+    public void put(String key, File file, String mimeType) {
+        derivatives.put(key, file, mimeType);
+    }
+
+    public long getBytes() {
+        return derivatives.getBytes();
+    }
+
+    public long getHits() {
+        return derivatives.getHits();
+    }
+
+    public long getMisses() {
+        return derivatives.getMisses();
+    }
+
+    public long getEvictions() {
+        return derivatives.getEvictions();
+    }
+
+    @Override
+    public String toString() {
+        return "DerivativeCache: " + derivatives.getEntryCount()
+                + " derivatives, " + derivatives.getBytes() + " of "
+                + derivatives.getMaxBytes() + " bytes; "
+                + derivatives.getHits() + " hits, " + derivatives.getMisses()
+                + " misses, " + derivatives.getEvictions() + " evictions";
+    }
+
+    /**
+     * A cached derivative.
+     */
+    public static class Entry {
+
+        private final DiskCache.Entry<String> stored;
+
+        Entry(DiskCache.Entry<String> stored) {
+            this.stored = stored;
+        }
+
+        public String getMimeType() {
+            return stored.getValue();
+        }
+
+        public long getLength() {
+            return stored.getSize();
+        }
+    }
+}
@@ -58,21 +58,37 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.renderable.ParameterBlock;
 import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.media.jai.JAI;
+import javax.media.jai.RenderedOp;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.conn.scheme.PlainSocketFactory;
@@ -98,6 +114,16 @@ import com.sun.media.jai.codec.TIFFEncodeParam;
  * <p>After the image is manipulated, it is then sent back as an image/type
  * object to the calling parent, most often a browser or an HTML img tag.
  * 
+ * <p>Manipulated images are kept in a {@link DerivativeCache}, and while the
+ * source image is unchanged they are served from there without it being
+ * downloaded or decoded again. When an image is resized or zoomed out, it is
+ * decoded at a reduced resolution, and when it is cropped, only the cropped
+ * region is decoded, by Image I/O if it can read its format and otherwise by
+ * JAI. The number of images manipulated at once, and the memory their decoded
+ * pixels may take, are limited; a request that can't start within a while
+ * gets a 503 response, and an image larger than the limit is decoded at a
+ * reduced resolution.
+ * 
  * @author Theodore Serbinski
  */
 public class ImageManipulation
@@ -109,13 +135,31 @@ public class ImageManipulation
             Logger.getLogger(
                 "org.apache.catalina.core.ContainerBase.[Catalina].[localhost]");
 
-    private String inputMimeType;
+    /**
+     * Estimated memory taken by each pixel of a decoded image: the image
+     * itself, ImageJ's copy of it, and the copy that is encoded.
+     */
+    private static final int BYTES_PER_PIXEL = 12;
 
-    private boolean alreadyConvertedToRGB = false;
+    /**
+     * How many times larger than the output a reduced resolution image is
+     * decoded, so that it is still interpolated when resized.
+     */
+    private static final int OVERSAMPLING = 2;
 
     private final PoolingClientConnectionManager cManager =
             getConnectionManager();
 
+    private DerivativeCache cache;
+
+    private Semaphore requests;
+
+    private Semaphore memoryKb;
+
+    private int maxMemoryKb;
+
+    private long waitMillis;
+
     private PoolingClientConnectionManager getConnectionManager() {
         PoolingClientConnectionManager cm =
             new PoolingClientConnectionManager();
@@ -130,8 +174,67 @@ public class ImageManipulation
         return cm;
     }
 
+    /**
+     * Sets up the derivative cache and the limits on concurrent manipulations
+     * from the servlet's init parameters.
+     */
+    @Override
+    public void init() throws ServletException {
+        Runtime runtime = Runtime.getRuntime();
+        requests = new Semaphore(getParameter("maxConcurrentRequests",
+                                              runtime.availableProcessors()),
+                                 true);
+        maxMemoryKb = (int) Math.min(Integer.MAX_VALUE,
+                getParameter("decodeMemoryBytes", runtime.maxMemory() / 2) / 1024);
+        memoryKb = new Semaphore(maxMemoryKb, true);
+        waitMillis = getParameter("waitMillis", 10000);
+        long cacheBytes = getParameter("derivativeCacheBytes", 256L * 1024 * 1024);
+        if (cacheBytes > 0) {
+            File dir;
+            if (getInitParameter("derivativeCacheDir") != null) {
+                dir = new File(getInitParameter("derivativeCacheDir"));
+            } else {
+                File tmp = (File) getServletContext()
+                        .getAttribute("javax.servlet.context.tempdir");
+                if (tmp == null) {
+                    tmp = new File(System.getProperty("java.io.tmpdir"));
+                }
+                dir = new File(tmp, "imagemanip-derivatives");
+            }
+            try {
+                cache = new DerivativeCache(dir, cacheBytes);
+            } catch (IOException e) {
+                throw new ServletException("Can't create derivative cache", e);
+            }
+            LOGGER.info("ImageManipulation: caching up to " + cacheBytes
+                    + " bytes of derivatives in " + dir.getPath());
+        }
+    }
+
+    private long getParameter(String name, long defaultValue)
+            throws ServletException {
+        String value = getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Init parameter " + name
+                    + " must be a number: " + value);
+        }
+    }
+
+    private int getParameter(String name, int defaultValue)
+            throws ServletException {
+        return (int) getParameter(name, (long) defaultValue);
+    }
+
     @Override
     public void destroy() {
+        if (cache != null) {
+            LOGGER.info("ImageManipulation: " + cache);
+        }
         cManager.shutdown();
     }
 
@@ -164,164 +267,509 @@ public class ImageManipulation
         if (convertTo != null) {
             convertTo = convertTo.toLowerCase();
         }
+        HttpGet get = null;
+        InputStream derivative = null;
         try {
             if (op == null) {
                 throw new ServletException("op parameter not specified.");
             }
-            String outputMimeType;
-            // get the image via url and put it into the ImagePlus processor.
-            BufferedImage img = getImage(url);
-            // do watermarking stuff
-            if (op.equals("watermark")) {
-                if (wmText == null) {
-                    throw new ServletException("Must specify wmText.");
+            String manipulation =
+                    "op=" + op + "&newWidth=" + newWidth + "&brightAmt="
+                            + brightAmt + "&zoomAmt=" + zoomAmt + "&wmText="
+                            + wmText + "&cropX=" + cropX + "&cropY=" + cropY
+                            + "&cropWidth=" + cropWidth + "&cropHeight="
+                            + cropHeight + "&convertTo=" + convertTo;
+            get = new HttpGet(url);
+            // if the derivative of the image as it was last seen is cached,
+            // only get the image if it has changed since
+            DerivativeCache.Entry cached = null;
+            String[] validators = cache == null ? null : cache.getValidators(url);
+            if (validators != null) {
+                String key = DerivativeCache.getKey(url, validators, manipulation);
+                cached = cache.get(key);
+                derivative = cached == null ? null : cache.open(key, cached);
+                if (derivative != null) {
+                    if (validators[0] != null) {
+                        get.setHeader(HttpHeaders.IF_NONE_MATCH, validators[0]);
+                    }
+                    if (validators[1] != null) {
+                        get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, validators[1]);
+                    }
                 }
-                Graphics g = img.getGraphics();
-                int fontSize = img.getWidth() * 3 / 100;
-                if (fontSize < 10) {
-                    fontSize = 10;
+            }
+            HttpResponse response = execute(get);
+            if (derivative != null
+                    && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                LOGGER.info("ImageManipulation: serving cached derivative");
+                res.setContentType(cached.getMimeType());
+                res.setContentLength((int) cached.getLength());
+                copy(derivative, res.getOutputStream());
+                return;
+            } else if (derivative != null) {
+                derivative.close();
+                derivative = null;
+            }
+            String inputMimeType = getInputMimeType(url, response);
+            String key = null;
+            if (cache != null) {
+                String etag = getHeader(response, HttpHeaders.ETAG);
+                String lastModified = getHeader(response, HttpHeaders.LAST_MODIFIED);
+                cache.setValidators(url, etag, lastModified);
+                if (etag != null || lastModified != null) {
+                    key = DerivativeCache.getKey(url,
+                                                 new String[] {etag, lastModified},
+                                                 manipulation);
                 }
-                g.setFont(new Font("Lucida Sans", Font.BOLD, fontSize));
-                FontMetrics fm = g.getFontMetrics();
-                int stringWidth =
-                        (int) fm.getStringBounds(wmText, g).getWidth();
-                int x = img.getWidth() / 2 - stringWidth / 2;
-                int y = img.getHeight() - fm.getHeight();
-                g.setColor(new Color(180, 180, 180));
-                g.fill3DRect(x - 10,
-                             y - fm.getHeight() - 4,
-                             stringWidth + 20,
-                             fm.getHeight() + 12,
-                             true);
-                g.setColor(new Color(100, 100, 100));
-                g.drawString(wmText, x + 2, y + 2);
-                g.setColor(new Color(240, 240, 240));
-                g.drawString(wmText, x, y);
             }
-            ImageProcessor ip = new ImagePlus("temp", img).getProcessor();
-            // if the inputMimeType is image/gif, need to convert to RGB in any case
-            if (inputMimeType.equals("image/gif")) {
-                ip = ip.convertToRGB();
-                alreadyConvertedToRGB = true;
+            if (!requests.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                throw new BusyException("Too many images are being manipulated");
             }
-            // causes scale() and resize() to do bilinear interpolation
-            ip.setInterpolate(true);
-            if (!op.equals("convert")) {
-                if (op.equals("resize")) {
-                    ip = resize(ip, newWidth);
-                } else if (op.equals("zoom")) {
-                    ip = zoom(ip, zoomAmt);
-                } else if (op.equals("brightness")) {
-                    ip = brightness(ip, brightAmt);
-                } else if (op.equals("watermark")) {
-                    // this is now taken care of beforehand (see above)
-                } else if (op.equals("grayscale")) {
-                    ip = grayscale(ip);
-                } else if (op.equals("crop")) {
-                    ip = crop(ip, cropX, cropY, cropWidth, cropHeight);
-                } else {
-                    throw new ServletException("Invalid operation: " + op);
+            Decoded decoded = new Decoded();
+            try {
+                String outputMimeType;
+                boolean alreadyConvertedToRGB = false;
+                // get the image via url and put it into the ImagePlus processor.
+                decode(decoded, response.getEntity().getContent(),
+                       inputMimeType, op, newWidth, zoomAmt, cropX, cropY,
+                       cropWidth, cropHeight);
+                BufferedImage img = decoded.image;
+                // do watermarking stuff
+                if (op.equals("watermark")) {
+                    if (wmText == null) {
+                        throw new ServletException("Must specify wmText.");
+                    }
+                    Graphics g = img.getGraphics();
+                    int fontSize = img.getWidth() * 3 / 100;
+                    if (fontSize < 10) {
+                        fontSize = 10;
+                    }
+                    g.setFont(new Font("Lucida Sans", Font.BOLD, fontSize));
+                    FontMetrics fm = g.getFontMetrics();
+                    int stringWidth =
+                            (int) fm.getStringBounds(wmText, g).getWidth();
+                    int x = img.getWidth() / 2 - stringWidth / 2;
+                    int y = img.getHeight() - fm.getHeight();
+                    g.setColor(new Color(180, 180, 180));
+                    g.fill3DRect(x - 10,
+                                 y - fm.getHeight() - 4,
+                                 stringWidth + 20,
+                                 fm.getHeight() + 12,
+                                 true);
+                    g.setColor(new Color(100, 100, 100));
+                    g.drawString(wmText, x + 2, y + 2);
+                    g.setColor(new Color(240, 240, 240));
+                    g.drawString(wmText, x, y);
                 }
-                outputMimeType = inputMimeType;
-            } else {
-                if (convertTo == null) {
-                    throw new ServletException("Neither op nor convertTo was specified.");
+                ImageProcessor ip = new ImagePlus("temp", img).getProcessor();
+                // if the inputMimeType is image/gif, need to convert to RGB in any case
+                if (inputMimeType.equals("image/gif")) {
+                    ip = ip.convertToRGB();
+                    alreadyConvertedToRGB = true;
+                }
+                // causes scale() and resize() to do bilinear interpolation
+                ip.setInterpolate(true);
+                if (!op.equals("convert")) {
+                    if (op.equals("resize")) {
+                        ip = resize(ip, newWidth);
+                    } else if (op.equals("zoom")) {
+                        ip = zoom(ip, zoomAmt, decoded.subsampling);
+                    } else if (op.equals("brightness")) {
+                        ip = brightness(ip, brightAmt);
+                    } else if (op.equals("watermark")) {
+                        // this is now taken care of beforehand (see above)
+                    } else if (op.equals("grayscale")) {
+                        ip = grayscale(ip);
+                    } else if (op.equals("crop")) {
+                        // unless only the region was decoded
+                        if (!decoded.cropped) {
+                            ip = crop(ip, cropX, cropY, cropWidth, cropHeight);
+                        }
+                    } else {
+                        throw new ServletException("Invalid operation: " + op);
+                    }
+                    outputMimeType = inputMimeType;
+                } else {
+                    if (convertTo == null) {
+                        throw new ServletException("Neither op nor convertTo was specified.");
+                    }
+                    if (convertTo.equals("jpg") || convertTo.equals("jpeg")) {
+                        outputMimeType = "image/jpeg";
+                    } else if (convertTo.equals("gif")) {
+                        outputMimeType = "image/gif";
+                    } else if (convertTo.equals("tiff")) {
+                        outputMimeType = "image/tiff";
+                    } else if (convertTo.equals("bmp")) {
+                        outputMimeType = "image/bmp";
+                    } else if (convertTo.equals("png")) {
+                        outputMimeType = "image/png";
+                    } else {
+                        throw new ServletException("Invalid format: " + convertTo);
+                    }
                 }
-                if (convertTo.equals("jpg") || convertTo.equals("jpeg")) {
-                    outputMimeType = "image/jpeg";
-                } else if (convertTo.equals("gif")) {
-                    outputMimeType = "image/gif";
-                } else if (convertTo.equals("tiff")) {
-                    outputMimeType = "image/tiff";
-                } else if (convertTo.equals("bmp")) {
-                    outputMimeType = "image/bmp";
-                } else if (convertTo.equals("png")) {
-                    outputMimeType = "image/png";
+                res.setContentType(outputMimeType);
+                if (key == null) {
+                    BufferedOutputStream out =
+                            new BufferedOutputStream(res.getOutputStream());
+                    outputImage(ip, out, outputMimeType, alreadyConvertedToRGB);
+                    out.flush();
+                    out.close();
                 } else {
-                    throw new ServletException("Invalid format: " + convertTo);
+                    File file = cache.newFile();
+                    try {
+                        BufferedOutputStream out =
+                                new BufferedOutputStream(new FileOutputStream(file));
+                        try {
+                            outputImage(ip, out, outputMimeType,
+                                        alreadyConvertedToRGB);
+                        } finally {
+                            out.close();
+                        }
+                        // open it first, as it isn't kept if it's too large
+                        long length = file.length();
+                        derivative = new FileInputStream(file);
+                        cache.put(key, file, outputMimeType);
+                        res.setContentLength((int) length);
+                    } catch (Exception e) {
+                        file.delete();
+                        throw e;
+                    }
+                    copy(derivative, res.getOutputStream());
                 }
+            } finally {
+                memoryKb.release(decoded.reservedKb);
+                requests.release();
             }
-            res.setContentType(outputMimeType);
-            BufferedOutputStream out =
-                    new BufferedOutputStream(res.getOutputStream());
-            outputImage(ip, out, outputMimeType);
-            out.flush();
-            out.close();
+        } catch (BusyException e) {
+            LOGGER.warning("ImageManipulation: " + e.getMessage());
+            res.setHeader("Retry-After", "1");
+            res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e
+                    .getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e
                     .getClass().getName()
                     + ": " + e.getMessage());
+        } finally {
+            if (derivative != null) {
+                derivative.close();
+            }
+            if (get != null) {
+                get.releaseConnection();
+            }
         }
     }
 
     /**
-     * Gets and deserializes the image at the given URL into an Image object.
-     * This method also sets the inputMimeType based on the HTTP Content-Type
-     * header so that, if the image needs to be returned in it's original
-     * format, the correct mime type can be sent in the response header. If the
-     * input image is not a gif, jpg, tiff, bmp, or png (according to the http
-     * response header), or some other kind of error occurs while reading the
-     * stream from the remote host, a ServletException is thrown.
-     * 
-     * @param url
-     *        The location of the input image.
-     * @return Image The image object, if successful.
-     * @throws Exception
-     *         If any of the aforementioned problems occurs.
+     * Gets the image at the given URL. If the request is conditional and the
+     * image hasn't been modified, the response has no content, and otherwise
+     * it must be OK.
      */
-    private BufferedImage getImage(String url) throws Exception {
-        HttpGet get = null;
-        LOGGER.info("ImageManipulation: GET " + url);
+    HttpResponse execute(HttpGet get) throws Exception {
+        LOGGER.info("ImageManipulation: GET " + get.getURI());
         try {
             DefaultHttpClient client = new DefaultHttpClient(cManager);
             client.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 20000);
-            get = new HttpGet(url);
             client.getParams().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, true);
             HttpResponse response = client.execute(get);
             int resultCode = response.getStatusLine().getStatusCode();
-            if (resultCode != 200) {
-                throw new ServletException("Could not load image: " + url
+            if (resultCode != HttpStatus.SC_OK
+                    && (resultCode != HttpStatus.SC_NOT_MODIFIED
+                            || get.getFirstHeader(HttpHeaders.IF_NONE_MATCH) == null
+                            && get.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE) == null)) {
+                throw new ServletException("Could not load image: " + get.getURI()
                         + ".  Errorcode " + resultCode + " from remote server.");
             }
             LOGGER.info("ImageManipulation: STATUS " + resultCode);
-            inputMimeType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE).getValue();
-            LOGGER.info("ImageManipulation: Content-Type " + inputMimeType);
-            if (inputMimeType.equals("image/gif")
-                    || inputMimeType.equals("image/jpeg")
-                    || inputMimeType.equals("image/tiff")
-                    || inputMimeType.equals("image/bmp")
-                    || inputMimeType.equals("image/x-ms-bmp")
-                    || inputMimeType.equals("image/x-bitmap")
-                    || inputMimeType.equals("image/png")) {
-                if (inputMimeType.endsWith("p")) {
-                    inputMimeType = "image/bmp"; // windows bitmaps are most
-                }
-                // commonly supported with this
-                // mime type, even though it's not
-                // an IANA-registered image type
-                return JAI.create("stream",
-                                  new MemoryCacheSeekableStream(response
-                                          .getEntity().getContent()))
-                        .getAsBufferedImage();
-            } else {
-                throw new ServletException("Source image was not a gif, png, "
-                        + "bmp, tiff, or jpg.");
-            }
+            return response;
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
             throw e;
-        } finally {
-            if (get != null) {
-                get.releaseConnection();
+        }
+    }
+
+    /**
+     * Gets the MIME type of the image in the given response, based on the
+     * HTTP Content-Type header so that, if the image needs to be returned in
+     * it's original format, the correct mime type can be sent in the response
+     * header. If the input image is not a gif, jpg, tiff, bmp, or png
+     * (according to the http response header), a ServletException is thrown.
+     */
+    private String getInputMimeType(String url, HttpResponse response)
+            throws ServletException {
+        String inputMimeType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE).getValue();
+        LOGGER.info("ImageManipulation: Content-Type " + inputMimeType);
+        if (inputMimeType.equals("image/gif")
+                || inputMimeType.equals("image/jpeg")
+                || inputMimeType.equals("image/tiff")
+                || inputMimeType.equals("image/bmp")
+                || inputMimeType.equals("image/x-ms-bmp")
+                || inputMimeType.equals("image/x-bitmap")
+                || inputMimeType.equals("image/png")) {
+            if (inputMimeType.endsWith("p")) {
+                inputMimeType = "image/bmp"; // windows bitmaps are most
+            }
+            // commonly supported with this
+            // mime type, even though it's not
+            // an IANA-registered image type
+            return inputMimeType;
+        } else {
+            LOGGER.severe("Source image " + url + " was not a gif, png, bmp, "
+                    + "tiff, or jpg.");
+            throw new ServletException("Source image was not a gif, png, "
+                    + "bmp, tiff, or jpg.");
+        }
+    }
+
+    private static String getHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * Decodes an image, reserving memory for its pixels, which the caller
+     * must release even if decoding fails. If the image is to
+     * be resized or zoomed out, it is decoded at a reduced resolution, and if
+     * it is to be cropped, only the cropped region is decoded. Image I/O
+     * decodes the formats it can read; JAI decodes the others, TIFF among
+     * them on older JVMs, a tile or strip at a time. An image whose pixels
+     * would take more than all the memory allowed is decoded subsampled until
+     * it fits, rather than refused.
+     * 
+     * @throws BusyException
+     *         If the memory for the pixels doesn't become available in time
+     */
+    private void decode(Decoded decoded,
+                        InputStream in,
+                        String mimeType,
+                        String op,
+                        String newWidth,
+                        String zoomAmt,
+                        String cropX,
+                        String cropY,
+                        String cropWidth,
+                        String cropHeight) throws Exception {
+        Iterator<ImageReader> readers =
+                ImageIO.getImageReadersByMIMEType(mimeType);
+        ImageInputStream iis = null;
+        if ((op.equals("resize") || op.equals("zoom") || op.equals("crop"))
+                && readers.hasNext()) {
+            iis = ImageIO.createImageInputStream(in);
+        }
+        if (iis != null) {
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                Rectangle region = null;
+                if (op.equals("crop")) {
+                    region = getRegion(width, height, cropX, cropY, cropWidth,
+                                       cropHeight);
+                }
+                int s = 1;
+                if (region != null) {
+                    param.setSourceRegion(region);
+                    width = region.width;
+                    height = region.height;
+                    decoded.cropped = true;
+                } else {
+                    s = getSubsampling(width, op, newWidth, zoomAmt);
+                }
+                s = subsampleToFit(width, height, s);
+                if (s > 1) {
+                    param.setSourceSubsampling(s, s, 0, 0);
+                    width = (width + s - 1) / s;
+                    height = (height + s - 1) / s;
+                    decoded.subsampling = s;
+                }
+                LOGGER.info("ImageManipulation: decoding " + width + "x"
+                        + height + " pixels, subsampled by "
+                        + decoded.subsampling);
+                reserve(decoded, width, height);
+                decoded.image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+                iis.close();
+            }
+        } else {
+            // JAI decodes lazily, so the size is known before the pixels are,
+            // and the operations below only pull the tiles they need
+            RenderedOp image =
+                    JAI.create("stream", new MemoryCacheSeekableStream(in));
+            int width = image.getWidth();
+            int height = image.getHeight();
+            Rectangle region = null;
+            if (op.equals("crop")) {
+                region = getRegion(width, height, cropX, cropY, cropWidth,
+                                   cropHeight);
+            }
+            int s = 1;
+            if (region != null) {
+                ParameterBlock crop = new ParameterBlock();
+                crop.addSource(image);
+                crop.add((float) region.x).add((float) region.y);
+                crop.add((float) region.width).add((float) region.height);
+                ParameterBlock translate = new ParameterBlock();
+                translate.addSource(JAI.create("crop", crop));
+                translate.add((float) -region.x).add((float) -region.y);
+                image = JAI.create("translate", translate);
+                width = region.width;
+                height = region.height;
+                decoded.cropped = true;
+            } else {
+                s = getSubsampling(width, op, newWidth, zoomAmt);
+            }
+            s = subsampleToFit(width, height, s);
+            if (s > 1) {
+                // averages each s by s block of the source into one pixel
+                ParameterBlock subsample = new ParameterBlock();
+                subsample.addSource(image);
+                subsample.add(1.0 / s).add(1.0 / s);
+                image = JAI.create("subsampleaverage", subsample);
+                width = image.getWidth();
+                height = image.getHeight();
+                decoded.subsampling = s;
+            }
+            LOGGER.info("ImageManipulation: decoding " + width + "x" + height
+                    + " pixels with JAI, subsampled by " + decoded.subsampling);
+            reserve(decoded, width, height);
+            decoded.image = image.getAsBufferedImage();
+        }
+    }
+
+    /**
+     * Reserves the memory the given number of pixels take, waiting for it if
+     * other images are taking it.
+     */
+    private void reserve(Decoded decoded, int width, int height)
+            throws ServletException, InterruptedException {
+        long kb = getKb(width, height);
+        if (kb > maxMemoryKb) {
+            // only when less than a pixel's worth is allowed
+            throw new ServletException("Image too large: " + width + "x"
+                    + height + " pixels");
+        }
+        if (!memoryKb.tryAcquire((int) kb, waitMillis, TimeUnit.MILLISECONDS)) {
+            throw new BusyException("Not enough memory to manipulate a "
+                    + width + "x" + height + " image");
+        }
+        decoded.reservedKb = (int) kb;
+    }
+
+    /**
+     * Gets the subsampling at which an image of the given size fits in the
+     * memory allowed, if it is more than the given one.
+     */
+    private int subsampleToFit(int width, int height, int s) {
+        int fitted = fitSubsampling(width, height, s, maxMemoryKb);
+        if (fitted > s) {
+            LOGGER.warning("ImageManipulation: a " + width + "x" + height
+                    + " image is too large to decode at full resolution;"
+                    + " subsampling it by " + fitted);
+        }
+        return fitted;
+    }
+
+    /**
+     * Gets the memory, in kilobytes, a decoded image of the given size takes
+     * while it is manipulated.
+     */
+    static long getKb(long width, long height) {
+        return (width * height * BYTES_PER_PIXEL + 1023) / 1024;
+    }
+
+    /**
+     * Gets the least subsampling, no less than the given one, at which an
+     * image of the given size takes no more than the given memory when it is
+     * decoded.
+     */
+    static int fitSubsampling(int width, int height, int s, int maxKb) {
+        if (getKb(width, height) > maxKb) {
+            // a first guess, which rounding may leave a little short
+            double ratio = (double) getKb(width, height) / Math.max(1, maxKb);
+            s = Math.max(s, (int) Math.sqrt(ratio));
+        }
+        int max = Math.max(1, Math.max(width, height));
+        while (s < max
+                && getKb((width + s - 1) / s, (height + s - 1) / s) > maxKb) {
+            s++;
+        }
+        return s;
+    }
+
+    /**
+     * Gets how much an image of the given width can be subsampled when it is
+     * decoded, so that it is still at least {@link #OVERSAMPLING} times the
+     * size it is to be resized or zoomed out to.
+     */
+    static int getSubsampling(int width,
+                                      String op,
+                                      String newWidth,
+                                      String zoomAmt) {
+        try {
+            double scale;
+            if (op.equals("resize") && newWidth != null) {
+                scale = (double) Integer.parseInt(newWidth) / width;
+            } else if (op.equals("zoom") && zoomAmt != null) {
+                scale = Float.parseFloat(zoomAmt);
+            } else {
+                return 1;
+            }
+            if (scale <= 0) {
+                return 1;
             }
+            return Math.max(1, (int) (1 / (scale * OVERSAMPLING)));
+        } catch (NumberFormatException e) {
+            return 1;
         }
+    }
 
+    /**
+     * Gets the region of an image of the given size to which it is to be
+     * cropped, as {@link #crop(ImageProcessor, String, String, String, String)}
+     * would, or null if the crop would leave the image as it is.
+     */
+    static Rectangle getRegion(int width,
+                                       int height,
+                                       String cropX,
+                                       String cropY,
+                                       String cropWidth,
+                                       String cropHeight) {
+        if (cropX == null || cropY == null) {
+            return null;
+        }
+        try {
+            int x = Integer.parseInt(cropX);
+            int y = Integer.parseInt(cropY);
+            int w = cropWidth != null ? Integer.parseInt(cropWidth) : width;
+            int h = cropHeight != null ? Integer.parseInt(cropHeight) : height;
+            if (x < 0 || y < 0 || w < 0 || h < 0) {
+                return null;
+            }
+            Rectangle region =
+                    new Rectangle(x, y, w, h).intersection(new Rectangle(width,
+                                                                         height));
+            return region.isEmpty() ? null : region;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out)
+            throws IOException {
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) > 0) {
+            out.write(buf, 0, len);
+        }
+        out.flush();
     }
 
     private void outputImage(ImageProcessor ip,
                              OutputStream out,
-                             String outputMimeType) throws Exception {
+                             String outputMimeType,
+                             boolean alreadyConvertedToRGB) throws Exception {
         if (outputMimeType.equals("image/gif")) {
             if (!alreadyConvertedToRGB) {
                 ip = ip.convertToRGB();
@@ -362,6 +810,7 @@ public class ImageManipulation
         }
     }
 
+
     /**
      * Resizes an image to the supplied new width in pixels. The height is
      * reduced proportionally to the new width.
@@ -401,10 +850,13 @@ public class ImageManipulation
      * @param ip
      *        The image to zoom zoomAmt The amount to zoom the image. 0 <
      *        zoomAmt < 1 : zoom out 1 = zoomAmt : original image 1 < zoomAmt :
-     *        zoom in
+     *        zoom in subsampling How much the image was subsampled when it
+     *        was decoded
      * @return The image zoomed
      */
-    private ImageProcessor zoom(ImageProcessor ip, String zoomAmt) {
+    private ImageProcessor zoom(ImageProcessor ip,
+                                String zoomAmt,
+                                int subsampling) {
         if (zoomAmt != null) {
             try {
                 float zoom = Float.parseFloat(zoomAmt);
@@ -413,6 +865,9 @@ public class ImageManipulation
                     return ip;
                 }
 
+                // the image is already smaller by the subsampling
+                zoom *= subsampling;
+
                 ip.scale(zoom, zoom);
 
                 // if the image is being zoomed out, trim the extra whitespace around the image
@@ -538,4 +993,35 @@ public class ImageManipulation
 
         return ip;
     }
+
+    /**
+     * An image decoded by {@link ImageManipulation#decode}.
+     */
+    private static class Decoded {
+
+        private BufferedImage image;
+
+        /** How much the image was subsampled in each direction. */
+        private int subsampling = 1;
+
+        /** Whether only the region to crop to was decoded. */
+        private boolean cropped;
+
+        /** The memory reserved for the image, in kilobytes. */
+        private int reservedKb;
+    }
+
+    /**
+     * Signals that an image could not be manipulated yet, because too many
+     * others are.
+     */
+    private static class BusyException
+            extends ServletException {
+
+        private static final long serialVersionUID = 1L;
+
+        BusyException(String message) {
+            super(message);
+        }
+    }
 }
@@ -0,0 +1,24 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.localservices.imagemanip;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses( {org.fcrepo.localservices.imagemanip.TestDerivativeCache.class,
+                       org.fcrepo.localservices.imagemanip.TestImageManipulation.class} )
+public class AllUnitTests {
+
+    // Supports legacy tests runners
+    public static junit.framework.Test suite() throws Exception {
+        junit.framework.TestSuite suite =
+                new junit.framework.TestSuite(AllUnitTests.class.getName());
+        suite.addTest(org.fcrepo.localservices.imagemanip.TestDerivativeCache.suite());
+        suite.addTest(org.fcrepo.localservices.imagemanip.TestImageManipulation.suite());
+        return suite;
+    }
+}
@@ -0,0 +1,158 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.localservices.imagemanip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestDerivativeCache {
+
+    private static final String URL = "http://example.org/image.jpg";
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("derivativeCache", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testKeys() {
+        String[] v1 = new String[] {"\"a\"", null};
+        String[] v2 = new String[] {"\"b\"", null};
+        String key = DerivativeCache.getKey(URL, v1, "op=resize&newWidth=10");
+        assertEquals(key, DerivativeCache.getKey(URL, new String[] {"\"a\"",
+                null}, "op=resize&newWidth=10"));
+        assertFalse(key.equals(DerivativeCache.getKey(URL, v2,
+                                                      "op=resize&newWidth=10")));
+        assertFalse(key.equals(DerivativeCache.getKey(URL, v1,
+                                                      "op=resize&newWidth=20")));
+        assertFalse(key.equals(DerivativeCache.getKey(URL + "?x", v1,
+                                                      "op=resize&newWidth=10")));
+    }
+
+    @Test
+    public void testValidators() throws IOException {
+        DerivativeCache cache = new DerivativeCache(dir, 100);
+        assertNull(cache.getValidators(URL));
+        cache.setValidators(URL, "\"a\"", null);
+        assertArrayEquals(new String[] {"\"a\"", null},
+                          cache.getValidators(URL));
+        cache.setValidators(URL, null, "Mon, 01 Jan 2001 00:00:00 GMT");
+        assertArrayEquals(new String[] {null, "Mon, 01 Jan 2001 00:00:00 GMT"},
+                          cache.getValidators(URL));
+        cache.setValidators(URL, null, null);
+        assertNull(cache.getValidators(URL));
+    }
+
+    @Test
+    public void testPutAndOpen() throws IOException {
+        DerivativeCache cache = new DerivativeCache(dir, 100);
+        String key = DerivativeCache.getKey(URL, new String[] {"\"a\"", null},
+                                            "op=grayscale");
+        assertNull(cache.get(key));
+        cache.put(key, write(cache.newFile(), "derived"), "image/png");
+
+        DerivativeCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertEquals("image/png", entry.getMimeType());
+        assertEquals(7, entry.getLength());
+        assertEquals("derived", read(cache.open(key, entry)));
+        assertEquals(7, cache.getBytes());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        DerivativeCache cache = new DerivativeCache(dir, 10);
+        String[] validators = new String[] {"\"a\"", null};
+        String first = DerivativeCache.getKey(URL, validators, "first");
+        String second = DerivativeCache.getKey(URL, validators, "second");
+        String large = DerivativeCache.getKey(URL, validators, "large");
+        cache.put(first, write(cache.newFile(), "123456"), "image/png");
+        cache.put(second, write(cache.newFile(), "123456"), "image/png");
+        assertNull(cache.get(first));
+        assertNotNull(cache.get(second));
+        assertEquals(1, cache.getEvictions());
+
+        // larger than the whole cache, so not kept
+        File file = write(cache.newFile(), "12345678901");
+        cache.put(large, file, "image/png");
+        assertNull(cache.get(large));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testEarlierDerivativesRemoved() throws IOException {
+        DerivativeCache cache = new DerivativeCache(dir, 100);
+        String key = DerivativeCache.getKey(URL, new String[] {"\"a\"", null},
+                                            "op=grayscale");
+        File file = write(cache.newFile(), "derived");
+        cache.put(key, file, "image/png");
+        File other = new File(dir, "other.txt");
+        write(other, "kept");
+
+        cache = new DerivativeCache(dir, 100);
+        assertNull(cache.get(key));
+        assertFalse(file.exists());
+        assertEquals("kept", read(new FileInputStream(other)));
+    }
+
+    private static File write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[256];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestDerivativeCache.class);
+    }
+}
@@ -0,0 +1,184 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.localservices.imagemanip;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.servlet.ServletException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestImageManipulation {
+
+    private HttpServer server;
+
+    private String url;
+
+    private ImageManipulation servlet;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // an image that is unchanged while the client has its ETag
+        server.createContext("/image.png", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Content-Type", "image/png");
+                if ("\"v1\"".equals(exchange.getRequestHeaders()
+                        .getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] body = new byte[] {1, 2, 3};
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.createContext("/missing.png", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+        servlet = new ImageManipulation();
+    }
+
+    @After
+    public void tearDown() {
+        servlet.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        HttpGet get = new HttpGet(url + "/image.png");
+        HttpResponse response = servlet.execute(get);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("\"v1\"", response.getFirstHeader(HttpHeaders.ETAG)
+                .getValue());
+        get.releaseConnection();
+
+        get = new HttpGet(url + "/image.png");
+        get.setHeader(HttpHeaders.IF_NONE_MATCH, "\"v1\"");
+        response = servlet.execute(get);
+        assertEquals(304, response.getStatusLine().getStatusCode());
+        get.releaseConnection();
+
+        get = new HttpGet(url + "/image.png");
+        get.setHeader(HttpHeaders.IF_NONE_MATCH, "\"v0\"");
+        response = servlet.execute(get);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        get.releaseConnection();
+    }
+
+    @Test
+    public void testGetFailure() throws Exception {
+        HttpGet get = new HttpGet(url + "/missing.png");
+        try {
+            servlet.execute(get);
+            fail("Expected the missing image to fail");
+        } catch (ServletException e) {
+            assertTrue(e.getMessage().indexOf("404") != -1);
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    @Test
+    public void testGetSubsampling() {
+        // at least twice the size it is resized to
+        assertEquals(5, ImageManipulation.getSubsampling(10000, "resize",
+                                                         "1000", null));
+        assertEquals(1, ImageManipulation.getSubsampling(1000, "resize",
+                                                         "600", null));
+        assertEquals(1, ImageManipulation.getSubsampling(1000, "resize",
+                                                         "2000", null));
+        assertEquals(4, ImageManipulation.getSubsampling(1000, "zoom", null,
+                                                         "0.125"));
+        assertEquals(1, ImageManipulation.getSubsampling(1000, "zoom", null,
+                                                         "2"));
+        assertEquals(1, ImageManipulation.getSubsampling(1000, "resize",
+                                                         "x", null));
+        assertEquals(1, ImageManipulation.getSubsampling(1000, "resize",
+                                                         "0", null));
+        assertEquals(1, ImageManipulation.getSubsampling(1000, "resize",
+                                                         null, null));
+        assertEquals(1, ImageManipulation.getSubsampling(1000, "grayscale",
+                                                         "10", null));
+    }
+
+    @Test
+    public void testGetRegion() {
+        assertEquals(new Rectangle(10, 20, 30, 40),
+                     ImageManipulation.getRegion(100, 100, "10", "20", "30",
+                                                 "40"));
+        // clipped to the image
+        assertEquals(new Rectangle(90, 80, 10, 20),
+                     ImageManipulation.getRegion(100, 100, "90", "80", "30",
+                                                 "40"));
+        // to the edges of the image if no size is given
+        assertEquals(new Rectangle(10, 20, 90, 80),
+                     ImageManipulation.getRegion(100, 100, "10", "20", null,
+                                                 null));
+        assertNull(ImageManipulation.getRegion(100, 100, null, "20", "30",
+                                               "40"));
+        assertNull(ImageManipulation.getRegion(100, 100, "-1", "20", "30",
+                                               "40"));
+        assertNull(ImageManipulation.getRegion(100, 100, "x", "20", "30",
+                                               "40"));
+        assertNull(ImageManipulation.getRegion(100, 100, "200", "20", "30",
+                                               "40"));
+    }
+
+    @Test
+    public void testFitSubsampling() {
+        // 12 bytes a pixel
+        assertEquals(12, ImageManipulation.getKb(32, 32));
+        assertEquals(1, ImageManipulation.fitSubsampling(32, 32, 1, 12));
+        assertEquals(3, ImageManipulation.fitSubsampling(32, 32, 3, 12));
+        assertEquals(2, ImageManipulation.fitSubsampling(32, 32, 1, 11));
+
+        // a 200 megapixel image, in 64 MB
+        int s = ImageManipulation.fitSubsampling(20000, 10000, 1, 65536);
+        assertTrue(ImageManipulation.getKb((20000 + s - 1) / s,
+                                           (10000 + s - 1) / s) <= 65536);
+        assertTrue(ImageManipulation.getKb((20000 + s - 2) / (s - 1),
+                                           (10000 + s - 2) / (s - 1)) > 65536);
+
+        // the least it can be subsampled to is a pixel
+        assertEquals(100, ImageManipulation.fitSubsampling(100, 50, 1, 0));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestImageManipulation.class);
+    }
+}